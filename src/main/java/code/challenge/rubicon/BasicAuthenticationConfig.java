@@ -1,5 +1,8 @@
 package code.challenge.rubicon;
 
+import java.time.Clock;
+import java.time.Duration;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpMethod;
@@ -8,7 +11,8 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+
+import code.challenge.rubicon.security.CachingPasswordEncoder;
 
 /**
  * This class sets up Spring security. For this exercise, we create only 1 user
@@ -25,6 +29,12 @@ public class BasicAuthenticationConfig extends WebSecurityConfigurerAdapter {
     @Value("${tempcredential.password:password}")
     private String password;
 
+    // Successful password checks are remembered for this long. 0s disables it.
+    @Value("${waterorder.auth.credential-cache.ttl:5m}")
+    private Duration credentialCacheTtl;
+    @Value("${waterorder.auth.credential-cache.max-size:1000}")
+    private int credentialCacheMaxSize;
+
     // Create 1 user just for exercise
     @Override
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
@@ -32,16 +42,21 @@ public class BasicAuthenticationConfig extends WebSecurityConfigurerAdapter {
                 .roles(this.farmerRole);
     }
 
+    // BCrypt is checked once per client and then the result is cached for a
+    // while, rather than hashing on every request.
     @Bean
-    public PasswordEncoder encoder() {
-        return new BCryptPasswordEncoder();
+    public CachingPasswordEncoder encoder() {
+        return new CachingPasswordEncoder(new BCryptPasswordEncoder(), this.credentialCacheTtl,
+                this.credentialCacheMaxSize, Clock.systemUTC());
     }
 
     @Override
     protected void configure(HttpSecurity http) throws Exception {
         http.httpBasic().and().authorizeRequests().antMatchers(HttpMethod.POST, "/waterorders").hasRole(this.farmerRole)
+                .antMatchers(HttpMethod.POST, "/waterorders/**").hasRole(this.farmerRole)
                 .antMatchers(HttpMethod.PUT, "/waterorders/**").hasRole(this.farmerRole)
-                .antMatchers(HttpMethod.GET, "/waterorders/**").hasRole(this.farmerRole).and().csrf().disable()
+                .antMatchers(HttpMethod.GET, "/waterorders/**").hasRole(this.farmerRole)
+                .antMatchers("/actuator/**").hasRole(this.farmerRole).and().csrf().disable()
                 .formLogin().disable();
     }
 }
@@ -0,0 +1,108 @@
+package code.challenge.rubicon.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded cache whose entries expire after a fixed time to live. When the
+ * cache is full, the least recently used entry is evicted. Expired entries are
+ * dropped when they're looked up or evicted.
+ *
+ * Every access synchronizes on the cache.
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final long timeToLiveMillis;
+    private final Clock clock;
+
+    // Entries in access order. The eldest is the least recently used.
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private long evictionCount;
+
+    /**
+     * @param maxSize    Maximum number of entries.
+     * @param timeToLive How long an entry is kept after it's put.
+     * @param clock      Clock to tell when entries expire.
+     */
+    public ExpiringLruCache(int maxSize, Duration timeToLive, Clock clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive. maxSize: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLive.toMillis();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxSize) {
+                    ExpiringLruCache.this.evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the value for the key, or null if there's none or it has expired.
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= this.clock.millis()) {
+            this.entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Put the value for the key. Its time to live starts now.
+     */
+    public synchronized void put(K key, V value) {
+        this.entries.put(key, new CacheEntry<>(value, this.clock.millis() + this.timeToLiveMillis));
+    }
+
+    /**
+     * Remove the value for the key.
+     *
+     * @return Removed value, or null if there's none or it has expired.
+     */
+    public synchronized V remove(K key) {
+        CacheEntry<V> entry = this.entries.remove(key);
+        return entry == null || entry.expiresAt <= this.clock.millis() ? null : entry.value;
+    }
+
+    /**
+     * Number of entries including expired ones not dropped yet.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Number of entries evicted to keep the cache within its size.
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    private static class CacheEntry<V> {
+        private final V value;
+        // Epoch millis when this entry expires.
+        private final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package code.challenge.rubicon.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Cache of serialized responses of farm orders, so that a farm's orders are
+ * serialized once per change rather than once per request. Most farms change
+ * only a few times a day while they're read much more often.
+ *
+ * A response is cached with the version of the farm's orders it was made of.
+ * It's only returned for the same version, and dropped when it's looked up
+ * with a newer one. A reader still holding an older version neither drops
+ * nor replaces the response of a newer one. Since the version changes with
+ * every write to the farm, including status updates by the delivery
+ * scheduler, a cached response is never older than the farm's orders.
+ *
+ * Requests missing the cache at the same time for the same farm and version
+ * share one serialization rather than each making its own, e.g. when a
+ * delivery window opens and every client of a farm polls at once.
+ */
+@Component
+public class FarmOrdersResponseCache implements MeterBinder {
+
+    // Responses by farm id. Null if caching is disabled.
+    private final ExpiringLruCache<String, VersionedResponse> responses;
+
+    // Serializations running, by version and farm id.
+    private final SingleFlight<String, byte[]> serializations = new SingleFlight<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param timeToLive How long a response is kept, even if the farm doesn't
+     *                   change. Zero disables caching.
+     * @param maxSize    Maximum number of farms whose response is kept.
+     */
+    public FarmOrdersResponseCache(@Value("${waterorder.response-cache.ttl:1h}") Duration timeToLive,
+            @Value("${waterorder.response-cache.max-size:1000}") int maxSize, Optional<Clock> clock) {
+        this.responses = timeToLive.isZero() ? null
+                : new ExpiringLruCache<>(maxSize, timeToLive, clock.orElseGet(Clock::systemUTC));
+    }
+
+    /**
+     * Return the response cached for given farm and version.
+     *
+     * @return Serialized response, or null if there's none of the version.
+     */
+    public byte[] get(String farmId, long version) {
+        if (this.responses == null) {
+            return null;
+        }
+        VersionedResponse response = this.responses.get(farmId);
+        if (response != null && response.version == version) {
+            this.hitCount.incrementAndGet();
+            return response.body;
+        }
+        if (response != null && response.version < version) {
+            // Made of orders which have changed since. Only dropped if no
+            // newer response has been put meanwhile.
+            synchronized(this.responses) {
+                if (this.responses.get(farmId) == response) {
+                    this.responses.remove(farmId);
+                }
+            }
+        }
+        this.missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Return the response cached for given farm and version, or make it with
+     * given serializer and cache it. Callers of the same farm and version
+     * share a serializer already running.
+     *
+     * @param version    Version of the farm's orders read before the
+     *                   serializer reads them.
+     * @param serializer Makes the response of the farm's orders.
+     */
+    public <E extends Exception> byte[] getOrCreate(String farmId, long version,
+            SingleFlight.Computation<byte[], E> serializer) throws E {
+        byte[] body = this.get(farmId, version);
+        if (body != null) {
+            return body;
+        }
+        return this.serializations.execute(version + ":" + farmId, () -> {
+            byte[] createdBody = serializer.compute();
+            this.put(farmId, version, createdBody);
+            return createdBody;
+        });
+    }
+
+    /**
+     * Cache the response made of given farm's orders as of given version. The
+     * version must have been read before the orders. A response of a newer
+     * version already cached is kept instead.
+     */
+    public void put(String farmId, long version, byte[] body) {
+        if (this.responses == null) {
+            return;
+        }
+        // The cache synchronizes every access on itself, so nothing is put
+        // between the check and the put.
+        synchronized(this.responses) {
+            VersionedResponse response = this.responses.get(farmId);
+            if (response == null || response.version <= version) {
+                this.responses.put(farmId, new VersionedResponse(version, body));
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Number of misses that shared another request's serialization.
+     */
+    public long getSharedCount() {
+        return this.serializations.getSharedCount();
+    }
+
+    /**
+     * Publish cache hits, misses, evictions and size, and shared
+     * serializations. Hit rate is hits over hits and misses.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("waterorder.response.cache.shared", this, FarmOrdersResponseCache::getSharedCount)
+                .description("Farm orders sharing a serialization already running").register(registry);
+        if (this.responses == null) {
+            return;
+        }
+        FunctionCounter.builder("waterorder.response.cache", this, FarmOrdersResponseCache::getHitCount)
+                .tag("result", "hit").description("Farm orders answered from the response cache")
+                .register(registry);
+        FunctionCounter.builder("waterorder.response.cache", this, FarmOrdersResponseCache::getMissCount)
+                .tag("result", "miss").description("Farm orders serialized for lack of a cached response")
+                .register(registry);
+        FunctionCounter
+                .builder("waterorder.response.cache.evictions", this.responses, ExpiringLruCache::getEvictionCount)
+                .description("Responses evicted from the response cache").register(registry);
+        Gauge.builder("waterorder.response.cache.size", this.responses, ExpiringLruCache::size)
+                .description("Responses in the response cache").register(registry);
+    }
+
+    private static class VersionedResponse {
+        private final long version;
+        private final byte[] body;
+
+        VersionedResponse(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package code.challenge.rubicon.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import code.challenge.rubicon.exceptions.IdempotencyKeyReusedException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Responses of requests by their idempotency key, so that a client retrying a
+ * request with the same key gets the first response again instead of the
+ * request being done twice. A retry arriving while the first request is still
+ * running waits for it, and gets its response.
+ *
+ * Only responses of requests that succeeded are kept. A failed request didn't
+ * change anything, so its retry is done again, also when the retry was
+ * waiting for it.
+ */
+@Component
+public class IdempotencyCache implements MeterBinder {
+
+    // Longer keys are refused so that keys can't take much memory.
+    public static final int MAX_KEY_LENGTH = 255;
+
+    // Responses by scope and idempotency key. Null if the cache is disabled.
+    private final ExpiringLruCache<String, StoredResponse> responses;
+
+    // Requests running, by scope and idempotency key.
+    private final ConcurrentMap<String, RunningRequest> runningRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong replayCount = new AtomicLong();
+
+    /**
+     * @param timeToLive How long a response is kept for retries. Zero disables
+     *                   idempotency keys, every request is done.
+     * @param maxSize    Maximum number of responses kept.
+     */
+    public IdempotencyCache(@Value("${waterorder.idempotency.ttl:24h}") Duration timeToLive,
+            @Value("${waterorder.idempotency.max-size:10000}") int maxSize, Optional<Clock> clock) {
+        this.responses = timeToLive.isZero() ? null
+                : new ExpiringLruCache<>(maxSize, timeToLive, clock.orElseGet(Clock::systemUTC));
+    }
+
+    /**
+     * Return the response stored for given key, or do the request and store its
+     * response.
+     *
+     * @param scope          Who makes what kind of request, e.g. user and
+     *                       endpoint. Keys of different scopes never match.
+     * @param idempotencyKey Key given by the client. Null does the request
+     *                       without storing its response.
+     * @param request        What's requested, compared with equals() to the
+     *                       request the key was first used for.
+     * @param handler        Does the request. Its response mustn't change
+     *                       afterwards, since it's returned to retries.
+     * @throws IllegalArgumentException      If the key is empty or longer than
+     *                                       MAX_KEY_LENGTH.
+     * @throws IdempotencyKeyReusedException If the key was used for another
+     *                                       request.
+     */
+    public <V, E extends Exception> V execute(String scope, String idempotencyKey, Object request,
+            SingleFlight.Computation<V, E> handler) throws E {
+        if (idempotencyKey == null || this.responses == null) {
+            return handler.compute();
+        }
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(
+                    "Idempotency key must have 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+        String cacheKey = scope + "\n" + idempotencyKey;
+        while (true) {
+            StoredResponse response = this.responses.get(cacheKey);
+            if (response != null) {
+                return this.replay(response, idempotencyKey, request);
+            }
+            RunningRequest running = new RunningRequest(request);
+            RunningRequest otherRunning = this.runningRequests.putIfAbsent(cacheKey, running);
+            if (otherRunning == null) {
+                try {
+                    // Stored by a request finishing since it was looked up.
+                    response = this.responses.get(cacheKey);
+                    if (response == null) {
+                        V body = handler.compute();
+                        this.responses.put(cacheKey, new StoredResponse(request, body));
+                        return body;
+                    }
+                } finally {
+                    this.runningRequests.remove(cacheKey, running);
+                    running.finished.countDown();
+                }
+                return this.replay(response, idempotencyKey, request);
+            }
+            // Checked before waiting, so that a request reusing the key gets
+            // refused rather than the running request's response or error.
+            this.checkSameRequest(otherRunning.request, idempotencyKey, request);
+            otherRunning.awaitFinished();
+            // Its response is stored now, unless it failed and this request
+            // is done again.
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V replay(StoredResponse response, String idempotencyKey, Object request) {
+        this.checkSameRequest(response.request, idempotencyKey, request);
+        this.replayCount.incrementAndGet();
+        return (V) response.body;
+    }
+
+    private void checkSameRequest(Object firstRequest, String idempotencyKey, Object request) {
+        if (!firstRequest.equals(request)) {
+            throw new IdempotencyKeyReusedException(idempotencyKey, String.format(
+                    "Idempotency key '%s' was already used for another request.", idempotencyKey));
+        }
+    }
+
+    /**
+     * Number of requests answered with the response of an earlier request.
+     */
+    public long getReplayCount() {
+        return this.replayCount.get();
+    }
+
+    /**
+     * Publish replayed requests, evictions and size.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (this.responses == null) {
+            return;
+        }
+        FunctionCounter.builder("waterorder.idempotency.replays", this, IdempotencyCache::getReplayCount)
+                .description("Requests answered with the stored response of their idempotency key")
+                .register(registry);
+        FunctionCounter
+                .builder("waterorder.idempotency.evictions", this.responses, ExpiringLruCache::getEvictionCount)
+                .description("Responses evicted from the idempotency cache").register(registry);
+        Gauge.builder("waterorder.idempotency.size", this.responses, ExpiringLruCache::size)
+                .description("Responses in the idempotency cache").register(registry);
+    }
+
+    private static class RunningRequest {
+        private final Object request;
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        RunningRequest(Object request) {
+            this.request = request;
+        }
+
+        void awaitFinished() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.finished.await();
+                    break;
+                } catch (InterruptedException ex) {
+                    // The request waited for isn't interrupted, so wait for it
+                    // anyway.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class StoredResponse {
+        private final Object request;
+        private final Object body;
+
+        StoredResponse(Object request, Object body) {
+            this.request = request;
+            this.body = body;
+        }
+    }
+}
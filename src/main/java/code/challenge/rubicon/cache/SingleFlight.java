@@ -0,0 +1,99 @@
+package code.challenge.rubicon.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesce identical computations running at the same time. The first caller
+ * of a key runs the computation, and callers of the same key arriving while
+ * it runs wait for it and share its result or exception. A caller arriving
+ * after it has finished runs the computation again, so nothing is kept.
+ *
+ * A key must always stand for the same computation. Keys should include
+ * whatever tells the result has changed, e.g. a version, so that a caller
+ * doesn't share a computation that started before its own write.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Computation that may throw a checked exception of type E.
+     */
+    public interface Computation<V, E extends Exception> {
+        V compute() throws E;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    /**
+     * Run the computation, or wait for the one of the same key already
+     * running, and return its result.
+     *
+     * @throws E If the computation throws, every caller sharing it throws the
+     *           same exception.
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> V execute(K key, Computation<V, E> computation) throws E {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> runningFlight = this.flights.putIfAbsent(key, flight);
+        if (runningFlight == null) {
+            return this.run(key, flight, computation);
+        }
+
+        this.sharedCount.incrementAndGet();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return runningFlight.get();
+                } catch (InterruptedException ex) {
+                    // The caller running it isn't interrupted, so wait for it
+                    // anyway.
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    // Only the computation's exception is left, as the same
+                    // key is the same computation.
+                    throw (E) cause;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Number of calls that shared a computation run by another call.
+     */
+    public long getSharedCount() {
+        return this.sharedCount.get();
+    }
+
+    private <E extends Exception> V run(K key, CompletableFuture<V> flight, Computation<V, E> computation)
+            throws E {
+        try {
+            V result = computation.compute();
+            // Removed before completing, so that a caller arriving once the
+            // result is out computes it again.
+            this.flights.remove(key, flight);
+            flight.complete(result);
+            return result;
+        } catch (Exception | Error ex) {
+            this.flights.remove(key, flight);
+            flight.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+}
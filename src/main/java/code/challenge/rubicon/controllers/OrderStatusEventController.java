@@ -0,0 +1,63 @@
+package code.challenge.rubicon.controllers;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import code.challenge.rubicon.lifecycle.OrderStatusBroadcaster;
+
+/**
+ * Rest controller that pushes order status transitions as Server-Sent Events,
+ * so that clients don't have to poll orders for their status.
+ */
+@RestController
+public class OrderStatusEventController {
+    static final String STATUS_EVENT_NAME = "status";
+
+    private OrderStatusBroadcaster broadcaster;
+    private long timeoutMillis;
+
+    /**
+     * @param timeout How long a stream is kept open. Clients reconnect after
+     *                it, as EventSource does by itself.
+     */
+    public OrderStatusEventController(OrderStatusBroadcaster broadcaster,
+            @Value("${waterorder.status-stream.timeout:30m}") Duration timeout) {
+        this.broadcaster = broadcaster;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    /**
+     * Stream status transitions of orders as they happen, of the farm's orders
+     * only if farmid is given. Each event is named "status" and has an
+     * OrderStatusEvent as JSON data. The stream is completed if the client
+     * falls too far behind, then orders should be read again before
+     * reconnecting.
+     */
+    @GetMapping(value = "/waterorders/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStatusEvents(@RequestParam(required = false) String farmid) {
+        SseEmitter emitter = new SseEmitter(this.timeoutMillis);
+        OrderStatusBroadcaster.Subscription subscription = this.broadcaster.subscribe(farmid,
+                event -> emitter.send(
+                        SseEmitter.event().name(STATUS_EVENT_NAME).data(event, MediaType.APPLICATION_JSON)),
+                emitter::complete);
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(ex -> subscription.close());
+        try {
+            // Sent right away so that the client knows it's subscribed before
+            // any transition happens.
+            emitter.send(SseEmitter.event().comment("subscribed"));
+        } catch (IOException ex) {
+            subscription.close();
+            emitter.completeWithError(ex);
+        }
+        return emitter;
+    }
+}
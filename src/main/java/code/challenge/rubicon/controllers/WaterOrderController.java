@@ -1,12 +1,22 @@
 package code.challenge.rubicon.controllers;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.Principal;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import javax.validation.Valid;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
 import org.springframework.web.bind.WebDataBinder;
@@ -17,14 +27,32 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import code.challenge.rubicon.cache.FarmOrdersResponseCache;
+import code.challenge.rubicon.cache.IdempotencyCache;
+import code.challenge.rubicon.cache.SingleFlight;
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
+import code.challenge.rubicon.exceptions.IdempotencyKeyReusedException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.exceptions.WaterOrderException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderBatch;
+import code.challenge.rubicon.model.WaterOrderPage;
+import code.challenge.rubicon.model.WaterOrderQuery;
 import code.challenge.rubicon.services.IWaterOrderService;
 
 /**
@@ -32,38 +60,222 @@ import code.challenge.rubicon.services.IWaterOrderService;
  */
 @RestController
 public class WaterOrderController {
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final int MAX_PAGE_SIZE = 1000;
+    // Orders read from the service at a time while streaming.
+    static final int STREAM_PAGE_SIZE = 500;
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private IWaterOrderService waterOrderService;
+    private ObjectWriter orderWriter;
+    private ObjectWriter orderListWriter;
+    private FarmOrdersResponseCache responseCache;
+    private IdempotencyCache idempotencyCache;
+    // Farm versions start over with the service, so ETags of another run
+    // mustn't match.
+    private final String etagPrefix = "\"" + Long.toHexString(System.currentTimeMillis()) + "-";
 
-    public WaterOrderController(IWaterOrderService waterOrderService) {
+    @Autowired
+    public WaterOrderController(IWaterOrderService waterOrderService, ObjectMapper objectMapper,
+            FarmOrdersResponseCache responseCache, IdempotencyCache idempotencyCache) {
         this.waterOrderService = waterOrderService;
+        this.orderWriter = objectMapper.writerFor(WaterOrder.class);
+        this.orderListWriter = objectMapper.writerFor(new TypeReference<List<WaterOrder>>() {
+        });
+        this.responseCache = responseCache;
+        this.idempotencyCache = idempotencyCache;
     }
 
+    /**
+     * Return orders. from, to and status search orders starting in [from, to)
+     * and of the status, of the farm too if farmid is given. Times are ISO
+     * date times, e.g. 2020-01-16T10:00:00. Without any of them, all orders
+     * are returned. Orders of a farm alone are served by getFarmWaterOrders().
+     */
     @GetMapping("/waterorders")
-    public List<WaterOrder> getWaterOrders(@RequestParam(required = false) String farmid)
+    public List<WaterOrder> getWaterOrders(@RequestParam(required = false) String farmid,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) WaterOrder.OrderStatus status) {
+        // If any of from, to and status is given, search by them. An empty
+        // list is returned if nothing matches.
+        if (from != null || to != null || status != null) {
+            return waterOrderService.findOrders(new WaterOrderQuery(farmid, from, to, status));
+        }
+        return waterOrderService.getAllOrders();
+    }
+
+    /**
+     * Return orders of a farm. The farm's version is the ETag and If-None-Match
+     * of it is answered with 304. A farm that has never had an order has no
+     * ETag and is answered with 404. Otherwise the orders are answered from the
+     * response cache as long as the version is the same, so they're only
+     * serialized again after they change.
+     */
+    @GetMapping(value = "/waterorders", params = { "farmid", "!from", "!to", "!status" })
+    public ResponseEntity<byte[]> getFarmWaterOrders(@RequestParam String farmid, WebRequest webRequest)
             throws OrderNotFoundException {
-        // If farmid is given, search for the order with matching farmid.
-        // Otherwise return all orders.
-        if (farmid != null) {
-            return waterOrderService.getWaterOrderByFarmrId(farmid);
-        } else {
-            return waterOrderService.getAllOrders();
+        // Version is read before the orders, so the orders are at least as new
+        // as the ETag and the cached response.
+        long version = this.waterOrderService.getFarmVersion(farmid);
+        if (version != 0 && webRequest.checkNotModified(this.toETag(version))) {
+            return null;
+        }
+        byte[] body = this.responseCache.getOrCreate(farmid, version, () -> {
+            List<WaterOrder> orders = this.getFarmOrders(farmid);
+            try {
+                return this.orderListWriter.writeValueAsBytes(orders);
+            } catch (JsonProcessingException ex) {
+                // Orders are always serializable.
+                throw new UncheckedIOException(ex);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Return a page of orders. The next page is requested with nextCursor of
+     * the page as after. Orders of a farm aren't paged, so farmid is served by
+     * getWaterOrders().
+     */
+    @GetMapping(value = "/waterorders", params = { "limit", "!farmid" })
+    public WaterOrderPage getWaterOrdersPage(@RequestParam int limit, @RequestParam(required = false) String after) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + MAX_PAGE_SIZE);
         }
+        List<WaterOrder> orders = this.getOrdersPage(after, limit);
+        return new WaterOrderPage(orders,
+                orders.size() < limit ? null : orders.get(orders.size() - 1).getOrderId());
     }
 
+    /**
+     * Stream all orders as newline delimited JSON, one order per line. Orders
+     * are read a page at a time and written as they're read, so the full list
+     * is never built. after continues from the order of given order id.
+     */
+    @GetMapping(value = "/waterorders", params = { "!farmid", "!from", "!to",
+            "!status" }, produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamWaterOrders(@RequestParam(required = false) String after) {
+        // The first page is read here so that a bad cursor is still answered
+        // with an error status.
+        List<WaterOrder> firstPage = this.getOrdersPage(after, STREAM_PAGE_SIZE);
+        StreamingResponseBody body = outputStream -> {
+            List<WaterOrder> orders = firstPage;
+            while (true) {
+                this.writeLines(orders, outputStream);
+                if (orders.size() < STREAM_PAGE_SIZE) {
+                    break;
+                }
+                orders = this.waterOrderService.getOrdersPage(orders.get(orders.size() - 1).getOrderId(),
+                        STREAM_PAGE_SIZE);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    private List<WaterOrder> getOrdersPage(String after, int limit) {
+        try {
+            return this.waterOrderService.getOrdersPage(after, limit);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        }
+    }
+
+    private void writeLines(List<WaterOrder> orders, OutputStream outputStream) throws IOException {
+        for (WaterOrder order : orders) {
+            outputStream.write(this.orderWriter.writeValueAsBytes(order));
+            outputStream.write('\n');
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Return order of given order id. The order has its farm's version as
+     * ETag and If-None-Match of it is answered with 304.
+     */
     @GetMapping("/waterorders/{orderId}")
-    public WaterOrder getWaterOrder(@PathVariable String orderId) throws OrderNotFoundException {
-        return this.waterOrderService.getWaterOrderByOrderId(orderId);
+    public WaterOrder getWaterOrder(@PathVariable String orderId, WebRequest webRequest)
+            throws OrderNotFoundException {
+        // The order is looked up for its farm first. It's looked up again after
+        // the version is read, so that it's at least as new as the ETag.
+        String farmId = this.getOrder(orderId).getFarmId();
+        if (webRequest.checkNotModified(this.toETag(this.waterOrderService.getFarmVersion(farmId)))) {
+            return null;
+        }
+        return this.getOrder(orderId);
+    }
+
+    /**
+     * Missing orders are only turned into OrderNotFoundException here, to be
+     * answered with 404.
+     */
+    private WaterOrder getOrder(String orderId) throws OrderNotFoundException {
+        Optional<WaterOrder> waterOrder = this.waterOrderService.findWaterOrderByOrderId(orderId);
+        if (!waterOrder.isPresent()) {
+            throw OrderNotFoundException.ofOrderId(orderId);
+        }
+        return waterOrder.get();
     }
 
+    private List<WaterOrder> getFarmOrders(String farmId) throws OrderNotFoundException {
+        List<WaterOrder> orders = this.waterOrderService.findWaterOrdersByFarmId(farmId);
+        if (orders.isEmpty()) {
+            throw OrderNotFoundException.ofFarmId(farmId);
+        }
+        return orders;
+    }
+
+    /**
+     * Add an order. A retry with the Idempotency-Key header of an order added
+     * before gets the order as it was added, without adding it again.
+     */
     @PostMapping("/waterorders")
-    public WaterOrder addWaterOrder(@RequestBody @Valid WaterOrder newOrder) throws OrderValidityException {
-        return this.waterOrderService.addWaterOrder(newOrder);
+    public WaterOrder addWaterOrder(@RequestBody @Valid WaterOrder newOrder,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Principal principal) throws OrderValidityException {
+        return this.executeIdempotent("POST /waterorders", principal, idempotencyKey, newOrder, () -> {
+            WaterOrder addedOrder = this.waterOrderService.addWaterOrder(newOrder);
+            // Copied, the added order's status changes with its delivery.
+            return WaterOrder.restore(addedOrder.getOrderId(), addedOrder.getFarmId(),
+                    addedOrder.getStartDateTime(), addedOrder.getDuration(), addedOrder.getStatus());
+        });
     }
 
+    @PostMapping("/waterorders/batch")
+    public List<BatchOrderResult> addWaterOrders(@RequestBody @Valid WaterOrderBatch newOrders) {
+        return this.waterOrderService.addWaterOrders(newOrders.getOrders());
+    }
+
+    /**
+     * Cancel an order. A retry with the Idempotency-Key header of a cancellation
+     * done before succeeds again, rather than failing because the order is
+     * cancelled already.
+     */
     @PutMapping("/waterorders/{orderId}/cancellation")
-    public void cancelWaterOrder(@PathVariable String orderId)
-            throws OrderNotFoundException, OrderValidityException, DeliveryTaskNotFoundException {
-        this.waterOrderService.cancelWaterOrder(orderId);
+    public void cancelWaterOrder(@PathVariable String orderId,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Principal principal) throws WaterOrderException {
+        this.executeIdempotent("PUT /waterorders/cancellation", principal, idempotencyKey, orderId,
+                () -> this.waterOrderService.cancelWaterOrder(orderId));
+    }
+
+    /**
+     * Do the request through the idempotency cache. Keys are scoped by user, so
+     * users can't get each other's responses.
+     */
+    private <V, E extends Exception> V executeIdempotent(String endpoint, Principal principal,
+            String idempotencyKey, Object request, SingleFlight.Computation<V, E> handler) throws E {
+        String scope = (principal == null ? "" : principal.getName()) + " " + endpoint;
+        try {
+            return this.idempotencyCache.execute(scope, idempotencyKey, request, handler);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        }
+    }
+
+    private String toETag(long version) {
+        return this.etagPrefix + Long.toHexString(version) + "\"";
     }
 
     // =========================================================
@@ -86,6 +298,14 @@ public class WaterOrderController {
         return error;
     }
 
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public Map<String, String> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex) {
+        Map<String, String> error = new HashMap<>();
+        error.put(IDEMPOTENCY_KEY_HEADER, ex.getMessage());
+        return error;
+    }
+
     @ResponseStatus(HttpStatus.NOT_FOUND)
     @ExceptionHandler(DeliveryTaskNotFoundException.class)
     public Map<String, String> handleDeliveryTaskNotFoundException(DeliveryTaskNotFoundException ex) {
@@ -105,18 +325,29 @@ public class WaterOrderController {
 
     /**
      * Extra validator to filter negative duration. All other validations are done
-     * by Hibernate validator by annotations in WaterOrder.java
+     * by Hibernate validator by annotations in WaterOrder.java. Orders in
+     * WaterOrderBatch are checked as well.
      */
     class DurationValidator implements Validator {
 
         public boolean supports(Class clazz) {
-            return WaterOrder.class.equals(clazz);
+            return WaterOrder.class.equals(clazz) || WaterOrderBatch.class.equals(clazz);
         }
 
         public void validate(Object obj, Errors e) {
-            WaterOrder waterOrder = (WaterOrder) obj;
-            if (waterOrder.getDuration() != null && waterOrder.getDuration().isNegative()) {
-                e.rejectValue("duration", "Duration cannot be negative.");
+            if (obj instanceof WaterOrderBatch) {
+                List<WaterOrder> orders = ((WaterOrderBatch) obj).getOrders();
+                for (int i = 0; orders != null && i < orders.size(); i++) {
+                    this.validateDuration(orders.get(i), e, "orders[" + i + "].duration");
+                }
+            } else {
+                this.validateDuration((WaterOrder) obj, e, "duration");
+            }
+        }
+
+        private void validateDuration(WaterOrder waterOrder, Errors e, String field) {
+            if (waterOrder != null && waterOrder.getDuration() != null && waterOrder.getDuration().isNegative()) {
+                e.rejectValue(field, "Duration cannot be negative.");
             }
         }
     }
@@ -1,6 +1,6 @@
 package code.challenge.rubicon.exceptions;
 
-public class DeliveryTaskNotFoundException extends Exception {
+public class DeliveryTaskNotFoundException extends WaterOrderException {
     private String idName;
 
     public DeliveryTaskNotFoundException(String idName, String errorMsg) {
@@ -0,0 +1,17 @@
+package code.challenge.rubicon.exceptions;
+
+/**
+ * Idempotency key of a request was used before by a different request.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+    private String idempotencyKey;
+
+    public IdempotencyKeyReusedException(String idempotencyKey, String errorMsg) {
+        super(errorMsg);
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getIdempotencyKey() {
+        return this.idempotencyKey;
+    }
+}
@@ -1,13 +1,25 @@
 package code.challenge.rubicon.exceptions;
 
-public class OrderNotFoundException extends Exception {
+/**
+ * Order of an order id or orders of a farm id don't exist. Missing orders are
+ * an expected answer, so the exception doesn't capture a stack trace.
+ */
+public class OrderNotFoundException extends WaterOrderException {
     private String idName;
 
     public OrderNotFoundException(String idName, String errorMsg) {
-        super(errorMsg);
+        super(errorMsg, false);
         this.idName = idName;
     }
 
+    public static OrderNotFoundException ofOrderId(String orderId) {
+        return new OrderNotFoundException("orderId", String.format("Order ID '%s' doesn't exist.", orderId));
+    }
+
+    public static OrderNotFoundException ofFarmId(String farmId) {
+        return new OrderNotFoundException("farmId", String.format("Order for farmID '%s' doesn't exist.", farmId));
+    }
+
     public String getIdName() {
         return this.idName;
     }
@@ -2,7 +2,7 @@ package code.challenge.rubicon.exceptions;
 
 import code.challenge.rubicon.services.WaterOrderRequestAction;
 
-public class OrderValidityException extends Exception {
+public class OrderValidityException extends WaterOrderException {
 
     private WaterOrderRequestAction action;
 
@@ -0,0 +1,16 @@
+package code.challenge.rubicon.exceptions;
+
+/**
+ * Base of the checked exceptions a request on orders can fail with, so that
+ * code passing them through can declare them as one.
+ */
+public abstract class WaterOrderException extends Exception {
+
+    protected WaterOrderException(String errorMsg) {
+        super(errorMsg);
+    }
+
+    protected WaterOrderException(String errorMsg, boolean writableStackTrace) {
+        super(errorMsg, null, false, writableStackTrace);
+    }
+}
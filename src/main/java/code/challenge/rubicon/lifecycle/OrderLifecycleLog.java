@@ -0,0 +1,335 @@
+package code.challenge.rubicon.lifecycle;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import code.challenge.rubicon.model.WaterOrder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Asynchronous log of order status transitions. Publishing an event copies a
+ * few references and primitives into a preallocated ring buffer slot, so it
+ * neither allocates nor does any I/O. A background thread formats events and
+ * writes them out in batches.
+ *
+ * Any number of threads can publish. When the ring buffer is full, events are
+ * either dropped (and counted) or the publisher waits for free space,
+ * depending on OverflowPolicy.
+ *
+ * Listeners are told about every event by the background thread as it's
+ * written out, so they don't hold up publishers either.
+ */
+public class OrderLifecycleLog implements MeterBinder, AutoCloseable {
+
+    public enum OverflowPolicy {
+        // Wait until the consumer frees a slot.
+        BLOCK,
+        // Drop the new event and count it.
+        DROP
+    }
+
+    /**
+     * Listener of status transitions. Called by the background thread, so it
+     * must return quickly and mustn't block.
+     */
+    public interface Listener {
+        void onStatusChange(String orderId, String farmId, WaterOrder.OrderStatus status, long timestamp);
+    }
+
+    public static final int DEFAULT_CAPACITY = 65536;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderLifecycleLog.class);
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // Log used by WaterOrder. Created with default settings on first use unless
+    // another one has been installed.
+    private static volatile OrderLifecycleLog installedLog;
+
+    private final int mask;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final PrintStream out;
+
+    // Ring buffer slots.
+    private final String[] orderIds;
+    private final String[] farmIds;
+    private final WaterOrder.OrderStatus[] statuses;
+    private final long[] timestamps;
+    // Sequence number of the event written in each slot. A slot is readable
+    // once its sequence number is set.
+    private final AtomicLongArray publishedSequences;
+
+    // Next sequence number to claim by publishers.
+    private final AtomicLong claimedSequence = new AtomicLong();
+    // Next sequence number to write out by the consumer.
+    private volatile long consumedSequence;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private long reportedDroppedCount;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final StringBuilder batch = new StringBuilder();
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    /**
+     * Create a log writing to the given stream and start its consumer thread.
+     *
+     * @param capacity       Number of events the ring buffer holds. Rounded up to
+     *                       a power of 2.
+     * @param batchSize      Maximum number of events written at once.
+     * @param overflowPolicy What to do when the ring buffer is full.
+     * @param out            Stream to write the log to.
+     */
+    public OrderLifecycleLog(int capacity, int batchSize, OverflowPolicy overflowPolicy, PrintStream out) {
+        this(capacity, batchSize, overflowPolicy, out, true);
+    }
+
+    OrderLifecycleLog(int capacity, int batchSize, OverflowPolicy overflowPolicy, PrintStream out,
+            boolean startConsumer) {
+        int slots = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = slots - 1;
+        this.batchSize = batchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.out = out;
+        this.orderIds = new String[slots];
+        this.farmIds = new String[slots];
+        this.statuses = new WaterOrder.OrderStatus[slots];
+        this.timestamps = new long[slots];
+        this.publishedSequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            this.publishedSequences.set(i, -1);
+        }
+
+        this.consumer = new Thread(this::consume, "order-lifecycle-log");
+        this.consumer.setDaemon(true);
+        if (startConsumer) {
+            this.consumer.start();
+        }
+    }
+
+    /**
+     * Return the log WaterOrder publishes to.
+     */
+    public static OrderLifecycleLog get() {
+        OrderLifecycleLog log = installedLog;
+        if (log == null) {
+            synchronized(OrderLifecycleLog.class) {
+                log = installedLog;
+                if (log == null) {
+                    log = new OrderLifecycleLog(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.BLOCK,
+                            System.out);
+                    installedLog = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Make WaterOrder publish to the given log. The log installed before is
+     * closed after writing out what it has.
+     */
+    public static void install(OrderLifecycleLog log) {
+        OrderLifecycleLog previousLog;
+        synchronized(OrderLifecycleLog.class) {
+            previousLog = installedLog;
+            installedLog = log;
+        }
+        if (previousLog != null && previousLog != log) {
+            previousLog.close();
+        }
+    }
+
+    /**
+     * Publish a status transition of an order. Doesn't allocate.
+     */
+    public void publish(String orderId, String farmId, WaterOrder.OrderStatus status) {
+        long timestamp = System.currentTimeMillis();
+        long sequence;
+        while (true) {
+            if (!this.running) {
+                // Closed log doesn't take events any more.
+                this.droppedCount.incrementAndGet();
+                return;
+            }
+            sequence = this.claimedSequence.get();
+            if (sequence - this.consumedSequence > this.mask) {
+                if (this.overflowPolicy == OverflowPolicy.DROP) {
+                    this.droppedCount.incrementAndGet();
+                    return;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            } else if (this.claimedSequence.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        int index = (int) (sequence & this.mask);
+        this.orderIds[index] = orderId;
+        this.farmIds[index] = farmId;
+        this.statuses[index] = status;
+        this.timestamps[index] = timestamp;
+        this.publishedSequences.set(index, sequence);
+    }
+
+    /**
+     * Tell given listener about events written out from now on.
+     */
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Write out up to one batch of published events.
+     *
+     * @return Number of events written.
+     */
+    synchronized int drain() {
+        long sequence = this.consumedSequence;
+        int count = 0;
+        this.batch.setLength(0);
+        while (count < this.batchSize) {
+            int index = (int) (sequence & this.mask);
+            if (this.publishedSequences.get(index) != sequence) {
+                break;
+            }
+            this.appendEvent(this.timestamps[index], this.statuses[index], this.orderIds[index],
+                    this.farmIds[index]);
+            this.notifyListeners(this.orderIds[index], this.farmIds[index], this.statuses[index],
+                    this.timestamps[index]);
+            this.orderIds[index] = null;
+            this.farmIds[index] = null;
+            sequence++;
+            count++;
+        }
+        // Slots are free for publishers from here.
+        this.consumedSequence = sequence;
+
+        long dropped = this.droppedCount.get();
+        if (dropped != this.reportedDroppedCount) {
+            this.batch.append("== ").append(dropped - this.reportedDroppedCount)
+                    .append(" order lifecycle events were dropped ==").append(System.lineSeparator());
+            this.reportedDroppedCount = dropped;
+        }
+        if (this.batch.length() > 0) {
+            this.out.print(this.batch);
+            this.out.flush();
+        }
+        return count;
+    }
+
+    /**
+     * Number of events published but not written out yet.
+     */
+    public long getPendingCount() {
+        return this.claimedSequence.get() - this.consumedSequence;
+    }
+
+    /**
+     * Number of events dropped because the ring buffer was full or the log was
+     * closed.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("waterorder.lifecycle.events.pending", this, OrderLifecycleLog::getPendingCount)
+                .description("Order lifecycle events waiting to be written").register(registry);
+        FunctionCounter.builder("waterorder.lifecycle.events.dropped", this, OrderLifecycleLog::getDroppedCount)
+                .description("Order lifecycle events dropped").register(registry);
+    }
+
+    /**
+     * Stop taking events, write out everything published so far and stop the
+     * consumer thread.
+     */
+    @Override
+    public void close() {
+        synchronized(OrderLifecycleLog.class) {
+            if (installedLog == this) {
+                installedLog = null;
+            }
+        }
+        this.running = false;
+        if (this.consumer.isAlive()) {
+            LockSupport.unpark(this.consumer);
+            try {
+                this.consumer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (this.drain() > 0) {
+            // Keep writing until the ring buffer is empty.
+        }
+    }
+
+    private void consume() {
+        while (this.running) {
+            if (this.drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void notifyListeners(String orderId, String farmId, WaterOrder.OrderStatus status, long timestamp) {
+        for (Listener listener : this.listeners) {
+            try {
+                listener.onStatusChange(orderId, farmId, status, timestamp);
+            } catch (RuntimeException ex) {
+                // A failing listener mustn't stop the log.
+                logger.error("Order lifecycle listener failed", ex);
+            }
+        }
+    }
+
+    private void appendEvent(long timestamp, WaterOrder.OrderStatus status, String orderId, String farmId) {
+        this.batch.append("== ");
+        TIME_FORMATTER.formatTo(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()),
+                this.batch);
+        this.batch.append(" == ");
+        switch (status) {
+        case REQUESTED:
+            this.batch.append("New water order is placed.");
+            break;
+        case IN_PROGRESS:
+            this.batch.append("Water order starts.");
+            break;
+        case DELIVERED:
+            this.batch.append("Water order is delivered.");
+            break;
+        case CANCELLED:
+            this.batch.append("Water order is cancelled.");
+            break;
+        }
+        this.batch.append(" orderId: ").append(orderId).append(", farmId: ").append(farmId)
+                .append(System.lineSeparator());
+    }
+}
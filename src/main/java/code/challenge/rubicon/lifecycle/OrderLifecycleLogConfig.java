@@ -0,0 +1,30 @@
+package code.challenge.rubicon.lifecycle;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Set up the order lifecycle log from waterorder.lifecycle-log.* properties and
+ * make orders publish to it.
+ */
+@Configuration
+public class OrderLifecycleLogConfig {
+
+    @Value("${waterorder.lifecycle-log.capacity:" + OrderLifecycleLog.DEFAULT_CAPACITY + "}")
+    private int capacity;
+
+    @Value("${waterorder.lifecycle-log.batch-size:" + OrderLifecycleLog.DEFAULT_BATCH_SIZE + "}")
+    private int batchSize;
+
+    @Value("${waterorder.lifecycle-log.overflow-policy:BLOCK}")
+    private OrderLifecycleLog.OverflowPolicy overflowPolicy;
+
+    @Bean(destroyMethod = "close")
+    public OrderLifecycleLog orderLifecycleLog() {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(this.capacity, this.batchSize, this.overflowPolicy,
+                System.out);
+        OrderLifecycleLog.install(lifecycleLog);
+        return lifecycleLog;
+    }
+}
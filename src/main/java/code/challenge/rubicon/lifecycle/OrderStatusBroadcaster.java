@@ -0,0 +1,245 @@
+package code.challenge.rubicon.lifecycle;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import code.challenge.rubicon.model.OrderStatusEvent;
+import code.challenge.rubicon.model.WaterOrder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Push order status transitions to subscribers as they happen, so that clients
+ * don't have to poll orders to see when deliveries start and finish.
+ *
+ * Transitions come from the order lifecycle log's background thread, which
+ * only puts them in each subscriber's bounded buffer. Buffers are sent from a
+ * thread pool, one thread per subscriber at a time, so a slow subscriber
+ * neither holds up the log nor the other subscribers. A subscriber whose
+ * buffer is full is closed rather than left with a gap it can't know about.
+ * Its client is expected to read the orders again and subscribe again.
+ */
+@Component
+public class OrderStatusBroadcaster implements OrderLifecycleLog.Listener, MeterBinder, AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    /**
+     * Where a subscriber's events are sent to. Called by one thread at a time
+     * per subscriber.
+     */
+    public interface EventSink {
+        void send(OrderStatusEvent event) throws IOException;
+    }
+
+    private final OrderLifecycleLog lifecycleLog;
+    private final int bufferSize;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sender;
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    /**
+     * @param lifecycleLog Log whose status transitions are pushed.
+     * @param bufferSize   Number of events a subscriber can be behind before
+     *                     it's closed.
+     */
+    public OrderStatusBroadcaster(OrderLifecycleLog lifecycleLog,
+            @Value("${waterorder.status-stream.buffer-size:" + DEFAULT_BUFFER_SIZE + "}") int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive. bufferSize: " + bufferSize);
+        }
+        this.lifecycleLog = lifecycleLog;
+        this.bufferSize = bufferSize;
+        this.sender = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "order-status-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lifecycleLog.addListener(this);
+    }
+
+    /**
+     * Subscribe to status transitions of the orders of given farm, or of all
+     * orders if farmId is null.
+     *
+     * @param farmId   Farm whose orders' transitions are sent, or null.
+     * @param sink     Where events are sent to. If it throws, the subscription
+     *                 is closed.
+     * @param onClosed Called when the subscription is closed by the
+     *                 broadcaster, i.e. not by Subscription.close().
+     */
+    public Subscription subscribe(String farmId, EventSink sink, Runnable onClosed) {
+        Subscription subscription = new Subscription(farmId, sink, onClosed);
+        this.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    @Override
+    public void onStatusChange(String orderId, String farmId, WaterOrder.OrderStatus status, long timestamp) {
+        // Orders without an order id haven't been stored, e.g. ones in
+        // requests. They aren't anyone's orders yet.
+        if (this.subscriptions.isEmpty() || orderId == null || orderId.isEmpty()) {
+            return;
+        }
+        OrderStatusEvent event = new OrderStatusEvent(orderId, farmId, status,
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+        for (Subscription subscription : this.subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return this.subscriptions.size();
+    }
+
+    /**
+     * Number of subscribers closed because their buffer was full.
+     */
+    public long getOverflowCount() {
+        return this.overflowCount.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("waterorder.status-stream.subscribers", this, OrderStatusBroadcaster::getSubscriberCount)
+                .description("Subscribers of order status transitions").register(registry);
+        FunctionCounter.builder("waterorder.status-stream.overflows", this, OrderStatusBroadcaster::getOverflowCount)
+                .description("Subscribers closed because they fell too far behind").register(registry);
+    }
+
+    /**
+     * Stop pushing transitions and close every subscription.
+     */
+    @Override
+    public void close() {
+        this.lifecycleLog.removeListener(this);
+        for (Subscription subscription : this.subscriptions) {
+            subscription.closeByBroadcaster();
+        }
+        this.sender.shutdown();
+    }
+
+    /**
+     * A subscriber's buffer of events not sent yet.
+     */
+    public final class Subscription implements AutoCloseable {
+        private static final int OPEN = 0;
+        private static final int CLOSED = 1;
+        // Closed by the broadcaster but onClosed hasn't been called yet.
+        private static final int DROPPED = 2;
+
+        private final String farmId;
+        private final EventSink sink;
+        private final Runnable onClosed;
+        private final BlockingQueue<OrderStatusEvent> buffer;
+        // Set while a sender thread is sending this subscription's buffer.
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicInteger state = new AtomicInteger(OPEN);
+
+        private Subscription(String farmId, EventSink sink, Runnable onClosed) {
+            this.farmId = farmId;
+            this.sink = sink;
+            this.onClosed = onClosed;
+            this.buffer = new ArrayBlockingQueue<>(OrderStatusBroadcaster.this.bufferSize);
+        }
+
+        /**
+         * Stop sending events. Events still in the buffer are dropped.
+         */
+        @Override
+        public void close() {
+            if (this.state.compareAndSet(OPEN, CLOSED)) {
+                this.release();
+            }
+        }
+
+        private void closeByBroadcaster() {
+            if (this.state.compareAndSet(OPEN, CLOSED)) {
+                this.release();
+                this.onClosed.run();
+            }
+        }
+
+        /**
+         * Close the subscription from a sender thread, since onClosed may
+         * block.
+         */
+        private void drop() {
+            if (this.state.compareAndSet(OPEN, DROPPED)) {
+                this.release();
+                this.scheduleSending();
+            }
+        }
+
+        private void release() {
+            OrderStatusBroadcaster.this.subscriptions.remove(this);
+            this.buffer.clear();
+        }
+
+        private void offer(OrderStatusEvent event) {
+            if (this.farmId != null && !this.farmId.equals(event.getFarmId())) {
+                return;
+            }
+            if (this.buffer.offer(event)) {
+                this.scheduleSending();
+            } else {
+                OrderStatusBroadcaster.this.overflowCount.incrementAndGet();
+                this.drop();
+            }
+        }
+
+        private void scheduleSending() {
+            if (this.sending.compareAndSet(false, true)) {
+                try {
+                    OrderStatusBroadcaster.this.sender.execute(this::send);
+                } catch (RejectedExecutionException ex) {
+                    // Broadcaster is closed.
+                    this.sending.set(false);
+                }
+            }
+        }
+
+        private void send() {
+            try {
+                OrderStatusEvent event;
+                while (this.state.get() == OPEN && (event = this.buffer.poll()) != null) {
+                    this.sink.send(event);
+                }
+            } catch (IOException | RuntimeException ex) {
+                // Subscriber is gone.
+                this.state.compareAndSet(OPEN, DROPPED);
+                this.release();
+            }
+            if (this.state.get() != OPEN) {
+                if (this.state.compareAndSet(DROPPED, CLOSED)) {
+                    this.buffer.clear();
+                    this.onClosed.run();
+                }
+                return;
+            }
+            this.sending.set(false);
+            // An event offered or a drop after the last poll but before
+            // sending was cleared would be left behind otherwise.
+            if (!this.buffer.isEmpty() || this.state.get() == DROPPED) {
+                this.scheduleSending();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package code.challenge.rubicon.model;
+
+/**
+ * Model class representing the outcome of one order in a batch of new orders.
+ */
+public class BatchOrderResult {
+
+    public enum Result {
+        CREATED, REJECTED
+    }
+
+    private BatchOrderResult.Result result;
+    // Added order if created. Requested order if rejected.
+    private WaterOrder order;
+    // Reason of rejection. Null if created.
+    private String message;
+
+    public BatchOrderResult() {
+    }
+
+    private BatchOrderResult(BatchOrderResult.Result result, WaterOrder order, String message) {
+        this.result = result;
+        this.order = order;
+        this.message = message;
+    }
+
+    public static BatchOrderResult created(WaterOrder createdOrder) {
+        return new BatchOrderResult(BatchOrderResult.Result.CREATED, createdOrder, null);
+    }
+
+    public static BatchOrderResult rejected(WaterOrder requestedOrder, String message) {
+        return new BatchOrderResult(BatchOrderResult.Result.REJECTED, requestedOrder, message);
+    }
+
+    // getters
+    public BatchOrderResult.Result getResult() {
+        return this.result;
+    }
+
+    public WaterOrder getOrder() {
+        return this.order;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + " result='" + getResult() + "'" + ", order='" + getOrder() + "'" + ", message='" + getMessage()
+                + "'" + "}";
+    }
+}
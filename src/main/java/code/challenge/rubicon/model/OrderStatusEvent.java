@@ -0,0 +1,50 @@
+package code.challenge.rubicon.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Model class representing a status transition of an order, as it's pushed to
+ * subscribers of status changes.
+ */
+public class OrderStatusEvent {
+
+    private String orderId;
+    private String farmId;
+    private WaterOrder.OrderStatus status;
+    // When the order got the status.
+    private LocalDateTime changedDateTime;
+
+    public OrderStatusEvent() {
+    }
+
+    public OrderStatusEvent(String orderId, String farmId, WaterOrder.OrderStatus status,
+            LocalDateTime changedDateTime) {
+        this.orderId = orderId;
+        this.farmId = farmId;
+        this.status = status;
+        this.changedDateTime = changedDateTime;
+    }
+
+    // getters
+    public String getOrderId() {
+        return this.orderId;
+    }
+
+    public String getFarmId() {
+        return this.farmId;
+    }
+
+    public WaterOrder.OrderStatus getStatus() {
+        return this.status;
+    }
+
+    public LocalDateTime getChangedDateTime() {
+        return this.changedDateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + " orderId='" + getOrderId() + "'" + ", farmId='" + getFarmId() + "'" + ", status='"
+                + getStatus() + "'" + ", changedDateTime='" + getChangedDateTime() + "'" + "}";
+    }
+}
@@ -2,20 +2,28 @@ package code.challenge.rubicon.model;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Objects;
 
 import javax.validation.constraints.Future;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+
 /**
  * Model class representing a water order.
  */
 public class WaterOrder {
 
     public enum OrderStatus {
-        REQUESTED, IN_PROGRESS, DELIVERED, CANCELLED
+        REQUESTED, IN_PROGRESS, DELIVERED, CANCELLED;
+
+        /**
+         * Whether the order can't move to another status any more.
+         */
+        public boolean isTerminal() {
+            return this == DELIVERED || this == CANCELLED;
+        }
     }
 
     // A unique ID for identifying a farm
@@ -49,30 +57,29 @@ public class WaterOrder {
         this.setStatus(status);
     }
 
-    public void setStatus(WaterOrder.OrderStatus status) {
-        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        String localTimeStr = timeFormatter.format(LocalDateTime.now());
+    /**
+     * Create an order as it was stored before, e.g. when loading persisted
+     * orders. Unlike the constructor, the status isn't published as a status
+     * change since it isn't one.
+     */
+    public static WaterOrder restore(String orderId, String farmId, LocalDateTime startDateTime, Duration duration,
+            WaterOrder.OrderStatus status) {
+        WaterOrder waterOrder = new WaterOrder();
+        waterOrder.orderId = orderId;
+        waterOrder.farmId = farmId;
+        waterOrder.startDateTime = startDateTime;
+        waterOrder.duration = duration;
+        waterOrder.status = status;
+        return waterOrder;
+    }
 
+    public void setStatus(WaterOrder.OrderStatus status) {
         if (this.status == null || !this.status.equals(status)) {
             this.status = status;
-
-            switch (status) {
-            case REQUESTED:
-                System.out.println(String.format("== %s == New water order is placed. orderId: %s, farmId: %s",
-                        localTimeStr, this.orderId, this.farmId));
-                break;
-            case IN_PROGRESS:
-                System.out.println(String.format("== %s == Water order starts. orderId: %s, farmId: %s", localTimeStr,
-                        this.orderId, this.farmId));
-                break;
-            case DELIVERED:
-                System.out.println(String.format("== %s == Water order is delivered. orderId: %s, farmId: %s",
-                        localTimeStr, this.orderId, this.farmId));
-                break;
-            case CANCELLED:
-                System.out.println(String.format("== %s == Water order is cancelled. orderId: %s, farmId: %s",
-                        localTimeStr, this.orderId, this.farmId));
-                break;
+            if (status != null) {
+                // Written to console by a background thread so that status
+                // updates don't wait for console I/O.
+                OrderLifecycleLog.get().publish(this.orderId, this.farmId, status);
             }
         }
     }
@@ -83,6 +90,10 @@ public class WaterOrder {
      * @return Message representing current order'status
      */
     public String getStatusMessage() {
+        if (this.status == null) {
+            // Order that hasn't been added, e.g. rejected one in a batch.
+            return "Unknown Status";
+        }
         switch (this.status) {
         case REQUESTED:
             return "Order has been placed but not yet delivered.";
@@ -0,0 +1,35 @@
+package code.challenge.rubicon.model;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+/**
+ * Model class representing a request to add a number of water orders at once.
+ */
+public class WaterOrderBatch {
+
+    public static final int MAX_ORDERS = 1000;
+
+    // New orders to add. Each order is validated the same way as a single new
+    // order.
+    @NotEmpty(message = "Orders are required")
+    @Size(max = MAX_ORDERS, message = "No more than " + MAX_ORDERS + " orders can be added at once")
+    @Valid
+    private List<@NotNull WaterOrder> orders;
+
+    public WaterOrderBatch() {
+    }
+
+    public WaterOrderBatch(List<WaterOrder> orders) {
+        this.orders = orders;
+    }
+
+    // getters
+    public List<WaterOrder> getOrders() {
+        return this.orders;
+    }
+}
@@ -0,0 +1,36 @@
+package code.challenge.rubicon.model;
+
+import java.util.List;
+
+/**
+ * Model class representing a page of orders. The next page is requested with
+ * the cursor of this one.
+ */
+public class WaterOrderPage {
+
+    private List<WaterOrder> orders;
+    // Order id to request the next page after. Null if this is the last page.
+    private String nextCursor;
+
+    public WaterOrderPage() {
+    }
+
+    public WaterOrderPage(List<WaterOrder> orders, String nextCursor) {
+        this.orders = orders;
+        this.nextCursor = nextCursor;
+    }
+
+    // getters
+    public List<WaterOrder> getOrders() {
+        return this.orders;
+    }
+
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + " orders='" + getOrders() + "'" + ", nextCursor='" + getNextCursor() + "'" + "}";
+    }
+}
@@ -0,0 +1,61 @@
+package code.challenge.rubicon.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Model class representing a search for orders. Criteria left null match any
+ * order.
+ */
+public class WaterOrderQuery {
+
+    private String farmId;
+    // Orders starting at or after this time.
+    private LocalDateTime startFrom;
+    // Orders starting before this time.
+    private LocalDateTime startTo;
+    private WaterOrder.OrderStatus status;
+
+    public WaterOrderQuery() {
+    }
+
+    public WaterOrderQuery(String farmId, LocalDateTime startFrom, LocalDateTime startTo,
+            WaterOrder.OrderStatus status) {
+        this.farmId = farmId;
+        this.startFrom = startFrom;
+        this.startTo = startTo;
+        this.status = status;
+    }
+
+    /**
+     * Whether given order meets every criterion.
+     */
+    public boolean matches(WaterOrder waterOrder) {
+        return (this.farmId == null || this.farmId.equals(waterOrder.getFarmId()))
+                && (this.startFrom == null || !waterOrder.getStartDateTime().isBefore(this.startFrom))
+                && (this.startTo == null || waterOrder.getStartDateTime().isBefore(this.startTo))
+                && (this.status == null || this.status == waterOrder.getStatus());
+    }
+
+    // getters
+    public String getFarmId() {
+        return this.farmId;
+    }
+
+    public LocalDateTime getStartFrom() {
+        return this.startFrom;
+    }
+
+    public LocalDateTime getStartTo() {
+        return this.startTo;
+    }
+
+    public WaterOrder.OrderStatus getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + " farmId='" + getFarmId() + "'" + ", startFrom='" + getStartFrom() + "'" + ", startTo='"
+                + getStartTo() + "'" + ", status='" + getStatus() + "'" + "}";
+    }
+}
@@ -0,0 +1,131 @@
+package code.challenge.rubicon.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import code.challenge.rubicon.cache.ExpiringLruCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * PasswordEncoder that remembers successful password checks for a while.
+ * HTTP Basic sends credentials with every request, and checking them with a
+ * slow encoder like BCrypt can cost more than the request itself. A client
+ * pays the cost once and then following requests with the same credentials
+ * are verified by a cache lookup until the entry expires.
+ *
+ * Raw passwords are never kept. The cache key is an HMAC of the encoded and
+ * the raw password under a key generated at startup, so a changed password or
+ * encoded hash doesn't match any cached entry. Failed checks aren't cached so
+ * guessing passwords still costs a full check each time.
+ */
+public class CachingPasswordEncoder implements PasswordEncoder, MeterBinder {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder delegate;
+
+    // Keys of verified credentials. Null if caching is disabled.
+    private final ExpiringLruCache<String, Boolean> verifiedCredentials;
+
+    private final SecretKeySpec hmacKey;
+    private final ThreadLocal<Mac> macs;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param delegate   Encoder to encode and to check passwords not in the cache.
+     * @param timeToLive How long a successful check is remembered. Zero
+     *                   disables caching.
+     * @param maxSize    Maximum number of credentials remembered.
+     * @param clock      Clock to tell when entries expire.
+     */
+    public CachingPasswordEncoder(PasswordEncoder delegate, Duration timeToLive, int maxSize, Clock clock) {
+        this.delegate = delegate;
+        this.verifiedCredentials = timeToLive.isZero() ? null : new ExpiringLruCache<>(maxSize, timeToLive, clock);
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.hmacKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(this.hmacKey);
+                return mac;
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("Cannot create " + HMAC_ALGORITHM, ex);
+            }
+        });
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return this.delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (this.verifiedCredentials == null || rawPassword == null || encodedPassword == null) {
+            return this.delegate.matches(rawPassword, encodedPassword);
+        }
+
+        String credentialKey = this.credentialKey(rawPassword, encodedPassword);
+        if (this.verifiedCredentials.get(credentialKey) != null) {
+            this.hitCount.incrementAndGet();
+            return true;
+        }
+        this.missCount.incrementAndGet();
+
+        boolean matched = this.delegate.matches(rawPassword, encodedPassword);
+        if (matched) {
+            this.verifiedCredentials.put(credentialKey, Boolean.TRUE);
+        }
+        return matched;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return this.delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Publish cache hits, misses and evictions.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (this.verifiedCredentials == null) {
+            return;
+        }
+        FunctionCounter.builder("waterorder.auth.credential.cache", this.hitCount, AtomicLong::get)
+                .tag("result", "hit").description("Password checks answered by the credential cache")
+                .register(registry);
+        FunctionCounter.builder("waterorder.auth.credential.cache", this.missCount, AtomicLong::get)
+                .tag("result", "miss").description("Password checks done by the password encoder")
+                .register(registry);
+        FunctionCounter
+                .builder("waterorder.auth.credential.cache.evictions", this.verifiedCredentials,
+                        ExpiringLruCache::getEvictionCount)
+                .description("Verified credentials evicted from the credential cache").register(registry);
+    }
+
+    private String credentialKey(CharSequence rawPassword, String encodedPassword) {
+        Mac mac = this.macs.get();
+        mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+        // Separator so that different splits of the same bytes don't collide.
+        mac.update((byte) 0);
+        mac.update(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+}
@@ -1,11 +1,14 @@
 package code.challenge.rubicon.services;
 
 import java.util.List;
+import java.util.Optional;
 
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
 
 /**
  * Define service that provides a number of functionalities based on business
@@ -22,6 +25,17 @@ public interface IWaterOrderService {
      */
     public WaterOrder addWaterOrder(WaterOrder waterOrder) throws OrderValidityException;
 
+    /**
+     * Add a number of new water orders at once. Each order is validated against
+     * existing orders and the other orders of the batch. Orders failing
+     * validation are rejected without affecting the rest.
+     *
+     * @param waterOrders New WaterOrders to add.
+     * @return Result of each given order in the same order. Created orders
+     *         include order id.
+     */
+    public List<BatchOrderResult> addWaterOrders(List<WaterOrder> waterOrders);
+
     /**
      * Cancel existing water order.
      *
@@ -46,23 +60,52 @@ public interface IWaterOrderService {
      */
     public List<WaterOrder> getAllOrders();
 
+    /**
+     * Return a page of orders. Pages go through all orders in an order fixed by
+     * the repository.
+     *
+     * @param afterOrderId Order id of the last order of the previous page. Null
+     *                     for the first page.
+     * @param limit        Maximum number of orders in the page.
+     * @return Orders of the page including cancelled orders. Empty if there
+     *         are no more orders.
+     * @throws IllegalArgumentException If afterOrderId can't be an order id.
+     */
+    public List<WaterOrder> getOrdersPage(String afterOrderId, int limit);
+
+    /**
+     * Search orders by farm, start time range and status.
+     *
+     * @param query Criteria the orders must meet.
+     * @return Matching orders sorted by start time. Empty list if there's no
+     *         matching order.
+     */
+    public List<WaterOrder> findOrders(WaterOrderQuery query);
+
+    /**
+     * Get version of given farm's orders, which changes whenever any of them
+     * changes.
+     *
+     * @param farmId Farm id of the orders.
+     * @return Version of the farm's orders. 0 if the farm has never had any
+     *         order.
+     */
+    public long getFarmVersion(String farmId);
+
     /**
      * Search order by orderId.
      * 
      * @param orderId Order id of the order to find
-     * @return
-     * @throws OrderNotFoundException If order for the order id cannot be found,
-     *                                OrderNotFoundException is thrown.
+     * @return Optional of the order. Empty Optional if there's no order of the
+     *         order id.
      */
-    public WaterOrder getWaterOrderByOrderId(String orderId) throws OrderNotFoundException;
+    public Optional<WaterOrder> findWaterOrderByOrderId(String orderId);
 
     /**
      * Search order by farmId.
      * 
      * @param farmId Farm id of the orders to find
-     * @return
-     * @throws OrderNotFoundException If orders for the given farm id cannot be
-     *                                found, OrderNotFoundException is thrown.
+     * @return List of the farm's orders. Empty list if the farm has no order.
      */
-    public List<WaterOrder> getWaterOrderByFarmrId(String farmId) throws OrderNotFoundException;
+    public List<WaterOrder> findWaterOrdersByFarmId(String farmId);
 }
\ No newline at end of file
@@ -1,17 +1,29 @@
 package code.challenge.rubicon.services;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.stereotype.Service;
 
+import code.challenge.rubicon.cache.SingleFlight;
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
 import code.challenge.rubicon.services.validator.IWaterOrderValidator;
 import code.challenge.rubicon.services.repository.IWaterOrderRepository;
 import code.challenge.rubicon.services.scheduler.IWaterOrderDeliveryScheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 /**
  * As a simple entry point of service layer, this class knows what to do for
@@ -19,12 +31,15 @@ import code.challenge.rubicon.services.scheduler.IWaterOrderDeliveryScheduler;
  * IWaterOrderDeliveryScheduler based on the required business logic.
  */
 @Service
-public class WaterOrderService implements IWaterOrderService {
+public class WaterOrderService implements IWaterOrderService, MeterBinder {
 
     private IWaterOrderRepository repository;
     private IWaterOrderValidator orderValidator;
     private IWaterOrderDeliveryScheduler deliveryScheduler;
 
+    // Reads of farm orders running, by farm version and farm id.
+    private final SingleFlight<String, List<WaterOrder>> farmOrderReads = new SingleFlight<>();
+
     public WaterOrderService(IWaterOrderRepository waterOrderRepository, IWaterOrderValidator orderValidator,
             IWaterOrderDeliveryScheduler deliveryScheduler) {
         this.repository = waterOrderRepository;
@@ -39,22 +54,55 @@ public class WaterOrderService implements IWaterOrderService {
     @Override
     public WaterOrder addWaterOrder(WaterOrder waterOrder) throws OrderValidityException {
 
-        // 1. Do validation.
-        Optional<String> validationErrMsg = this.orderValidator.checkOrderValidity(waterOrder,
-                WaterOrderRequestAction.CREATE);
-        if (validationErrMsg.isPresent()) {
-            // This means that validation failed so an error message is present.
-            throw new OrderValidityException(WaterOrderRequestAction.CREATE, validationErrMsg.get());
-        }
+        // 1. Do validation and add order in repository. Repository does both
+        // atomically so that 2 concurrent requests for the same farm can't both
+        // pass validation and get stored. OrderValidityException is thrown if
+        // validation fails.
+        WaterOrder createdOrder = this.repository.reserveWaterOrder(waterOrder,
+                order -> this.orderValidator.checkOrderValidity(order, WaterOrderRequestAction.CREATE));
 
-        // 2. Add order in repository.
-        WaterOrder createdOrder = this.repository.addWaterOrder(waterOrder);
-
-        // 3. Ask scheduler to schedule delivery.
+        // 2. Ask scheduler to schedule delivery.
         this.deliveryScheduler.addDeliverySchedule(createdOrder);
         return createdOrder;
     }
 
+    /**
+     * Add new water orders at once. Orders are grouped by farm and sorted by
+     * start time, and each farm's orders are validated and added by the
+     * repository in one go. Created orders are scheduled.
+     */
+    @Override
+    public List<BatchOrderResult> addWaterOrders(List<WaterOrder> waterOrders) {
+        // 1. Group positions of the orders by farm.
+        Map<String, List<Integer>> positionsByFarm = new LinkedHashMap<>();
+        for (int i = 0; i < waterOrders.size(); i++) {
+            positionsByFarm.computeIfAbsent(waterOrders.get(i).getFarmId(), farmId -> new ArrayList<>()).add(i);
+        }
+
+        BatchOrderResult[] results = new BatchOrderResult[waterOrders.size()];
+        for (List<Integer> positions : positionsByFarm.values()) {
+            // 2. Validate and add the farm's orders in order of start time, so
+            // that an earlier delivery wins over a later one overlapping it.
+            positions.sort(Comparator.comparing(position -> waterOrders.get(position).getStartDateTime()));
+            List<WaterOrder> farmOrders = new ArrayList<>(positions.size());
+            for (int position : positions) {
+                farmOrders.add(waterOrders.get(position));
+            }
+            List<BatchOrderResult> farmResults = this.repository.reserveWaterOrders(farmOrders,
+                    order -> this.orderValidator.checkOrderValidity(order, WaterOrderRequestAction.CREATE));
+
+            // 3. Schedule created orders and put results back in request order.
+            for (int i = 0; i < positions.size(); i++) {
+                BatchOrderResult result = farmResults.get(i);
+                if (result.getResult() == BatchOrderResult.Result.CREATED) {
+                    this.deliveryScheduler.addDeliverySchedule(result.getOrder());
+                }
+                results[positions.get(i)] = result;
+            }
+        }
+        return Arrays.asList(results);
+    }
+
     /**
      * Cancel existing water order. Do validation first to make sure there's no
      * validity rule violation. And ask scheduler to cancel the scheduled delivery
@@ -87,20 +135,58 @@ public class WaterOrderService implements IWaterOrderService {
         return this.repository.getAllOrders();
     }
 
+    /**
+     * Return a page of orders as it's given from repository.
+     */
+    @Override
+    public List<WaterOrder> getOrdersPage(String afterOrderId, int limit) {
+        return this.repository.getOrdersPage(afterOrderId, limit);
+    }
+
+    /**
+     * Search orders through repository's indexes. Just call repository.
+     */
+    @Override
+    public List<WaterOrder> findOrders(WaterOrderQuery query) {
+        return this.repository.findOrders(query);
+    }
+
+    /**
+     * Get version of farm's orders. Just call repository.
+     */
+    @Override
+    public long getFarmVersion(String farmId) {
+        return this.repository.getFarmVersion(farmId);
+    }
+
     /**
      * Search order by orderId. Just call repository.
      */
     @Override
-    public WaterOrder getWaterOrderByOrderId(String orderId) throws OrderNotFoundException {
-        return this.repository.getWaterOrderByOrderId(orderId);
+    public Optional<WaterOrder> findWaterOrderByOrderId(String orderId) {
+        return this.repository.findWaterOrderByOrderId(orderId);
+    }
+
+    /**
+     * Search order by farmId. Concurrent searches of the same farm share one
+     * repository search, e.g. when every client of a farm polls at once. The
+     * farm's version is part of the key, so a search after a write never
+     * shares one that started before it. The shared list can't be modified.
+     */
+    @Override
+    public List<WaterOrder> findWaterOrdersByFarmId(String farmId) {
+        long version = this.repository.getFarmVersion(farmId);
+        return this.farmOrderReads.execute(version + ":" + farmId,
+                () -> Collections.unmodifiableList(this.repository.findWaterOrdersByFarmId(farmId)));
     }
 
     /**
-     * Search order by farmId. Just call repository.
+     * Publish number of reads that shared another read's repository search.
      */
     @Override
-    public List<WaterOrder> getWaterOrderByFarmrId(String farmId) throws OrderNotFoundException {
-        return this.repository.getWaterOrderByFarmrId(farmId);
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("waterorder.reads.shared", this.farmOrderReads, SingleFlight::getSharedCount)
+                .description("Farm order reads sharing a repository search already running").register(registry);
     }
 
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package code.challenge.rubicon.services.orderstatus;
 
+import java.util.List;
+
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.model.WaterOrder;
 
@@ -16,4 +18,27 @@ public interface IWaterOrderStatusHelper {
      *                                OrderNotFoundException is thrown.
      */
     public void updateOrderstatus(String orderId, WaterOrder.OrderStatus status) throws OrderNotFoundException;
+
+    /**
+     * Update status of many orders to given status at once, e.g. when
+     * deliveries that came due while the service was down are caught up. Orders
+     * that cannot be found are skipped. Implementations can make this cheaper
+     * than updating orders one by one.
+     *
+     * @param orderIds Order ids of the orders to update
+     * @param status   New status of the orders to set
+     * @return Number of orders updated
+     */
+    public default int updateOrderstatuses(List<String> orderIds, WaterOrder.OrderStatus status) {
+        int updatedCount = 0;
+        for (String orderId : orderIds) {
+            try {
+                this.updateOrderstatus(orderId, status);
+                updatedCount++;
+            } catch (OrderNotFoundException ex) {
+                // Skipped as documented.
+            }
+        }
+        return updatedCount;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,771 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Cold tier of orders: orders that were delivered or cancelled long enough ago
+ * (waterorder.retention.cold-after) that they're only looked up now and then.
+ * ConcurrentOrderRepository moves them here every
+ * waterorder.retention.check-interval and falls through to this store when an
+ * order isn't in memory.
+ *
+ * Orders are kept in immutable segment files sorted by order id. A segment is
+ * a header of [magic][version], blocks of up to BLOCK_SIZE orders compressed
+ * with Deflater, an index and a footer of [index offset][CRC32 of index][magic].
+ * The index is sparse: the first order id and position of each block, plus
+ * the blocks holding orders of each farm. Only the index is kept in memory, so
+ * finding an order reads and inflates at most one block per segment.
+ *
+ * Every move writes a new segment. To keep the number of segments
+ * logarithmic, the newest segments are merged into it as long as they're not
+ * larger than what's being written. Segments are sorted, so merging streams
+ * them block by block. Where segments have the same order, the newer one wins.
+ *
+ * Enabled by setting waterorder.retention.cold-after, e.g. to 30d.
+ */
+@Component
+@ConditionalOnProperty(name = "waterorder.retention.cold-after")
+public class ColdOrderStore implements MeterBinder, AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "cold-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x574f434c;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int FOOTER_SIZE = 8 + 4 + 4;
+    // Orders per block.
+    static final int BLOCK_SIZE = 256;
+
+    private static final WaterOrder.OrderStatus[] STATUSES = WaterOrder.OrderStatus.values();
+
+    private final Path directory;
+    private final Duration coldAfter;
+    private final Duration checkInterval;
+    private final Clock clock;
+
+    // Oldest first. Replaced as a whole when segments are added or merged.
+    private volatile List<Segment> segments;
+    private long nextSequence;
+
+    @Autowired
+    public ColdOrderStore(@Value("${waterorder.retention.directory:data/cold}") String directory,
+            @Value("${waterorder.retention.cold-after}") Duration coldAfter,
+            @Value("${waterorder.retention.check-interval:1h}") Duration checkInterval, Optional<Clock> clock) {
+        this(Paths.get(directory), coldAfter, checkInterval, clock);
+    }
+
+    ColdOrderStore(Path directory, Duration coldAfter, Duration checkInterval, Optional<Clock> clock) {
+        this.directory = directory;
+        this.coldAfter = coldAfter;
+        this.checkInterval = checkInterval;
+        this.clock = clock.orElse(Clock.systemDefaultZone());
+        List<Segment> openedSegments = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            // Left by a move or merge that didn't finish.
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+                    SEGMENT_PREFIX + "*" + TEMPORARY_SUFFIX)) {
+                for (Path path : paths) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            for (Path file : listSegmentFiles(directory)) {
+                openedSegments.add(Segment.open(file));
+            }
+        } catch (IOException ex) {
+            for (Segment segment : openedSegments) {
+                segment.close();
+            }
+            throw new UncheckedIOException("Failed to open cold order store in " + directory, ex);
+        }
+        this.segments = Collections.unmodifiableList(openedSegments);
+        this.nextSequence = openedSegments.isEmpty() ? 0
+                : sequenceOf(openedSegments.get(openedSegments.size() - 1).file) + 1;
+    }
+
+    /**
+     * Orders that ended before this time and are delivered or cancelled belong
+     * here.
+     */
+    LocalDateTime getColdBefore() {
+        return LocalDateTime.now(this.clock).minus(this.coldAfter);
+    }
+
+    Duration getCheckInterval() {
+        return this.checkInterval;
+    }
+
+    /**
+     * Store given orders. They're durable once this returns. An order stored
+     * before with the same order id is replaced.
+     */
+    synchronized void write(List<WaterOrder> waterOrders) throws IOException {
+        List<WaterOrder> sortedOrders = new ArrayList<>(waterOrders);
+        sortedOrders.sort(Comparator.comparing(WaterOrder::getOrderId));
+
+        List<Segment> currentSegments = this.segments;
+        // Newest segments not larger than what's written so far are merged.
+        int mergedFrom = currentSegments.size();
+        long writtenCount = sortedOrders.size();
+        while (mergedFrom > 0 && currentSegments.get(mergedFrom - 1).orderCount <= writtenCount) {
+            mergedFrom--;
+            writtenCount += currentSegments.get(mergedFrom).orderCount;
+        }
+        // Newest first, so that the newest copy of an order wins.
+        List<Iterator<WaterOrder>> sources = new ArrayList<>();
+        sources.add(sortedOrders.iterator());
+        for (int i = currentSegments.size() - 1; i >= mergedFrom; i--) {
+            sources.add(currentSegments.get(i).iterator());
+        }
+
+        Path file = this.directory.resolve(String.format("%s%016x%s", SEGMENT_PREFIX, this.nextSequence,
+                SEGMENT_SUFFIX));
+        Path temporaryFile = this.directory.resolve(file.getFileName() + TEMPORARY_SUFFIX);
+        try {
+            writeSegment(temporaryFile, new MergingIterator(sources));
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        this.syncDirectory();
+        this.nextSequence++;
+
+        List<Segment> newSegments = new ArrayList<>(currentSegments.subList(0, mergedFrom));
+        newSegments.add(Segment.open(file));
+        this.segments = Collections.unmodifiableList(newSegments);
+        for (Segment mergedSegment : currentSegments.subList(mergedFrom, currentSegments.size())) {
+            // Readers still on a merged segment look again in the new ones.
+            mergedSegment.close();
+            Files.deleteIfExists(mergedSegment.file);
+        }
+    }
+
+    /**
+     * Find the order of given order id.
+     *
+     * @return The order or null if it's not here.
+     */
+    WaterOrder find(String orderId) {
+        List<Segment> searchedSegments = this.segments;
+        while (true) {
+            try {
+                for (int i = searchedSegments.size() - 1; i >= 0; i--) {
+                    WaterOrder waterOrder = searchedSegments.get(i).find(orderId);
+                    if (waterOrder != null) {
+                        return waterOrder;
+                    }
+                }
+                return null;
+            } catch (ClosedChannelException ex) {
+                searchedSegments = this.retryAfterMerge(searchedSegments, ex);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to read cold orders in " + this.directory, ex);
+            }
+        }
+    }
+
+    /**
+     * Find orders of given farm in order id order.
+     */
+    List<WaterOrder> findByFarm(String farmId) {
+        List<Segment> searchedSegments = this.segments;
+        while (true) {
+            try {
+                Map<String, WaterOrder> farmOrders = new HashMap<>();
+                for (int i = searchedSegments.size() - 1; i >= 0; i--) {
+                    for (WaterOrder waterOrder : searchedSegments.get(i).findByFarm(farmId)) {
+                        farmOrders.putIfAbsent(waterOrder.getOrderId(), waterOrder);
+                    }
+                }
+                List<WaterOrder> orders = new ArrayList<>(farmOrders.values());
+                orders.sort(Comparator.comparing(WaterOrder::getOrderId));
+                return orders;
+            } catch (ClosedChannelException ex) {
+                searchedSegments = this.retryAfterMerge(searchedSegments, ex);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to read cold orders in " + this.directory, ex);
+            }
+        }
+    }
+
+    /**
+     * Find up to limit orders in order id order, starting after given order id.
+     * Only the blocks the page starts in and goes through are read.
+     *
+     * @param afterOrderId Order id the page starts after. Null to start from
+     *                     the first order.
+     */
+    List<WaterOrder> getOrdersPage(String afterOrderId, int limit) {
+        List<Segment> searchedSegments = this.segments;
+        while (true) {
+            try {
+                // Newest first, so that the newest copy of an order wins.
+                List<Iterator<WaterOrder>> sources = new ArrayList<>();
+                for (int i = searchedSegments.size() - 1; i >= 0; i--) {
+                    Segment segment = searchedSegments.get(i);
+                    sources.add(segment.iterator(afterOrderId == null ? 0 : segment.blockOf(afterOrderId)));
+                }
+                Iterator<WaterOrder> sortedOrders = new MergingIterator(sources);
+                List<WaterOrder> orders = new ArrayList<>();
+                while (orders.size() < limit && sortedOrders.hasNext()) {
+                    WaterOrder waterOrder = sortedOrders.next();
+                    if (afterOrderId == null || waterOrder.getOrderId().compareTo(afterOrderId) > 0) {
+                        orders.add(waterOrder);
+                    }
+                }
+                return orders;
+            } catch (UncheckedIOException ex) {
+                if (!(ex.getCause() instanceof ClosedChannelException)) {
+                    throw ex;
+                }
+                searchedSegments = this.retryAfterMerge(searchedSegments, (ClosedChannelException) ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Return every order in the store.
+     */
+    List<WaterOrder> getAllOrders() {
+        List<Segment> searchedSegments = this.segments;
+        while (true) {
+            try {
+                List<WaterOrder> orders = new ArrayList<>();
+                Set<String> orderIds = new HashSet<>();
+                for (int i = searchedSegments.size() - 1; i >= 0; i--) {
+                    Iterator<WaterOrder> segmentOrders = searchedSegments.get(i).iterator();
+                    while (segmentOrders.hasNext()) {
+                        WaterOrder waterOrder = segmentOrders.next();
+                        if (orderIds.add(waterOrder.getOrderId())) {
+                            orders.add(waterOrder);
+                        }
+                    }
+                }
+                return orders;
+            } catch (UncheckedIOException ex) {
+                if (!(ex.getCause() instanceof ClosedChannelException)) {
+                    throw ex;
+                }
+                searchedSegments = this.retryAfterMerge(searchedSegments, (ClosedChannelException) ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Number of orders in the store. An order in more than one segment is
+     * counted more than once until the segments are merged.
+     */
+    long getOrderCount() {
+        long orderCount = 0;
+        for (Segment segment : this.segments) {
+            orderCount += segment.orderCount;
+        }
+        return orderCount;
+    }
+
+    int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Publish how many orders and segments the cold tier has.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("waterorder.retention.cold.orders", this, ColdOrderStore::getOrderCount)
+                .description("Orders in the cold tier").register(registry);
+        Gauge.builder("waterorder.retention.cold.segments", this, ColdOrderStore::getSegmentCount)
+                .description("Segment files of the cold tier").register(registry);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : this.segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * A segment was closed under a reader. That's fine if it was merged
+     * meanwhile since the new segments have its orders.
+     */
+    private List<Segment> retryAfterMerge(List<Segment> searchedSegments, ClosedChannelException ex) {
+        List<Segment> currentSegments = this.segments;
+        if (currentSegments == searchedSegments) {
+            throw new UncheckedIOException("Cold order store is closed: " + this.directory, ex);
+        }
+        return currentSegments;
+    }
+
+    private void syncDirectory() {
+        try (FileChannel directoryChannel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException ex) {
+            // Renames are durable on their own or can't be made so here.
+        }
+    }
+
+    private static List<Path> listSegmentFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : paths) {
+                files.add(path);
+            }
+        }
+        // Sequences are written in fixed-width hex, so names sort by age.
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long sequenceOf(Path file) {
+        String fileName = file.getFileName().toString();
+        return Long.parseUnsignedLong(
+                fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()), 16);
+    }
+
+    /**
+     * Write orders sorted by order id to a new segment file and sync it.
+     */
+    private static void writeSegment(Path file, Iterator<WaterOrder> waterOrders) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            write(channel, header);
+
+            ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+            byte[] compressed = new byte[0];
+            Deflater deflater = new Deflater();
+            ByteBuffer index = ByteBuffer.allocate(64 * 1024);
+            Map<String, List<Integer>> farmBlocks = new LinkedHashMap<>();
+            int blockCount = 0;
+            String lastOrderId = "";
+            try {
+                while (waterOrders.hasNext()) {
+                    block.clear();
+                    String firstOrderId = null;
+                    int blockOrderCount = 0;
+                    while (blockOrderCount < BLOCK_SIZE && waterOrders.hasNext()) {
+                        WaterOrder waterOrder = waterOrders.next();
+                        if (firstOrderId == null) {
+                            firstOrderId = waterOrder.getOrderId();
+                        }
+                        lastOrderId = waterOrder.getOrderId();
+                        List<Integer> blocks = farmBlocks.computeIfAbsent(waterOrder.getFarmId(),
+                                farmId -> new ArrayList<>());
+                        if (blocks.isEmpty() || blocks.get(blocks.size() - 1) != blockCount) {
+                            blocks.add(blockCount);
+                        }
+                        block = ensureRemaining(block, 4 + 4 * 1024);
+                        putOrder(block, waterOrder);
+                        blockOrderCount++;
+                    }
+                    block.flip();
+
+                    deflater.reset();
+                    deflater.setInput(block.array(), 0, block.limit());
+                    deflater.finish();
+                    int compressedLength = 0;
+                    while (!deflater.finished()) {
+                        if (compressedLength == compressed.length) {
+                            compressed = Arrays.copyOf(compressed, Math.max(1024, compressed.length * 2));
+                        }
+                        compressedLength += deflater.deflate(compressed, compressedLength,
+                                compressed.length - compressedLength);
+                    }
+                    long offset = channel.position();
+                    write(channel, ByteBuffer.wrap(compressed, 0, compressedLength));
+
+                    index = ensureRemaining(index, 4 * 1024);
+                    putString(index, firstOrderId);
+                    index.putLong(offset).putInt(compressedLength).putInt(block.limit()).putInt(blockOrderCount);
+                    blockCount++;
+                }
+            } finally {
+                deflater.end();
+            }
+
+            // Index: blocks, last order id and blocks of each farm.
+            ByteBuffer indexHeader = ByteBuffer.allocate(4);
+            indexHeader.putInt(blockCount).flip();
+            index.flip();
+            ByteBuffer fullIndex = ByteBuffer.allocate(4 + index.limit() + 4 * 1024);
+            fullIndex.put(indexHeader).put(index);
+            fullIndex = ensureRemaining(fullIndex, 4 * 1024);
+            putString(fullIndex, lastOrderId);
+            fullIndex.putInt(farmBlocks.size());
+            for (Map.Entry<String, List<Integer>> farmEntry : farmBlocks.entrySet()) {
+                fullIndex = ensureRemaining(fullIndex, 4 * 1024 + 4 * farmEntry.getValue().size());
+                putString(fullIndex, farmEntry.getKey());
+                fullIndex.putInt(farmEntry.getValue().size());
+                for (int blockIndex : farmEntry.getValue()) {
+                    fullIndex.putInt(blockIndex);
+                }
+            }
+            fullIndex.flip();
+            CRC32 crc = new CRC32();
+            crc.update(fullIndex.array(), 0, fullIndex.limit());
+            long indexOffset = channel.position();
+            write(channel, fullIndex);
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(indexOffset).putInt((int) crc.getValue()).putInt(MAGIC).flip();
+            write(channel, footer);
+            channel.force(true);
+        }
+    }
+
+    private static void putOrder(ByteBuffer buffer, WaterOrder waterOrder) {
+        putString(buffer, waterOrder.getOrderId());
+        putString(buffer, waterOrder.getFarmId());
+        buffer.putLong(waterOrder.getStartDateTime().toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(waterOrder.getStartDateTime().getNano());
+        buffer.putLong(waterOrder.getDuration().getSeconds());
+        buffer.putInt(waterOrder.getDuration().getNano());
+        buffer.put((byte) waterOrder.getStatus().ordinal());
+    }
+
+    private static WaterOrder getOrder(ByteBuffer buffer) {
+        String orderId = getString(buffer);
+        String farmId = getString(buffer);
+        LocalDateTime startDateTime = LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+        Duration duration = Duration.ofSeconds(buffer.getLong(), buffer.getInt());
+        return WaterOrder.restore(orderId, farmId, startDateTime, duration, STATUSES[buffer.get()]);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Too long to be put in a cold order segment: " + value);
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return a buffer with room for at least size more bytes, the given one if
+     * it has room already.
+     */
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int size) {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+        ByteBuffer largerBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        largerBuffer.put(buffer);
+        return largerBuffer;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read bytes at the offset. Positional reads let several threads read
+     * through one channel.
+     */
+    private static ByteBuffer read(FileChannel channel, long offset, int length, Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Cold order segment ends unexpectedly at " + (offset + buffer.position())
+                        + ": " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * An open segment file and its index.
+     */
+    private static class Segment {
+        private final Path file;
+        private final FileChannel channel;
+        private final String[] firstOrderIds;
+        private final String lastOrderId;
+        private final long[] blockOffsets;
+        private final int[] compressedLengths;
+        private final int[] blockLengths;
+        private final long orderCount;
+        private final Map<String, int[]> farmBlocks;
+
+        private Segment(Path file, FileChannel channel, ByteBuffer index) {
+            this.file = file;
+            this.channel = channel;
+            int blockCount = index.getInt();
+            this.firstOrderIds = new String[blockCount];
+            this.blockOffsets = new long[blockCount];
+            this.compressedLengths = new int[blockCount];
+            this.blockLengths = new int[blockCount];
+            long totalOrderCount = 0;
+            for (int i = 0; i < blockCount; i++) {
+                this.firstOrderIds[i] = getString(index);
+                this.blockOffsets[i] = index.getLong();
+                this.compressedLengths[i] = index.getInt();
+                this.blockLengths[i] = index.getInt();
+                totalOrderCount += index.getInt();
+            }
+            this.orderCount = totalOrderCount;
+            this.lastOrderId = getString(index);
+            int farmCount = index.getInt();
+            this.farmBlocks = new HashMap<>(farmCount * 2);
+            for (int i = 0; i < farmCount; i++) {
+                String farmId = getString(index);
+                int[] blocks = new int[index.getInt()];
+                for (int j = 0; j < blocks.length; j++) {
+                    blocks[j] = index.getInt();
+                }
+                this.farmBlocks.put(farmId, blocks);
+            }
+        }
+
+        static Segment open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < HEADER_SIZE + FOOTER_SIZE) {
+                    throw new IOException("Not a cold order segment: " + file);
+                }
+                ByteBuffer header = read(channel, 0, HEADER_SIZE, file);
+                ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE, file);
+                long indexOffset = footer.getLong();
+                int indexCrc = footer.getInt();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION || footer.getInt() != MAGIC
+                        || indexOffset < HEADER_SIZE || indexOffset > size - FOOTER_SIZE) {
+                    throw new IOException("Not a cold order segment of version " + VERSION + ": " + file);
+                }
+                ByteBuffer index = read(channel, indexOffset, (int) (size - FOOTER_SIZE - indexOffset), file);
+                CRC32 crc = new CRC32();
+                crc.update(index.array(), 0, index.limit());
+                if ((int) crc.getValue() != indexCrc) {
+                    throw new IOException("Cold order segment index is damaged: " + file);
+                }
+                return new Segment(file, channel, index);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        WaterOrder find(String orderId) throws IOException {
+            if (this.firstOrderIds.length == 0 || orderId.compareTo(this.firstOrderIds[0]) < 0
+                    || orderId.compareTo(this.lastOrderId) > 0) {
+                return null;
+            }
+            for (WaterOrder waterOrder : this.readBlock(this.blockOf(orderId))) {
+                if (waterOrder.getOrderId().equals(orderId)) {
+                    return waterOrder;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Index of the last block starting at or before the order id, or 0 if
+         * every block starts after it.
+         */
+        int blockOf(String orderId) {
+            int low = 0;
+            int high = this.firstOrderIds.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (this.firstOrderIds[middle].compareTo(orderId) <= 0) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        List<WaterOrder> findByFarm(String farmId) throws IOException {
+            List<WaterOrder> orders = new ArrayList<>();
+            for (int blockIndex : this.farmBlocks.getOrDefault(farmId, new int[0])) {
+                for (WaterOrder waterOrder : this.readBlock(blockIndex)) {
+                    if (waterOrder.getFarmId().equals(farmId)) {
+                        orders.add(waterOrder);
+                    }
+                }
+            }
+            return orders;
+        }
+
+        Iterator<WaterOrder> iterator() {
+            return this.iterator(0);
+        }
+
+        /**
+         * Iterate orders block by block in order id order, from the block of
+         * given index. IOException is thrown as UncheckedIOException.
+         */
+        Iterator<WaterOrder> iterator(int firstBlock) {
+            return new Iterator<WaterOrder>() {
+                private int nextBlock = firstBlock;
+                private Iterator<WaterOrder> blockOrders = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!this.blockOrders.hasNext() && this.nextBlock < Segment.this.firstOrderIds.length) {
+                        try {
+                            this.blockOrders = Segment.this.readBlock(this.nextBlock++).iterator();
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                    return this.blockOrders.hasNext();
+                }
+
+                @Override
+                public WaterOrder next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return this.blockOrders.next();
+                }
+            };
+        }
+
+        private List<WaterOrder> readBlock(int blockIndex) throws IOException {
+            ByteBuffer compressed = read(this.channel, this.blockOffsets[blockIndex],
+                    this.compressedLengths[blockIndex], this.file);
+            byte[] block = new byte[this.blockLengths[blockIndex]];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed.array(), 0, compressed.limit());
+                int length = 0;
+                while (length < block.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(block, length, block.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != block.length) {
+                    throw new IOException("Cold order segment is damaged at " + this.blockOffsets[blockIndex] + ": "
+                            + this.file);
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Cold order segment is damaged at " + this.blockOffsets[blockIndex] + ": "
+                        + this.file, ex);
+            } finally {
+                inflater.end();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block);
+            List<WaterOrder> orders = new ArrayList<>(BLOCK_SIZE);
+            while (buffer.hasRemaining()) {
+                orders.add(getOrder(buffer));
+            }
+            return orders;
+        }
+
+        void close() {
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+
+    /**
+     * Merge iterators of orders sorted by order id into one. Of orders with the
+     * same order id, the one of the first iterator wins.
+     */
+    private static class MergingIterator implements Iterator<WaterOrder> {
+        private final List<Iterator<WaterOrder>> sources;
+        // Next order of each source with the source's index.
+        private final PriorityQueue<Object[]> heads = new PriorityQueue<>(
+                Comparator.comparing((Object[] head) -> ((WaterOrder) head[0]).getOrderId())
+                        .thenComparingInt(head -> (Integer) head[1]));
+        private String lastOrderId;
+
+        MergingIterator(List<Iterator<WaterOrder>> sources) {
+            this.sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                this.advance(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Drop older copies of the order returned last.
+            while (!this.heads.isEmpty() && ((WaterOrder) this.heads.peek()[0]).getOrderId().equals(this.lastOrderId)) {
+                this.advance((Integer) this.heads.poll()[1]);
+            }
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public WaterOrder next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object[] head = this.heads.poll();
+            this.advance((Integer) head[1]);
+            WaterOrder waterOrder = (WaterOrder) head[0];
+            this.lastOrderId = waterOrder.getOrderId();
+            return waterOrder;
+        }
+
+        private void advance(int sourceIndex) {
+            Iterator<WaterOrder> source = this.sources.get(sourceIndex);
+            if (source.hasNext()) {
+                this.heads.add(new Object[] { source.next(), sourceIndex });
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package code.challenge.rubicon.services.repository;
+
+import java.util.Arrays;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+
+/**
+ * Implementation of repository interface that keeps orders in primitive arrays
+ * instead of WaterOrder objects. A WaterOrder in a map costs the order, its
+ * order id String, a LocalDateTime with its LocalDate and LocalTime, a
+ * Duration and a map entry per index. Here an order is a slot of parallel
+ * arrays instead:
+ * - farm id as an int handle of the farm id, which is kept once per farm,
+ * - start time as epoch seconds,
+ * - duration as int seconds,
+ * - status as a byte.
+ * Slots are found by order id through an open addressing table of slots. The
+ * rest, i.e. the slots sorted by start time per farm and per status, order ids
+ * and the orders returned, is shared with OffHeapOrderRepository through
+ * SlotOrderRepository.
+ *
+ * Selected by setting waterorder.repository=compact.
+ */
+@Repository
+@ConditionalOnProperty(name = "waterorder.repository", havingValue = "compact")
+public class CompactOrderRepository extends SlotOrderRepository {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
+
+    // Order fields by slot.
+    private int[] orderFarms = new int[INITIAL_CAPACITY];
+    private long[] orderStartTimes = new long[INITIAL_CAPACITY];
+    private int[] orderDurations = new int[INITIAL_CAPACITY];
+    private byte[] orderStatuses = new byte[INITIAL_CAPACITY];
+
+    // Open addressing table of slot + 1 by farm handle and start time, i.e. by
+    // order id. 0 is an empty bucket. Kept at most half full.
+    private int[] slotTable = new int[INITIAL_CAPACITY * 2];
+
+    @Override
+    void addSlot(int slot, int farmHandle, long startTime, int duration, OrderStatus status) {
+        if (slot == this.orderFarms.length) {
+            int capacity = slot + (slot >> 1);
+            this.orderFarms = Arrays.copyOf(this.orderFarms, capacity);
+            this.orderStartTimes = Arrays.copyOf(this.orderStartTimes, capacity);
+            this.orderDurations = Arrays.copyOf(this.orderDurations, capacity);
+            this.orderStatuses = Arrays.copyOf(this.orderStatuses, capacity);
+        }
+        this.orderFarms[slot] = farmHandle;
+        this.orderStartTimes[slot] = startTime;
+        this.orderDurations[slot] = duration;
+        this.orderStatuses[slot] = (byte) status.ordinal();
+
+        if ((slot + 1) * 2 > this.slotTable.length) {
+            this.slotTable = new int[this.slotTable.length * 2];
+            for (int i = 0; i < slot; i++) {
+                this.putInSlotTable(i);
+            }
+        }
+        this.putInSlotTable(slot);
+    }
+
+    private void putInSlotTable(int slot) {
+        int mask = this.slotTable.length - 1;
+        int bucket = bucketOf(this.orderFarms[slot], this.orderStartTimes[slot], mask);
+        while (this.slotTable[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        this.slotTable[bucket] = slot + 1;
+    }
+
+    @Override
+    int findSlot(int farmHandle, long startTime) {
+        int mask = this.slotTable.length - 1;
+        for (int bucket = bucketOf(farmHandle, startTime, mask);; bucket = (bucket + 1) & mask) {
+            int slot = this.slotTable[bucket] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (this.orderStartTimes[slot] == startTime && this.orderFarms[slot] == farmHandle) {
+                return slot;
+            }
+        }
+    }
+
+    @Override
+    int farmOf(int slot) {
+        return this.orderFarms[slot];
+    }
+
+    @Override
+    long startTimeOf(int slot) {
+        return this.orderStartTimes[slot];
+    }
+
+    @Override
+    int durationOf(int slot) {
+        return this.orderDurations[slot];
+    }
+
+    @Override
+    OrderStatus statusOf(int slot) {
+        return STATUSES[this.orderStatuses[slot]];
+    }
+
+    @Override
+    void setStatus(int slot, OrderStatus status) {
+        this.orderStatuses[slot] = (byte) status.ordinal();
+    }
+}
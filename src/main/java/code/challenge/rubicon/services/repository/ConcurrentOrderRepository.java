@@ -0,0 +1,596 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
+import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+import code.challenge.rubicon.services.WaterOrderRequestAction;
+import code.challenge.rubicon.services.repository.OrderStatusIndex.OrderKey;
+
+/**
+ * Implementation of repository interface built on concurrent maps. Reads don't
+ * take any lock. Writes lock only the farm of the order, so writes to
+ * different farms don't contend with each other.
+ *
+ * Each farm has a version which is incremented after every write to the farm.
+ * It's returned by getFarmVersion() too. reserveWaterOrder() validates
+ * without any lock and adds the order only if the farm's version hasn't
+ * changed since validation started. Otherwise it validates again against the
+ * new state.
+ *
+ * With a ColdOrderStore, orders delivered or cancelled long enough ago are
+ * moved to it in the background and lookups fall through to it. Such orders
+ * ended before any order that can still be added starts, so they're left out
+ * of overlap checks, pending orders and queries.
+ *
+ * Selected by setting waterorder.repository=concurrent.
+ */
+@Repository
+@ConditionalOnProperty(name = "waterorder.repository", havingValue = "concurrent")
+public class ConcurrentOrderRepository implements IWaterOrderRepository, AutoCloseable {
+
+    private Logger logger = LoggerFactory.getLogger(ConcurrentOrderRepository.class);
+
+    private final ConcurrentMap<String, WaterOrder> waterOrders = new ConcurrentHashMap<>();
+
+    // Same orders as waterOrders sorted by orderId to serve pages.
+    private final ConcurrentSkipListMap<String, WaterOrder> sortedOrders = new ConcurrentSkipListMap<>();
+
+    // Same orders as waterOrders by status sorted by start time.
+    private final OrderStatusIndex statusIndex = new OrderStatusIndex(ConcurrentSkipListMap::new);
+
+    // Orders and delivery time ranges by farmId. A FarmOrders is never removed
+    // once created so that writers can safely lock on it.
+    private final ConcurrentMap<String, FarmOrders> farms = new ConcurrentHashMap<>();
+
+    private final IOrderIdGenerator orderIdGenerator;
+
+    // Null if every order stays in memory.
+    private final ColdOrderStore coldOrderStore;
+    // Moves orders to the cold store periodically. Null if they're only moved
+    // on demand.
+    private ScheduledExecutorService retentionScheduler;
+
+    public ConcurrentOrderRepository() {
+        this(Optional.empty());
+    }
+
+    public ConcurrentOrderRepository(Optional<IOrderIdGenerator> orderIdGenerator) {
+        this(orderIdGenerator, (ColdOrderStore) null);
+    }
+
+    @Autowired
+    public ConcurrentOrderRepository(Optional<IOrderIdGenerator> orderIdGenerator,
+            Optional<ColdOrderStore> coldOrderStore) {
+        this(orderIdGenerator, coldOrderStore.orElse(null));
+        this.startMovingColdOrders();
+    }
+
+    /**
+     * Create the repository without moving orders to the cold store in the
+     * background.
+     */
+    ConcurrentOrderRepository(Optional<IOrderIdGenerator> orderIdGenerator, ColdOrderStore coldOrderStore) {
+        this.orderIdGenerator = orderIdGenerator.orElseGet(TimestampOrderIdGenerator::new);
+        this.coldOrderStore = coldOrderStore;
+    }
+
+    /**
+     * Add a new order. Generate a new order id and set it to the order.
+     */
+    @Override
+    public WaterOrder addWaterOrder(WaterOrder waterOrder) {
+        // Generate order id for the new order.
+        String orderId = this.orderIdGenerator.generateOrderId(waterOrder);
+        FarmOrders farm = this.farms.computeIfAbsent(waterOrder.getFarmId(), farmId -> new FarmOrders());
+        synchronized(farm) {
+            return this.insertWaterOrder(farm, orderId, waterOrder);
+        }
+    }
+
+    /**
+     * Validate without lock and add the order if no other write happened to the
+     * farm in the meantime. Retry from validation otherwise. The farm's lock is
+     * only held to compare the version and insert the order.
+     */
+    @Override
+    public WaterOrder reserveWaterOrder(WaterOrder waterOrder, Function<WaterOrder, Optional<String>> orderValidator)
+            throws OrderValidityException {
+        String orderId = this.orderIdGenerator.generateOrderId(waterOrder);
+        FarmOrders farm = this.farms.computeIfAbsent(waterOrder.getFarmId(), farmId -> new FarmOrders());
+        while (true) {
+            long version = farm.version.get();
+            Optional<String> validationErrMsg = orderValidator.apply(waterOrder);
+            if (validationErrMsg.isPresent()) {
+                throw new OrderValidityException(WaterOrderRequestAction.CREATE, validationErrMsg.get());
+            }
+            synchronized(farm) {
+                if (farm.version.get() == version) {
+                    return this.insertWaterOrder(farm, orderId, waterOrder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Validate and add new orders one by one under a single acquisition of the
+     * farm's lock. Validation runs under the lock here since the whole batch
+     * would have to be validated again whenever the farm changes.
+     */
+    @Override
+    public List<BatchOrderResult> reserveWaterOrders(List<WaterOrder> waterOrders,
+            Function<WaterOrder, Optional<String>> orderValidator) {
+        List<BatchOrderResult> results = new ArrayList<>(waterOrders.size());
+        if (waterOrders.isEmpty()) {
+            return results;
+        }
+        String farmId = waterOrders.get(0).getFarmId();
+        for (WaterOrder waterOrder : waterOrders) {
+            if (!farmId.equals(waterOrder.getFarmId())) {
+                throw new IllegalArgumentException(
+                        "Orders of more than one farm are given. farmIds: " + farmId + ", " + waterOrder.getFarmId());
+            }
+        }
+        FarmOrders farm = this.farms.computeIfAbsent(farmId, id -> new FarmOrders());
+        synchronized(farm) {
+            for (WaterOrder waterOrder : waterOrders) {
+                Optional<String> validationErrMsg = orderValidator.apply(waterOrder);
+                if (validationErrMsg.isPresent()) {
+                    results.add(BatchOrderResult.rejected(waterOrder, validationErrMsg.get()));
+                } else {
+                    String orderId = this.orderIdGenerator.generateOrderId(waterOrder);
+                    results.add(BatchOrderResult.created(this.insertWaterOrder(farm, orderId, waterOrder)));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Cancel order.
+     */
+    @Override
+    public WaterOrder cancelWaterOrder(String orderId) throws OrderNotFoundException {
+        WaterOrder waterOrder = this.getHotWaterOrder(orderId);
+        this.updateOrderstatus(orderId, WaterOrder.OrderStatus.CANCELLED);
+        return waterOrder;
+    }
+
+    /**
+     * Return all orders in repository, cold ones included.
+     */
+    @Override
+    public List<WaterOrder> getAllOrders() {
+        List<WaterOrder> orders = new ArrayList<WaterOrder>(this.waterOrders.values());
+        if (this.coldOrderStore != null) {
+            for (WaterOrder coldOrder : this.coldOrderStore.getAllOrders()) {
+                if (!this.waterOrders.containsKey(coldOrder.getOrderId())) {
+                    orders.add(coldOrder);
+                }
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Return a stream of orders not delivered or cancelled yet straight over
+     * the concurrent map. Orders added or updated meanwhile may or may not be
+     * in it.
+     */
+    @Override
+    public Stream<WaterOrder> streamPendingOrders() {
+        return this.waterOrders.values().stream().filter(waterOrder -> !waterOrder.getStatus().isTerminal());
+    }
+
+    /**
+     * Return a page of orders in order id order from the sorted index, merged
+     * with the cold store's next orders. Orders added meanwhile may or may not
+     * be in it. The cold store is read last, so that an order moved to it
+     * meanwhile is found in one or the other.
+     */
+    @Override
+    public List<WaterOrder> getOrdersPage(String afterOrderId, int limit) {
+        List<WaterOrder> hotOrders = new ArrayList<>();
+        for (WaterOrder waterOrder : afterOrderId == null ? this.sortedOrders.values()
+                : this.sortedOrders.tailMap(afterOrderId, false).values()) {
+            if (hotOrders.size() == limit) {
+                break;
+            }
+            hotOrders.add(waterOrder);
+        }
+        if (this.coldOrderStore == null) {
+            return hotOrders;
+        }
+
+        List<WaterOrder> orders = new ArrayList<>(limit);
+        Iterator<WaterOrder> hotIterator = hotOrders.iterator();
+        Iterator<WaterOrder> coldIterator = this.coldOrderStore.getOrdersPage(afterOrderId, limit).iterator();
+        WaterOrder hotOrder = hotIterator.hasNext() ? hotIterator.next() : null;
+        WaterOrder coldOrder = coldIterator.hasNext() ? coldIterator.next() : null;
+        while (orders.size() < limit && (hotOrder != null || coldOrder != null)) {
+            int comparison = hotOrder == null ? 1
+                    : coldOrder == null ? -1 : hotOrder.getOrderId().compareTo(coldOrder.getOrderId());
+            if (comparison <= 0) {
+                orders.add(hotOrder);
+                hotOrder = hotIterator.hasNext() ? hotIterator.next() : null;
+            } else {
+                orders.add(coldOrder);
+            }
+            if (comparison >= 0) {
+                // Taken, or shadowed by the order in memory.
+                coldOrder = coldIterator.hasNext() ? coldIterator.next() : null;
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Find orders of the query from the farm's orders sorted by start time if
+     * it's of a farm, and from the status index otherwise. Either way only the
+     * orders in the query's time range are visited. Orders in the cold store
+     * aren't searched.
+     */
+    @Override
+    public List<WaterOrder> findOrders(WaterOrderQuery query) {
+        if (query.getFarmId() == null) {
+            return this.statusIndex.find(query);
+        }
+        FarmOrders farm = this.farms.get(query.getFarmId());
+        return farm == null ? new ArrayList<>() : OrderStatusIndex.findInRange(farm.startOrders, query);
+    }
+
+    /**
+     * Find order by order id in memory, then in the cold store.
+     */
+    @Override
+    public Optional<WaterOrder> findWaterOrderByOrderId(String orderId) {
+        WaterOrder waterOrder = this.waterOrders.get(orderId);
+        if (waterOrder == null && this.coldOrderStore != null) {
+            waterOrder = this.coldOrderStore.find(orderId);
+        }
+        return Optional.ofNullable(waterOrder);
+    }
+
+    /**
+     * Find orders by farm id, cold ones included, in order id order.
+     */
+    @Override
+    public List<WaterOrder> findWaterOrdersByFarmId(String farmId) {
+        FarmOrders farm = this.farms.get(farmId);
+        if (farm == null && this.coldOrderStore == null) {
+            return Collections.emptyList();
+        }
+        List<WaterOrder> orders = farm == null ? new ArrayList<>() : new ArrayList<>(farm.orders.values());
+        if (this.coldOrderStore != null) {
+            List<WaterOrder> coldOrders = this.coldOrderStore.findByFarm(farmId);
+            if (!coldOrders.isEmpty()) {
+                Set<String> hotOrderIds = new HashSet<>();
+                for (WaterOrder waterOrder : orders) {
+                    hotOrderIds.add(waterOrder.getOrderId());
+                }
+                for (WaterOrder coldOrder : coldOrders) {
+                    if (!hotOrderIds.contains(coldOrder.getOrderId())) {
+                        orders.add(coldOrder);
+                    }
+                }
+                orders.sort(Comparator.comparing(WaterOrder::getOrderId));
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Return the farm's version without taking its lock. Moving orders to the
+     * cold store and back increments it too, which only makes it change more
+     * often than needed.
+     */
+    @Override
+    public long getFarmVersion(String farmId) {
+        FarmOrders farm = this.farms.get(farmId);
+        return farm == null ? 0 : farm.version.get();
+    }
+
+    /**
+     * Find overlapping order using the farm's delivery time ranges.
+     */
+    @Override
+    public Optional<WaterOrder> findOverlappingOrder(String farmId, LocalDateTime startDateTime, Duration duration) {
+        FarmOrders farm = this.farms.get(farmId);
+        if (farm == null) {
+            return Optional.empty();
+        }
+        long startTime = DeliveryIntervalIndex.toEpochSecond(startDateTime);
+        long endTime = DeliveryIntervalIndex.endOf(startTime, duration);
+        return Optional.ofNullable(farm.intervals.findOverlapping(startTime, endTime));
+    }
+
+    /**
+     * Update order's status under the farm's lock. Cancelled order releases its
+     * delivery time range. A cold order is brought back in memory to be
+     * updated.
+     */
+    @Override
+    public void updateOrderstatus(String orderId, OrderStatus status) throws OrderNotFoundException {
+        WaterOrder existingOrder = this.getHotWaterOrder(orderId);
+        FarmOrders farm = this.farms.get(existingOrder.getFarmId());
+        synchronized(farm) {
+            this.recordStatusUpdate(existingOrder, status);
+            OrderStatus oldStatus = existingOrder.getStatus();
+            existingOrder.setStatus(status);
+            this.statusIndex.updateStatus(existingOrder, oldStatus, status);
+            if (status == WaterOrder.OrderStatus.CANCELLED) {
+                farm.intervals.remove(existingOrder);
+            }
+            farm.version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Move orders delivered or cancelled before the cold store's age limit to
+     * it. Orders are written to the cold store first and only then removed
+     * from memory, so a lookup finds them in one or the other. An order that
+     * changed after it was written stays in memory, where it shadows the cold
+     * copy.
+     *
+     * @return Number of orders moved.
+     */
+    int moveColdOrders() throws IOException {
+        if (this.coldOrderStore == null) {
+            return 0;
+        }
+        LocalDateTime coldBefore = this.coldOrderStore.getColdBefore();
+        // Copies as of now, since orders may change while they're written.
+        List<WaterOrder> coldOrders = new ArrayList<>();
+        for (WaterOrder waterOrder : this.waterOrders.values()) {
+            OrderStatus status = waterOrder.getStatus();
+            if (status.isTerminal()
+                    && !waterOrder.getStartDateTime().plus(waterOrder.getDuration()).isAfter(coldBefore)) {
+                coldOrders.add(WaterOrder.restore(waterOrder.getOrderId(), waterOrder.getFarmId(),
+                        waterOrder.getStartDateTime(), waterOrder.getDuration(), status));
+            }
+        }
+        if (coldOrders.isEmpty()) {
+            return 0;
+        }
+        this.coldOrderStore.write(coldOrders);
+
+        int movedCount = 0;
+        for (WaterOrder coldOrder : coldOrders) {
+            FarmOrders farm = this.farms.get(coldOrder.getFarmId());
+            synchronized(farm) {
+                WaterOrder hotOrder = this.waterOrders.get(coldOrder.getOrderId());
+                if (coldOrder.equals(hotOrder)) {
+                    this.waterOrders.remove(coldOrder.getOrderId());
+                    this.sortedOrders.remove(coldOrder.getOrderId());
+                    this.statusIndex.remove(hotOrder, hotOrder.getStatus());
+                    farm.orders.remove(coldOrder.getOrderId());
+                    farm.startOrders.remove(new OrderKey(hotOrder), hotOrder);
+                    farm.intervals.remove(hotOrder);
+                    farm.version.incrementAndGet();
+                    movedCount++;
+                }
+            }
+        }
+        return movedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.retentionScheduler != null) {
+            // Not interrupted, that would close the cold store's files under
+            // its readers.
+            this.retentionScheduler.shutdown();
+            try {
+                this.retentionScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start moving orders to the cold store every check interval of it, if
+     * there's a cold store.
+     */
+    protected void startMovingColdOrders() {
+        if (this.coldOrderStore == null || this.coldOrderStore.getCheckInterval().isZero()) {
+            return;
+        }
+        this.retentionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkInterval = this.coldOrderStore.getCheckInterval().getSeconds();
+        this.retentionScheduler.scheduleWithFixedDelay(this::moveScheduledColdOrders, checkInterval, checkInterval,
+                TimeUnit.SECONDS);
+    }
+
+    private void moveScheduledColdOrders() {
+        try {
+            int movedCount = this.moveColdOrders();
+            if (movedCount > 0) {
+                logger.info("Moved {} orders to the cold store", movedCount);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Orders stay in memory and are tried again next time.
+            logger.error("Failed to move orders to the cold store", ex);
+        }
+    }
+
+    /**
+     * Find order by order id in memory. A cold order is brought back in memory
+     * so that it can be updated.
+     */
+    private WaterOrder getHotWaterOrder(String orderId) throws OrderNotFoundException {
+        WaterOrder waterOrder = this.waterOrders.get(orderId);
+        if (waterOrder != null) {
+            return waterOrder;
+        }
+        WaterOrder coldOrder = this.getWaterOrderByOrderId(orderId);
+        FarmOrders farm = this.farms.computeIfAbsent(coldOrder.getFarmId(), farmId -> new FarmOrders());
+        synchronized(farm) {
+            WaterOrder hotOrder = this.waterOrders.putIfAbsent(orderId, coldOrder);
+            if (hotOrder != null) {
+                // Brought back or replaced by another writer meanwhile.
+                return hotOrder;
+            }
+            this.sortedOrders.put(orderId, coldOrder);
+            this.statusIndex.add(coldOrder);
+            farm.orders.put(orderId, coldOrder);
+            farm.startOrders.put(new OrderKey(coldOrder), coldOrder);
+            if (coldOrder.getStatus() != WaterOrder.OrderStatus.CANCELLED) {
+                farm.intervals.add(coldOrder);
+            }
+            farm.version.incrementAndGet();
+            return coldOrder;
+        }
+    }
+
+    /**
+     * Insert new order to the farm. Caller must hold the farm's lock. Version is
+     * incremented after the order is visible so that a validation that read
+     * the old version can't miss the new order.
+     */
+    private WaterOrder insertWaterOrder(FarmOrders farm, String orderId, WaterOrder waterOrder) {
+        WaterOrder newOrder = new WaterOrder(orderId, waterOrder.getFarmId(), waterOrder.getStartDateTime(),
+                waterOrder.getDuration(), WaterOrder.OrderStatus.REQUESTED);
+        this.recordInsert(newOrder);
+        WaterOrder replacedOrder = this.waterOrders.put(orderId, newOrder);
+        if (replacedOrder != null) {
+            farm.startOrders.remove(new OrderKey(replacedOrder), replacedOrder);
+            farm.intervals.remove(replacedOrder);
+            this.statusIndex.remove(replacedOrder, replacedOrder.getStatus());
+        }
+        this.sortedOrders.put(orderId, newOrder);
+        this.statusIndex.add(newOrder);
+        farm.orders.put(orderId, newOrder);
+        farm.startOrders.put(new OrderKey(newOrder), newOrder);
+        farm.intervals.add(newOrder);
+        farm.version.incrementAndGet();
+        return newOrder;
+    }
+
+    /**
+     * Put orders back as they were, e.g. when loading persisted orders before
+     * the repository is used. Orders aren't validated or recorded, and keep
+     * their ids and statuses. An order replaces the one with the same id. Each
+     * farm's orders are sorted before they're put in the farm's skip lists, so
+     * that each insert lands next to the previous one. Farms are filled in
+     * parallel since they don't share anything.
+     */
+    protected void restoreWaterOrders(Collection<WaterOrder> waterOrders) {
+        Map<String, List<WaterOrder>> ordersByFarm = new HashMap<>();
+        for (WaterOrder waterOrder : waterOrders) {
+            ordersByFarm.computeIfAbsent(waterOrder.getFarmId(), farmId -> new ArrayList<>()).add(waterOrder);
+        }
+        ordersByFarm.entrySet().parallelStream().forEach(farmEntry -> {
+            List<WaterOrder> farmOrders = farmEntry.getValue();
+            FarmOrders farm = this.farms.computeIfAbsent(farmEntry.getKey(), farmId -> new FarmOrders());
+            farmOrders.sort(Comparator.comparing(WaterOrder::getOrderId));
+            for (WaterOrder waterOrder : farmOrders) {
+                farm.orders.put(waterOrder.getOrderId(), waterOrder);
+                WaterOrder replacedOrder = this.waterOrders.put(waterOrder.getOrderId(), waterOrder);
+                if (replacedOrder != null) {
+                    farm.startOrders.remove(new OrderKey(replacedOrder), replacedOrder);
+                    farm.intervals.remove(replacedOrder);
+                    this.statusIndex.remove(replacedOrder, replacedOrder.getStatus());
+                }
+                this.sortedOrders.put(waterOrder.getOrderId(), waterOrder);
+                this.statusIndex.add(waterOrder);
+            }
+            farmOrders.sort(Comparator.comparing(WaterOrder::getStartDateTime));
+            for (WaterOrder waterOrder : farmOrders) {
+                farm.startOrders.put(new OrderKey(waterOrder), waterOrder);
+                if (waterOrder.getStatus() != WaterOrder.OrderStatus.CANCELLED) {
+                    farm.intervals.add(waterOrder);
+                }
+            }
+            // A farm with orders never has version 0, which has no ETag.
+            farm.version.incrementAndGet();
+        });
+    }
+
+    /**
+     * Hand each farm's orders to the visitor, e.g. to write a snapshot, without
+     * holding the farms' locks. A write that started before the visit is
+     * waited for, and its change is visible to the visitor. Later writes may
+     * or may not be.
+     */
+    protected void visitWaterOrdersByFarm(FarmOrdersVisitor visitor) throws IOException {
+        for (Map.Entry<String, FarmOrders> farmEntry : this.farms.entrySet()) {
+            FarmOrders farm = farmEntry.getValue();
+            synchronized(farm) {
+                // Only waits for the write in progress, if any.
+            }
+            visitor.visit(farmEntry.getKey(), farm.orders.values());
+        }
+    }
+
+    /**
+     * Called under the farm's lock before a new order is stored. Nothing to do
+     * here. A persistent repository records the change ahead of applying it, so
+     * that a change failing to be recorded isn't applied either.
+     */
+    protected void recordInsert(WaterOrder newOrder) {
+    }
+
+    /**
+     * Called under the farm's lock before an order's status is updated. Same as
+     * recordInsert().
+     */
+    protected void recordStatusUpdate(WaterOrder waterOrder, OrderStatus status) {
+    }
+
+    /**
+     * Receives orders of a farm in order id order.
+     */
+    protected interface FarmOrdersVisitor {
+        void visit(String farmId, Collection<WaterOrder> farmOrders) throws IOException;
+    }
+
+    /**
+     * Orders of a farm. Collections are concurrent so they can be read without
+     * locking while a writer holding this object's monitor updates them.
+     */
+    private static class FarmOrders {
+        private final ConcurrentMap<String, WaterOrder> orders = new ConcurrentSkipListMap<>();
+        // Same orders sorted by start time, cancelled ones included.
+        private final ConcurrentSkipListMap<OrderKey, WaterOrder> startOrders = new ConcurrentSkipListMap<>();
+        private final DeliveryIntervalIndex intervals = new DeliveryIntervalIndex(new ConcurrentSkipListMap<>());
+        // Incremented after every write to this farm.
+        private final AtomicLong version = new AtomicLong();
+    }
+}
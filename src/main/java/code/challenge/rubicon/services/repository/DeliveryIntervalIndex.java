@@ -0,0 +1,80 @@
+package code.challenge.rubicon.services.repository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Delivery time ranges of a farm's orders, keyed by start time in epoch
+ * seconds. Orders of a farm never overlap each other (new orders are rejected
+ * by DeliveryTimeOverlapValidator otherwise), so ordering by start time also
+ * orders them by end time. This lets an overlap check look at one neighbour
+ * only instead of every order of the farm.
+ *
+ * This class doesn't do any synchronization by itself. Thread safety depends
+ * on the given NavigableMap and on the caller.
+ */
+class DeliveryIntervalIndex {
+
+    private final NavigableMap<Long, WaterOrder> ordersByStartTime;
+
+    DeliveryIntervalIndex(NavigableMap<Long, WaterOrder> ordersByStartTime) {
+        this.ordersByStartTime = ordersByStartTime;
+    }
+
+    /**
+     * Add the delivery time range of given order. If another order starts at the
+     * same second, keep the one finishing later as it covers the other one.
+     */
+    void add(WaterOrder waterOrder) {
+        this.ordersByStartTime.merge(startOf(waterOrder), waterOrder,
+                (existing, added) -> endOf(added) > endOf(existing) ? added : existing);
+    }
+
+    /**
+     * Remove the delivery time range of given order. Nothing happens if the
+     * range at the order's start time belongs to another order.
+     */
+    void remove(WaterOrder waterOrder) {
+        this.ordersByStartTime.remove(startOf(waterOrder), waterOrder);
+    }
+
+    boolean isEmpty() {
+        return this.ordersByStartTime.isEmpty();
+    }
+
+    /**
+     * Find an order whose delivery time range overlaps [startTime, endTime]. Both
+     * ends are inclusive. The order starting last at or before endTime is the
+     * only candidate: every order starting earlier also finishes earlier.
+     *
+     * @return Overlapping order or null if there's none.
+     */
+    WaterOrder findOverlapping(long startTime, long endTime) {
+        Map.Entry<Long, WaterOrder> candidate = this.ordersByStartTime.floorEntry(endTime);
+        if (candidate != null && endOf(candidate.getValue()) >= startTime) {
+            return candidate.getValue();
+        }
+        return null;
+    }
+
+    static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static long endOf(long startTime, Duration duration) {
+        return startTime + duration.getSeconds();
+    }
+
+    private static long startOf(WaterOrder waterOrder) {
+        return toEpochSecond(waterOrder.getStartDateTime());
+    }
+
+    private static long endOf(WaterOrder waterOrder) {
+        return endOf(startOf(waterOrder), waterOrder.getDuration());
+    }
+}
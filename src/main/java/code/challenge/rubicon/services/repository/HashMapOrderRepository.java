@@ -1,41 +1,144 @@
 package code.challenge.rubicon.services.repository;
 
-import java.time.format.DateTimeFormatter;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
 import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+import code.challenge.rubicon.services.WaterOrderRequestAction;
+import code.challenge.rubicon.services.repository.OrderStatusIndex.OrderKey;
 
 /**
  * Implementation of repository interface. Use a simple HashMap as repository.
+ * Orders are also indexed by farm id so that searching orders of a farm
+ * doesn't have to walk through every order in the repository, and delivery
+ * time ranges of each farm are kept sorted to find overlapping orders quickly.
+ *
+ * Every access synchronizes on the repository. This is the default repository
+ * (waterorder.repository=hashmap).
  */
 @Repository
+@ConditionalOnProperty(name = "waterorder.repository", havingValue = "hashmap", matchIfMissing = true)
 public class HashMapOrderRepository implements IWaterOrderRepository {
 
     private final Map<String, WaterOrder> waterOrders = new HashMap<>();
 
+    // Secondary index. Orders by orderId, grouped by farmId. Holds the same
+    // WaterOrder instances as waterOrders.
+    private final Map<String, Map<String, WaterOrder>> farmOrders = new HashMap<>();
+
+    // Secondary index. Orders sorted by start time, grouped by farmId. Holds
+    // the same WaterOrder instances as waterOrders, cancelled ones included.
+    private final Map<String, NavigableMap<OrderKey, WaterOrder>> farmStartOrders = new HashMap<>();
+
+    // Secondary index. Orders sorted by orderId to serve pages. Holds the same
+    // WaterOrder instances as waterOrders.
+    private final NavigableMap<String, WaterOrder> sortedOrders = new TreeMap<>();
+
+    // Secondary index. Orders by status sorted by start time.
+    private final OrderStatusIndex statusIndex = new OrderStatusIndex(TreeMap::new);
+
+    // Delivery time ranges of non-cancelled orders by farmId.
+    private final Map<String, DeliveryIntervalIndex> farmDeliveryIntervals = new HashMap<>();
+
+    // Incremented after every write to the farm, by farmId.
+    private final Map<String, Long> farmVersions = new HashMap<>();
+
+    private final IOrderIdGenerator orderIdGenerator;
+
+    public HashMapOrderRepository() {
+        this(Optional.empty());
+    }
+
+    @Autowired
+    public HashMapOrderRepository(Optional<IOrderIdGenerator> orderIdGenerator) {
+        this.orderIdGenerator = orderIdGenerator.orElseGet(TimestampOrderIdGenerator::new);
+    }
+
     /**
      * Add a new order. Generate a new order id and set it to the order.
      */
     @Override
     public WaterOrder addWaterOrder(WaterOrder waterOrder) {
         // Generate order id for the new order.
-        String orderId = this.generateOrderId(waterOrder);
+        String orderId = this.orderIdGenerator.generateOrderId(waterOrder);
         synchronized(this) {
             WaterOrder newOrder = new WaterOrder(orderId, waterOrder.getFarmId(), waterOrder.getStartDateTime(),
                     waterOrder.getDuration(), WaterOrder.OrderStatus.REQUESTED);
-            this.waterOrders.put(orderId, newOrder);
+            WaterOrder replacedOrder = this.waterOrders.put(orderId, newOrder);
+            this.sortedOrders.put(orderId, newOrder);
+            if (replacedOrder != null) {
+                this.removeFromFarmIndex(replacedOrder);
+                this.removeFromDeliveryIntervals(replacedOrder);
+                this.statusIndex.remove(replacedOrder, replacedOrder.getStatus());
+            }
+            this.statusIndex.add(newOrder);
+            this.farmOrders.computeIfAbsent(newOrder.getFarmId(), farmId -> new LinkedHashMap<>()).put(orderId,
+                    newOrder);
+            this.farmStartOrders.computeIfAbsent(newOrder.getFarmId(), farmId -> new TreeMap<>())
+                    .put(new OrderKey(newOrder), newOrder);
+            this.farmDeliveryIntervals
+                    .computeIfAbsent(newOrder.getFarmId(), farmId -> new DeliveryIntervalIndex(new TreeMap<>()))
+                    .add(newOrder);
+            if (replacedOrder != null) {
+                this.incrementFarmVersion(replacedOrder.getFarmId());
+            }
+            this.incrementFarmVersion(newOrder.getFarmId());
             return newOrder;
         }
     }
 
+    /**
+     * Validate and add a new order while holding the repository's lock.
+     */
+    @Override
+    public synchronized WaterOrder reserveWaterOrder(WaterOrder waterOrder,
+            Function<WaterOrder, Optional<String>> orderValidator) throws OrderValidityException {
+        Optional<String> validationErrMsg = orderValidator.apply(waterOrder);
+        if (validationErrMsg.isPresent()) {
+            throw new OrderValidityException(WaterOrderRequestAction.CREATE, validationErrMsg.get());
+        }
+        return this.addWaterOrder(waterOrder);
+    }
+
+    /**
+     * Validate and add new orders one by one while holding the repository's
+     * lock.
+     */
+    @Override
+    public synchronized List<BatchOrderResult> reserveWaterOrders(List<WaterOrder> waterOrders,
+            Function<WaterOrder, Optional<String>> orderValidator) {
+        List<BatchOrderResult> results = new ArrayList<>(waterOrders.size());
+        for (WaterOrder waterOrder : waterOrders) {
+            Optional<String> validationErrMsg = orderValidator.apply(waterOrder);
+            if (validationErrMsg.isPresent()) {
+                results.add(BatchOrderResult.rejected(waterOrder, validationErrMsg.get()));
+            } else {
+                results.add(BatchOrderResult.created(this.addWaterOrder(waterOrder)));
+            }
+        }
+        return results;
+    }
+
     /**
      * Cancel order.
      */
@@ -46,7 +149,7 @@ public class HashMapOrderRepository implements IWaterOrderRepository {
             this.updateOrderstatus(orderId, WaterOrder.OrderStatus.CANCELLED);
             return waterOrder;
         } else {
-            throw new OrderNotFoundException("orderId", String.format("Order ID '%s' doesn't exist.", orderId));
+            throw OrderNotFoundException.ofOrderId(orderId);
         }
     }
 
@@ -59,54 +162,162 @@ public class HashMapOrderRepository implements IWaterOrderRepository {
     }
 
     /**
-     * Find order by order id.
+     * Return a stream of orders not delivered or cancelled yet. HashMap can't
+     * be read outside of the lock, so the orders are copied first.
      */
     @Override
-    public WaterOrder getWaterOrderByOrderId(String orderId) throws OrderNotFoundException {
-        WaterOrder waterOrder = null;
-        synchronized(this) {
-            waterOrder = this.waterOrders.get(orderId);
+    public synchronized Stream<WaterOrder> streamPendingOrders() {
+        List<WaterOrder> pendingOrders = new ArrayList<>();
+        for (WaterOrder waterOrder : this.waterOrders.values()) {
+            if (!waterOrder.getStatus().isTerminal()) {
+                pendingOrders.add(waterOrder);
+            }
         }
-        if (waterOrder == null) {
-            throw new OrderNotFoundException("orderId", String.format("Order ID '%s' doesn't exist.", orderId));
-        }
-        return waterOrder;
+        return pendingOrders.stream();
     }
 
     /**
-     * Find orders by farm id.
+     * Return a page of orders in order id order, from the sorted index.
      */
     @Override
-    public List<WaterOrder> getWaterOrderByFarmrId(String farmId) throws OrderNotFoundException {
-        List<WaterOrder> orders = null;
-        synchronized(this) {
-            orders = this.waterOrders.values().stream().filter(order -> order.getFarmId().equals(farmId))
-                    .collect(Collectors.toList());
+    public synchronized List<WaterOrder> getOrdersPage(String afterOrderId, int limit) {
+        List<WaterOrder> orders = new ArrayList<>(Math.min(limit, this.sortedOrders.size()));
+        for (WaterOrder waterOrder : afterOrderId == null ? this.sortedOrders.values()
+                : this.sortedOrders.tailMap(afterOrderId, false).values()) {
+            if (orders.size() == limit) {
+                break;
+            }
+            orders.add(waterOrder);
         }
+        return orders;
+    }
 
-        if (orders.size() == 0) {
-            throw new OrderNotFoundException("farmId", String.format("Order for farmID '%s' doesn't exist.", farmId));
+    /**
+     * Find orders of the query from the farm's orders sorted by start time if
+     * it's of a farm, and from the status index otherwise. Either way only the
+     * orders in the query's time range are visited.
+     */
+    @Override
+    public synchronized List<WaterOrder> findOrders(WaterOrderQuery query) {
+        if (query.getFarmId() == null) {
+            return this.statusIndex.find(query);
         }
+        NavigableMap<OrderKey, WaterOrder> startOrders = this.farmStartOrders.get(query.getFarmId());
+        return startOrders == null ? new ArrayList<>() : OrderStatusIndex.findInRange(startOrders, query);
+    }
 
-        return orders;
+    /**
+     * Find order by order id.
+     */
+    @Override
+    public synchronized Optional<WaterOrder> findWaterOrderByOrderId(String orderId) {
+        return Optional.ofNullable(this.waterOrders.get(orderId));
+    }
+
+    /**
+     * Find orders by farm id. Only the orders of the given farm are visited.
+     */
+    @Override
+    public synchronized List<WaterOrder> findWaterOrdersByFarmId(String farmId) {
+        Map<String, WaterOrder> ordersOfFarm = this.farmOrders.get(farmId);
+        return ordersOfFarm == null ? Collections.emptyList() : new ArrayList<>(ordersOfFarm.values());
+    }
+
+    /**
+     * Return the farm's version, incremented after every write to the farm.
+     */
+    @Override
+    public synchronized long getFarmVersion(String farmId) {
+        return this.farmVersions.getOrDefault(farmId, 0L);
+    }
+
+    /**
+     * Find overlapping order using the farm's delivery time ranges.
+     */
+    @Override
+    public synchronized Optional<WaterOrder> findOverlappingOrder(String farmId, LocalDateTime startDateTime,
+            Duration duration) {
+        DeliveryIntervalIndex intervals = this.farmDeliveryIntervals.get(farmId);
+        if (intervals == null) {
+            return Optional.empty();
+        }
+        long startTime = DeliveryIntervalIndex.toEpochSecond(startDateTime);
+        return Optional
+                .ofNullable(intervals.findOverlapping(startTime, DeliveryIntervalIndex.endOf(startTime, duration)));
     }
 
     /**
-     * Update order's status.
+     * Update order's status. Farm index holds the same WaterOrder instance so
+     * it sees the new status without being touched. Cancelled order releases
+     * its delivery time range.
      */
     @Override
     public synchronized void updateOrderstatus(String orderId, OrderStatus status) throws OrderNotFoundException {
         WaterOrder existingOrder = this.getWaterOrderByOrderId(orderId);
+        OrderStatus oldStatus = existingOrder.getStatus();
         existingOrder.setStatus(status);
+        this.statusIndex.updateStatus(existingOrder, oldStatus, status);
+        if (status == WaterOrder.OrderStatus.CANCELLED) {
+            this.removeFromDeliveryIntervals(existingOrder);
+        }
+        if (oldStatus != status) {
+            this.incrementFarmVersion(existingOrder.getFarmId());
+        }
     }
 
     /**
-     * Generate order id. It's a combination of farmid and startdatetime.
+     * Update status of orders under one lock.
      */
-    private String generateOrderId(WaterOrder waterOrder) {
-        // e.g. "MYFARM:20200116101010"
-        return waterOrder.getFarmId() + ":"
-                + DateTimeFormatter.ofPattern("yyyyMMddHHmmss").format(waterOrder.getStartDateTime());
+    @Override
+    public synchronized int updateOrderstatuses(List<String> orderIds, OrderStatus status) {
+        int updatedCount = 0;
+        for (String orderId : orderIds) {
+            try {
+                this.updateOrderstatus(orderId, status);
+                updatedCount++;
+            } catch (OrderNotFoundException ex) {
+                // Skipped as documented.
+            }
+        }
+        return updatedCount;
+    }
+
+    private void incrementFarmVersion(String farmId) {
+        this.farmVersions.merge(farmId, 1L, Long::sum);
+    }
+
+    /**
+     * Remove given order from farm indexes. Drop the farm entry once it has no
+     * order so that the indexes don't keep empty maps around.
+     */
+    private void removeFromFarmIndex(WaterOrder waterOrder) {
+        Map<String, WaterOrder> ordersOfFarm = this.farmOrders.get(waterOrder.getFarmId());
+        if (ordersOfFarm != null) {
+            ordersOfFarm.remove(waterOrder.getOrderId());
+            if (ordersOfFarm.isEmpty()) {
+                this.farmOrders.remove(waterOrder.getFarmId());
+            }
+        }
+        NavigableMap<OrderKey, WaterOrder> startOrders = this.farmStartOrders.get(waterOrder.getFarmId());
+        if (startOrders != null) {
+            startOrders.remove(new OrderKey(waterOrder), waterOrder);
+            if (startOrders.isEmpty()) {
+                this.farmStartOrders.remove(waterOrder.getFarmId());
+            }
+        }
+    }
+
+    /**
+     * Remove given order's delivery time range from the farm's intervals.
+     */
+    private void removeFromDeliveryIntervals(WaterOrder waterOrder) {
+        DeliveryIntervalIndex intervals = this.farmDeliveryIntervals.get(waterOrder.getFarmId());
+        if (intervals != null) {
+            intervals.remove(waterOrder);
+            if (intervals.isEmpty()) {
+                this.farmDeliveryIntervals.remove(waterOrder.getFarmId());
+            }
+        }
     }
 
 }
\ No newline at end of file
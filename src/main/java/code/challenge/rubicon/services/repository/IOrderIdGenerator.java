@@ -0,0 +1,21 @@
+package code.challenge.rubicon.services.repository;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Generate ids of new orders. Repositories that store order ids take one of
+ * the implementations selected by waterorder.order-id. Orders keep the id
+ * they were given, so ids generated before switching to another generator
+ * keep working.
+ */
+public interface IOrderIdGenerator {
+
+    /**
+     * Generate the id of a new order.
+     *
+     * @param waterOrder New order to generate the id for.
+     * @return Order id. Adding an order with the id of an existing order
+     *         replaces it.
+     */
+    public String generateOrderId(WaterOrder waterOrder);
+}
@@ -1,9 +1,14 @@
 package code.challenge.rubicon.services.repository;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
 
 /**
  * Provide access to orders with read-only privilege.
@@ -17,6 +22,60 @@ public interface IWaterOrderReadonlyRepository {
      */
     public List<WaterOrder> getAllOrders();
 
+    /**
+     * Stream orders that aren't delivered or cancelled yet. Unlike
+     * getAllOrders(), orders aren't copied into a list first where the
+     * repository allows it.
+     *
+     * @return Stream of orders in REQUESTED or IN_PROGRESS status
+     */
+    public Stream<WaterOrder> streamPendingOrders();
+
+    /**
+     * Get a page of orders. Orders come in an order fixed by the repository,
+     * so that going from the first page to the last returns every order that
+     * exists meanwhile once. A page costs about its size however deep it is,
+     * unlike getAllOrders().
+     *
+     * @param afterOrderId Order id of the last order of the previous page. Null
+     *                     for the first page.
+     * @param limit        Maximum number of orders in the page.
+     * @return Orders of the page. Empty if there are no more orders.
+     * @throws IllegalArgumentException If afterOrderId can't be an order id of
+     *                                  the repository.
+     */
+    public List<WaterOrder> getOrdersPage(String afterOrderId, int limit);
+
+    /**
+     * Find orders matching the query through the repository's indexes of
+     * start time, status and farm, rather than going through every order.
+     *
+     * @param query Criteria the orders must meet.
+     * @return Matching orders sorted by start time. Empty list if there's no
+     *         matching order.
+     */
+    public List<WaterOrder> findOrders(WaterOrderQuery query);
+
+    /**
+     * Find order of given order id. Unlike getWaterOrderByOrderId(), a missing
+     * order costs no exception.
+     *
+     * @param orderId Order id to search.
+     * @return Optional of the order. Empty Optional if there's no order of the
+     *         order id.
+     */
+    public Optional<WaterOrder> findWaterOrderByOrderId(String orderId);
+
+    /**
+     * Find orders of given farm id. Unlike getWaterOrderByFarmrId(), a farm
+     * without orders costs no exception.
+     *
+     * @param farmId Farm id to search.
+     * @return List of orders with given farm id. Empty list if the farm has no
+     *         order, which may not be modified.
+     */
+    public List<WaterOrder> findWaterOrdersByFarmId(String farmId);
+
     /**
      * Get order of given order id.
      *
@@ -25,7 +84,13 @@ public interface IWaterOrderReadonlyRepository {
      * @throws OrderNotFoundException If order cannot be found,
      *                                OrderNotFoundException is thrown.
      */
-    public WaterOrder getWaterOrderByOrderId(String orderId) throws OrderNotFoundException;
+    public default WaterOrder getWaterOrderByOrderId(String orderId) throws OrderNotFoundException {
+        Optional<WaterOrder> waterOrder = this.findWaterOrderByOrderId(orderId);
+        if (!waterOrder.isPresent()) {
+            throw OrderNotFoundException.ofOrderId(orderId);
+        }
+        return waterOrder.get();
+    }
 
     /**
      * Get list of orders with given farm id.
@@ -35,5 +100,35 @@ public interface IWaterOrderReadonlyRepository {
      * @throws OrderNotFoundException If order cannot be found,
      *                                OrderNotFoundException is thrown.
      */
-    public List<WaterOrder> getWaterOrderByFarmrId(String farmId) throws OrderNotFoundException;
+    public default List<WaterOrder> getWaterOrderByFarmrId(String farmId) throws OrderNotFoundException {
+        List<WaterOrder> orders = this.findWaterOrdersByFarmId(farmId);
+        if (orders.isEmpty()) {
+            throw OrderNotFoundException.ofFarmId(farmId);
+        }
+        return orders;
+    }
+
+    /**
+     * Get version of given farm's orders. It changes whenever an order of the
+     * farm is added or its status changes, so the farm's orders are the same
+     * as long as the version is. Versions start over when the repository is
+     * created.
+     *
+     * @param farmId Farm id of the orders.
+     * @return Version of the farm's orders. 0 if the farm has never had any
+     *         order.
+     */
+    public long getFarmVersion(String farmId);
+
+    /**
+     * Find an order of given farm whose delivery time range overlaps the given
+     * delivery time range. Cancelled orders are not considered.
+     *
+     * @param farmId        Farm id to search.
+     * @param startDateTime Start date time of the delivery time range.
+     * @param duration      Duration of the delivery time range.
+     * @return Optional of the overlapping order. Empty Optional if there's no
+     *         overlapping order.
+     */
+    public Optional<WaterOrder> findOverlappingOrder(String farmId, LocalDateTime startDateTime, Duration duration);
 }
\ No newline at end of file
@@ -1,6 +1,12 @@
 package code.challenge.rubicon.services.repository;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
 import code.challenge.rubicon.services.orderstatus.IWaterOrderStatusHelper;
 
@@ -20,6 +26,39 @@ public interface IWaterOrderRepository extends IWaterOrderReadonlyRepository, IW
      */
     public WaterOrder addWaterOrder(WaterOrder waterOrder);
 
+    /**
+     * Validate a new water order and add it in repository as one atomic step for
+     * the order's farm. No other order of the same farm can be added in between
+     * so the validation result still holds when the order is added.
+     *
+     * @param waterOrder     New WaterOrder to add.
+     * @param orderValidator Validation to run against current orders. Returns
+     *                       Optional of validation message if there's any
+     *                       violation. It can be run more than once.
+     * @return Newly added WaterOrder.
+     * @throws OrderValidityException If validation fails, OrderValidityException
+     *                                is thrown and the order is not added.
+     */
+    public WaterOrder reserveWaterOrder(WaterOrder waterOrder, Function<WaterOrder, Optional<String>> orderValidator)
+            throws OrderValidityException;
+
+    /**
+     * Validate and add new orders of one farm as one atomic step for the farm.
+     * Orders are validated and added one by one in the given order, so each
+     * order is validated against existing orders and the orders of the batch
+     * added before it. An order failing validation is not added and doesn't
+     * stop the rest.
+     *
+     * @param waterOrders    New WaterOrders to add. All of them must be of the
+     *                       same farm.
+     * @param orderValidator Validation to run against current orders. Returns
+     *                       Optional of validation message if there's any
+     *                       violation.
+     * @return Result of each given order in the same order.
+     */
+    public List<BatchOrderResult> reserveWaterOrders(List<WaterOrder> waterOrders,
+            Function<WaterOrder, Optional<String>> orderValidator);
+
     /**
      * Cancel existing order in repository.
      *
@@ -0,0 +1,299 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.unit.DataSize;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * ConcurrentOrderRepository that survives restarts. Every new order and status
+ * update is appended to an OrderJournal before it's applied in memory, and the
+ * writing request returns once the journal is synced. Reads are served from
+ * memory as before.
+ *
+ * An OrderSnapshot of all orders is written in the background every
+ * waterorder.journal.snapshot-interval, and journal segments it covers are
+ * deleted. Writers aren't blocked while a snapshot is written.
+ *
+ * On creation, the latest snapshot is loaded and only the journal after it is
+ * replayed, so the application doesn't start serving until every order is
+ * loaded.
+ *
+ * Selected by setting waterorder.repository=journal.
+ */
+@Repository
+@ConditionalOnProperty(name = "waterorder.repository", havingValue = "journal")
+public class JournaledOrderRepository extends ConcurrentOrderRepository implements MeterBinder, AutoCloseable {
+
+    private Logger logger = LoggerFactory.getLogger(JournaledOrderRepository.class);
+
+    private final Path directory;
+    private final OrderJournal journal;
+
+    // Writes snapshots periodically. Null if they're only written on demand.
+    private ScheduledExecutorService snapshotScheduler;
+    private final Object snapshotLock = new Object();
+    // Guarded by snapshotLock.
+    private long snapshotCount;
+
+    @Autowired
+    public JournaledOrderRepository(@Value("${waterorder.journal.directory:data/journal}") String directory,
+            @Value("${waterorder.journal.segment-size:64MB}") DataSize segmentSize,
+            @Value("${waterorder.journal.snapshot-interval:10m}") Duration snapshotInterval,
+            Optional<IOrderIdGenerator> orderIdGenerator, Optional<ColdOrderStore> coldOrderStore) {
+        this(Paths.get(directory), (int) segmentSize.toBytes(), orderIdGenerator, coldOrderStore.orElse(null));
+        if (!snapshotInterval.isZero()) {
+            this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "order-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.snapshotScheduler.scheduleWithFixedDelay(this::writeScheduledSnapshot,
+                    snapshotInterval.getSeconds(), snapshotInterval.getSeconds(), TimeUnit.SECONDS);
+        }
+        this.startMovingColdOrders();
+    }
+
+    /**
+     * Create the repository without periodic snapshots.
+     */
+    JournaledOrderRepository(Path directory, int segmentSize) {
+        this(directory, segmentSize, Optional.empty());
+    }
+
+    /**
+     * Create the repository without periodic snapshots. Orders recovered from
+     * the journal keep their ids whatever generator new orders get ids from.
+     */
+    JournaledOrderRepository(Path directory, int segmentSize, Optional<IOrderIdGenerator> orderIdGenerator) {
+        this(directory, segmentSize, orderIdGenerator, null);
+    }
+
+    /**
+     * Create the repository without periodic snapshots or moves to the cold
+     * store. Orders moved to the cold store are left out of snapshots, and
+     * journal records of them are applied to the cold copy.
+     */
+    JournaledOrderRepository(Path directory, int segmentSize, Optional<IOrderIdGenerator> orderIdGenerator,
+            ColdOrderStore coldOrderStore) {
+        super(orderIdGenerator, coldOrderStore);
+        long startTime = System.nanoTime();
+        this.directory = directory;
+        // Orders changed in the journal after the snapshot, as of the end of
+        // the journal. Statuses are folded in before the orders are restored so
+        // that every order is restored only once.
+        Map<String, WaterOrder> journalOrders = new HashMap<>();
+        // One instance of each farm id shared by the farm's orders.
+        Map<String, String> farmIds = new HashMap<>();
+        int snapshotOrderCount;
+        try {
+            Files.createDirectories(directory);
+            List<WaterOrder> snapshotOrders = new ArrayList<>();
+            long snapshotPosition = OrderSnapshot.loadLatest(directory, snapshotOrders::addAll);
+            this.restoreWaterOrders(snapshotOrders);
+            snapshotOrderCount = snapshotOrders.size();
+
+            this.journal = OrderJournal.open(directory, segmentSize, snapshotPosition,
+                    new OrderJournal.ReplayHandler() {
+                @Override
+                public void orderCreated(String orderId, String farmId, LocalDateTime startDateTime,
+                        Duration duration, OrderStatus status) {
+                    journalOrders.put(orderId, WaterOrder.restore(orderId,
+                            farmIds.computeIfAbsent(farmId, Function.identity()), startDateTime, duration, status));
+                }
+
+                @Override
+                public void statusUpdated(String orderId, OrderStatus status) {
+                    WaterOrder waterOrder = journalOrders.get(orderId);
+                    if (waterOrder == null) {
+                        waterOrder = JournaledOrderRepository.this.findRestoredOrder(orderId);
+                    }
+                    if (waterOrder != null) {
+                        journalOrders.put(orderId, WaterOrder.restore(orderId, waterOrder.getFarmId(),
+                                waterOrder.getStartDateTime(), waterOrder.getDuration(), status));
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to open order journal in " + directory, ex);
+        }
+        this.restoreWaterOrders(journalOrders.values());
+        logger.info("Recovered " + snapshotOrderCount + " orders from snapshot and " + journalOrders.size()
+                + " orders changed after it in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Write a snapshot of all orders and delete journal segments it covers.
+     * Writers carry on meanwhile. Changes made while the snapshot is written
+     * may or may not be in it, but they're all after the snapshot's journal
+     * position and are replayed on recovery anyway.
+     */
+    void writeSnapshot() throws IOException {
+        synchronized(this.snapshotLock) {
+            long startTime = System.nanoTime();
+            // Every record before this position is applied in memory once
+            // visitWaterOrdersByFarm() has waited for writes in progress.
+            long journalPosition = this.journal.getAppendedPosition();
+            long orderCount;
+            try (OrderSnapshot.Writer writer = OrderSnapshot.create(this.directory, journalPosition)) {
+                this.visitWaterOrdersByFarm(writer::writeFarm);
+                writer.commit();
+                orderCount = writer.getOrderCount();
+            }
+            this.journal.deleteSegmentsBefore(journalPosition);
+            this.snapshotCount++;
+            logger.info("Wrote snapshot of " + orderCount + " orders in "
+                    + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * Number of snapshots written since the repository was created.
+     */
+    long getSnapshotCount() {
+        synchronized(this.snapshotLock) {
+            return this.snapshotCount;
+        }
+    }
+
+    /**
+     * Add a new order and wait until it's durable.
+     */
+    @Override
+    public WaterOrder addWaterOrder(WaterOrder waterOrder) {
+        WaterOrder newOrder = super.addWaterOrder(waterOrder);
+        this.journal.sync();
+        return newOrder;
+    }
+
+    /**
+     * Validate and add a new order and wait until it's durable.
+     */
+    @Override
+    public WaterOrder reserveWaterOrder(WaterOrder waterOrder, Function<WaterOrder, Optional<String>> orderValidator)
+            throws OrderValidityException {
+        WaterOrder newOrder = super.reserveWaterOrder(waterOrder, orderValidator);
+        this.journal.sync();
+        return newOrder;
+    }
+
+    /**
+     * Validate and add new orders and wait until the created ones are durable.
+     */
+    @Override
+    public List<BatchOrderResult> reserveWaterOrders(List<WaterOrder> waterOrders,
+            Function<WaterOrder, Optional<String>> orderValidator) {
+        List<BatchOrderResult> results = super.reserveWaterOrders(waterOrders, orderValidator);
+        this.journal.sync();
+        return results;
+    }
+
+    /**
+     * Update order's status and wait until it's durable. Cancelling goes through
+     * here too.
+     */
+    @Override
+    public void updateOrderstatus(String orderId, OrderStatus status) throws OrderNotFoundException {
+        super.updateOrderstatus(orderId, status);
+        this.journal.sync();
+    }
+
+    /**
+     * Update status of orders and wait until they're all durable with one
+     * sync rather than one per order.
+     */
+    @Override
+    public int updateOrderstatuses(List<String> orderIds, OrderStatus status) {
+        int updatedCount = 0;
+        for (String orderId : orderIds) {
+            try {
+                super.updateOrderstatus(orderId, status);
+                updatedCount++;
+            } catch (OrderNotFoundException ex) {
+                // Skipped as documented.
+            }
+        }
+        this.journal.sync();
+        return updatedCount;
+    }
+
+    /**
+     * Publish number of journal records and syncs. Records per sync shows how
+     * much group commit batches.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("waterorder.journal.records", this.journal, OrderJournal::getAppendedRecordCount)
+                .description("Records appended to the order journal").register(registry);
+        FunctionCounter.builder("waterorder.journal.syncs", this.journal, OrderJournal::getSyncCount)
+                .description("Syncs of the order journal to disk").register(registry);
+        FunctionCounter.builder("waterorder.journal.snapshots", this, JournaledOrderRepository::getSnapshotCount)
+                .description("Snapshots of all orders written").register(registry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (this.snapshotScheduler != null) {
+            this.snapshotScheduler.shutdownNow();
+        }
+        synchronized(this.snapshotLock) {
+            this.journal.close();
+        }
+    }
+
+    /**
+     * Order restored from the snapshot or in the cold store, or null.
+     */
+    private WaterOrder findRestoredOrder(String orderId) {
+        return this.findWaterOrderByOrderId(orderId).orElse(null);
+    }
+
+    private void writeScheduledSnapshot() {
+        try {
+            this.writeSnapshot();
+        } catch (IOException | RuntimeException ex) {
+            // Keep the schedule going. The journal still has every change.
+            logger.error("Failed to write order snapshot in " + this.directory, ex);
+        }
+    }
+
+    @Override
+    protected void recordInsert(WaterOrder newOrder) {
+        this.journal.appendOrderCreated(newOrder);
+    }
+
+    @Override
+    protected void recordStatusUpdate(WaterOrder waterOrder, OrderStatus status) {
+        this.journal.appendStatusUpdated(waterOrder.getOrderId(), status);
+    }
+}
@@ -0,0 +1,170 @@
+package code.challenge.rubicon.services.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+
+/**
+ * Implementation of repository interface that keeps orders outside of the
+ * Java heap, so that millions of stored orders add nothing to GC work.
+ *
+ * Orders are fixed width records in pages of direct ByteBuffers. A record has
+ * the same fields as a slot of CompactOrderRepository, padded so that start
+ * times stay 8 byte aligned:
+ *
+ *   [long start time][int farm handle][int duration][byte status]
+ *
+ * Pages are added as orders are added and never copied. Orders are found by
+ * order id through an open addressing table of slots, which is a direct
+ * ByteBuffer too.
+ *
+ * The rest is shared with CompactOrderRepository through SlotOrderRepository.
+ * That includes the slots of each farm and each status sorted by start time,
+ * which stay on the heap in int arrays. They cost 4 bytes per order each and
+ * nothing to GC since they hold no references.
+ *
+ * Selected by setting waterorder.repository=offheap.
+ */
+@Repository
+@ConditionalOnProperty(name = "waterorder.repository", havingValue = "offheap")
+public class OffHeapOrderRepository extends SlotOrderRepository implements MeterBinder {
+
+    // Record layout.
+    private static final int START_TIME_OFFSET = 0;
+    private static final int FARM_OFFSET = 8;
+    private static final int DURATION_OFFSET = 12;
+    private static final int STATUS_OFFSET = 16;
+    private static final int RECORD_SIZE = 24;
+
+    static final int DEFAULT_PAGE_RECORDS = 64 * 1024;
+    private static final int INITIAL_TABLE_SIZE = 2048;
+    // Largest table of 4 byte buckets a ByteBuffer can hold.
+    private static final int MAX_TABLE_SIZE = 1 << 28;
+
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
+
+    private final int pageRecords;
+    private final List<ByteBuffer> pages = new ArrayList<>();
+
+    // Open addressing table of slot + 1 by farm handle and start time, i.e. by
+    // order id. 0 is an empty bucket. Kept at most half full.
+    private ByteBuffer slotTable = allocate(INITIAL_TABLE_SIZE * 4);
+    private int tableSize = INITIAL_TABLE_SIZE;
+
+    public OffHeapOrderRepository() {
+        this(DEFAULT_PAGE_RECORDS);
+    }
+
+    OffHeapOrderRepository(int pageRecords) {
+        this.pageRecords = pageRecords;
+    }
+
+    /**
+     * Publish how much memory outside of the heap the orders take.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("waterorder.repository.offheap.memory", this, OffHeapOrderRepository::getOffHeapBytes)
+                .baseUnit("bytes").description("Memory taken by orders outside of the heap").register(registry);
+    }
+
+    synchronized long getOffHeapBytes() {
+        return (long) this.pages.size() * this.pageRecords * RECORD_SIZE + this.slotTable.capacity();
+    }
+
+    @Override
+    void addSlot(int slot, int farmHandle, long startTime, int duration, OrderStatus status) {
+        if ((slot + 1) * 2L > this.tableSize) {
+            if (this.tableSize == MAX_TABLE_SIZE) {
+                throw new IllegalStateException("Too many orders to store: " + slot);
+            }
+            this.tableSize *= 2;
+            this.slotTable = allocate(this.tableSize * 4);
+            for (int i = 0; i < slot; i++) {
+                this.putInSlotTable(i);
+            }
+        }
+        if (slot == this.pages.size() * this.pageRecords) {
+            this.pages.add(allocate(this.pageRecords * RECORD_SIZE));
+        }
+        ByteBuffer page = this.pageOf(slot);
+        int offset = this.offsetOf(slot);
+        page.putLong(offset + START_TIME_OFFSET, startTime);
+        page.putInt(offset + FARM_OFFSET, farmHandle);
+        page.putInt(offset + DURATION_OFFSET, duration);
+        page.put(offset + STATUS_OFFSET, (byte) status.ordinal());
+        this.putInSlotTable(slot);
+    }
+
+    private void putInSlotTable(int slot) {
+        int mask = this.tableSize - 1;
+        int bucket = bucketOf(this.farmOf(slot), this.startTimeOf(slot), mask);
+        while (this.slotTable.getInt(bucket * 4) != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        this.slotTable.putInt(bucket * 4, slot + 1);
+    }
+
+    @Override
+    int findSlot(int farmHandle, long startTime) {
+        int mask = this.tableSize - 1;
+        int bucket = bucketOf(farmHandle, startTime, mask);
+        while (true) {
+            int slot = this.slotTable.getInt(bucket * 4) - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (this.startTimeOf(slot) == startTime && this.farmOf(slot) == farmHandle) {
+                return slot;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+    }
+
+    @Override
+    int farmOf(int slot) {
+        return this.pageOf(slot).getInt(this.offsetOf(slot) + FARM_OFFSET);
+    }
+
+    @Override
+    long startTimeOf(int slot) {
+        return this.pageOf(slot).getLong(this.offsetOf(slot) + START_TIME_OFFSET);
+    }
+
+    @Override
+    int durationOf(int slot) {
+        return this.pageOf(slot).getInt(this.offsetOf(slot) + DURATION_OFFSET);
+    }
+
+    @Override
+    OrderStatus statusOf(int slot) {
+        return STATUSES[this.pageOf(slot).get(this.offsetOf(slot) + STATUS_OFFSET)];
+    }
+
+    @Override
+    void setStatus(int slot, OrderStatus status) {
+        this.pageOf(slot).put(this.offsetOf(slot) + STATUS_OFFSET, (byte) status.ordinal());
+    }
+
+    private ByteBuffer pageOf(int slot) {
+        return this.pages.get(slot / this.pageRecords);
+    }
+
+    private int offsetOf(int slot) {
+        return slot % this.pageRecords * RECORD_SIZE;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,502 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Append-only journal of order changes. Records are written to memory-mapped
+ * segment files of fixed size, and a new segment is started when the current
+ * one is full.
+ *
+ * Appending a record only copies it into the mapped segment. sync() makes
+ * every record appended so far durable. Only one thread at a time forces
+ * segments to disk, and the threads waiting meanwhile are covered by the next
+ * force together, so concurrent writers share the cost of syncing (group
+ * commit).
+ *
+ * Each record is [length][CRC32 of body][body]. A segment ends at a zero length
+ * or where no more record fits. On open, the journal is replayed up to the
+ * first record that's incomplete or damaged, e.g. by a crash in the middle of
+ * writing, and appending continues from there.
+ */
+class OrderJournal implements Closeable {
+
+    /**
+     * Receives records while the journal is replayed.
+     */
+    interface ReplayHandler {
+        void orderCreated(String orderId, String farmId, LocalDateTime startDateTime, Duration duration,
+                WaterOrder.OrderStatus status);
+
+        void statusUpdated(String orderId, WaterOrder.OrderStatus status);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Length and CRC32 of the body.
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte ORDER_CREATED = 1;
+    private static final byte STATUS_UPDATED = 2;
+
+    private static final WaterOrder.OrderStatus[] STATUSES = WaterOrder.OrderStatus.values();
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final Object appendLock = new Object();
+    // Segment being appended to. Guarded by appendLock.
+    private Segment segment;
+    // Full segments whose records haven't been forced yet. Guarded by
+    // appendLock.
+    private List<Segment> unsyncedSegments = new ArrayList<>();
+    // Position right after the last appended record. Guarded by appendLock.
+    private long appendedPosition;
+    private final CRC32 crc = new CRC32();
+    private long appendedRecordCount;
+
+    private final Object syncLock = new Object();
+    // Records up to this position are durable. Guarded by syncLock.
+    private long syncedPosition;
+    // A thread is forcing segments. Guarded by syncLock.
+    private boolean syncing;
+    private long syncCount;
+
+    private OrderJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Open the journal in the directory, replay its records and get it ready
+     * for appending. The directory is created if it doesn't exist.
+     *
+     * @param directory   Directory of segment files.
+     * @param segmentSize Size of new segment files.
+     * @param handler     Receives every valid record in order.
+     * @return Journal ready for appending.
+     */
+    static OrderJournal open(Path directory, int segmentSize, ReplayHandler handler) throws IOException {
+        return open(directory, segmentSize, 0, handler);
+    }
+
+    /**
+     * Same as open() but records before the position, e.g. ones covered by a
+     * snapshot, aren't replayed.
+     *
+     * @param fromPosition Position of the first record to replay.
+     */
+    static OrderJournal open(Path directory, int segmentSize, long fromPosition, ReplayHandler handler)
+            throws IOException {
+        OrderJournal journal = new OrderJournal(directory, segmentSize);
+        Files.createDirectories(directory);
+        journal.replay(fromPosition, handler);
+        return journal;
+    }
+
+    /**
+     * Position of a record in the journal. Segment index in the high 32 bits and
+     * offset in the segment in the low 32 bits, so positions grow in the order
+     * records are appended.
+     */
+    static long position(long segmentIndex, int offset) {
+        return (segmentIndex << 32) | offset;
+    }
+
+    static long segmentIndex(long position) {
+        return position >>> 32;
+    }
+
+    static int segmentOffset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Append a record of a new order.
+     */
+    void appendOrderCreated(WaterOrder waterOrder) {
+        byte[] orderId = waterOrder.getOrderId().getBytes(StandardCharsets.UTF_8);
+        byte[] farmId = waterOrder.getFarmId().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + orderId.length + 4 + farmId.length + 8 + 4 + 8 + 4 + 1;
+        synchronized(this.appendLock) {
+            ByteBuffer buffer = this.startRecord(length);
+            buffer.put(ORDER_CREATED);
+            buffer.putInt(orderId.length).put(orderId);
+            buffer.putInt(farmId.length).put(farmId);
+            buffer.putLong(waterOrder.getStartDateTime().toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(waterOrder.getStartDateTime().getNano());
+            buffer.putLong(waterOrder.getDuration().getSeconds());
+            buffer.putInt(waterOrder.getDuration().getNano());
+            buffer.put((byte) waterOrder.getStatus().ordinal());
+            this.finishRecord(length);
+        }
+    }
+
+    /**
+     * Append a record of a status update.
+     */
+    void appendStatusUpdated(String orderId, WaterOrder.OrderStatus status) {
+        byte[] orderIdBytes = orderId.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + orderIdBytes.length + 1;
+        synchronized(this.appendLock) {
+            ByteBuffer buffer = this.startRecord(length);
+            buffer.put(STATUS_UPDATED);
+            buffer.putInt(orderIdBytes.length).put(orderIdBytes);
+            buffer.put((byte) status.ordinal());
+            this.finishRecord(length);
+        }
+    }
+
+    /**
+     * Make every record appended so far durable. If another thread is already
+     * forcing segments, wait for it and force once more only if that didn't
+     * cover the records.
+     */
+    void sync() {
+        long targetPosition;
+        synchronized(this.appendLock) {
+            targetPosition = this.appendedPosition;
+        }
+
+        boolean interrupted = false;
+        try {
+            synchronized(this.syncLock) {
+                while (this.syncedPosition < targetPosition && this.syncing) {
+                    try {
+                        this.syncLock.wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+                if (this.syncedPosition >= targetPosition) {
+                    return;
+                }
+                this.syncing = true;
+            }
+            this.forceAppendedRecords();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Position right after the last appended record.
+     */
+    long getAppendedPosition() {
+        synchronized(this.appendLock) {
+            return this.appendedPosition;
+        }
+    }
+
+    /**
+     * Delete segments whose records all come before the position, e.g. once a
+     * snapshot covers them. The segment holding the position is kept.
+     */
+    void deleteSegmentsBefore(long position) throws IOException {
+        for (long index : this.listSegmentIndexes()) {
+            if (index >= segmentIndex(position)) {
+                break;
+            }
+            Files.deleteIfExists(this.segmentPath(index));
+        }
+    }
+
+    /**
+     * Number of records appended since the journal was opened.
+     */
+    long getAppendedRecordCount() {
+        synchronized(this.appendLock) {
+            return this.appendedRecordCount;
+        }
+    }
+
+    /**
+     * Number of times segments were forced to disk.
+     */
+    long getSyncCount() {
+        synchronized(this.syncLock) {
+            return this.syncCount;
+        }
+    }
+
+    /**
+     * Force every appended record and close the segment files.
+     */
+    @Override
+    public void close() throws IOException {
+        this.sync();
+        synchronized(this.appendLock) {
+            for (Segment fullSegment : this.unsyncedSegments) {
+                fullSegment.channel.close();
+            }
+            this.unsyncedSegments.clear();
+            this.segment.channel.close();
+        }
+    }
+
+    /**
+     * Force records appended up to now. Only called by the thread which set
+     * syncing.
+     */
+    private void forceAppendedRecords() {
+        long position = 0;
+        boolean forced = false;
+        try {
+            List<Segment> fullSegments;
+            Segment currentSegment;
+            synchronized(this.appendLock) {
+                position = this.appendedPosition;
+                fullSegments = this.unsyncedSegments;
+                this.unsyncedSegments = new ArrayList<>();
+                currentSegment = this.segment;
+            }
+            for (Segment fullSegment : fullSegments) {
+                fullSegment.buffer.force();
+                fullSegment.channel.close();
+            }
+            currentSegment.buffer.force();
+            forced = true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to sync order journal in " + this.directory, ex);
+        } finally {
+            synchronized(this.syncLock) {
+                if (forced) {
+                    this.syncedPosition = position;
+                    this.syncCount++;
+                }
+                this.syncing = false;
+                this.syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Make room for a record with the given body length and return the buffer
+     * positioned at the start of its body. Caller must hold appendLock.
+     */
+    private ByteBuffer startRecord(int length) {
+        int recordSize = RECORD_HEADER_SIZE + length;
+        if (this.segment.buffer.remaining() < recordSize) {
+            if (recordSize > this.segmentSize) {
+                throw new IllegalArgumentException(
+                        "Journal record of " + recordSize + " bytes doesn't fit in a segment of " + this.segmentSize);
+            }
+            this.startNextSegment();
+        }
+        MappedByteBuffer buffer = this.segment.buffer;
+        buffer.position(buffer.position() + RECORD_HEADER_SIZE);
+        return buffer;
+    }
+
+    /**
+     * Write the header of the record whose body has just been put. Caller must
+     * hold appendLock.
+     */
+    private void finishRecord(int length) {
+        MappedByteBuffer buffer = this.segment.buffer;
+        int bodyEnd = buffer.position();
+        int recordStart = bodyEnd - length - RECORD_HEADER_SIZE;
+
+        ByteBuffer body = buffer.duplicate();
+        body.limit(bodyEnd).position(recordStart + RECORD_HEADER_SIZE);
+        this.crc.reset();
+        this.crc.update(body);
+
+        buffer.putInt(recordStart, length);
+        buffer.putInt(recordStart + 4, (int) this.crc.getValue());
+        this.appendedPosition = position(this.segment.index, bodyEnd);
+        this.appendedRecordCount++;
+    }
+
+    /**
+     * Leave the current segment to be forced by the next sync and continue in a
+     * new one. Caller must hold appendLock.
+     */
+    private void startNextSegment() {
+        long nextIndex = this.segment.index + 1;
+        try {
+            Segment nextSegment = this.openSegment(nextIndex, this.segmentSize);
+            this.unsyncedSegments.add(this.segment);
+            this.segment = nextSegment;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to create journal segment " + nextIndex + " in " + this.directory,
+                    ex);
+        }
+    }
+
+    private Segment openSegment(long index, int size) throws IOException {
+        FileChannel channel = FileChannel.open(this.segmentPath(index), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping a new file extends it to the given size filled with zeros.
+        long mappedSize = channel.size() > 0 ? channel.size() : size;
+        return new Segment(index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize));
+    }
+
+    /**
+     * Replay existing segments in order from the position and set up the
+     * segment to append to.
+     */
+    private void replay(long fromPosition, ReplayHandler handler) throws IOException {
+        List<Long> segmentIndexes = this.listSegmentIndexes();
+        segmentIndexes.removeIf(index -> index < segmentIndex(fromPosition));
+        if (segmentIndexes.isEmpty()) {
+            // Start after the position so that new records come after it.
+            long firstIndex = fromPosition == 0 ? 0 : segmentIndex(fromPosition) + 1;
+            this.segment = this.openSegment(firstIndex, this.segmentSize);
+            this.appendedPosition = position(firstIndex, 0);
+            this.syncedPosition = this.appendedPosition;
+            return;
+        }
+
+        long replayedCount = 0;
+        for (int i = 0; i < segmentIndexes.size(); i++) {
+            Segment replayedSegment = this.openSegment(segmentIndexes.get(i), this.segmentSize);
+            MappedByteBuffer buffer = replayedSegment.buffer;
+            // Reused to read every record of the segment.
+            ByteBuffer reader = buffer.duplicate();
+            int offset = replayedSegment.index == segmentIndex(fromPosition) ? segmentOffset(fromPosition) : 0;
+            boolean damaged = false;
+            while (offset + RECORD_HEADER_SIZE <= buffer.limit()) {
+                int length = buffer.getInt(offset);
+                if (length == 0) {
+                    // End of segment.
+                    break;
+                }
+                if (length < 0 || length > buffer.limit() - offset - RECORD_HEADER_SIZE
+                        || !this.hasValidCrc(reader, offset, length)) {
+                    damaged = true;
+                    break;
+                }
+                reader.position(offset + RECORD_HEADER_SIZE);
+                this.replayRecord(reader, handler);
+                offset += RECORD_HEADER_SIZE + length;
+                replayedCount++;
+            }
+
+            boolean lastSegment = i == segmentIndexes.size() - 1;
+            if (damaged || lastSegment) {
+                if (damaged) {
+                    logger.warn("Order journal is damaged at " + offset + " of segment " + replayedSegment.index
+                            + ". Records from there are dropped.");
+                    this.dropRecordsFrom(replayedSegment, offset, segmentIndexes.subList(i + 1, segmentIndexes.size()));
+                }
+                buffer.position(offset);
+                this.segment = replayedSegment;
+                this.appendedPosition = position(replayedSegment.index, offset);
+                this.syncedPosition = this.appendedPosition;
+                break;
+            }
+            replayedSegment.channel.close();
+        }
+        logger.info("Replayed " + replayedCount + " records of order journal in " + this.directory);
+    }
+
+    /**
+     * Replay the record whose body starts at the buffer's position.
+     */
+    private void replayRecord(ByteBuffer body, ReplayHandler handler) {
+        byte type = body.get();
+        String orderId = readString(body);
+        switch (type) {
+        case ORDER_CREATED:
+            String farmId = readString(body);
+            LocalDateTime startDateTime = LocalDateTime.ofEpochSecond(body.getLong(), body.getInt(), ZoneOffset.UTC);
+            Duration duration = Duration.ofSeconds(body.getLong(), body.getInt());
+            handler.orderCreated(orderId, farmId, startDateTime, duration, STATUSES[body.get()]);
+            break;
+        case STATUS_UPDATED:
+            handler.statusUpdated(orderId, STATUSES[body.get()]);
+            break;
+        default:
+            throw new IllegalStateException("Unknown journal record type " + type + " in " + this.directory);
+        }
+    }
+
+    private boolean hasValidCrc(ByteBuffer reader, int offset, int length) {
+        reader.limit(offset + RECORD_HEADER_SIZE + length).position(offset + RECORD_HEADER_SIZE);
+        this.crc.reset();
+        this.crc.update(reader);
+        reader.limit(reader.capacity());
+        return (int) this.crc.getValue() == reader.getInt(offset + 4);
+    }
+
+    /**
+     * Clear the segment from the offset and delete later segments, so that
+     * damaged records are never replayed again.
+     */
+    private void dropRecordsFrom(Segment damagedSegment, int offset, List<Long> laterSegmentIndexes)
+            throws IOException {
+        MappedByteBuffer buffer = damagedSegment.buffer;
+        for (int i = offset; i < buffer.limit(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+        for (long index : laterSegmentIndexes) {
+            Files.delete(this.segmentPath(index));
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return this.directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegmentIndexes() throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                indexes.add(Long.parseLong(
+                        fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Segment file mapped in memory.
+     */
+    private static class Segment {
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(long index, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Point-in-time image of all orders, written next to the OrderJournal so that
+ * recovery only has to replay the journal from where the snapshot was taken.
+ *
+ * A snapshot file is a header of [magic][version][journal position] followed by
+ * chunks of [length][CRC32 of body][body], and a chunk header of zero length at
+ * the end. A chunk body holds up to CHUNK_SIZE orders grouped by farm, so a
+ * farm id is written once per chunk rather than once per order. Chunks are
+ * independent of each other and are decoded in parallel when the snapshot is
+ * loaded.
+ *
+ * Snapshots are written to a temporary file which is renamed once it's
+ * complete and synced. Only the latest snapshot is kept.
+ */
+class OrderSnapshot {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x574f534e;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    // Length and CRC32 of the body.
+    private static final int CHUNK_HEADER_SIZE = 8;
+    // Orders per chunk.
+    static final int CHUNK_SIZE = 65536;
+
+    private static final WaterOrder.OrderStatus[] STATUSES = WaterOrder.OrderStatus.values();
+
+    private OrderSnapshot() {
+    }
+
+    /**
+     * Start writing a snapshot of orders as of the journal position. Nothing is
+     * visible in the directory until the writer is committed.
+     */
+    static Writer create(Path directory, long journalPosition) throws IOException {
+        // Left by a snapshot that didn't finish.
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + TEMPORARY_SUFFIX)) {
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Path file = directory.resolve(fileName(journalPosition));
+        return new Writer(file, directory.resolve(fileName(journalPosition) + TEMPORARY_SUFFIX), journalPosition);
+    }
+
+    /**
+     * Load the latest snapshot in the directory, if any. Chunks are decoded in
+     * parallel and handed to the consumer in the order they were written.
+     *
+     * @param directory Directory of snapshot files.
+     * @param consumer  Receives orders of each chunk.
+     * @return Journal position the snapshot was taken at, or 0 if there is no
+     *         snapshot.
+     */
+    static long loadLatest(Path directory, Consumer<List<WaterOrder>> consumer) throws IOException {
+        List<Path> snapshotFiles = listSnapshotFiles(directory);
+        if (snapshotFiles.isEmpty()) {
+            return 0;
+        }
+        Path file = snapshotFiles.get(snapshotFiles.size() - 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE, file);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not an order snapshot of version " + VERSION + ": " + file);
+            }
+            long journalPosition = header.getLong();
+
+            // Only chunk headers are read here. Chunks are read and decoded by
+            // the parallel tasks below.
+            List<long[]> chunks = new ArrayList<>();
+            long offset = HEADER_SIZE;
+            while (true) {
+                ByteBuffer chunkHeader = read(channel, offset, CHUNK_HEADER_SIZE, file);
+                int length = chunkHeader.getInt();
+                if (length == 0) {
+                    break;
+                }
+                chunks.add(new long[] { offset, length, chunkHeader.getInt() });
+                offset += CHUNK_HEADER_SIZE + length;
+            }
+
+            List<List<WaterOrder>> chunkOrders;
+            try {
+                chunkOrders = chunks.parallelStream().map(chunk -> readChunk(channel, chunk, file))
+                        .collect(Collectors.toList());
+            } catch (SnapshotReadException ex) {
+                throw ex.getCause();
+            }
+            chunkOrders.forEach(consumer);
+            return journalPosition;
+        }
+    }
+
+    private static List<WaterOrder> readChunk(FileChannel channel, long[] chunk, Path file) {
+        try {
+            ByteBuffer body = read(channel, chunk[0] + CHUNK_HEADER_SIZE, (int) chunk[1], file);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != (int) chunk[2]) {
+                throw new IOException("Order snapshot is damaged at " + chunk[0] + ": " + file);
+            }
+            body.flip();
+            List<WaterOrder> waterOrders = new ArrayList<>(body.getInt());
+            while (body.hasRemaining()) {
+                String farmId = readString(body);
+                int farmOrderCount = body.getInt();
+                for (int i = 0; i < farmOrderCount; i++) {
+                    String orderId = readString(body);
+                    LocalDateTime startDateTime = LocalDateTime.ofEpochSecond(body.getLong(), body.getInt(),
+                            ZoneOffset.UTC);
+                    Duration duration = Duration.ofSeconds(body.getLong(), body.getInt());
+                    waterOrders.add(WaterOrder.restore(orderId, farmId, startDateTime, duration,
+                            STATUSES[body.get()]));
+                }
+            }
+            return waterOrders;
+        } catch (IOException ex) {
+            throw new SnapshotReadException(ex);
+        }
+    }
+
+    /**
+     * Read bytes at the offset. Positional reads let chunks be read by several
+     * threads through one channel.
+     */
+    private static ByteBuffer read(FileChannel channel, long offset, int length, Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Order snapshot ends unexpectedly at " + (offset + buffer.position()) + ": "
+                        + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<Path> listSnapshotFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : paths) {
+                files.add(path);
+            }
+        }
+        // Positions are written in fixed-width hex, so names sort by position.
+        Collections.sort(files);
+        return files;
+    }
+
+    private static String fileName(long journalPosition) {
+        return String.format("%s%016x%s", SNAPSHOT_PREFIX, journalPosition, SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Writes orders farm by farm into chunks. Not thread-safe.
+     */
+    static class Writer implements AutoCloseable {
+        private final Path file;
+        private final Path temporaryFile;
+        private final FileChannel channel;
+
+        // Body of the chunk being written. Grows when an order doesn't fit.
+        private ByteBuffer chunk = ByteBuffer.allocate(4 * 1024 * 1024);
+        private final CRC32 crc = new CRC32();
+        private int chunkOrderCount;
+        private long orderCount;
+        private boolean committed;
+
+        private Writer(Path file, Path temporaryFile, long journalPosition) throws IOException {
+            this.file = file;
+            this.temporaryFile = temporaryFile;
+            this.channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(journalPosition).flip();
+            this.write(header);
+            this.startChunk();
+        }
+
+        /**
+         * Write orders of a farm. A farm may be split across chunks.
+         */
+        void writeFarm(String farmId, Iterable<WaterOrder> waterOrders) throws IOException {
+            byte[] farmIdBytes = toBytes(farmId);
+            // Where the farm's order count in the current chunk goes. -1 until
+            // the farm has an order in the chunk.
+            int countOffset = -1;
+            int farmOrderCount = 0;
+            for (WaterOrder waterOrder : waterOrders) {
+                if (this.chunkOrderCount == CHUNK_SIZE) {
+                    if (countOffset >= 0) {
+                        this.chunk.putInt(countOffset, farmOrderCount);
+                    }
+                    this.finishChunk();
+                    countOffset = -1;
+                    farmOrderCount = 0;
+                }
+                byte[] orderIdBytes = toBytes(waterOrder.getOrderId());
+                this.ensureRemaining(2 + farmIdBytes.length + 4 + 2 + orderIdBytes.length + 8 + 4 + 8 + 4 + 1);
+                if (countOffset < 0) {
+                    this.chunk.putShort((short) farmIdBytes.length).put(farmIdBytes);
+                    countOffset = this.chunk.position();
+                    this.chunk.putInt(0);
+                }
+                this.chunk.putShort((short) orderIdBytes.length).put(orderIdBytes);
+                this.chunk.putLong(waterOrder.getStartDateTime().toEpochSecond(ZoneOffset.UTC));
+                this.chunk.putInt(waterOrder.getStartDateTime().getNano());
+                this.chunk.putLong(waterOrder.getDuration().getSeconds());
+                this.chunk.putInt(waterOrder.getDuration().getNano());
+                this.chunk.put((byte) waterOrder.getStatus().ordinal());
+                farmOrderCount++;
+                this.chunkOrderCount++;
+                this.orderCount++;
+            }
+            if (countOffset >= 0) {
+                this.chunk.putInt(countOffset, farmOrderCount);
+            }
+        }
+
+        /**
+         * Number of orders written so far.
+         */
+        long getOrderCount() {
+            return this.orderCount;
+        }
+
+        /**
+         * Sync the snapshot, make it the latest one and delete older ones.
+         */
+        void commit() throws IOException {
+            if (this.chunkOrderCount > 0) {
+                this.finishChunk();
+            }
+            // Chunk header of zero length marks the end.
+            this.write(ByteBuffer.allocate(CHUNK_HEADER_SIZE));
+            this.channel.force(true);
+            this.channel.close();
+            Files.move(this.temporaryFile, this.file, StandardCopyOption.ATOMIC_MOVE);
+            this.committed = true;
+            this.syncDirectory();
+            for (Path olderFile : listSnapshotFiles(this.file.getParent())) {
+                if (!olderFile.equals(this.file)) {
+                    Files.deleteIfExists(olderFile);
+                }
+            }
+        }
+
+        /**
+         * Discard the snapshot unless it's been committed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!this.committed) {
+                this.channel.close();
+                Files.deleteIfExists(this.temporaryFile);
+            }
+        }
+
+        /**
+         * Make the rename durable before older snapshots and journal segments
+         * are deleted. Not every platform can sync a directory.
+         */
+        private void syncDirectory() {
+            try (FileChannel directoryChannel = FileChannel.open(this.file.getParent(), StandardOpenOption.READ)) {
+                directoryChannel.force(true);
+            } catch (IOException ex) {
+                // Renames are durable on their own or can't be made so here.
+            }
+        }
+
+        private void startChunk() {
+            this.chunk.clear();
+            // Order count of the chunk, put when the chunk is finished.
+            this.chunk.putInt(0);
+            this.chunkOrderCount = 0;
+        }
+
+        private void finishChunk() throws IOException {
+            this.chunk.putInt(0, this.chunkOrderCount);
+            this.chunk.flip();
+            this.crc.reset();
+            this.crc.update(this.chunk.array(), 0, this.chunk.limit());
+            ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+            chunkHeader.putInt(this.chunk.limit()).putInt((int) this.crc.getValue()).flip();
+            this.write(chunkHeader);
+            this.write(this.chunk);
+            this.startChunk();
+        }
+
+        private void ensureRemaining(int size) {
+            if (this.chunk.remaining() < size) {
+                ByteBuffer largerChunk = ByteBuffer.allocate(Math.max(this.chunk.capacity() * 2,
+                        this.chunk.position() + size));
+                this.chunk.flip();
+                largerChunk.put(this.chunk);
+                this.chunk = largerChunk;
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        }
+
+        private static byte[] toBytes(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                throw new IllegalArgumentException("Too long to be put in an order snapshot: " + value);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Carries an IOException out of a parallel stream.
+     */
+    private static class SnapshotReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SnapshotReadException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
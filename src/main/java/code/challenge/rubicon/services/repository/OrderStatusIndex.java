@@ -0,0 +1,166 @@
+package code.challenge.rubicon.services.repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.function.Supplier;
+
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+import code.challenge.rubicon.model.WaterOrderQuery;
+
+/**
+ * Orders by status, each status's orders sorted by start time and then order
+ * id. Finding the orders of a status starting in a time range only visits
+ * those orders, e.g. the few IN_PROGRESS ones among many delivered ones.
+ *
+ * An order is added to the index of its new status before it's removed from
+ * the old one, so a concurrent reader doesn't miss it. Readers check the
+ * order's current status for the same reason, so it isn't returned twice.
+ *
+ * This class doesn't do any synchronization by itself. Thread safety depends
+ * on the given NavigableMaps and on the caller.
+ */
+class OrderStatusIndex {
+
+    static final Comparator<WaterOrder> START_TIME_ORDER = Comparator.comparing(WaterOrder::getStartDateTime)
+            .thenComparing(WaterOrder::getOrderId);
+
+    private final Map<OrderStatus, NavigableMap<OrderKey, WaterOrder>> ordersByStatus = new EnumMap<>(
+            OrderStatus.class);
+
+    OrderStatusIndex(Supplier<NavigableMap<OrderKey, WaterOrder>> mapFactory) {
+        for (OrderStatus status : OrderStatus.values()) {
+            this.ordersByStatus.put(status, mapFactory.get());
+        }
+    }
+
+    /**
+     * Add given order under its current status.
+     */
+    void add(WaterOrder waterOrder) {
+        this.ordersByStatus.get(waterOrder.getStatus()).put(new OrderKey(waterOrder), waterOrder);
+    }
+
+    /**
+     * Remove given order from under given status. Nothing happens if another
+     * order of the same order id is there.
+     */
+    void remove(WaterOrder waterOrder, OrderStatus status) {
+        this.ordersByStatus.get(status).remove(new OrderKey(waterOrder), waterOrder);
+    }
+
+    /**
+     * Move given order from under its old status to under its new one.
+     */
+    void updateStatus(WaterOrder waterOrder, OrderStatus oldStatus, OrderStatus newStatus) {
+        if (oldStatus != newStatus) {
+            this.ordersByStatus.get(newStatus).put(new OrderKey(waterOrder), waterOrder);
+            this.remove(waterOrder, oldStatus);
+        }
+    }
+
+    /**
+     * Find orders matching the query by start time. Only the indexes of the
+     * query's status are read, from its start time on. The farm is checked
+     * order by order, so the caller should rather search the farm's orders
+     * with findInRange() when the query is of a farm.
+     */
+    List<WaterOrder> find(WaterOrderQuery query) {
+        List<WaterOrder> orders = new ArrayList<>();
+        for (Map.Entry<OrderStatus, NavigableMap<OrderKey, WaterOrder>> statusEntry : this.ordersByStatus.entrySet()) {
+            if (query.getStatus() != null && query.getStatus() != statusEntry.getKey()) {
+                continue;
+            }
+            for (WaterOrder waterOrder : rangeOf(statusEntry.getValue(), query).values()) {
+                if (waterOrder.getStatus() == statusEntry.getKey()
+                        && (query.getFarmId() == null || query.getFarmId().equals(waterOrder.getFarmId()))) {
+                    orders.add(waterOrder);
+                }
+            }
+        }
+        if (query.getStatus() == null) {
+            orders.sort(START_TIME_ORDER);
+        }
+        return orders;
+    }
+
+    /**
+     * Find orders matching the query's start time range and status among given
+     * orders sorted by start time, e.g. the orders of the query's farm. Only
+     * the orders in the time range are visited, and they're returned in the
+     * same order.
+     */
+    static List<WaterOrder> findInRange(NavigableMap<OrderKey, WaterOrder> orders, WaterOrderQuery query) {
+        List<WaterOrder> foundOrders = new ArrayList<>();
+        for (WaterOrder waterOrder : rangeOf(orders, query).values()) {
+            if (query.getStatus() == null || query.getStatus() == waterOrder.getStatus()) {
+                foundOrders.add(waterOrder);
+            }
+        }
+        return foundOrders;
+    }
+
+    /**
+     * Return the view of given orders starting in the query's time range.
+     */
+    private static NavigableMap<OrderKey, WaterOrder> rangeOf(NavigableMap<OrderKey, WaterOrder> orders,
+            WaterOrderQuery query) {
+        OrderKey fromKey = query.getStartFrom() == null ? null : new OrderKey(query.getStartFrom(), "");
+        OrderKey toKey = query.getStartTo() == null ? null : new OrderKey(query.getStartTo(), "");
+        if (fromKey != null && toKey != null) {
+            return fromKey.compareTo(toKey) > 0 ? Collections.emptyNavigableMap()
+                    : orders.subMap(fromKey, true, toKey, false);
+        }
+        if (fromKey != null) {
+            return orders.tailMap(fromKey, true);
+        }
+        return toKey == null ? orders : orders.headMap(toKey, false);
+    }
+
+    /**
+     * Start time and order id of an order. An empty order id sorts before
+     * every order starting at the same time.
+     */
+    static final class OrderKey implements Comparable<OrderKey> {
+        private final LocalDateTime startDateTime;
+        private final String orderId;
+
+        OrderKey(WaterOrder waterOrder) {
+            this(waterOrder.getStartDateTime(), waterOrder.getOrderId());
+        }
+
+        OrderKey(LocalDateTime startDateTime, String orderId) {
+            this.startDateTime = startDateTime;
+            this.orderId = orderId;
+        }
+
+        @Override
+        public int compareTo(OrderKey other) {
+            int comparison = this.startDateTime.compareTo(other.startDateTime);
+            return comparison != 0 ? comparison : this.orderId.compareTo(other.orderId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof OrderKey)) {
+                return false;
+            }
+            OrderKey other = (OrderKey) o;
+            return this.startDateTime.equals(other.startDateTime) && this.orderId.equals(other.orderId);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.startDateTime.hashCode() * 31 + this.orderId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package code.challenge.rubicon.services.repository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+import code.challenge.rubicon.model.BatchOrderResult;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
+import code.challenge.rubicon.model.WaterOrder.OrderStatus;
+import code.challenge.rubicon.services.WaterOrderRequestAction;
+
+/**
+ * Base of repositories that keep orders in numbered slots instead of
+ * WaterOrder objects. Subclasses store the fields of each slot and find the
+ * slot of a farm handle and start time. The rest is done here:
+ * - farm ids are kept once per farm and orders refer to them by handle,
+ * - slots are kept sorted by start time per farm and per status,
+ * - WaterOrder objects are only created when orders are returned.
+ *
+ * Order ids aren't stored at all since they're made of farm id and start time,
+ * so waterorder.order-id doesn't apply here. An order id is parsed back to
+ * find the order. As a result, an order can't be added at the start time of
+ * another order of the farm, not even a cancelled one.
+ *
+ * Returned orders are copies, so they don't see status updates made after
+ * they're returned. Start time and duration are kept at second precision,
+ * which is the precision of order ids too.
+ *
+ * Every access synchronizes on the repository like HashMapOrderRepository.
+ * Orders are never removed, so a slot belongs to the same order for good.
+ */
+abstract class SlotOrderRepository implements IWaterOrderRepository {
+
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
+
+    // Farm id by farm handle, and farm handle by farm id. Farm ids are sorted
+    // to serve pages.
+    private final List<String> farmIds = new ArrayList<>();
+    private final NavigableMap<String, Integer> farmHandles = new TreeMap<>();
+
+    // Slots of each farm's orders sorted by start time, by farm handle.
+    private final List<StartOrderedSlots> farmSlots = new ArrayList<>();
+    // Incremented after every write to the farm, by farm handle.
+    private long[] farmVersions = new long[16];
+    // Slots of each status's orders sorted by start time, by status ordinal.
+    private final StartOrderedSlots[] statusSlots = new StartOrderedSlots[STATUSES.length];
+
+    // Slots are taken in order, so this is also the next slot.
+    private int orderCount;
+
+    SlotOrderRepository() {
+        for (int i = 0; i < STATUSES.length; i++) {
+            this.statusSlots[i] = new StartOrderedSlots(this::startTimeOf);
+        }
+    }
+
+    /**
+     * Store an order in given slot, which is the one after the last taken
+     * slot, and make it found by findSlot().
+     */
+    abstract void addSlot(int slot, int farmHandle, long startTime, int duration, OrderStatus status);
+
+    /**
+     * Find the slot of the order of given farm and start time.
+     *
+     * @return Slot or -1 if there's no such order.
+     */
+    abstract int findSlot(int farmHandle, long startTime);
+
+    abstract int farmOf(int slot);
+
+    abstract long startTimeOf(int slot);
+
+    abstract int durationOf(int slot);
+
+    abstract OrderStatus statusOf(int slot);
+
+    abstract void setStatus(int slot, OrderStatus status);
+
+    /**
+     * Add a new order. An order of the same farm and start time as an existing
+     * one would take its order id, so it's rejected with
+     * IllegalArgumentException rather than replacing the existing one.
+     */
+    @Override
+    public synchronized WaterOrder addWaterOrder(WaterOrder waterOrder) {
+        Optional<String> orderIdErrMsg = this.checkOrderIdAvailable(waterOrder);
+        if (orderIdErrMsg.isPresent()) {
+            throw new IllegalArgumentException(orderIdErrMsg.get());
+        }
+        int farmHandle = this.internFarmId(waterOrder.getFarmId());
+        long startTime = DeliveryIntervalIndex.toEpochSecond(waterOrder.getStartDateTime());
+        int duration = toDurationSeconds(waterOrder.getDuration());
+
+        int slot = this.orderCount;
+        this.addSlot(slot, farmHandle, startTime, duration, OrderStatus.REQUESTED);
+        this.orderCount++;
+        this.farmSlots.get(farmHandle).add(slot);
+        this.statusSlots[OrderStatus.REQUESTED.ordinal()].add(slot);
+        this.farmVersions[farmHandle]++;
+        // Created with the constructor so that REQUESTED is published as it is
+        // by other repositories.
+        return new WaterOrder(this.toOrderId(slot), this.farmIds.get(farmHandle),
+                TimestampOrderId.toDateTime(startTime), Duration.ofSeconds(duration), OrderStatus.REQUESTED);
+    }
+
+    /**
+     * Validate and add a new order while holding the repository's lock. An
+     * order whose order id is taken is rejected like an invalid one.
+     */
+    @Override
+    public synchronized WaterOrder reserveWaterOrder(WaterOrder waterOrder,
+            Function<WaterOrder, Optional<String>> orderValidator) throws OrderValidityException {
+        Optional<String> validationErrMsg = this.validate(waterOrder, orderValidator);
+        if (validationErrMsg.isPresent()) {
+            throw new OrderValidityException(WaterOrderRequestAction.CREATE, validationErrMsg.get());
+        }
+        return this.addWaterOrder(waterOrder);
+    }
+
+    /**
+     * Validate and add new orders one by one while holding the repository's
+     * lock. Orders whose order id is taken are rejected like invalid ones.
+     */
+    @Override
+    public synchronized List<BatchOrderResult> reserveWaterOrders(List<WaterOrder> waterOrders,
+            Function<WaterOrder, Optional<String>> orderValidator) {
+        List<BatchOrderResult> results = new ArrayList<>(waterOrders.size());
+        for (WaterOrder waterOrder : waterOrders) {
+            Optional<String> validationErrMsg = this.validate(waterOrder, orderValidator);
+            if (validationErrMsg.isPresent()) {
+                results.add(BatchOrderResult.rejected(waterOrder, validationErrMsg.get()));
+            } else {
+                results.add(BatchOrderResult.created(this.addWaterOrder(waterOrder)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Cancel order.
+     */
+    @Override
+    public synchronized WaterOrder cancelWaterOrder(String orderId) throws OrderNotFoundException {
+        int slot = this.getSlot(orderId);
+        this.updateOrderstatus(orderId, OrderStatus.CANCELLED);
+        return this.toWaterOrder(slot);
+    }
+
+    /**
+     * Return all orders in repository.
+     */
+    @Override
+    public synchronized List<WaterOrder> getAllOrders() {
+        List<WaterOrder> orders = new ArrayList<>(this.orderCount);
+        for (int slot = 0; slot < this.orderCount; slot++) {
+            orders.add(this.toWaterOrder(slot));
+        }
+        return orders;
+    }
+
+    /**
+     * Return a stream of orders not delivered or cancelled yet. Only the slots
+     * of the orders are copied, and each order is created when the stream gets
+     * to it. An order whose status changed in the meantime is returned with its
+     * new status.
+     */
+    @Override
+    public Stream<WaterOrder> streamPendingOrders() {
+        int[] pendingSlots;
+        synchronized(this) {
+            pendingSlots = new int[this.orderCount];
+            int pendingCount = 0;
+            for (int slot = 0; slot < this.orderCount; slot++) {
+                if (!this.statusOf(slot).isTerminal()) {
+                    pendingSlots[pendingCount++] = slot;
+                }
+            }
+            pendingSlots = Arrays.copyOf(pendingSlots, pendingCount);
+        }
+        return Arrays.stream(pendingSlots).mapToObj(slot -> {
+            synchronized(this) {
+                return this.toWaterOrder(slot);
+            }
+        });
+    }
+
+    /**
+     * Return a page of orders by farm id, then by start time. The page starts
+     * at the farm and start time parsed out of afterOrderId, found by binary
+     * search in the farm's slots.
+     */
+    @Override
+    public synchronized List<WaterOrder> getOrdersPage(String afterOrderId, int limit) {
+        TimestampOrderId after = null;
+        if (afterOrderId != null) {
+            after = TimestampOrderId.parse(afterOrderId);
+            if (after == null) {
+                throw new IllegalArgumentException("Not an order id of farm id and start time: " + afterOrderId);
+            }
+        }
+        List<WaterOrder> orders = new ArrayList<>();
+        for (Map.Entry<String, Integer> farmEntry : (after == null ? this.farmHandles
+                : this.farmHandles.tailMap(after.getFarmId(), true)).entrySet()) {
+            StartOrderedSlots slots = this.farmSlots.get(farmEntry.getValue());
+            int index = after != null && farmEntry.getKey().equals(after.getFarmId())
+                    ? slots.countStartingUntil(after.getStartTime())
+                    : 0;
+            for (; index < slots.size() && orders.size() < limit; index++) {
+                orders.add(this.toWaterOrder(slots.get(index)));
+            }
+            if (orders.size() == limit) {
+                break;
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Find orders of the query in the farm's slots if it's of a farm, and in
+     * the slots of the query's status otherwise. Both are sorted by start time,
+     * so only the slots in the query's time range are visited.
+     */
+    @Override
+    public synchronized List<WaterOrder> findOrders(WaterOrderQuery query) {
+        List<StartOrderedSlots> searchedSlots;
+        if (query.getFarmId() != null) {
+            Integer farmHandle = this.farmHandles.get(query.getFarmId());
+            searchedSlots = farmHandle == null ? Collections.emptyList()
+                    : Collections.singletonList(this.farmSlots.get(farmHandle));
+        } else if (query.getStatus() != null) {
+            searchedSlots = Collections.singletonList(this.statusSlots[query.getStatus().ordinal()]);
+        } else {
+            searchedSlots = Arrays.asList(this.statusSlots);
+        }
+        long fromTime = query.getStartFrom() == null ? Long.MIN_VALUE : toStartTimeBound(query.getStartFrom());
+        long toTime = query.getStartTo() == null ? Long.MAX_VALUE : toStartTimeBound(query.getStartTo());
+
+        List<WaterOrder> orders = new ArrayList<>();
+        for (StartOrderedSlots slots : searchedSlots) {
+            for (int i = slots.countStartingBefore(fromTime); i < slots.size(); i++) {
+                int slot = slots.get(i);
+                if (this.startTimeOf(slot) >= toTime) {
+                    break;
+                }
+                if (query.getStatus() == null || this.statusOf(slot) == query.getStatus()) {
+                    orders.add(this.toWaterOrder(slot));
+                }
+            }
+        }
+        if (searchedSlots.size() > 1) {
+            orders.sort(OrderStatusIndex.START_TIME_ORDER);
+        }
+        return orders;
+    }
+
+    /**
+     * Find order by order id.
+     */
+    @Override
+    public synchronized Optional<WaterOrder> findWaterOrderByOrderId(String orderId) {
+        int slot = this.findOrderSlot(orderId);
+        return slot < 0 ? Optional.empty() : Optional.of(this.toWaterOrder(slot));
+    }
+
+    /**
+     * Find orders by farm id. Orders are returned by start time.
+     */
+    @Override
+    public List<WaterOrder> findWaterOrdersByFarmId(String farmId) {
+        List<WaterOrder> orders = new ArrayList<>();
+        synchronized(this) {
+            Integer farmHandle = this.farmHandles.get(farmId);
+            if (farmHandle != null) {
+                StartOrderedSlots slots = this.farmSlots.get(farmHandle);
+                for (int i = 0; i < slots.size(); i++) {
+                    orders.add(this.toWaterOrder(slots.get(i)));
+                }
+            }
+        }
+
+        return orders;
+    }
+
+    /**
+     * Return the farm's version, incremented after every write to the farm.
+     */
+    @Override
+    public synchronized long getFarmVersion(String farmId) {
+        Integer farmHandle = this.farmHandles.get(farmId);
+        return farmHandle == null ? 0 : this.farmVersions[farmHandle];
+    }
+
+    /**
+     * Find overlapping order among the farm's orders sorted by start time. Like
+     * DeliveryIntervalIndex, the order starting last at or before the end of
+     * the given range is the only candidate. Cancelled orders stay in the farm's
+     * slots, so they're skipped on the way back to it.
+     */
+    @Override
+    public synchronized Optional<WaterOrder> findOverlappingOrder(String farmId, LocalDateTime startDateTime,
+            Duration duration) {
+        Integer farmHandle = this.farmHandles.get(farmId);
+        if (farmHandle == null) {
+            return Optional.empty();
+        }
+        long startTime = DeliveryIntervalIndex.toEpochSecond(startDateTime);
+        long endTime = DeliveryIntervalIndex.endOf(startTime, duration);
+
+        StartOrderedSlots slots = this.farmSlots.get(farmHandle);
+        for (int i = slots.countStartingUntil(endTime) - 1; i >= 0; i--) {
+            int slot = slots.get(i);
+            if (this.statusOf(slot) != OrderStatus.CANCELLED) {
+                if (this.startTimeOf(slot) + this.durationOf(slot) >= startTime) {
+                    return Optional.of(this.toWaterOrder(slot));
+                }
+                break;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Update order's status. The change is published here since there's no
+     * WaterOrder to publish it.
+     */
+    @Override
+    public synchronized void updateOrderstatus(String orderId, OrderStatus status) throws OrderNotFoundException {
+        int slot = this.getSlot(orderId);
+        if (this.statusOf(slot) != status) {
+            this.statusSlots[this.statusOf(slot).ordinal()].remove(slot);
+            this.setStatus(slot, status);
+            this.statusSlots[status.ordinal()].add(slot);
+            this.farmVersions[this.farmOf(slot)]++;
+            OrderLifecycleLog.get().publish(this.toOrderId(slot), this.farmIds.get(this.farmOf(slot)), status);
+        }
+    }
+
+    /**
+     * Update status of orders under one lock.
+     */
+    @Override
+    public synchronized int updateOrderstatuses(List<String> orderIds, OrderStatus status) {
+        int updatedCount = 0;
+        for (String orderId : orderIds) {
+            try {
+                this.updateOrderstatus(orderId, status);
+                updatedCount++;
+            } catch (OrderNotFoundException ex) {
+                // Skipped as documented.
+            }
+        }
+        return updatedCount;
+    }
+
+    private Optional<String> validate(WaterOrder waterOrder, Function<WaterOrder, Optional<String>> orderValidator) {
+        Optional<String> validationErrMsg = orderValidator.apply(waterOrder);
+        return validationErrMsg.isPresent() ? validationErrMsg : this.checkOrderIdAvailable(waterOrder);
+    }
+
+    /**
+     * Check that no order of the farm starts at the order's start time. Such an
+     * order has the same order id, even if it's cancelled.
+     *
+     * @return Error message if the order id is taken.
+     */
+    private Optional<String> checkOrderIdAvailable(WaterOrder waterOrder) {
+        Integer farmHandle = this.farmHandles.get(waterOrder.getFarmId());
+        long startTime = DeliveryIntervalIndex.toEpochSecond(waterOrder.getStartDateTime());
+        if (farmHandle == null || this.findSlot(farmHandle, startTime) < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(String.format("Order ID '%s' is taken by another order of the farm.",
+                TimestampOrderId.format(waterOrder.getFarmId(), startTime)));
+    }
+
+    /**
+     * Return the handle of given farm id. A new handle is given to a farm id
+     * seen for the first time.
+     */
+    private int internFarmId(String farmId) {
+        Integer farmHandle = this.farmHandles.get(farmId);
+        if (farmHandle == null) {
+            farmHandle = this.farmIds.size();
+            this.farmIds.add(farmId);
+            this.farmHandles.put(farmId, farmHandle);
+            this.farmSlots.add(new StartOrderedSlots(this::startTimeOf));
+            if (farmHandle == this.farmVersions.length) {
+                this.farmVersions = Arrays.copyOf(this.farmVersions, farmHandle * 2);
+            }
+        }
+        return farmHandle;
+    }
+
+    /**
+     * Find the slot of given order id by parsing farm id and start time out of
+     * it. Return -1 if there's no order of the order id.
+     */
+    private int findOrderSlot(String orderId) {
+        TimestampOrderId parsedOrderId = TimestampOrderId.parse(orderId);
+        if (parsedOrderId != null) {
+            Integer farmHandle = this.farmHandles.get(parsedOrderId.getFarmId());
+            if (farmHandle != null) {
+                return this.findSlot(farmHandle, parsedOrderId.getStartTime());
+            }
+        }
+        return -1;
+    }
+
+    private int getSlot(String orderId) throws OrderNotFoundException {
+        int slot = this.findOrderSlot(orderId);
+        if (slot < 0) {
+            throw OrderNotFoundException.ofOrderId(orderId);
+        }
+        return slot;
+    }
+
+    private String toOrderId(int slot) {
+        return TimestampOrderId.format(this.farmIds.get(this.farmOf(slot)), this.startTimeOf(slot));
+    }
+
+    /**
+     * Create a WaterOrder of the order in given slot. Nothing is published as
+     * it's not a status change.
+     */
+    private WaterOrder toWaterOrder(int slot) {
+        return WaterOrder.restore(this.toOrderId(slot), this.farmIds.get(this.farmOf(slot)),
+                TimestampOrderId.toDateTime(this.startTimeOf(slot)), Duration.ofSeconds(this.durationOf(slot)),
+                this.statusOf(slot));
+    }
+
+    /**
+     * Bucket of given farm handle and start time, i.e. of an order id, in an
+     * open addressing table of slots.
+     */
+    static int bucketOf(int farmHandle, long startTime, int mask) {
+        // Fibonacci hashing spreads consecutive start times over the table.
+        long hash = (startTime * 31 + farmHandle) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    /**
+     * Epoch second of the first order start time at or after given time, as
+     * start times are whole seconds.
+     */
+    static long toStartTimeBound(LocalDateTime dateTime) {
+        long epochSecond = DeliveryIntervalIndex.toEpochSecond(dateTime);
+        return dateTime.getNano() > 0 ? epochSecond + 1 : epochSecond;
+    }
+
+    static int toDurationSeconds(Duration duration) {
+        long seconds = duration.getSeconds();
+        if (seconds > Integer.MAX_VALUE || seconds < Integer.MIN_VALUE) {
+            throw new IllegalArgumentException("Duration is too long to store: " + duration);
+        }
+        return (int) seconds;
+    }
+}
@@ -0,0 +1,78 @@
+package code.challenge.rubicon.services.repository;
+
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Generate unique, time ordered 64-bit order ids in the style of Snowflake:
+ *
+ *   [41 bits milliseconds since 2020-01-01][10 bits node id][12 bits sequence]
+ *
+ * The node id (waterorder.order-id.node-id) keeps ids of different instances
+ * apart. Up to 4096 ids are generated per millisecond. Ids never go backwards:
+ * when the sequence of a millisecond runs out, or the clock goes back, the
+ * last used millisecond is carried on instead of waiting for the clock.
+ *
+ * Ids are written in decimal, so they can't be mistaken for ids of
+ * TimestampOrderIdGenerator, which have a ':'.
+ *
+ * Selected by setting waterorder.order-id=snowflake.
+ */
+@Component
+@ConditionalOnProperty(name = "waterorder.order-id", havingValue = "snowflake")
+public class SnowflakeOrderIdGenerator implements IOrderIdGenerator {
+
+    // 2020-01-01T00:00:00Z. 41 bits of milliseconds last until 2089.
+    static final long EPOCH_MILLIS = 1577836800000L;
+
+    static final int NODE_ID_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+    private final Clock clock;
+
+    // Milliseconds since EPOCH_MILLIS and sequence of the last id, laid out as
+    // in the id without the node id. Adding one to it moves to the next
+    // millisecond once the sequence runs out.
+    private final AtomicLong lastTimestampAndSequence = new AtomicLong();
+
+    @Autowired
+    public SnowflakeOrderIdGenerator(@Value("${waterorder.order-id.node-id:0}") int nodeId, Optional<Clock> clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+        this.clock = clock.orElse(Clock.systemUTC());
+    }
+
+    @Override
+    public String generateOrderId(WaterOrder waterOrder) {
+        return Long.toString(this.nextId());
+    }
+
+    /**
+     * Generate the next id. Lock free, so concurrent callers only retry when
+     * they race for the same sequence number.
+     */
+    long nextId() {
+        long timestamp = this.clock.millis() - EPOCH_MILLIS;
+        while (true) {
+            long last = this.lastTimestampAndSequence.get();
+            long next = timestamp > last >>> SEQUENCE_BITS ? timestamp << SEQUENCE_BITS : last + 1;
+            if (this.lastTimestampAndSequence.compareAndSet(last, next)) {
+                return (next >>> SEQUENCE_BITS) << (NODE_ID_BITS + SEQUENCE_BITS) | this.nodeId << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package code.challenge.rubicon.services.repository;
+
+import java.util.Arrays;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Slots of orders sorted by start time, for repositories keeping orders in
+ * slots instead of WaterOrder objects. Only the slots are kept here, start
+ * times are read from the repository.
+ *
+ * This class doesn't do any synchronization by itself.
+ */
+final class StartOrderedSlots {
+
+    private final IntToLongFunction startTimeOf;
+    private int[] slots = new int[2];
+    private int size;
+
+    /**
+     * @param startTimeOf Start time in epoch seconds of the order in a slot.
+     */
+    StartOrderedSlots(IntToLongFunction startTimeOf) {
+        this.startTimeOf = startTimeOf;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int get(int index) {
+        return this.slots[index];
+    }
+
+    /**
+     * Add given slot after the slots starting at the same time. New orders
+     * usually start after the others, which makes this an append.
+     */
+    void add(int slot) {
+        int index = this.countStartingUntil(this.startTimeOf.applyAsLong(slot));
+        if (this.size == this.slots.length) {
+            this.slots = Arrays.copyOf(this.slots, this.size * 2);
+        }
+        System.arraycopy(this.slots, index, this.slots, index + 1, this.size - index);
+        this.slots[index] = slot;
+        this.size++;
+    }
+
+    /**
+     * Remove given slot. Only the slots starting at the same time are looked
+     * at to find it.
+     */
+    void remove(int slot) {
+        long startTime = this.startTimeOf.applyAsLong(slot);
+        for (int index = this.countStartingUntil(startTime) - 1; index >= 0
+                && this.startTimeOf.applyAsLong(this.slots[index]) == startTime; index--) {
+            if (this.slots[index] == slot) {
+                System.arraycopy(this.slots, index + 1, this.slots, index, this.size - index - 1);
+                this.size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the number of slots starting before given time. That's also the
+     * index of the first slot starting at or after it.
+     */
+    int countStartingBefore(long time) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.startTimeOf.applyAsLong(this.slots[middle]) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the number of slots starting at or before given time. That's also
+     * the index of the first slot starting after it.
+     */
+    int countStartingUntil(long time) {
+        return time == Long.MAX_VALUE ? this.size : this.countStartingBefore(time + 1);
+    }
+}
@@ -0,0 +1,89 @@
+package code.challenge.rubicon.services.repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Order id made of farm id and start time, e.g. "MYFARM:20200116101010".
+ * Repositories that don't store order ids build them from the order and parse
+ * them back to find the order.
+ */
+final class TimestampOrderId {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final int TIME_LENGTH = 14;
+
+    private final String farmId;
+    // Epoch seconds.
+    private final long startTime;
+
+    private TimestampOrderId(String farmId, long startTime) {
+        this.farmId = farmId;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Parse farm id and start time out of given order id.
+     *
+     * @return Parsed order id or null if it's not made of farm id and start
+     *         time.
+     */
+    static TimestampOrderId parse(String orderId) {
+        int separatorIndex = orderId.length() - TIME_LENGTH - 1;
+        if (separatorIndex < 0 || orderId.charAt(separatorIndex) != ':') {
+            return null;
+        }
+        try {
+            LocalDateTime startDateTime = LocalDateTime.parse(orderId.substring(separatorIndex + 1), TIME_FORMAT);
+            return new TimestampOrderId(orderId.substring(0, separatorIndex),
+                    DeliveryIntervalIndex.toEpochSecond(startDateTime));
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Build the order id of given farm id and start time in epoch seconds.
+     * Digits are written straight into the id, which spares what
+     * DateTimeFormatter allocates for every id.
+     */
+    static String format(String farmId, long startTime) {
+        LocalDateTime startDateTime = toDateTime(startTime);
+        if (startDateTime.getYear() < 0 || startDateTime.getYear() > 9999) {
+            // Years that don't fit in 4 digits, formatted as they always were.
+            return farmId + ":" + TIME_FORMAT.format(startDateTime);
+        }
+        StringBuilder orderId = new StringBuilder(farmId.length() + 1 + TIME_LENGTH).append(farmId).append(':');
+        appendDigits(orderId, startDateTime.getYear(), 4);
+        appendDigits(orderId, startDateTime.getMonthValue(), 2);
+        appendDigits(orderId, startDateTime.getDayOfMonth(), 2);
+        appendDigits(orderId, startDateTime.getHour(), 2);
+        appendDigits(orderId, startDateTime.getMinute(), 2);
+        appendDigits(orderId, startDateTime.getSecond(), 2);
+        return orderId.toString();
+    }
+
+    private static void appendDigits(StringBuilder builder, int value, int digits) {
+        int divisor = 1;
+        for (int i = 1; i < digits; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            builder.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    static LocalDateTime toDateTime(long startTime) {
+        return LocalDateTime.ofEpochSecond(startTime, 0, ZoneOffset.UTC);
+    }
+
+    String getFarmId() {
+        return this.farmId;
+    }
+
+    long getStartTime() {
+        return this.startTime;
+    }
+}
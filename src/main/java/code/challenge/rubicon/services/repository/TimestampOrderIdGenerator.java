@@ -0,0 +1,24 @@
+package code.challenge.rubicon.services.repository;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Generate order ids made of farm id and start time, e.g.
+ * "MYFARM:20200116101010". Orders of the same farm starting at the same second
+ * get the same id, so the later one replaces the earlier one.
+ *
+ * This is the default generator (waterorder.order-id=timestamp).
+ */
+@Component
+@ConditionalOnProperty(name = "waterorder.order-id", havingValue = "timestamp", matchIfMissing = true)
+public class TimestampOrderIdGenerator implements IOrderIdGenerator {
+
+    @Override
+    public String generateOrderId(WaterOrder waterOrder) {
+        return TimestampOrderId.format(waterOrder.getFarmId(),
+                DeliveryIntervalIndex.toEpochSecond(waterOrder.getStartDateTime()));
+    }
+}
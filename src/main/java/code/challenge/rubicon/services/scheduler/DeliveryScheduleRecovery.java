@@ -0,0 +1,183 @@
+package code.challenge.rubicon.services.scheduler;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.services.orderstatus.IWaterOrderStatusHelper;
+import code.challenge.rubicon.services.repository.IWaterOrderReadonlyRepository;
+
+/**
+ * Rebuild delivery schedules from orders in the repository on startup, so that
+ * orders recovered by a persistent repository keep moving forward.
+ *
+ * Every order that isn't delivered or cancelled is looked at once:
+ * - Deliveries that ended while the service was down are marked DELIVERED.
+ * - Deliveries that started but haven't ended are marked IN_PROGRESS and only
+ *   their end is scheduled.
+ * - Deliveries still to start are scheduled as usual.
+ * Status updates are applied in batches of waterorder.scheduler.recovery-batch-size
+ * orders, and schedules are added to the scheduler in one go.
+ *
+ * Recovery runs once all beans are created and before the web server starts,
+ * so no request is served until it's finished. How long it took is published
+ * as a metric.
+ */
+@Component
+public class DeliveryScheduleRecovery implements SmartInitializingSingleton, MeterBinder {
+
+    private Logger logger = LoggerFactory.getLogger(DeliveryScheduleRecovery.class);
+
+    private IWaterOrderReadonlyRepository orderRetriever;
+    private IWaterOrderStatusHelper statusChanger;
+    private IWaterOrderDeliveryScheduler deliveryScheduler;
+    private int batchSize;
+
+    // To use for making recovery testable.
+    private Clock clock;
+
+    // Result of the last recovery.
+    private volatile long recoveryNanos;
+    private volatile int deliveredCount;
+    private volatile int startedCount;
+    private volatile int scheduledCount;
+
+    @Autowired
+    public DeliveryScheduleRecovery(IWaterOrderReadonlyRepository orderRetriever,
+            IWaterOrderStatusHelper statusChanger, IWaterOrderDeliveryScheduler deliveryScheduler,
+            Optional<Clock> clock, @Value("${waterorder.scheduler.recovery-batch-size:1000}") int batchSize) {
+        this.orderRetriever = orderRetriever;
+        this.statusChanger = statusChanger;
+        this.deliveryScheduler = deliveryScheduler;
+        this.clock = clock.orElse(Clock.systemDefaultZone());
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        this.recover();
+    }
+
+    /**
+     * Catch up on deliveries that came due while the service was down and
+     * schedule the rest.
+     */
+    void recover() {
+        long startTime = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now(this.clock);
+        StatusBatch deliveredOrders = new StatusBatch(WaterOrder.OrderStatus.DELIVERED);
+        StatusBatch startedOrders = new StatusBatch(WaterOrder.OrderStatus.IN_PROGRESS);
+        List<WaterOrder> ordersToSchedule = new ArrayList<>();
+
+        try (Stream<WaterOrder> pendingOrders = this.orderRetriever.streamPendingOrders()) {
+            pendingOrders.forEach(waterOrder -> {
+                LocalDateTime endDateTime = waterOrder.getStartDateTime().plus(waterOrder.getDuration());
+                if (!endDateTime.isAfter(now)) {
+                    // Goes straight to DELIVERED even if it never started.
+                    deliveredOrders.add(waterOrder);
+                    return;
+                }
+                if (waterOrder.getStatus() == WaterOrder.OrderStatus.REQUESTED
+                        && !waterOrder.getStartDateTime().isAfter(now)) {
+                    startedOrders.add(waterOrder);
+                    // Repositories may return copies of orders which don't see
+                    // the status update, so schedule it as IN_PROGRESS here.
+                    waterOrder = WaterOrder.restore(waterOrder.getOrderId(), waterOrder.getFarmId(),
+                            waterOrder.getStartDateTime(), waterOrder.getDuration(),
+                            WaterOrder.OrderStatus.IN_PROGRESS);
+                }
+                ordersToSchedule.add(waterOrder);
+            });
+        }
+        deliveredOrders.flush();
+        // Orders must be IN_PROGRESS before they're scheduled so that only
+        // their end is scheduled.
+        startedOrders.flush();
+        this.deliveryScheduler.addDeliverySchedules(ordersToSchedule);
+
+        this.deliveredCount = deliveredOrders.updatedCount;
+        this.startedCount = startedOrders.updatedCount;
+        this.scheduledCount = ordersToSchedule.size();
+        this.recoveryNanos = System.nanoTime() - startTime;
+        logger.info("Recovered delivery schedules in " + TimeUnit.NANOSECONDS.toMillis(this.recoveryNanos)
+                + " ms. Delivered: " + this.deliveredCount + ", started: " + this.startedCount + ", scheduled: "
+                + this.scheduledCount);
+    }
+
+    /**
+     * Publish how long the last recovery took and how many orders it handled.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("waterorder.deliveries.recovery.duration", this, TimeUnit.NANOSECONDS,
+                recovery -> recovery.recoveryNanos).description("Time taken to rebuild delivery schedules on startup")
+                .register(registry);
+        Gauge.builder("waterorder.deliveries.recovery.orders", this, recovery -> recovery.deliveredCount)
+                .tag("result", "delivered").description("Orders handled while rebuilding delivery schedules")
+                .register(registry);
+        Gauge.builder("waterorder.deliveries.recovery.orders", this, recovery -> recovery.startedCount)
+                .tag("result", "started").description("Orders handled while rebuilding delivery schedules")
+                .register(registry);
+        Gauge.builder("waterorder.deliveries.recovery.orders", this, recovery -> recovery.scheduledCount)
+                .tag("result", "scheduled").description("Orders handled while rebuilding delivery schedules")
+                .register(registry);
+    }
+
+    int getDeliveredCount() {
+        return this.deliveredCount;
+    }
+
+    int getStartedCount() {
+        return this.startedCount;
+    }
+
+    int getScheduledCount() {
+        return this.scheduledCount;
+    }
+
+    /**
+     * Order ids waiting to be updated to the same status. Updated when the
+     * batch is full.
+     */
+    private class StatusBatch {
+        private final WaterOrder.OrderStatus status;
+        private List<String> orderIds = new ArrayList<>();
+        private int updatedCount;
+
+        StatusBatch(WaterOrder.OrderStatus status) {
+            this.status = status;
+        }
+
+        void add(WaterOrder waterOrder) {
+            this.orderIds.add(waterOrder.getOrderId());
+            if (this.orderIds.size() >= DeliveryScheduleRecovery.this.batchSize) {
+                this.flush();
+            }
+        }
+
+        void flush() {
+            if (!this.orderIds.isEmpty()) {
+                this.updatedCount += DeliveryScheduleRecovery.this.statusChanger.updateOrderstatuses(this.orderIds,
+                        this.status);
+                this.orderIds = new ArrayList<>();
+            }
+        }
+    }
+}
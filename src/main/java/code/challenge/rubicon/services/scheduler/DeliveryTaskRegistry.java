@@ -0,0 +1,44 @@
+package code.challenge.rubicon.services.scheduler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Delivery tasks by orderId. Schedulers remove a task as soon as its delivery
+ * is cancelled or finished, so the registry only holds deliveries that are
+ * still to start or to finish and its size stays bounded by them.
+ */
+class DeliveryTaskRegistry<T> {
+
+    private final ConcurrentMap<String, T> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * Register a task for the order.
+     *
+     * @return Task that was registered for the order before. Null if there was
+     *         none.
+     */
+    T register(String orderId, T task) {
+        return this.tasks.put(orderId, task);
+    }
+
+    T get(String orderId) {
+        return this.tasks.get(orderId);
+    }
+
+    T remove(String orderId) {
+        return this.tasks.remove(orderId);
+    }
+
+    /**
+     * Remove the order's task only if it's the given task. A finishing task
+     * uses this so that it can't remove a newer task registered for the order.
+     */
+    boolean remove(String orderId, T task) {
+        return this.tasks.remove(orderId, task);
+    }
+
+    int size() {
+        return this.tasks.size();
+    }
+}
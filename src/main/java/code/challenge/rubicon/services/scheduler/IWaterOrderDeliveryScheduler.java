@@ -1,5 +1,7 @@
 package code.challenge.rubicon.services.scheduler;
 
+import java.util.List;
+
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.model.WaterOrder;
@@ -15,6 +17,15 @@ public interface IWaterOrderDeliveryScheduler {
      */
     public void addDeliverySchedule(WaterOrder waterOrder);
 
+    /**
+     * Add delivery schedules of many orders at once, e.g. when schedules are
+     * rebuilt on startup. Orders already in progress only get their end
+     * scheduled.
+     *
+     * @param waterOrders The orders to be scheduled.
+     */
+    public void addDeliverySchedules(List<WaterOrder> waterOrders);
+
     /**
      * Cancel existing delivery schedule for the given order id.
      *
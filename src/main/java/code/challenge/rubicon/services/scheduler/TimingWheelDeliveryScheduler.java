@@ -0,0 +1,301 @@
+package code.challenge.rubicon.services.scheduler;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.services.orderstatus.IWaterOrderStatusHelper;
+
+/**
+ * Delivery scheduler backed by a hierarchical timing wheel. Each order takes a
+ * single timer entry which is first due at the order's start time and then
+ * re-armed for the order's end time. Adding and cancelling a delivery are O(1)
+ * regardless of how many deliveries are pending.
+ *
+ * The wheel has a resolution of 1 second. Level 0 has 256 slots of 1 second
+ * and each higher level has 64 slots covering a whole turn of the level below,
+ * so 5 levels reach about 136 years. Entries due far away sit in a coarse slot
+ * and are moved down a level when the level below wraps around.
+ *
+ * Time is read from the injected Clock and the wheel is advanced every second
+ * by the given ScheduledExecutorService. Selected by setting
+ * waterorder.scheduler=timingwheel.
+ */
+@Component
+@ConditionalOnProperty(name = "waterorder.scheduler", havingValue = "timingwheel")
+public class TimingWheelDeliveryScheduler implements IWaterOrderDeliveryScheduler, MeterBinder {
+
+    private static final int[] LEVEL_BITS = { 8, 6, 6, 6, 6 };
+
+    private Logger logger = LoggerFactory.getLogger(TimingWheelDeliveryScheduler.class);
+
+    private IWaterOrderStatusHelper statusChanger;
+
+    // Slot heads of each level. Each slot is an intrusive doubly linked list.
+    private final TimerEntry[][] wheel = new TimerEntry[LEVEL_BITS.length][];
+    private final int[] levelShift = new int[LEVEL_BITS.length];
+
+    // Timer entries by orderId.
+    private final DeliveryTaskRegistry<TimerEntry> scheduledDeliveries = new DeliveryTaskRegistry<>();
+
+    // Next tick (epoch second) the wheel is going to process.
+    private long nextTick;
+
+    // To use for making scheduler testable.
+    private Clock clock;
+
+    public TimingWheelDeliveryScheduler(IWaterOrderStatusHelper statusChanger,
+            Optional<ScheduledExecutorService> scheduler, Optional<Clock> clock) {
+        this.statusChanger = statusChanger;
+        this.clock = clock.orElse(Clock.systemDefaultZone());
+
+        int shift = 0;
+        for (int level = 0; level < LEVEL_BITS.length; level++) {
+            this.wheel[level] = new TimerEntry[1 << LEVEL_BITS[level]];
+            this.levelShift[level] = shift;
+            shift += LEVEL_BITS[level];
+        }
+        this.nextTick = this.clock.instant().getEpochSecond();
+
+        ScheduledExecutorService ticker = scheduler.orElseGet(() -> Executors.newScheduledThreadPool(1));
+        ticker.scheduleAtFixedRate(this::advance, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void addDeliverySchedule(WaterOrder waterOrder) {
+        TimerEntry entry = this.newTimerEntry(waterOrder);
+        synchronized(this) {
+            this.register(entry);
+        }
+    }
+
+    /**
+     * Add all entries under one lock.
+     */
+    @Override
+    public void addDeliverySchedules(List<WaterOrder> waterOrders) {
+        List<TimerEntry> entries = new ArrayList<>(waterOrders.size());
+        for (WaterOrder waterOrder : waterOrders) {
+            entries.add(this.newTimerEntry(waterOrder));
+        }
+        synchronized(this) {
+            for (TimerEntry entry : entries) {
+                this.register(entry);
+            }
+        }
+    }
+
+    @Override
+    public void cancelDeliverySchdule(String orderId) throws DeliveryTaskNotFoundException, OrderNotFoundException {
+        synchronized(this) {
+            TimerEntry entry = this.scheduledDeliveries.remove(orderId);
+            if (entry == null) {
+                throw new DeliveryTaskNotFoundException("orderId", "Cannot find delivery task for " + orderId);
+            }
+            this.unlink(entry);
+        }
+        this.statusChanger.updateOrderstatus(orderId, WaterOrder.OrderStatus.CANCELLED);
+    }
+
+    /**
+     * Process every tick up to the Clock's current time. Due entries are
+     * collected under the lock and their status updates run after releasing
+     * it.
+     */
+    void advance() {
+        List<TimerEntry> startedEntries = new ArrayList<>();
+        List<TimerEntry> finishedEntries = new ArrayList<>();
+        long nowTick = this.clock.instant().getEpochSecond();
+        synchronized(this) {
+            while (this.nextTick <= nowTick) {
+                this.cascade();
+                int index = (int) (this.nextTick & (this.wheel[0].length - 1));
+                TimerEntry entry = this.wheel[0][index];
+                this.wheel[0][index] = null;
+                while (entry != null) {
+                    TimerEntry next = entry.next;
+                    entry.prev = null;
+                    entry.next = null;
+                    this.expire(entry, startedEntries, finishedEntries);
+                    entry = next;
+                }
+                this.nextTick++;
+            }
+        }
+
+        for (TimerEntry entry : startedEntries) {
+            this.updateOrderstatus(entry.waterOrder, WaterOrder.OrderStatus.IN_PROGRESS);
+        }
+        for (TimerEntry entry : finishedEntries) {
+            this.updateOrderstatus(entry.waterOrder, WaterOrder.OrderStatus.DELIVERED);
+        }
+    }
+
+    /**
+     * Publish number of deliveries in the wheel.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("waterorder.deliveries.scheduled", this, TimingWheelDeliveryScheduler::getScheduledDeliveryCount)
+                .description("Deliveries waiting to start or to finish").register(registry);
+    }
+
+    /**
+     * Number of deliveries waiting to start or to finish.
+     */
+    int getScheduledDeliveryCount() {
+        return this.scheduledDeliveries.size();
+    }
+
+    /**
+     * Create an entry due at the order's start time, or at its end time if
+     * the delivery is already in progress.
+     */
+    private TimerEntry newTimerEntry(WaterOrder waterOrder) {
+        long startTick = waterOrder.getStartDateTime().atZone(this.clock.getZone()).toEpochSecond();
+        TimerEntry entry = new TimerEntry(waterOrder, startTick + waterOrder.getDuration().getSeconds());
+        if (waterOrder.getStatus() == WaterOrder.OrderStatus.IN_PROGRESS) {
+            entry.started = true;
+            entry.deadline = entry.endTick;
+        } else {
+            entry.deadline = startTick;
+        }
+        return entry;
+    }
+
+    /**
+     * Register an entry and put it in the wheel. Caller must hold this
+     * scheduler's lock.
+     */
+    private void register(TimerEntry entry) {
+        TimerEntry replacedEntry = this.scheduledDeliveries.register(entry.waterOrder.getOrderId(), entry);
+        if (replacedEntry != null) {
+            this.unlink(replacedEntry);
+        }
+        this.insert(entry, this.nextTick);
+    }
+
+    /**
+     * Handle an entry that became due. Re-arm it for the end time if delivery
+     * has just started, otherwise it's finished.
+     */
+    private void expire(TimerEntry entry, List<TimerEntry> startedEntries, List<TimerEntry> finishedEntries) {
+        if (!entry.started) {
+            entry.started = true;
+            entry.deadline = entry.endTick;
+            startedEntries.add(entry);
+            // The slot of the tick being processed is already taken out.
+            this.insert(entry, this.nextTick + 1);
+        } else {
+            this.scheduledDeliveries.remove(entry.waterOrder.getOrderId());
+            finishedEntries.add(entry);
+        }
+    }
+
+    /**
+     * When a level wraps around, move entries in the next slot of the level
+     * above down to where they belong now.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVEL_BITS.length; level++) {
+            long lowerBitsMask = (1L << this.levelShift[level]) - 1;
+            if ((this.nextTick & lowerBitsMask) != 0) {
+                return;
+            }
+            int index = (int) ((this.nextTick >>> this.levelShift[level]) & (this.wheel[level].length - 1));
+            TimerEntry entry = this.wheel[level][index];
+            this.wheel[level][index] = null;
+            while (entry != null) {
+                TimerEntry next = entry.next;
+                entry.prev = null;
+                entry.next = null;
+                this.insert(entry, this.nextTick);
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * Put an entry into the slot for its deadline. An entry whose deadline is
+     * earlier than earliestTick goes to earliestTick's slot.
+     */
+    private void insert(TimerEntry entry, long earliestTick) {
+        long deadline = Math.max(entry.deadline, earliestTick);
+        long delta = deadline - this.nextTick;
+        int level = 0;
+        while (level < LEVEL_BITS.length - 1 && delta >= 1L << (this.levelShift[level] + LEVEL_BITS[level])) {
+            level++;
+        }
+        int index = (int) ((deadline >>> this.levelShift[level]) & (this.wheel[level].length - 1));
+
+        entry.level = level;
+        entry.index = index;
+        entry.prev = null;
+        entry.next = this.wheel[level][index];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        this.wheel[level][index] = entry;
+    }
+
+    private void unlink(TimerEntry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else if (this.wheel[entry.level][entry.index] == entry) {
+            this.wheel[entry.level][entry.index] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private void updateOrderstatus(WaterOrder waterOrder, WaterOrder.OrderStatus status) {
+        try {
+            this.statusChanger.updateOrderstatus(waterOrder.getOrderId(), status);
+        } catch (OrderNotFoundException ex) {
+            // This should not happen. Log it.
+            logger.error("Connot find order so failed to update the status to " + status + ". orderId: "
+                    + waterOrder.getOrderId());
+        }
+    }
+
+    /**
+     * Timer entry of a delivery. It's due at the order's start time first and
+     * at the order's end time after the delivery started.
+     */
+    private static class TimerEntry {
+        private final WaterOrder waterOrder;
+        private final long endTick;
+        private long deadline;
+        private boolean started;
+
+        // Position in the wheel.
+        private int level;
+        private int index;
+        private TimerEntry prev;
+        private TimerEntry next;
+
+        TimerEntry(WaterOrder waterOrder, long endTick) {
+            this.waterOrder = waterOrder;
+            this.endTick = endTick;
+        }
+    }
+}
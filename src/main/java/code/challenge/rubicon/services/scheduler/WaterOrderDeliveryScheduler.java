@@ -1,20 +1,30 @@
 package code.challenge.rubicon.services.scheduler;
 
 import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
+import java.util.PriorityQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.model.WaterOrder;
@@ -23,9 +33,22 @@ import code.challenge.rubicon.services.orderstatus.IWaterOrderStatusHelper;;
 /**
  * This schedule simulates delivery. Print messages on console when at order's
  * start time and end time.
+ *
+ * If waterorder.scheduler.horizon is set, only deliveries starting within the
+ * horizon hold timers in ScheduledExecutorService. Later deliveries wait in a
+ * queue sorted by start time, and a sweep running every half horizon promotes
+ * the ones that came within the horizon. This keeps the executor's timer queue
+ * small regardless of how far ahead orders are placed.
+ *
+ * Delivery tasks are removed from the registry when they're cancelled or
+ * finished. Numbers of scheduled and deferred deliveries are published as
+ * metrics.
+ *
+ * This is the default scheduler (waterorder.scheduler=executor).
  */
 @Component
-public class WaterOrderDeliveryScheduler implements IWaterOrderDeliveryScheduler {
+@ConditionalOnProperty(name = "waterorder.scheduler", havingValue = "executor", matchIfMissing = true)
+public class WaterOrderDeliveryScheduler implements IWaterOrderDeliveryScheduler, MeterBinder {
 
     private Logger logger = LoggerFactory.getLogger(WaterOrderDeliveryScheduler.class);
 
@@ -35,88 +58,221 @@ public class WaterOrderDeliveryScheduler implements IWaterOrderDeliveryScheduler
     private ScheduledExecutorService scheduler;
 
     // DeliveryTasks by orderId
-    private Map<String, DeliveryTask> scheduledDeliveries = new HashMap<>();
+    private DeliveryTaskRegistry<DeliveryTask> scheduledDeliveries = new DeliveryTaskRegistry<>();
+
+    // Deliveries starting beyond the horizon by start time. They don't have
+    // timers until they're promoted.
+    private PriorityQueue<DeliveryTask> deferredDeliveries = new PriorityQueue<>(
+            Comparator.comparing(task -> task.waterOrder.getStartDateTime()));
+    // Cancelled deliveries still in deferredDeliveries.
+    private int cancelledDeferredCount;
+
+    // Deliveries starting later than this from now are deferred. Zero means no
+    // delivery is deferred.
+    private Duration horizon;
 
     // To use for making scheduler testable.
     private Clock clock;
 
     public WaterOrderDeliveryScheduler(IWaterOrderStatusHelper statusChanger,
             Optional<ScheduledExecutorService> scheduler, Optional<Clock> clock) {
+        this(statusChanger, scheduler, clock, Duration.ZERO);
+    }
+
+    @Autowired
+    public WaterOrderDeliveryScheduler(IWaterOrderStatusHelper statusChanger,
+            Optional<ScheduledExecutorService> scheduler, Optional<Clock> clock,
+            @Value("${waterorder.scheduler.horizon:0s}") Duration horizon) {
         this.statusChanger = statusChanger;
         if (scheduler.isPresent()) {
             this.scheduler = scheduler.get();
         } else {
-            this.scheduler = Executors.newScheduledThreadPool(1);
+            // Drop cancelled timers from the executor's queue straight away
+            // rather than keeping them until they're due.
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            this.scheduler = executor;
         }
         if (clock.isPresent()) {
             this.clock = clock.get();
         } else {
             this.clock = Clock.systemDefaultZone();
         }
+        this.horizon = horizon;
+        if (!horizon.isZero()) {
+            long sweepInterval = Math.max(horizon.getSeconds() / 2, 1);
+            this.scheduler.scheduleAtFixedRate(this::promoteDeferredDeliveries, sweepInterval, sweepInterval,
+                    TimeUnit.SECONDS);
+        }
     }
 
     @Override
     public void addDeliverySchedule(WaterOrder waterOrder) {
         DeliveryTask deliveryTask = new DeliveryTask(waterOrder);
-        deliveryTask.scheduleDelivery();
-        synchronized(this) {
-            this.scheduledDeliveries.put(waterOrder.getOrderId(), deliveryTask);
+        // Register before scheduling so that a delivery finishing straight away
+        // can remove itself.
+        this.scheduledDeliveries.register(waterOrder.getOrderId(), deliveryTask);
+        if (this.isBeyondHorizon(waterOrder)) {
+            synchronized(this) {
+                deliveryTask.deferred = true;
+                this.deferredDeliveries.add(deliveryTask);
+            }
+        } else {
+            deliveryTask.scheduleDelivery();
         }
     }
 
+    /**
+     * Add deliveries one by one, but put the deferred ones in the queue under
+     * one lock.
+     */
     @Override
-    public void cancelDeliverySchdule(String orderId) throws DeliveryTaskNotFoundException, OrderNotFoundException {
-        DeliveryTask deliveryTask = null;
+    public void addDeliverySchedules(List<WaterOrder> waterOrders) {
+        List<DeliveryTask> deferredTasks = new ArrayList<>();
+        for (WaterOrder waterOrder : waterOrders) {
+            DeliveryTask deliveryTask = new DeliveryTask(waterOrder);
+            this.scheduledDeliveries.register(waterOrder.getOrderId(), deliveryTask);
+            if (this.isBeyondHorizon(waterOrder)) {
+                deferredTasks.add(deliveryTask);
+            } else {
+                deliveryTask.scheduleDelivery();
+            }
+        }
         synchronized(this) {
-            deliveryTask = this.scheduledDeliveries.get(orderId);
+            for (DeliveryTask deliveryTask : deferredTasks) {
+                deliveryTask.deferred = true;
+            }
+            this.deferredDeliveries.addAll(deferredTasks);
         }
+    }
+
+    @Override
+    public void cancelDeliverySchdule(String orderId) throws DeliveryTaskNotFoundException, OrderNotFoundException {
+        DeliveryTask deliveryTask = this.scheduledDeliveries.remove(orderId);
         if (deliveryTask == null) {
             throw new DeliveryTaskNotFoundException("orderId", "Cannot find delivery task for " + orderId);
         }
+        synchronized(this) {
+            if (deliveryTask.deferred) {
+                // Leave it in the queue. It's dropped when it's polled or when
+                // cancelled deliveries take up half of the queue.
+                deliveryTask.deferred = false;
+                this.cancelledDeferredCount++;
+                if (this.cancelledDeferredCount > this.deferredDeliveries.size() / 2) {
+                    this.deferredDeliveries.removeIf(task -> !task.deferred);
+                    this.cancelledDeferredCount = 0;
+                }
+            }
+        }
         deliveryTask.cancelDelivery();
     }
 
+    /**
+     * Publish number of deliveries in the registry and in the deferred queue.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("waterorder.deliveries.scheduled", this, WaterOrderDeliveryScheduler::getScheduledDeliveryCount)
+                .description("Deliveries waiting to start or to finish").register(registry);
+        Gauge.builder("waterorder.deliveries.deferred", this, WaterOrderDeliveryScheduler::getDeferredDeliveryCount)
+                .description("Deliveries waiting beyond the scheduling horizon without timers")
+                .register(registry);
+    }
+
+    /**
+     * Number of deliveries waiting to start or to finish.
+     */
+    int getScheduledDeliveryCount() {
+        return this.scheduledDeliveries.size();
+    }
+
+    /**
+     * Number of entries in the deferred queue including cancelled ones not
+     * dropped yet.
+     */
+    synchronized int getDeferredDeliveryCount() {
+        return this.deferredDeliveries.size();
+    }
+
+    /**
+     * Give timers to deferred deliveries that start within the horizon now.
+     */
+    synchronized void promoteDeferredDeliveries() {
+        LocalDateTime horizonEnd = LocalDateTime.now(this.clock).plus(this.horizon);
+        while (!this.deferredDeliveries.isEmpty()
+                && !this.deferredDeliveries.peek().waterOrder.getStartDateTime().isAfter(horizonEnd)) {
+            DeliveryTask deliveryTask = this.deferredDeliveries.poll();
+            if (!deliveryTask.deferred) {
+                // Cancelled while it was waiting.
+                this.cancelledDeferredCount--;
+                continue;
+            }
+            deliveryTask.deferred = false;
+            deliveryTask.scheduleDelivery();
+        }
+    }
+
+    private boolean isBeyondHorizon(WaterOrder waterOrder) {
+        return !this.horizon.isZero()
+                && waterOrder.getStartDateTime().isAfter(LocalDateTime.now(this.clock).plus(this.horizon));
+    }
+
     /**
      * Represents a delivery task. It includes it's own scheduled start/end delivery
      * task.
      */
     private class DeliveryTask {
         private WaterOrder waterOrder;
+        // Delivery had already started when it was added, e.g. when schedules
+        // are rebuilt on startup. Only its end is scheduled.
+        private final boolean alreadyStarted;
         private ScheduledFuture<?> scheduledDeliverStart;
         private ScheduledFuture<?> scheduledDeliverEnd;
+        // Waiting in deferredDeliveries without timers. Guarded by the scheduler.
+        private boolean deferred;
+        // Guarded by this task.
+        private boolean cancelled;
 
         DeliveryTask(WaterOrder waterOrder) {
             this.waterOrder = waterOrder;
+            this.alreadyStarted = waterOrder.getStatus() == WaterOrder.OrderStatus.IN_PROGRESS;
         }
 
         /**
-         * Schedule start/end time of delivery task.
+         * Schedule start/end time of delivery task. Nothing is scheduled if the
+         * delivery has already been cancelled.
          */
-        void scheduleDelivery() {
+        synchronized void scheduleDelivery() {
+            if (this.cancelled) {
+                return;
+            }
             // Use given Clock object instead of calling LocalDateTime.now() without
             // parameter. This improves
             // testability by enabling now() returning fixed datetime.
             long delayToStartTime = LocalDateTime.now(WaterOrderDeliveryScheduler.this.clock)
                     .until(waterOrder.getStartDateTime(), ChronoUnit.SECONDS);
 
-            this.scheduledDeliverStart = WaterOrderDeliveryScheduler.this.scheduler.schedule(new Runnable() {
-                public void run() {
-                    logger.info("Delivery started. " + LocalDateTime.now());
-                    try {
-                        WaterOrderDeliveryScheduler.this.statusChanger.updateOrderstatus(
-                                DeliveryTask.this.waterOrder.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
-                    } catch (OrderNotFoundException ex) {
-                        // This should not happen. Log it.
-                        logger.error("Connot find order so failed to update the status to IN_PROGRESS. orderId: "
-                                + DeliveryTask.this.waterOrder.getOrderId());
+            // A delivery already in progress only needs its end.
+            if (!this.alreadyStarted) {
+                this.scheduledDeliverStart = WaterOrderDeliveryScheduler.this.scheduler.schedule(new Runnable() {
+                    public void run() {
+                        logger.info("Delivery started. " + LocalDateTime.now());
+                        try {
+                            WaterOrderDeliveryScheduler.this.statusChanger.updateOrderstatus(
+                                    DeliveryTask.this.waterOrder.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+                        } catch (OrderNotFoundException ex) {
+                            // This should not happen. Log it.
+                            logger.error("Connot find order so failed to update the status to IN_PROGRESS. orderId: "
+                                    + DeliveryTask.this.waterOrder.getOrderId());
+                        }
                     }
-                }
-            }, delayToStartTime, TimeUnit.SECONDS);
+                }, delayToStartTime, TimeUnit.SECONDS);
+            }
             this.scheduledDeliverEnd = WaterOrderDeliveryScheduler.this.scheduler.schedule(new Runnable() {
                 public void run() {
                     logger.info("Delivery finished. " + LocalDateTime.now());
                     WaterOrderDeliveryScheduler.this.scheduledDeliveries
-                            .remove(DeliveryTask.this.waterOrder.getOrderId());
+                            .remove(DeliveryTask.this.waterOrder.getOrderId(), DeliveryTask.this);
                     try {
                         WaterOrderDeliveryScheduler.this.statusChanger.updateOrderstatus(
                                 DeliveryTask.this.waterOrder.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
@@ -136,11 +292,15 @@ public class WaterOrderDeliveryScheduler implements IWaterOrderDeliveryScheduler
          *                                OrderNotFoundException is thrown.
          */
         void cancelDelivery() throws OrderNotFoundException {
-            if (!this.scheduledDeliverStart.isDone()) {
-                this.scheduledDeliverStart.cancel(true);
-            }
-            if (!this.scheduledDeliverEnd.isDone()) {
-                this.scheduledDeliverEnd.cancel(true);
+            synchronized(this) {
+                this.cancelled = true;
+                // Deferred delivery doesn't have timers yet.
+                if (this.scheduledDeliverStart != null && !this.scheduledDeliverStart.isDone()) {
+                    this.scheduledDeliverStart.cancel(true);
+                }
+                if (this.scheduledDeliverEnd != null && !this.scheduledDeliverEnd.isDone()) {
+                    this.scheduledDeliverEnd.cancel(true);
+                }
             }
             WaterOrderDeliveryScheduler.this.statusChanger.updateOrderstatus(this.waterOrder.getOrderId(),
                     WaterOrder.OrderStatus.CANCELLED);
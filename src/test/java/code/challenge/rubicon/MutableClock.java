@@ -0,0 +1,38 @@
+package code.challenge.rubicon;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * Clock for tests which stays where it is until it's moved forward.
+ */
+public class MutableClock extends Clock {
+    private volatile Instant instant;
+    private final ZoneId zone;
+
+    public MutableClock(Instant instant, ZoneId zone) {
+        this.instant = instant;
+        this.zone = zone;
+    }
+
+    public void advance(Duration duration) {
+        this.instant = this.instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return this.zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new MutableClock(this.instant, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return this.instant;
+    }
+}
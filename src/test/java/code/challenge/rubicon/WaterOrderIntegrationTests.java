@@ -11,20 +11,31 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.server.LocalServerPort;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderBatch;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 class WaterOrderIntegrationTests {
@@ -131,6 +142,53 @@ class WaterOrderIntegrationTests {
 		assertThat(returnedWaterOrder.get("CREATE")).contains("Delivery time of the new order overlaps existing order");
 	}
 
+	@Test
+	@DisplayName("Add orders in a batch and get a result for each of them.")
+	public void testAddWaterOrdersInBatch() throws Exception {
+		String farmId = "BatchFarm";
+		LocalDateTime startTime = LocalDateTime.now().plusDays(1);
+		List<WaterOrder> orders = new ArrayList<>();
+		orders.add(new WaterOrder(null, farmId, startTime.plusHours(10), Duration.ofHours(5), null));
+		orders.add(new WaterOrder(null, farmId, startTime, Duration.ofHours(5), null));
+		// Overlaps the second order.
+		orders.add(new WaterOrder(null, farmId, startTime.plusHours(1), Duration.ofHours(5), null));
+		orders.add(new WaterOrder(null, "OtherBatchFarm", startTime, Duration.ofHours(5), null));
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		ResponseEntity<BatchOrderResult[]> result = this.getRestTemplate().postForEntity(this.baseUrl + "/batch",
+				new HttpEntity<>(new WaterOrderBatch(orders), headers), BatchOrderResult[].class);
+
+		assertThat(result.getStatusCodeValue()).isEqualTo(200);
+		BatchOrderResult[] results = result.getBody();
+		assertThat(results).extracting(BatchOrderResult::getResult).containsExactly(BatchOrderResult.Result.CREATED,
+				BatchOrderResult.Result.CREATED, BatchOrderResult.Result.REJECTED, BatchOrderResult.Result.CREATED);
+		assertThat(results[2].getMessage()).contains("Delivery time of the new order overlaps existing order");
+		assertThat(results[0].getOrder().getStartDateTime()).isEqualTo(startTime.plusHours(10));
+		assertThat(results[0].getOrder().getStatus()).isEqualTo(WaterOrder.OrderStatus.REQUESTED);
+
+		List<Map<String, String>> returnedOrders = this.getRestTemplate()
+				.getForObject(this.baseUrl + "?farmid=" + farmId, new ArrayList<Map<String, String>>().getClass());
+		assertThat(returnedOrders.size()).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("Batch with an invalid order is rejected as a whole.")
+	public void testAddWaterOrdersInBatchBadRequest() throws Exception {
+		List<WaterOrder> orders = new ArrayList<>();
+		orders.add(new WaterOrder(null, "BadBatchFarm", LocalDateTime.now().plusDays(1), Duration.ofHours(1), null));
+		orders.add(new WaterOrder(null, "BadBatchFarm", LocalDateTime.now().plusDays(2), Duration.ofHours(-1), null));
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		HttpEntity<WaterOrderBatch> request = new HttpEntity<>(new WaterOrderBatch(orders), headers);
+
+		assertThat(this.getRestTemplate().postForEntity(this.baseUrl + "/batch", request, Map.class)
+				.getStatusCodeValue()).isEqualTo(400);
+		assertThat(this.getRestTemplate().getForEntity(this.baseUrl + "?farmid=BadBatchFarm", Map.class)
+				.getStatusCodeValue()).isEqualTo(404);
+	}
+
 	@Test
 	@DisplayName("Add 2 orders with different farmid and retrive by one of the farmids")
 	public void testAddWaterOrderAndGetByFarmId() throws Exception {
@@ -153,6 +211,98 @@ class WaterOrderIntegrationTests {
 		assertThat(returnedOrders.get(0).get("farmId")).isEqualTo(farmId);
 	}
 
+	@Test
+	@DisplayName("Page through orders with a cursor and stream them as newline delimited JSON")
+	public void testPageAndStreamOrders() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			HttpEntity<WaterOrder> request = this.createHttpEntityWithFarmIdStartDateTime("PagedFarm" + i,
+					LocalDateTime.now().plusHours(1));
+			assertThat(this.getRestTemplate().postForEntity(this.baseUrl, request, Map.class).getStatusCodeValue())
+					.isEqualTo(200);
+		}
+
+		List<Object> pagedOrders = new ArrayList<>();
+		String cursor = null;
+		do {
+			Map<String, Object> page = this.getRestTemplate().getForObject(
+					this.baseUrl + "?limit=2" + (cursor == null ? "" : "&after={after}"), Map.class, cursor);
+			pagedOrders.addAll((List<?>) page.get("orders"));
+			cursor = (String) page.get("nextCursor");
+		} while (cursor != null);
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(Arrays.asList(MediaType.parseMediaType("application/x-ndjson")));
+		ResponseEntity<String> streamed = this.getRestTemplate().exchange(this.baseUrl, HttpMethod.GET,
+				new HttpEntity<>(headers), String.class);
+
+		assertThat(streamed.getStatusCodeValue()).isEqualTo(200);
+		assertThat(streamed.getHeaders().getContentType().toString()).isEqualTo("application/x-ndjson");
+		String[] lines = streamed.getBody().split("\n");
+		assertThat(lines.length).isEqualTo(pagedOrders.size()).isGreaterThanOrEqualTo(3);
+		assertThat(streamed.getBody()).contains("PagedFarm0", "PagedFarm1", "PagedFarm2");
+		assertThat(this.getRestTemplate().getForEntity(this.baseUrl + "?limit=0", Map.class).getStatusCodeValue())
+				.isEqualTo(400);
+	}
+
+	@Test
+	@DisplayName("Find orders by farm, start time range and status.")
+	public void testFindOrders() throws Exception {
+		LocalDateTime startTime = LocalDateTime.now().plusDays(3).withNano(0);
+		HttpEntity<WaterOrder> request = this.createHttpEntityWithFarmIdStartDateTime("QueriedFarm", startTime);
+		assertThat(this.getRestTemplate().postForEntity(this.baseUrl, request, Map.class).getStatusCodeValue())
+				.isEqualTo(200);
+
+		List<?> requested = this.getRestTemplate().getForObject(
+				this.baseUrl + "?farmid=QueriedFarm&status=REQUESTED&from={from}&to={to}", List.class, startTime,
+				startTime.plusMinutes(1));
+		List<?> tooLate = this.getRestTemplate().getForObject(this.baseUrl + "?farmid=QueriedFarm&from={from}",
+				List.class, startTime.plusMinutes(1));
+		List<?> cancelled = this.getRestTemplate().getForObject(this.baseUrl + "?status=CANCELLED&from={from}",
+				List.class, startTime);
+
+		assertThat(requested).hasSize(1);
+		assertThat(tooLate).isEmpty();
+		assertThat(cancelled).isEmpty();
+		assertThat(this.getRestTemplate().getForEntity(this.baseUrl + "?status=UNKNOWN", String.class)
+				.getStatusCodeValue()).isEqualTo(400);
+	}
+
+	@Test
+	@DisplayName("Unchanged order and farm orders are answered with 304 to If-None-Match of their ETag.")
+	public void testConditionalGet() throws Exception {
+		String farmId = "ConditionalFarm";
+		WaterOrder createdOrder = this.getRestTemplate().postForObject(this.baseUrl,
+				this.createHttpEntityWithFarmIdStartDateTime(farmId, LocalDateTime.now().plusDays(2)), WaterOrder.class);
+		String orderUrl = this.baseUrl + "/" + createdOrder.getOrderId();
+		String farmUrl = this.baseUrl + "?farmid=" + farmId;
+
+		ResponseEntity<String> order = this.getRestTemplate().getForEntity(orderUrl, String.class);
+		ResponseEntity<String> farmOrders = this.getRestTemplate().getForEntity(farmUrl, String.class);
+		String orderETag = order.getHeaders().getETag();
+		String farmETag = farmOrders.getHeaders().getETag();
+		assertThat(orderETag).isNotNull();
+		assertThat(farmETag).isNotNull();
+
+		ResponseEntity<String> notModifiedOrder = this.getWithIfNoneMatch(orderUrl, orderETag);
+		assertThat(notModifiedOrder.getStatusCodeValue()).isEqualTo(304);
+		assertThat(notModifiedOrder.getBody()).isNull();
+		assertThat(this.getWithIfNoneMatch(farmUrl, farmETag).getStatusCodeValue()).isEqualTo(304);
+
+		this.getRestTemplate().put(orderUrl + "/cancellation", null);
+
+		ResponseEntity<String> cancelledOrder = this.getWithIfNoneMatch(orderUrl, orderETag);
+		assertThat(cancelledOrder.getStatusCodeValue()).isEqualTo(200);
+		assertThat(cancelledOrder.getBody()).contains("CANCELLED");
+		assertThat(cancelledOrder.getHeaders().getETag()).isNotEqualTo(orderETag);
+		assertThat(this.getWithIfNoneMatch(farmUrl, farmETag).getStatusCodeValue()).isEqualTo(200);
+	}
+
+	private ResponseEntity<String> getWithIfNoneMatch(String url, String etag) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfNoneMatch(etag);
+		return this.getRestTemplate().exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+	}
+
 	@Test
 	@DisplayName("Add order and cancel it and cancel it again.")
 	public void testAddWaterOrderAndCancel() throws Exception {
@@ -180,6 +330,83 @@ class WaterOrderIntegrationTests {
 		assertThat(response.getStatusCodeValue()).isEqualTo(409);
 	}
 
+	@Test
+	@DisplayName("Retries with the same Idempotency-Key get the first response instead of a conflict.")
+	public void testIdempotencyKey() throws Exception {
+		HttpEntity<WaterOrder> request = this.createHttpEntityWithFarmIdStartDateTime("IdempotentFarm",
+				LocalDateTime.now().plusDays(1));
+		HttpHeaders headers = new HttpHeaders();
+		headers.putAll(request.getHeaders());
+		headers.set("Idempotency-Key", "order-1");
+		HttpEntity<WaterOrder> keyedRequest = new HttpEntity<>(request.getBody(), headers);
+
+		ResponseEntity<WaterOrder> first = this.getRestTemplate().postForEntity(this.baseUrl, keyedRequest,
+				WaterOrder.class);
+		ResponseEntity<WaterOrder> retry = this.getRestTemplate().postForEntity(this.baseUrl, keyedRequest,
+				WaterOrder.class);
+
+		assertThat(first.getStatusCodeValue()).isEqualTo(200);
+		assertThat(retry.getStatusCodeValue()).isEqualTo(200);
+		assertThat(retry.getBody().getOrderId()).isEqualTo(first.getBody().getOrderId());
+		// Without the key, it's another order overlapping the first one.
+		assertThat(this.getRestTemplate().postForEntity(this.baseUrl, request, Map.class).getStatusCodeValue())
+				.isEqualTo(409);
+
+		RequestEntity<?> cancellation = RequestEntity
+				.put(new URI(this.baseUrl + "/" + first.getBody().getOrderId() + "/cancellation"))
+				.header("Idempotency-Key", "cancel-1").build();
+		assertThat(this.getRestTemplate().exchange(cancellation, Map.class).getStatusCodeValue()).isEqualTo(200);
+		assertThat(this.getRestTemplate().exchange(cancellation, Map.class).getStatusCodeValue()).isEqualTo(200);
+
+		// The key of the cancellation can't be used for another order's.
+		RequestEntity<?> otherCancellation = RequestEntity.put(new URI(this.baseUrl + "/otherOrder/cancellation"))
+				.header("Idempotency-Key", "cancel-1").build();
+		ResponseEntity<Map> reused = this.getRestTemplate().exchange(otherCancellation, Map.class);
+		assertThat(reused.getStatusCodeValue()).isEqualTo(422);
+		assertThat(reused.getBody().get("Idempotency-Key")).isEqualTo(
+				"Idempotency key 'cancel-1' was already used for another request.");
+	}
+
+	@Test
+	@DisplayName("Status transitions of a farm's orders are pushed as Server-Sent Events.")
+	public void testStreamStatusEvents() throws Exception {
+		String farmId = "StreamedFarm";
+		ResponseEntity<WaterOrder> result = this.getRestTemplate().postForEntity(this.baseUrl,
+				this.createHttpEntityWithFarmIdStartDateTime(farmId, LocalDateTime.now().plusDays(1)),
+				WaterOrder.class);
+		String createdOrderId = result.getBody().getOrderId();
+
+		// Read with a plain connection, since RestTemplate reads the endless
+		// stream to its end before closing it.
+		HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + "/events?farmid=" + farmId)
+				.openConnection();
+		connection.setRequestProperty(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+		connection.setRequestProperty(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder()
+				.encodeToString((this.userName + ":" + this.password).getBytes(StandardCharsets.UTF_8)));
+		String cancelledData;
+		try {
+			cancelledData = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+				assertThat(MediaType.parseMediaType(connection.getContentType())
+						.isCompatibleWith(MediaType.TEXT_EVENT_STREAM)).isTrue();
+				// Subscribed once the headers are here.
+				this.getRestTemplate().put(this.baseUrl + "/" + createdOrderId + "/cancellation", null);
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("data:") && line.contains("CANCELLED")) {
+						return line;
+					}
+				}
+				return null;
+			});
+		} finally {
+			connection.disconnect();
+		}
+
+		assertThat(cancelledData).contains(createdOrderId, farmId);
+	}
+
 	@Test
 	@DisplayName("Try to cancel order with orderId that doesn't exist.")
 	public void testCancelNonExistingWaterOrder() throws Exception {
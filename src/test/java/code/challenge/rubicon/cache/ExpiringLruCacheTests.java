@@ -0,0 +1,81 @@
+package code.challenge.rubicon.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.MutableClock;
+
+public class ExpiringLruCacheTests {
+
+    private MutableClock clock;
+    private ExpiringLruCache<String, String> cache;
+
+    @BeforeEach
+    public void initEach() {
+        this.clock = new MutableClock(Instant.parse("2020-01-10T10:10:00Z"), ZoneId.systemDefault());
+        this.cache = new ExpiringLruCache<>(3, Duration.ofMinutes(5), this.clock);
+    }
+
+    @Test
+    @DisplayName("get returns the value put until it expires")
+    public void testEntryExpires() {
+        this.cache.put("key1", "value1");
+        this.clock.advance(Duration.ofMinutes(4));
+
+        assertThat(this.cache.get("key1")).isEqualTo("value1");
+
+        this.clock.advance(Duration.ofMinutes(1));
+        assertThat(this.cache.get("key1")).isNull();
+        assertThat(this.cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Putting a value again restarts its time to live")
+    public void testPutRestartsTimeToLive() {
+        this.cache.put("key1", "value1");
+        this.clock.advance(Duration.ofMinutes(4));
+        this.cache.put("key1", "value2");
+        this.clock.advance(Duration.ofMinutes(4));
+
+        assertThat(this.cache.get("key1")).isEqualTo("value2");
+    }
+
+    @Test
+    @DisplayName("Least recently used entry is evicted when the cache is full")
+    public void testLeastRecentlyUsedIsEvicted() {
+        this.cache.put("key1", "value1");
+        this.cache.put("key2", "value2");
+        this.cache.put("key3", "value3");
+        // key2 becomes the least recently used.
+        this.cache.get("key1");
+        this.cache.put("key4", "value4");
+
+        assertThat(this.cache.size()).isEqualTo(3);
+        assertThat(this.cache.getEvictionCount()).isEqualTo(1);
+        assertThat(this.cache.get("key2")).isNull();
+        assertThat(this.cache.get("key1")).isEqualTo("value1");
+        assertThat(this.cache.get("key3")).isEqualTo("value3");
+        assertThat(this.cache.get("key4")).isEqualTo("value4");
+    }
+
+    @Test
+    @DisplayName("remove returns the removed value unless it has expired")
+    public void testRemove() {
+        this.cache.put("key1", "value1");
+        this.cache.put("key2", "value2");
+
+        assertThat(this.cache.remove("key1")).isEqualTo("value1");
+        assertThat(this.cache.get("key1")).isNull();
+
+        this.clock.advance(Duration.ofMinutes(5));
+        assertThat(this.cache.remove("key2")).isNull();
+        assertThat(this.cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,92 @@
+package code.challenge.rubicon.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.MutableClock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class FarmOrdersResponseCacheTests {
+
+    private MutableClock clock;
+    private FarmOrdersResponseCache cache;
+
+    private final byte[] body1 = { 1 };
+    private final byte[] body2 = { 2 };
+
+    @BeforeEach
+    public void initEach() {
+        this.clock = new MutableClock(Instant.parse("2020-01-10T10:10:00Z"), ZoneId.systemDefault());
+        this.cache = new FarmOrdersResponseCache(Duration.ofMinutes(5), 2, Optional.of(this.clock));
+    }
+
+    @Test
+    @DisplayName("A response is returned only for the version it was made of")
+    public void testResponseOfVersion() {
+        this.cache.put("farm1", 3, this.body1);
+
+        assertThat(this.cache.get("farm1", 3)).isSameAs(this.body1);
+        assertThat(this.cache.get("farm2", 3)).isNull();
+        // A newer version drops the response.
+        assertThat(this.cache.get("farm1", 4)).isNull();
+        assertThat(this.cache.get("farm1", 3)).isNull();
+
+        this.cache.put("farm1", 4, this.body2);
+        assertThat(this.cache.get("farm1", 4)).isSameAs(this.body2);
+        assertThat(this.cache.getHitCount()).isEqualTo(2);
+        assertThat(this.cache.getMissCount()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A reader of an older version neither drops nor replaces the response of a newer one")
+    public void testOlderVersionKeepsNewerResponse() {
+        this.cache.put("farm1", 4, this.body2);
+
+        assertThat(this.cache.get("farm1", 3)).isNull();
+        this.cache.put("farm1", 3, this.body1);
+
+        assertThat(this.cache.get("farm1", 4)).isSameAs(this.body2);
+    }
+
+    @Test
+    @DisplayName("Responses are evicted least recently used first and expire, and it's all published as metrics")
+    public void testEvictionAndMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        this.cache.bindTo(registry);
+        this.cache.put("farm1", 1, this.body1);
+        this.cache.put("farm2", 1, this.body2);
+        this.cache.get("farm1", 1);
+
+        this.cache.put("farm3", 1, this.body2);
+
+        assertThat(this.cache.get("farm2", 1)).isNull();
+        assertThat(this.cache.get("farm1", 1)).isSameAs(this.body1);
+        this.clock.advance(Duration.ofMinutes(5));
+        assertThat(this.cache.get("farm1", 1)).isNull();
+
+        assertThat(registry.get("waterorder.response.cache").tag("result", "hit").functionCounter().count())
+                .isEqualTo(2);
+        assertThat(registry.get("waterorder.response.cache").tag("result", "miss").functionCounter().count())
+                .isEqualTo(2);
+        assertThat(registry.get("waterorder.response.cache.evictions").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("waterorder.response.cache.size").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Nothing is cached with zero time to live")
+    public void testDisabled() {
+        FarmOrdersResponseCache disabledCache = new FarmOrdersResponseCache(Duration.ZERO, 2, Optional.empty());
+
+        disabledCache.put("farm1", 1, this.body1);
+
+        assertThat(disabledCache.get("farm1", 1)).isNull();
+    }
+}
@@ -0,0 +1,154 @@
+package code.challenge.rubicon.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.MutableClock;
+import code.challenge.rubicon.exceptions.IdempotencyKeyReusedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class IdempotencyCacheTests {
+
+    private MutableClock clock;
+    private IdempotencyCache cache;
+
+    private final AtomicInteger handledCount = new AtomicInteger();
+
+    @BeforeEach
+    public void initEach() {
+        this.clock = new MutableClock(Instant.parse("2020-01-10T10:10:00Z"), ZoneId.systemDefault());
+        this.cache = new IdempotencyCache(Duration.ofMinutes(5), 2, Optional.of(this.clock));
+    }
+
+    private String handle() {
+        return "response" + this.handledCount.incrementAndGet();
+    }
+
+    @Test
+    @DisplayName("Request retried with the same key gets the first response until it expires")
+    public void testReplayUntilExpired() {
+        assertThat(this.cache.execute("scope", "key1", "request", this::handle)).isEqualTo("response1");
+        assertThat(this.cache.execute("scope", "key1", "request", this::handle)).isEqualTo("response1");
+        assertThat(this.cache.getReplayCount()).isEqualTo(1);
+
+        // Other keys, other scopes and no key at all are other requests.
+        assertThat(this.cache.execute("scope", "key2", "request", this::handle)).isEqualTo("response2");
+        assertThat(this.cache.execute("other scope", "key1", "request", this::handle)).isEqualTo("response3");
+        assertThat(this.cache.execute("scope", null, "request", this::handle)).isEqualTo("response4");
+
+        this.clock.advance(Duration.ofMinutes(5));
+        assertThat(this.cache.execute("scope", "key2", "request", this::handle)).isEqualTo("response5");
+    }
+
+    @Test
+    @DisplayName("Key used for another request, empty key and too long key are refused")
+    public void testRefusedKeys() {
+        this.cache.execute("scope", "key1", "request", this::handle);
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> this.cache.execute("scope", "key1", "another request", this::handle));
+        assertThrows(IllegalArgumentException.class, () -> this.cache.execute("scope", "", "request", this::handle));
+        String longKey = new String(new char[IdempotencyCache.MAX_KEY_LENGTH + 1]).replace('\0', 'k');
+        assertThrows(IllegalArgumentException.class,
+                () -> this.cache.execute("scope", longKey, "request", this::handle));
+        assertThat(this.handledCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Failed request isn't stored, so its retry is done again")
+    public void testFailedRequestIsDoneAgain() throws Exception {
+        assertThrows(IOException.class, () -> this.cache.execute("scope", "key1", "request", () -> {
+            throw new IOException("Failed request");
+        }));
+
+        assertThat(this.cache.execute("scope", "key1", "request", this::handle)).isEqualTo("response1");
+    }
+
+    @Test
+    @DisplayName("Retry arriving while the first request runs waits for its response")
+    public void testConcurrentRetryWaits() throws Exception {
+        CountDownLatch requestStarted = new CountDownLatch(1);
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> this.cache.execute("scope", "key1", "request", () -> {
+                requestStarted.countDown();
+                releaseRequest.await();
+                return this.handle();
+            }));
+            assertThat(requestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<String> retry = executor
+                    .submit(() -> this.cache.execute("scope", "key1", new String("request"), this::handle));
+            Thread.sleep(100);
+            releaseRequest.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("response1");
+            assertThat(retry.get(5, TimeUnit.SECONDS)).isEqualTo("response1");
+            assertThat(this.handledCount.get()).isEqualTo(1);
+            assertThat(this.cache.getReplayCount()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Reusing a running request's key is refused, and a retry waiting for it is done again if it fails")
+    public void testConcurrentRetryOfFailedRequest() throws Exception {
+        CountDownLatch requestStarted = new CountDownLatch(1);
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> this.cache.execute("scope", "key1", "request", () -> {
+                requestStarted.countDown();
+                releaseRequest.await();
+                throw new IOException("Failed request");
+            }));
+            assertThat(requestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // Refused straight away, without waiting for the first request.
+            assertThrows(IdempotencyKeyReusedException.class,
+                    () -> this.cache.execute("scope", "key1", "another request", this::handle));
+            Future<String> retry = executor.submit(() -> this.cache.execute("scope", "key1", "request", this::handle));
+            Thread.sleep(100);
+            releaseRequest.countDown();
+
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertThat(ex.getCause()).isInstanceOf(IOException.class);
+            assertThat(retry.get(5, TimeUnit.SECONDS)).isEqualTo("response1");
+            assertThat(this.cache.getReplayCount()).isEqualTo(0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Disabled cache does every request and publishes no cache metrics")
+    public void testDisabledCache() {
+        IdempotencyCache disabledCache = new IdempotencyCache(Duration.ZERO, 2, Optional.of(this.clock));
+
+        disabledCache.execute("scope", "key1", "request", this::handle);
+        disabledCache.execute("scope", "key1", "request", this::handle);
+
+        assertThat(this.handledCount.get()).isEqualTo(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        disabledCache.bindTo(registry);
+        assertThat(registry.getMeters()).isEmpty();
+    }
+}
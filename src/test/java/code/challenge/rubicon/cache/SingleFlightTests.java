@@ -0,0 +1,99 @@
+package code.challenge.rubicon.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTests {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    private final AtomicInteger computeCount = new AtomicInteger();
+    private final CountDownLatch computationStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseComputation = new CountDownLatch(1);
+
+    @AfterEach
+    public void cleanUp() {
+        this.executor.shutdownNow();
+    }
+
+    private String blockingComputation() throws IOException {
+        this.computeCount.incrementAndGet();
+        this.computationStarted.countDown();
+        try {
+            this.releaseComputation.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return "result" + this.computeCount.get();
+    }
+
+    /**
+     * Start callers of the key while the first one's computation is blocked,
+     * and release it once they all wait for it.
+     */
+    private List<Future<String>> callTogether(SingleFlight.Computation<String, IOException> computation)
+            throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        results.add(this.executor.submit(() -> this.singleFlight.execute("key", computation)));
+        assertThat(this.computationStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i < CALLERS; i++) {
+            results.add(this.executor.submit(() -> this.singleFlight.execute("key", computation)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.singleFlight.getSharedCount() < CALLERS - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        this.releaseComputation.countDown();
+        return results;
+    }
+
+    @Test
+    @DisplayName("Callers of the same key at the same time share one computation and its result")
+    public void testCallersShareComputation() throws Exception {
+        List<Future<String>> results = this.callTogether(this::blockingComputation);
+
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("result1");
+        }
+        assertThat(this.computeCount.get()).isEqualTo(1);
+        assertThat(this.singleFlight.getSharedCount()).isEqualTo(CALLERS - 1);
+
+        // Finished computations aren't kept.
+        assertThat(this.singleFlight.execute("key", () -> "again")).isEqualTo("again");
+        assertThat(this.singleFlight.execute("other key", () -> "other")).isEqualTo("other");
+    }
+
+    @Test
+    @DisplayName("Every caller sharing a computation gets its exception")
+    public void testCallersShareException() throws Exception {
+        List<Future<String>> results = this.callTogether(() -> {
+            this.blockingComputation();
+            throw new IOException("Failed computation");
+        });
+
+        for (Future<String> result : results) {
+            Throwable cause = assertThrows(ExecutionException.class,
+                    () -> result.get(5, TimeUnit.SECONDS)).getCause();
+            assertThat(cause).isInstanceOf(IOException.class).hasMessage("Failed computation");
+        }
+        assertThat(this.computeCount.get()).isEqualTo(1);
+    }
+}
@@ -1,27 +1,52 @@
 package code.challenge.rubicon.controllers;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.validation.Errors;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
+import code.challenge.rubicon.cache.FarmOrdersResponseCache;
+import code.challenge.rubicon.cache.IdempotencyCache;
+import code.challenge.rubicon.exceptions.IdempotencyKeyReusedException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.exceptions.WaterOrderException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderBatch;
+import code.challenge.rubicon.model.WaterOrderPage;
+import code.challenge.rubicon.model.WaterOrderQuery;
 import code.challenge.rubicon.services.IWaterOrderService;
 import code.challenge.rubicon.services.WaterOrderRequestAction;
 
@@ -29,6 +54,9 @@ public class WaterOrderControllerTests {
     private IWaterOrderService waterOrderService;
     private WaterOrderController orderController;
 
+    private MockHttpServletResponse response;
+    private ServletWebRequest webRequest;
+
     private List<WaterOrder> multipleOrderRows;
     private List<WaterOrder> singleOrderRow;
 
@@ -45,7 +73,12 @@ public class WaterOrderControllerTests {
     @BeforeEach
     public void initEach() throws OrderNotFoundException {
         this.waterOrderService = mock(IWaterOrderService.class);
-        this.orderController = new WaterOrderController(this.waterOrderService);
+        this.orderController = new WaterOrderController(this.waterOrderService,
+                Jackson2ObjectMapperBuilder.json().build(),
+                new FarmOrdersResponseCache(Duration.ofHours(1), 1000, Optional.empty()),
+                new IdempotencyCache(Duration.ofHours(1), 1000, Optional.empty()));
+        this.response = new MockHttpServletResponse();
+        this.webRequest = new ServletWebRequest(new MockHttpServletRequest("GET", "/waterorders"), this.response);
 
         this.multipleOrderRows = new ArrayList<>();
         this.singleOrderRow = new ArrayList<>();
@@ -56,14 +89,14 @@ public class WaterOrderControllerTests {
         this.singleOrderRow.add(order3);
 
         when(this.waterOrderService.getAllOrders()).thenReturn(this.multipleOrderRows);
-        when(this.waterOrderService.getWaterOrderByFarmrId(this.fakeFarmId)).thenReturn(this.singleOrderRow);
-        when(this.waterOrderService.getWaterOrderByOrderId(this.fakeOrderId)).thenReturn(order2);
+        when(this.waterOrderService.findWaterOrdersByFarmId(this.fakeFarmId)).thenReturn(this.singleOrderRow);
+        when(this.waterOrderService.findWaterOrderByOrderId(this.fakeOrderId)).thenReturn(Optional.of(order2));
     }
 
     @Test
-    @DisplayName("getWaterOrders returns what WaterOrderService's getAllOrders returns if there's no farmdid parameter is given.")
+    @DisplayName("getWaterOrders returns what WaterOrderService's getAllOrders returns if no parameter is given.")
     public void testGetWaterOrdersNoFarmIDParameter() throws OrderNotFoundException {
-        final List<WaterOrder> orders = this.orderController.getWaterOrders(null);
+        final List<WaterOrder> orders = this.orderController.getWaterOrders(null, null, null, null);
 
         assertThat(orders.size()).isEqualTo(2);
         assertThat(orders.get(0).getOrderId()).isEqualTo(this.order1.getOrderId());
@@ -71,40 +104,199 @@ public class WaterOrderControllerTests {
     }
 
     @Test
-    @DisplayName("getWaterOrders returns what WaterOrderService'sgetWaterOrderByFarmrId returns if farmdid parameter is given.")
-    public void testGetWaterOrdersFarmIDParameterGiven() throws OrderNotFoundException {
-        final List<WaterOrder> orders = this.orderController.getWaterOrders(this.fakeFarmId);
+    @DisplayName("getFarmWaterOrders returns what WaterOrderService's findWaterOrdersByFarmId returns.")
+    public void testGetFarmWaterOrders() throws Exception {
+        when(this.waterOrderService.getFarmVersion(this.fakeFarmId)).thenReturn(1L);
+
+        final ResponseEntity<byte[]> orders = this.orderController.getFarmWaterOrders(this.fakeFarmId,
+                this.webRequest);
 
-        assertThat(orders.size()).isEqualTo(1);
-        assertThat(orders.get(0).getOrderId()).isEqualTo(this.order3.getOrderId());
+        assertThat(new String(orders.getBody(), StandardCharsets.UTF_8)).contains(this.order3.getOrderId())
+                .doesNotContain(this.order1.getOrderId());
+    }
+
+    @Test
+    @DisplayName("Orders of a farm have the farm's version as ETag, and a request with it gets 304 without orders")
+    public void testGetFarmWaterOrdersNotModified() throws Exception {
+        when(this.waterOrderService.getFarmVersion(this.fakeFarmId)).thenReturn(3L);
+        this.orderController.getFarmWaterOrders(this.fakeFarmId, this.webRequest);
+        String etag = this.response.getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotNull();
+
+        MockHttpServletRequest conditionalRequest = new MockHttpServletRequest("GET", "/waterorders");
+        conditionalRequest.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse notModifiedResponse = new MockHttpServletResponse();
+        ResponseEntity<byte[]> orders = this.orderController.getFarmWaterOrders(this.fakeFarmId,
+                new ServletWebRequest(conditionalRequest, notModifiedResponse));
+
+        assertThat(orders).isNull();
+        assertThat(notModifiedResponse.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+        verify(this.waterOrderService).findWaterOrdersByFarmId(this.fakeFarmId);
+
+        // Another version is another ETag.
+        when(this.waterOrderService.getFarmVersion(this.fakeFarmId)).thenReturn(4L);
+        MockHttpServletResponse modifiedResponse = new MockHttpServletResponse();
+        orders = this.orderController.getFarmWaterOrders(this.fakeFarmId,
+                new ServletWebRequest(conditionalRequest, modifiedResponse));
+        assertThat(new String(orders.getBody(), StandardCharsets.UTF_8)).contains(this.order3.getOrderId());
+        assertThat(modifiedResponse.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+    }
+
+    @Test
+    @DisplayName("Orders of a farm are serialized once per version of the farm")
+    public void testGetFarmWaterOrdersFromResponseCache() throws Exception {
+        when(this.waterOrderService.getFarmVersion(this.fakeFarmId)).thenReturn(3L);
+
+        ResponseEntity<byte[]> firstOrders = this.orderController.getFarmWaterOrders(this.fakeFarmId,
+                this.webRequest);
+        ResponseEntity<byte[]> secondOrders = this.orderController.getFarmWaterOrders(this.fakeFarmId,
+                this.webRequest);
+
+        assertThat(firstOrders.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(new String(firstOrders.getBody(), StandardCharsets.UTF_8)).startsWith("[")
+                .contains(this.order3.getOrderId());
+        assertThat(secondOrders.getBody()).isSameAs(firstOrders.getBody());
+        verify(this.waterOrderService, times(1)).findWaterOrdersByFarmId(this.fakeFarmId);
+
+        when(this.waterOrderService.getFarmVersion(this.fakeFarmId)).thenReturn(4L);
+        when(this.waterOrderService.findWaterOrdersByFarmId(this.fakeFarmId)).thenReturn(this.multipleOrderRows);
+        ResponseEntity<byte[]> changedOrders = this.orderController.getFarmWaterOrders(this.fakeFarmId,
+                this.webRequest);
+        assertThat(new String(changedOrders.getBody(), StandardCharsets.UTF_8))
+                .contains(this.order1.getOrderId(), this.order2.getOrderId());
+    }
+
+    @Test
+    @DisplayName("An order has its farm's version as ETag, and a request with it gets 304 without the order")
+    public void testGetWaterOrderNotModified() throws OrderNotFoundException {
+        when(this.waterOrderService.getFarmVersion(this.order2.getFarmId())).thenReturn(7L);
+        this.orderController.getWaterOrder(this.fakeOrderId, this.webRequest);
+        String etag = this.response.getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest conditionalRequest = new MockHttpServletRequest("GET", "/waterorders");
+        conditionalRequest.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse notModifiedResponse = new MockHttpServletResponse();
+        WaterOrder order = this.orderController.getWaterOrder(this.fakeOrderId,
+                new ServletWebRequest(conditionalRequest, notModifiedResponse));
+
+        assertThat(order).isNull();
+        assertThat(notModifiedResponse.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
     }
 
     @Test
     @DisplayName("getWaterOrder returns what WaterOrderService'sgetWaterOrderByFarmrId returns.")
     public void testGetWaterOrderByOrderId() throws OrderNotFoundException {
-        final WaterOrder order = this.orderController.getWaterOrder(this.fakeOrderId);
+        final WaterOrder order = this.orderController.getWaterOrder(this.fakeOrderId, this.webRequest);
 
         assertThat(order.getOrderId()).isEqualTo(this.order2.getOrderId());
     }
 
+    @Test
+    @DisplayName("Missing order or farm orders are answered with OrderNotFoundException without a stack trace.")
+    public void testGetMissingOrders() {
+        when(this.waterOrderService.findWaterOrderByOrderId("unknownOrderId")).thenReturn(Optional.empty());
+        when(this.waterOrderService.findWaterOrdersByFarmId("unknownFarmId")).thenReturn(new ArrayList<>());
+
+        OrderNotFoundException orderException = assertThrows(OrderNotFoundException.class,
+                () -> this.orderController.getWaterOrder("unknownOrderId", this.webRequest));
+        OrderNotFoundException farmException = assertThrows(OrderNotFoundException.class,
+                () -> this.orderController.getFarmWaterOrders("unknownFarmId", this.webRequest));
+
+        assertThat(orderException.getIdName()).isEqualTo("orderId");
+        assertThat(orderException.getMessage()).isEqualTo("Order ID 'unknownOrderId' doesn't exist.");
+        assertThat(orderException.getStackTrace()).isEmpty();
+        assertThat(farmException.getIdName()).isEqualTo("farmId");
+        assertThat(farmException.getStackTrace()).isEmpty();
+
+        // A farm without orders has version 0, whose ETag doesn't get 304.
+        MockHttpServletRequest conditionalRequest = new MockHttpServletRequest("GET", "/waterorders");
+        conditionalRequest.addHeader(HttpHeaders.IF_NONE_MATCH, "*");
+        assertThrows(OrderNotFoundException.class, () -> this.orderController.getFarmWaterOrders("unknownFarmId",
+                new ServletWebRequest(conditionalRequest, new MockHttpServletResponse())));
+    }
+
     @Test
     @DisplayName("addWaterOrder calls WaterOrderService's addWaterOrder methodand return accordingly.")
     public void testAddWaterOrder() throws OrderValidityException {
         when(waterOrderService.addWaterOrder(this.order3)).thenReturn(this.order1);
 
-        final WaterOrder returnedOrder = this.orderController.addWaterOrder(this.order3);
+        final WaterOrder returnedOrder = this.orderController.addWaterOrder(this.order3, null, null);
 
         verify(waterOrderService).addWaterOrder(eq(this.order3));
         assertThat(returnedOrder.getOrderId()).isEqualTo(this.order1.getOrderId());
     }
 
+    @Test
+    @DisplayName("addWaterOrder retried with the same Idempotency-Key gets the first response without adding again")
+    public void testAddWaterOrderWithIdempotencyKey() throws OrderValidityException {
+        Principal farmer = () -> "farmer";
+        when(waterOrderService.addWaterOrder(this.order3)).thenReturn(this.order1);
+
+        WaterOrder firstOrder = this.orderController.addWaterOrder(this.order3, "key1", farmer);
+        // The added order goes on to be delivered meanwhile.
+        this.order1.setStatus(WaterOrder.OrderStatus.IN_PROGRESS);
+        WaterOrder retriedOrder = this.orderController.addWaterOrder(this.order3, "key1", farmer);
+
+        verify(waterOrderService, times(1)).addWaterOrder(this.order3);
+        assertThat(retriedOrder).isSameAs(firstOrder);
+        assertThat(retriedOrder.getOrderId()).isEqualTo(this.order1.getOrderId());
+        assertThat(retriedOrder.getStatus()).isEqualTo(WaterOrder.OrderStatus.REQUESTED);
+
+        // Another user's key is another key.
+        this.orderController.addWaterOrder(this.order3, "key1", () -> "otherFarmer");
+        verify(waterOrderService, times(2)).addWaterOrder(this.order3);
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> this.orderController.addWaterOrder(this.order2, "key1", farmer));
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> this.orderController.addWaterOrder(this.order3, "", farmer));
+        assertThat(ex.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    @DisplayName("cancelWaterOrder retried with the same Idempotency-Key succeeds without cancelling again")
+    public void testCancelWaterOrderWithIdempotencyKey() throws Exception {
+        when(waterOrderService.cancelWaterOrder(this.order1.getOrderId())).thenReturn(this.order1)
+                .thenThrow(new OrderValidityException(WaterOrderRequestAction.CANCEL, "Cancelled already"));
+
+        this.orderController.cancelWaterOrder(this.order1.getOrderId(), "key1", null);
+        this.orderController.cancelWaterOrder(this.order1.getOrderId(), "key1", null);
+
+        verify(waterOrderService, times(1)).cancelWaterOrder(this.order1.getOrderId());
+        // Without the key, it's cancelled again.
+        assertThrows(OrderValidityException.class,
+                () -> this.orderController.cancelWaterOrder(this.order1.getOrderId(), null, null));
+    }
+
+    @Test
+    @DisplayName("Test IdempotencyKeyReusedException's response body has the error message under the header name")
+    public void testHandleIdempotencyKeyReusedException() {
+        Map<String, String> error = this.orderController
+                .handleIdempotencyKeyReusedException(new IdempotencyKeyReusedException("key1", "Used before"));
+
+        assertThat(error).containsEntry("Idempotency-Key", "Used before");
+    }
+
+    @Test
+    @DisplayName("addWaterOrders calls WaterOrderService's addWaterOrders method with the orders of the batch.")
+    public void testAddWaterOrders() {
+        List<BatchOrderResult> results = new ArrayList<>();
+        results.add(BatchOrderResult.created(this.order1));
+        when(waterOrderService.addWaterOrders(this.singleOrderRow)).thenReturn(results);
+
+        final List<BatchOrderResult> returnedResults = this.orderController
+                .addWaterOrders(new WaterOrderBatch(this.singleOrderRow));
+
+        verify(waterOrderService).addWaterOrders(eq(this.singleOrderRow));
+        assertThat(returnedResults).isEqualTo(results);
+    }
+
     @Test
     @DisplayName("cancelWaterOrder calls WaterOrderService's cancelWaterOrdermethod and return accordingly.")
-    public void testCancelWaterOrder()
-            throws OrderNotFoundException, OrderValidityException, DeliveryTaskNotFoundException {
+    public void testCancelWaterOrder() throws WaterOrderException {
         when(waterOrderService.cancelWaterOrder(this.order1.getOrderId())).thenReturn(this.order1);
 
-        this.orderController.cancelWaterOrder(this.order1.getOrderId());
+        this.orderController.cancelWaterOrder(this.order1.getOrderId(), null, null);
 
         verify(waterOrderService).cancelWaterOrder(eq(this.order1.getOrderId()));
     }
@@ -167,6 +359,78 @@ public class WaterOrderControllerTests {
         verify(errors).rejectValue("duration", "Duration cannot be negative.");
     }
 
+    @Test
+    @DisplayName("getWaterOrders searches by farm, time range and status if any of from, to and status is given")
+    public void testGetWaterOrdersQuery() throws OrderNotFoundException {
+        LocalDateTime from = LocalDateTime.of(2020, 1, 1, 10, 0);
+        when(this.waterOrderService.findOrders(any(WaterOrderQuery.class))).thenReturn(this.singleOrderRow);
+
+        List<WaterOrder> orders = this.orderController.getWaterOrders(this.fakeFarmId, from, null,
+                WaterOrder.OrderStatus.IN_PROGRESS);
+
+        assertThat(orders).containsExactly(this.order3);
+        verify(this.waterOrderService).findOrders(org.mockito.ArgumentMatchers.argThat(query -> this.fakeFarmId
+                .equals(query.getFarmId()) && from.equals(query.getStartFrom()) && query.getStartTo() == null
+                && query.getStatus() == WaterOrder.OrderStatus.IN_PROGRESS));
+        verify(this.waterOrderService, never()).findWaterOrdersByFarmId(this.fakeFarmId);
+    }
+
+    @Test
+    @DisplayName("getWaterOrdersPage returns the service's page with the last order id as cursor of a full page")
+    public void testGetWaterOrdersPage() {
+        when(this.waterOrderService.getOrdersPage(null, 2)).thenReturn(this.multipleOrderRows);
+        when(this.waterOrderService.getOrdersPage("orderId2", 2)).thenReturn(this.singleOrderRow);
+
+        WaterOrderPage firstPage = this.orderController.getWaterOrdersPage(2, null);
+        WaterOrderPage lastPage = this.orderController.getWaterOrdersPage(2, firstPage.getNextCursor());
+
+        assertThat(firstPage.getOrders()).containsExactly(this.order1, this.order2);
+        assertThat(firstPage.getNextCursor()).isEqualTo("orderId2");
+        assertThat(lastPage.getOrders()).containsExactly(this.order3);
+        assertThat(lastPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    @DisplayName("getWaterOrdersPage rejects limit out of range and bad cursor with BAD_REQUEST")
+    public void testGetWaterOrdersPageBadRequest() {
+        when(this.waterOrderService.getOrdersPage("bad", 10)).thenThrow(new IllegalArgumentException("bad"));
+
+        for (int limit : new int[] { 0, WaterOrderController.MAX_PAGE_SIZE + 1 }) {
+            assertThatThrownBy(() -> this.orderController.getWaterOrdersPage(limit, null))
+                    .isInstanceOf(ResponseStatusException.class)
+                    .matches(ex -> ((ResponseStatusException) ex).getStatus() == HttpStatus.BAD_REQUEST);
+        }
+        assertThatThrownBy(() -> this.orderController.getWaterOrdersPage(10, "bad"))
+                .isInstanceOf(ResponseStatusException.class)
+                .matches(ex -> ((ResponseStatusException) ex).getStatus() == HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    @DisplayName("streamWaterOrders writes an order per line, reading the service a page at a time")
+    public void testStreamWaterOrders() throws Exception {
+        List<WaterOrder> fullPage = new ArrayList<>();
+        for (int i = 0; i < WaterOrderController.STREAM_PAGE_SIZE; i++) {
+            fullPage.add(new WaterOrder("orderId" + i, "farmId1", LocalDateTime.of(2020, 1, 1, 10, 0),
+                    Duration.ofSeconds(10), WaterOrder.OrderStatus.REQUESTED));
+        }
+        String lastOrderId = "orderId" + (WaterOrderController.STREAM_PAGE_SIZE - 1);
+        when(this.waterOrderService.getOrdersPage(null, WaterOrderController.STREAM_PAGE_SIZE)).thenReturn(fullPage);
+        when(this.waterOrderService.getOrdersPage(lastOrderId, WaterOrderController.STREAM_PAGE_SIZE))
+                .thenReturn(this.singleOrderRow);
+
+        ResponseEntity<StreamingResponseBody> response = this.orderController.streamWaterOrders(null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+
+        assertThat(response.getHeaders().getContentType().toString())
+                .isEqualTo(WaterOrderController.APPLICATION_NDJSON_VALUE);
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(WaterOrderController.STREAM_PAGE_SIZE + 1);
+        assertThat(lines[0]).startsWith("{").endsWith("}").contains("\"orderId\":\"orderId0\"");
+        assertThat(lines[WaterOrderController.STREAM_PAGE_SIZE]).contains("\"orderId\":\"orderId3\"");
+        verify(this.waterOrderService).getOrdersPage(lastOrderId, WaterOrderController.STREAM_PAGE_SIZE);
+    }
+
     @Test
     @DisplayName("Duration Validator doesn't call rejectValue if duation is positive")
     public void testDurationValidatorNonNegativeDuration() {
@@ -177,4 +441,21 @@ public class WaterOrderControllerTests {
 
         verify(errors, never()).rejectValue("duration", "Duration cannot be negative.");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Duration Validator rejectValue for each order in a batch with negative duration")
+    public void testDurationValidatorNegativeDurationInBatch() {
+        Errors errors = mock(Errors.class);
+        WaterOrderController.DurationValidator validator = this.orderController.new DurationValidator();
+
+        List<WaterOrder> orders = new ArrayList<>();
+        orders.add(this.order1);
+        orders.add(new WaterOrder("orderId1", "farmId1", LocalDateTime.now(), Duration.ofSeconds(-10),
+                WaterOrder.OrderStatus.REQUESTED));
+        assertThat(validator.supports(WaterOrderBatch.class)).isTrue();
+        validator.validate(new WaterOrderBatch(orders), errors);
+
+        verify(errors).rejectValue("orders[1].duration", "Duration cannot be negative.");
+        verify(errors, never()).rejectValue("orders[0].duration", "Duration cannot be negative.");
+    }
+}
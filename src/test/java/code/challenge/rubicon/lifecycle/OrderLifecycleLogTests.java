@@ -0,0 +1,194 @@
+package code.challenge.rubicon.lifecycle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+public class OrderLifecycleLogTests {
+
+    private ByteArrayOutputStream output;
+    private PrintStream out;
+
+    @BeforeEach
+    public void initEach() {
+        this.output = new ByteArrayOutputStream();
+        this.out = new PrintStream(this.output, true);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        OrderLifecycleLog.install(null);
+    }
+
+    private String[] lines() {
+        return this.output.toString().split(System.lineSeparator());
+    }
+
+    @Test
+    @DisplayName("Events are written in publishing order with a message per status")
+    public void testEventsAreWrittenInOrder() {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(8, 8, OrderLifecycleLog.OverflowPolicy.DROP, this.out,
+                false);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.REQUESTED);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.IN_PROGRESS);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.DELIVERED);
+        lifecycleLog.publish("order2", "farm2", WaterOrder.OrderStatus.CANCELLED);
+
+        assertThat(this.output.size()).isEqualTo(0);
+        assertThat(lifecycleLog.getPendingCount()).isEqualTo(4);
+        assertThat(lifecycleLog.drain()).isEqualTo(4);
+        assertThat(lifecycleLog.getPendingCount()).isEqualTo(0);
+
+        String[] lines = this.lines();
+        assertThat(lines).hasSize(4);
+        assertThat(lines[0]).matches("== \\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2} == New water order is placed\\. "
+                + "orderId: order1, farmId: farm1");
+        assertThat(lines[1]).endsWith("== Water order starts. orderId: order1, farmId: farm1");
+        assertThat(lines[2]).endsWith("== Water order is delivered. orderId: order1, farmId: farm1");
+        assertThat(lines[3]).endsWith("== Water order is cancelled. orderId: order2, farmId: farm2");
+    }
+
+    @Test
+    @DisplayName("Events are written in batches of the given size")
+    public void testDrainIsLimitedToBatchSize() {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(16, 3, OrderLifecycleLog.OverflowPolicy.DROP, this.out,
+                false);
+        for (int i = 0; i < 7; i++) {
+            lifecycleLog.publish("order" + i, "farm1", WaterOrder.OrderStatus.REQUESTED);
+        }
+
+        assertThat(lifecycleLog.drain()).isEqualTo(3);
+        assertThat(lifecycleLog.drain()).isEqualTo(3);
+        assertThat(lifecycleLog.drain()).isEqualTo(1);
+        assertThat(lifecycleLog.drain()).isEqualTo(0);
+        assertThat(this.lines()).hasSize(7);
+        assertThat(this.lines()[6]).endsWith("orderId: order6, farmId: farm1");
+    }
+
+    @Test
+    @DisplayName("With DROP policy, events published to a full buffer are dropped and reported")
+    public void testDropPolicy() {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(4, 16, OrderLifecycleLog.OverflowPolicy.DROP, this.out,
+                false);
+        for (int i = 0; i < 6; i++) {
+            lifecycleLog.publish("order" + i, "farm1", WaterOrder.OrderStatus.REQUESTED);
+        }
+        assertThat(lifecycleLog.getDroppedCount()).isEqualTo(2);
+
+        lifecycleLog.drain();
+        String[] lines = this.lines();
+        assertThat(lines).hasSize(5);
+        assertThat(lines[3]).endsWith("orderId: order3, farmId: farm1");
+        assertThat(lines[4]).isEqualTo("== 2 order lifecycle events were dropped ==");
+
+        // Freed slots take new events.
+        lifecycleLog.publish("order6", "farm1", WaterOrder.OrderStatus.REQUESTED);
+        assertThat(lifecycleLog.getPendingCount()).isEqualTo(1);
+        assertThat(lifecycleLog.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("With BLOCK policy, publishing to a full buffer waits until the consumer frees a slot")
+    public void testBlockPolicy() throws Exception {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(2, 16, OrderLifecycleLog.OverflowPolicy.BLOCK,
+                this.out, false);
+        lifecycleLog.publish("order0", "farm1", WaterOrder.OrderStatus.REQUESTED);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.REQUESTED);
+
+        CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(() -> {
+            lifecycleLog.publish("order2", "farm1", WaterOrder.OrderStatus.REQUESTED);
+            published.countDown();
+        });
+        publisher.start();
+
+        assertThat(published.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        lifecycleLog.drain();
+        assertThat(published.await(5, TimeUnit.SECONDS)).isTrue();
+        publisher.join();
+
+        lifecycleLog.drain();
+        assertThat(this.lines()).hasSize(3);
+        assertThat(lifecycleLog.getDroppedCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Events from many threads are all written by the consumer thread")
+    public void testConcurrentPublishers() throws Exception {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(64, 16, OrderLifecycleLog.OverflowPolicy.BLOCK,
+                this.out);
+        Thread[] publishers = new Thread[4];
+        for (int t = 0; t < publishers.length; t++) {
+            int threadIndex = t;
+            publishers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    lifecycleLog.publish("order" + threadIndex + "-" + i, "farm" + threadIndex,
+                            WaterOrder.OrderStatus.REQUESTED);
+                }
+            });
+            publishers[t].start();
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        lifecycleLog.close();
+
+        assertThat(this.lines()).hasSize(4000);
+        assertThat(lifecycleLog.getDroppedCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Status changes of orders are published to the installed log")
+    public void testWaterOrderPublishesToInstalledLog() {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(8, 8, OrderLifecycleLog.OverflowPolicy.DROP, this.out,
+                false);
+        OrderLifecycleLog.install(lifecycleLog);
+
+        WaterOrder waterOrder = new WaterOrder("order1", "farm1", null, null, WaterOrder.OrderStatus.REQUESTED);
+        waterOrder.setStatus(WaterOrder.OrderStatus.REQUESTED);
+        waterOrder.setStatus(WaterOrder.OrderStatus.CANCELLED);
+
+        // Unchanged status isn't published.
+        assertThat(lifecycleLog.getPendingCount()).isEqualTo(2);
+        lifecycleLog.drain();
+        assertThat(this.lines()[1]).endsWith("== Water order is cancelled. orderId: order1, farmId: farm1");
+    }
+
+    @Test
+    @DisplayName("Listeners are told about events as they're written out and a failing one doesn't stop others")
+    public void testListeners() {
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(8, 8, OrderLifecycleLog.OverflowPolicy.DROP, this.out,
+                false);
+        List<String> heardEvents = new ArrayList<>();
+        lifecycleLog.addListener((orderId, farmId, status, timestamp) -> {
+            throw new IllegalStateException("Failing listener");
+        });
+        OrderLifecycleLog.Listener listener = (orderId, farmId, status, timestamp) -> heardEvents
+                .add(orderId + " " + farmId + " " + status);
+        lifecycleLog.addListener(listener);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.REQUESTED);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.IN_PROGRESS);
+
+        assertThat(heardEvents).isEmpty();
+        lifecycleLog.drain();
+        assertThat(heardEvents).containsExactly("order1 farm1 REQUESTED", "order1 farm1 IN_PROGRESS");
+        assertThat(this.lines()).hasSize(2);
+
+        lifecycleLog.removeListener(listener);
+        lifecycleLog.publish("order1", "farm1", WaterOrder.OrderStatus.DELIVERED);
+        lifecycleLog.drain();
+        assertThat(heardEvents).hasSize(2);
+    }
+}
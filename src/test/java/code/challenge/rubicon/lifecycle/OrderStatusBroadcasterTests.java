@@ -0,0 +1,142 @@
+package code.challenge.rubicon.lifecycle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.model.OrderStatusEvent;
+import code.challenge.rubicon.model.WaterOrder;
+
+public class OrderStatusBroadcasterTests {
+
+    private OrderLifecycleLog lifecycleLog;
+    private OrderStatusBroadcaster broadcaster;
+
+    @BeforeEach
+    public void initEach() {
+        // Drained by the tests instead of a consumer thread.
+        this.lifecycleLog = new OrderLifecycleLog(64, 64, OrderLifecycleLog.OverflowPolicy.DROP,
+                new PrintStream(new ByteArrayOutputStream()), false);
+        this.broadcaster = new OrderStatusBroadcaster(this.lifecycleLog, 2);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        this.broadcaster.close();
+    }
+
+    private void publish(String orderId, String farmId, WaterOrder.OrderStatus status) {
+        this.lifecycleLog.publish(orderId, farmId, status);
+        this.lifecycleLog.drain();
+    }
+
+    @Test
+    @DisplayName("Subscribers get transitions of their farm's orders, or of all orders without a farm")
+    public void testSubscribersGetTransitionsOfTheirFarm() throws Exception {
+        List<OrderStatusEvent> farm1Events = new CopyOnWriteArrayList<>();
+        List<OrderStatusEvent> allEvents = new CopyOnWriteArrayList<>();
+        CountDownLatch sentEvents = new CountDownLatch(3);
+        this.broadcaster.subscribe("farm1", event -> {
+            farm1Events.add(event);
+            sentEvents.countDown();
+        }, () -> {
+        });
+        this.broadcaster.subscribe(null, event -> {
+            allEvents.add(event);
+            sentEvents.countDown();
+        }, () -> {
+        });
+
+        // Order that hasn't been stored yet.
+        this.publish("", "farm1", WaterOrder.OrderStatus.REQUESTED);
+        this.publish("order1", "farm1", WaterOrder.OrderStatus.IN_PROGRESS);
+        this.publish("order2", "farm2", WaterOrder.OrderStatus.CANCELLED);
+
+        assertThat(sentEvents.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(farm1Events).hasSize(1);
+        assertThat(farm1Events.get(0).getOrderId()).isEqualTo("order1");
+        assertThat(farm1Events.get(0).getStatus()).isEqualTo(WaterOrder.OrderStatus.IN_PROGRESS);
+        assertThat(farm1Events.get(0).getChangedDateTime()).isNotNull();
+        assertThat(allEvents).extracting(OrderStatusEvent::getOrderId).containsExactly("order1", "order2");
+        assertThat(this.broadcaster.getSubscriberCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("A subscriber that falls further behind than its buffer is closed without holding up the log")
+    public void testSlowSubscriberIsClosed() throws Exception {
+        CountDownLatch sendingStarted = new CountDownLatch(1);
+        CountDownLatch releaseSending = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        this.broadcaster.subscribe("farm1", event -> {
+            sendingStarted.countDown();
+            try {
+                releaseSending.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, closed::countDown);
+
+        this.publish("order0", "farm1", WaterOrder.OrderStatus.REQUESTED);
+        assertThat(sendingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        // The sender is stuck on order0. Two more fill the buffer and the
+        // third overflows it.
+        for (int i = 1; i <= 3; i++) {
+            this.publish("order" + i, "farm1", WaterOrder.OrderStatus.REQUESTED);
+        }
+
+        assertThat(this.broadcaster.getOverflowCount()).isEqualTo(1);
+        assertThat(this.broadcaster.getSubscriberCount()).isEqualTo(0);
+        releaseSending.countDown();
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(this.lifecycleLog.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("A subscriber whose sink fails is closed, and closed subscribers get nothing")
+    public void testFailingAndClosedSubscribers() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        List<OrderStatusEvent> closedEvents = new CopyOnWriteArrayList<>();
+        this.broadcaster.subscribe(null, event -> {
+            throw new IOException("Client is gone");
+        }, closed::countDown);
+        OrderStatusBroadcaster.Subscription subscription = this.broadcaster.subscribe(null, closedEvents::add,
+                () -> {
+                    throw new AssertionError("Not called for Subscription.close()");
+                });
+        subscription.close();
+
+        this.publish("order1", "farm1", WaterOrder.OrderStatus.DELIVERED);
+
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(this.broadcaster.getSubscriberCount()).isEqualTo(0);
+        assertThat(closedEvents).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Closing the broadcaster closes its subscribers and stops listening to the log")
+    public void testClose() {
+        CountDownLatch closed = new CountDownLatch(1);
+        this.broadcaster.subscribe(null, event -> {
+            throw new AssertionError("Nothing is sent after closing");
+        }, closed::countDown);
+
+        this.broadcaster.close();
+        this.publish("order1", "farm1", WaterOrder.OrderStatus.DELIVERED);
+
+        assertThat(closed.getCount()).isEqualTo(0);
+        assertThat(this.broadcaster.getSubscriberCount()).isEqualTo(0);
+        assertThrows(IllegalArgumentException.class, () -> new OrderStatusBroadcaster(this.lifecycleLog, 0));
+    }
+}
@@ -0,0 +1,99 @@
+package code.challenge.rubicon.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import code.challenge.rubicon.MutableClock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CachingPasswordEncoderTests {
+
+    private final String encodedPassword = "encodedPassword";
+
+    private MutableClock clock;
+    private PasswordEncoder delegate;
+    private CachingPasswordEncoder encoder;
+
+    @BeforeEach
+    public void initEach() {
+        this.clock = new MutableClock(Instant.parse("2020-01-10T10:10:00Z"), ZoneId.systemDefault());
+        this.delegate = mock(PasswordEncoder.class);
+        when(this.delegate.matches(any(), anyString()))
+                .thenAnswer(invocation -> "password".contentEquals((CharSequence) invocation.getArgument(0))
+                        && this.encodedPassword.equals(invocation.getArgument(1)));
+        this.encoder = new CachingPasswordEncoder(this.delegate, Duration.ofMinutes(5), 100, this.clock);
+    }
+
+    @Test
+    @DisplayName("Successful check is answered from the cache until it expires")
+    public void testSuccessfulCheckIsCached() {
+        assertThat(this.encoder.matches("password", this.encodedPassword)).isTrue();
+        assertThat(this.encoder.matches("password", this.encodedPassword)).isTrue();
+        verify(this.delegate, times(1)).matches("password", this.encodedPassword);
+
+        this.clock.advance(Duration.ofMinutes(5));
+        assertThat(this.encoder.matches("password", this.encodedPassword)).isTrue();
+        verify(this.delegate, times(2)).matches("password", this.encodedPassword);
+    }
+
+    @Test
+    @DisplayName("Failed check isn't cached")
+    public void testFailedCheckIsNotCached() {
+        assertThat(this.encoder.matches("wrong", this.encodedPassword)).isFalse();
+        assertThat(this.encoder.matches("wrong", this.encodedPassword)).isFalse();
+        verify(this.delegate, times(2)).matches("wrong", this.encodedPassword);
+    }
+
+    @Test
+    @DisplayName("Cached check doesn't match other password or other encoded password")
+    public void testCachedCheckIsPerCredential() {
+        assertThat(this.encoder.matches("password", this.encodedPassword)).isTrue();
+
+        assertThat(this.encoder.matches("password2", this.encodedPassword)).isFalse();
+        assertThat(this.encoder.matches("password", "changedEncodedPassword")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Zero time to live disables caching")
+    public void testCachingDisabled() {
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(this.delegate, Duration.ZERO, 100, this.clock);
+
+        assertThat(encoder.matches("password", this.encodedPassword)).isTrue();
+        assertThat(encoder.matches("password", this.encodedPassword)).isTrue();
+        verify(this.delegate, times(2)).matches("password", this.encodedPassword);
+    }
+
+    @Test
+    @DisplayName("Works with BCrypt and publishes hits and misses")
+    public void testWithBCrypt() {
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(new BCryptPasswordEncoder(),
+                Duration.ofMinutes(5), 100, this.clock);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        encoder.bindTo(registry);
+        String encoded = encoder.encode("password");
+
+        assertThat(encoder.matches("password", encoded)).isTrue();
+        assertThat(encoder.matches("password", encoded)).isTrue();
+        assertThat(encoder.matches("wrong", encoded)).isFalse();
+
+        assertThat(registry.get("waterorder.auth.credential.cache").tag("result", "hit").functionCounter().count())
+                .isEqualTo(1);
+        assertThat(registry.get("waterorder.auth.credential.cache").tag("result", "miss").functionCounter().count())
+                .isEqualTo(2);
+    }
+}
@@ -5,14 +5,23 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -21,7 +30,9 @@ import org.junit.jupiter.api.Test;
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
 import code.challenge.rubicon.services.repository.IWaterOrderRepository;
 import code.challenge.rubicon.services.scheduler.IWaterOrderDeliveryScheduler;
 import code.challenge.rubicon.services.validator.IWaterOrderValidator;
@@ -57,29 +68,95 @@ public class WaterOrderServiceTests {
         this.singleOrderInList.add(this.order2);
     }
 
+    /**
+     * Let mocked repository run the given validation on reserveWaterOrder and
+     * return the given order if validation passes.
+     */
+    @SuppressWarnings("unchecked")
+    private void reserveWaterOrderReturns(WaterOrder reservedOrder) throws OrderValidityException {
+        when(this.repository.reserveWaterOrder(any(), any())).thenAnswer(invocation -> {
+            Function<WaterOrder, Optional<String>> orderValidator = invocation.getArgument(1);
+            Optional<String> validationErrMsg = orderValidator.apply(invocation.getArgument(0));
+            if (validationErrMsg.isPresent()) {
+                throw new OrderValidityException(WaterOrderRequestAction.CREATE, validationErrMsg.get());
+            }
+            return reservedOrder;
+        });
+    }
+
     @Test
     @DisplayName("addWaterOrder throws OrderValidityException if validation fails.")
-    public void testAddWaterOrderWhenValidationFails() {
+    public void testAddWaterOrderWhenValidationFails() throws OrderValidityException {
         String validationErrorMsg = "It's not valid";
         when(this.validator.checkOrderValidity(any(), any())).thenReturn(Optional.of(validationErrorMsg));
+        this.reserveWaterOrderReturns(this.order2);
 
         assertThatThrownBy(() -> this.service.addWaterOrder(this.order1)).isInstanceOf(OrderValidityException.class)
                 .hasMessage(validationErrorMsg).hasFieldOrPropertyWithValue("action", WaterOrderRequestAction.CREATE);
+        verify(this.validator).checkOrderValidity(eq(this.order1), eq(WaterOrderRequestAction.CREATE));
+        verify(this.scheduler, never()).addDeliverySchedule(any());
     }
 
     @Test
     @DisplayName("addWaterOrder calls IWaterOrderRepository and IWaterOrderDeliveryScheduler when validation pass.")
     public void testAddWaterOrderWhenValidationPass() throws OrderValidityException {
         when(this.validator.checkOrderValidity(any(), any())).thenReturn(Optional.empty());
-        when(this.repository.addWaterOrder(any())).thenReturn(this.order2);
+        this.reserveWaterOrderReturns(this.order2);
 
         this.service.addWaterOrder(this.order1);
 
-        verify(this.repository).addWaterOrder(eq(this.order1));
+        verify(this.repository).reserveWaterOrder(eq(this.order1), any());
+        verify(this.validator).checkOrderValidity(eq(this.order1), eq(WaterOrderRequestAction.CREATE));
         // Should have called scheduler with the WaterOrder that repository returned.
         verify(this.scheduler).addDeliverySchedule(eq(this.order2));
     }
 
+    @Test
+    @DisplayName("addWaterOrders adds each farm's orders sorted by start time and returns results in request order.")
+    @SuppressWarnings("unchecked")
+    public void testAddWaterOrders() {
+        LocalDateTime startTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+        WaterOrder farm1Late = new WaterOrder("", "farmId1", startTime.plusHours(5), Duration.ofHours(1), null);
+        WaterOrder farm2 = new WaterOrder("", "farmId2", startTime, Duration.ofHours(1), null);
+        WaterOrder farm1Early = new WaterOrder("", "farmId1", startTime, Duration.ofHours(1), null);
+        List<WaterOrder> newOrders = new ArrayList<>();
+        newOrders.add(farm1Late);
+        newOrders.add(farm2);
+        newOrders.add(farm1Early);
+
+        // Reject orders whose start time is later than 10:00 and create the rest.
+        when(this.validator.checkOrderValidity(any(), eq(WaterOrderRequestAction.CREATE))).thenAnswer(invocation -> {
+            WaterOrder order = invocation.getArgument(0);
+            return order.getStartDateTime().isAfter(startTime) ? Optional.of("Too late") : Optional.empty();
+        });
+        List<List<WaterOrder>> reservedBatches = new ArrayList<>();
+        when(this.repository.reserveWaterOrders(any(), any())).thenAnswer(invocation -> {
+            List<WaterOrder> orders = invocation.getArgument(0);
+            Function<WaterOrder, Optional<String>> orderValidator = invocation.getArgument(1);
+            reservedBatches.add(new ArrayList<>(orders));
+            List<BatchOrderResult> results = new ArrayList<>();
+            for (WaterOrder order : orders) {
+                Optional<String> validationErrMsg = orderValidator.apply(order);
+                results.add(validationErrMsg.isPresent() ? BatchOrderResult.rejected(order, validationErrMsg.get())
+                        : BatchOrderResult.created(order));
+            }
+            return results;
+        });
+
+        List<BatchOrderResult> results = this.service.addWaterOrders(newOrders);
+
+        // One call per farm. Orders of a farm are sorted by start time.
+        assertThat(reservedBatches).containsExactly(Arrays.asList(farm1Early, farm1Late), Arrays.asList(farm2));
+        assertThat(results).extracting(BatchOrderResult::getOrder).containsExactly(farm1Late, farm2, farm1Early);
+        assertThat(results).extracting(BatchOrderResult::getResult).containsExactly(BatchOrderResult.Result.REJECTED,
+                BatchOrderResult.Result.CREATED, BatchOrderResult.Result.CREATED);
+        assertThat(results.get(0).getMessage()).isEqualTo("Too late");
+        // Only created orders are scheduled.
+        verify(this.scheduler).addDeliverySchedule(eq(farm2));
+        verify(this.scheduler).addDeliverySchedule(eq(farm1Early));
+        verify(this.scheduler, never()).addDeliverySchedule(eq(farm1Late));
+    }
+
     @Test
     @DisplayName("cancelWaterOrder throws OrderValidityException if validation fails.")
     public void testCancelWaterOrderWhenValidationFails() {
@@ -117,27 +194,92 @@ public class WaterOrderServiceTests {
     }
 
     @Test
-    @DisplayName("getWaterOrderByOrderId returns what repository's getWaterOrderByOrderId returns.")
-    public void testGetWaterOrderbyOrderId() throws OrderNotFoundException {
+    @DisplayName("Concurrent findWaterOrdersByFarmId calls of the same farm version share one repository search.")
+    public void testGetWaterOrderByFarmIdIsShared() throws Exception {
+        CountDownLatch searchStarted = new CountDownLatch(1);
+        CountDownLatch releaseSearch = new CountDownLatch(1);
+        when(this.repository.getFarmVersion("farm1")).thenReturn(1L);
+        when(this.repository.findWaterOrdersByFarmId("farm1")).thenAnswer(invocation -> {
+            searchStarted.countDown();
+            releaseSearch.await();
+            return new ArrayList<>(this.multipleOrders);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<WaterOrder>> first = executor.submit(() -> this.service.findWaterOrdersByFarmId("farm1"));
+            assertThat(searchStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<List<WaterOrder>> second = executor.submit(() -> this.service.findWaterOrdersByFarmId("farm1"));
+            // The second call only shares the search once it waits for it.
+            Thread.sleep(100);
+            releaseSearch.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(second.get(5, TimeUnit.SECONDS))
+                    .containsExactlyElementsOf(this.multipleOrders);
+            verify(this.repository, times(1)).findWaterOrdersByFarmId("farm1");
+            assertThatThrownBy(() -> first.get().clear()).isInstanceOf(UnsupportedOperationException.class);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // A new version is a new search.
+        when(this.repository.getFarmVersion("farm1")).thenReturn(2L);
+        this.service.findWaterOrdersByFarmId("farm1");
+        verify(this.repository, times(2)).findWaterOrdersByFarmId("farm1");
+    }
+
+    @Test
+    @DisplayName("getFarmVersion returns what repository's getFarmVersion returns.")
+    public void testGetFarmVersion() {
+        when(this.repository.getFarmVersion("farm1")).thenReturn(5L);
+
+        assertThat(this.service.getFarmVersion("farm1")).isEqualTo(5L);
+    }
+
+    @Test
+    @DisplayName("findOrders returns what repository's findOrders returns.")
+    public void testFindOrders() {
+        WaterOrderQuery query = new WaterOrderQuery(null, null, null, WaterOrder.OrderStatus.IN_PROGRESS);
+        when(this.repository.findOrders(query)).thenReturn(this.multipleOrders);
+
+        assertThat(this.service.findOrders(query)).isEqualTo(this.multipleOrders);
+    }
+
+    @Test
+    @DisplayName("getOrdersPage returns what repository's getOrdersPage returns.")
+    public void testGetOrdersPage() {
+        when(this.repository.getOrdersPage("orderId0", 2)).thenReturn(this.multipleOrders);
+
+        List<WaterOrder> returnedOrders = this.service.getOrdersPage("orderId0", 2);
+
+        assertThat(returnedOrders).isEqualTo(this.multipleOrders);
+    }
+
+    @Test
+    @DisplayName("findWaterOrderByOrderId returns what repository's findWaterOrderByOrderId returns.")
+    public void testFindWaterOrderbyOrderId() {
         String fakeId = "fakeId111";
-        when(this.repository.getWaterOrderByOrderId(fakeId)).thenReturn(this.order1);
+        when(this.repository.findWaterOrderByOrderId(fakeId)).thenReturn(Optional.of(this.order1));
+        when(this.repository.findWaterOrderByOrderId("unknownId")).thenReturn(Optional.empty());
 
-        WaterOrder order = this.service.getWaterOrderByOrderId(fakeId);
+        Optional<WaterOrder> order = this.service.findWaterOrderByOrderId(fakeId);
 
-        verify(this.repository).getWaterOrderByOrderId(eq(fakeId));
-        assertThat(order.getOrderId()).isEqualTo(this.order1.getOrderId());
+        verify(this.repository).findWaterOrderByOrderId(eq(fakeId));
+        assertThat(order.get().getOrderId()).isEqualTo(this.order1.getOrderId());
+        assertThat(this.service.findWaterOrderByOrderId("unknownId")).isEmpty();
     }
 
     @Test
-    @DisplayName("getWaterOrderByFarmId returns what repository's getWaterOrderByFarmId returns.")
-    public void testGetWaterOrderbyFarmId() throws OrderNotFoundException {
+    @DisplayName("findWaterOrdersByFarmId returns what repository's findWaterOrdersByFarmId returns.")
+    public void testFindWaterOrdersbyFarmId() {
         String fakeId = "fakeId111";
-        when(this.repository.getWaterOrderByFarmrId(fakeId)).thenReturn(this.singleOrderInList);
+        when(this.repository.findWaterOrdersByFarmId(fakeId)).thenReturn(this.singleOrderInList);
+        when(this.repository.findWaterOrdersByFarmId("unknownId")).thenReturn(new ArrayList<>());
 
-        List<WaterOrder> returnedOrders = this.service.getWaterOrderByFarmrId(fakeId);
+        List<WaterOrder> returnedOrders = this.service.findWaterOrdersByFarmId(fakeId);
 
-        verify(this.repository).getWaterOrderByFarmrId(eq(fakeId));
+        verify(this.repository).findWaterOrdersByFarmId(eq(fakeId));
         assertThat(returnedOrders.size()).isEqualTo(1);
         assertThat(returnedOrders.get(0).getOrderId()).isEqualTo("orderId2");
+        assertThat(this.service.findWaterOrdersByFarmId("unknownId")).isEmpty();
     }
 }
\ No newline at end of file
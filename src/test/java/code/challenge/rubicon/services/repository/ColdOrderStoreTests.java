@@ -0,0 +1,215 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+public class ColdOrderStoreTests {
+
+    @TempDir
+    Path coldDirectory;
+
+    private final List<ColdOrderStore> openedStores = new ArrayList<>();
+
+    private final LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+
+    @AfterEach
+    public void closeStores() {
+        this.openedStores.forEach(ColdOrderStore::close);
+    }
+
+    private ColdOrderStore openStore() {
+        ColdOrderStore store = new ColdOrderStore(this.coldDirectory, Duration.ofDays(30), Duration.ZERO,
+                Optional.of(Clock.fixed(LocalDateTime.of(2020, 3, 1, 0, 0).toInstant(ZoneOffset.UTC),
+                        ZoneOffset.UTC)));
+        this.openedStores.add(store);
+        return store;
+    }
+
+    private WaterOrder coldOrder(String farmId, int minutes, WaterOrder.OrderStatus status) {
+        LocalDateTime startDateTime = this.baseTime.plusMinutes(minutes);
+        return WaterOrder.restore(TimestampOrderId.format(farmId, DeliveryIntervalIndex.toEpochSecond(startDateTime)),
+                farmId, startDateTime, Duration.ofMinutes(1), status);
+    }
+
+    private List<WaterOrder> coldOrders(String farmId, int count) {
+        List<WaterOrder> orders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            orders.add(this.coldOrder(farmId, i, i % 2 == 0 ? WaterOrder.OrderStatus.DELIVERED
+                    : WaterOrder.OrderStatus.CANCELLED));
+        }
+        return orders;
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> paths = Files.list(this.coldDirectory)) {
+            return paths.sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Orders are found by order id and farm id after they're written")
+    public void testFindWrittenOrders() throws Exception {
+        ColdOrderStore store = this.openStore();
+        List<WaterOrder> farm1Orders = this.coldOrders("farm1", 1000);
+        List<WaterOrder> farm2Orders = this.coldOrders("farm2", 10);
+        List<WaterOrder> orders = new ArrayList<>(farm1Orders);
+        orders.addAll(farm2Orders);
+        Collections.shuffle(orders);
+
+        store.write(orders);
+
+        for (WaterOrder order : orders) {
+            assertThat(store.find(order.getOrderId())).isEqualTo(order);
+        }
+        assertThat(store.find("farm1:20190101000000")).isNull();
+        assertThat(store.find("farm3:20200101100000")).isNull();
+        assertThat(store.findByFarm("farm1")).containsExactlyElementsOf(farm1Orders);
+        assertThat(store.findByFarm("farm2")).containsExactlyElementsOf(farm2Orders);
+        assertThat(store.findByFarm("farm3")).isEmpty();
+        assertThat(store.getAllOrders()).containsExactlyInAnyOrderElementsOf(orders);
+        assertThat(store.getOrderCount()).isEqualTo(1010);
+    }
+
+    @Test
+    @DisplayName("Orders written before are read back after the store is opened again")
+    public void testReopenStore() throws Exception {
+        List<WaterOrder> orders = this.coldOrders("farm1", 600);
+        this.openStore().write(orders.subList(0, 500));
+        this.openStore().write(orders.subList(500, 600));
+        this.closeStores();
+
+        ColdOrderStore store = this.openStore();
+
+        assertThat(store.getAllOrders()).containsExactlyInAnyOrderElementsOf(orders);
+        assertThat(store.find(orders.get(599).getOrderId())).isEqualTo(orders.get(599));
+    }
+
+    @Test
+    @DisplayName("Segments are merged so that their number grows logarithmically")
+    public void testMergeSegments() throws Exception {
+        ColdOrderStore store = this.openStore();
+        List<WaterOrder> orders = this.coldOrders("farm1", 64 * 10);
+
+        for (int i = 0; i < 64; i++) {
+            store.write(orders.subList(i * 10, (i + 1) * 10));
+        }
+
+        // Like a binary counter, 64 writes of the same size end in one segment.
+        assertThat(store.getSegmentCount()).isEqualTo(1);
+        assertThat(this.segmentFiles()).hasSize(1);
+        assertThat(store.findByFarm("farm1")).containsExactlyElementsOf(orders);
+
+        store.write(orders.subList(0, 10));
+        assertThat(store.getSegmentCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Pages of orders go through every segment in order id order")
+    public void testGetOrdersPage() throws Exception {
+        ColdOrderStore store = this.openStore();
+        List<WaterOrder> orders = this.coldOrders("farm1", 1000);
+        store.write(orders.subList(0, 700));
+        store.write(orders.subList(700, 1000));
+        // Written again with another status, the newer copy is in the page.
+        WaterOrder cancelled = WaterOrder.restore(orders.get(0).getOrderId(), "farm1",
+                orders.get(0).getStartDateTime(), orders.get(0).getDuration(), WaterOrder.OrderStatus.CANCELLED);
+        store.write(Arrays.asList(cancelled));
+        assertThat(store.getSegmentCount()).isEqualTo(3);
+
+        List<WaterOrder> pagedOrders = new ArrayList<>();
+        List<WaterOrder> page = store.getOrdersPage(null, 300);
+        while (!page.isEmpty()) {
+            pagedOrders.addAll(page);
+            page = store.getOrdersPage(page.get(page.size() - 1).getOrderId(), 300);
+        }
+
+        List<WaterOrder> expectedOrders = new ArrayList<>(orders);
+        expectedOrders.set(0, cancelled);
+        assertThat(pagedOrders).containsExactlyElementsOf(expectedOrders);
+        assertThat(store.getOrdersPage(orders.get(499).getOrderId(), 2)).containsExactly(orders.get(500),
+                orders.get(501));
+    }
+
+    @Test
+    @DisplayName("Newer copy of an order written again wins, also after merging")
+    public void testNewerCopyWins() throws Exception {
+        ColdOrderStore store = this.openStore();
+        WaterOrder delivered = this.coldOrder("farm1", 0, WaterOrder.OrderStatus.DELIVERED);
+        WaterOrder cancelled = this.coldOrder("farm1", 0, WaterOrder.OrderStatus.CANCELLED);
+        store.write(this.coldOrders("farm2", 100));
+        store.write(Arrays.asList(delivered));
+
+        store.write(Arrays.asList(cancelled));
+
+        assertThat(store.find(cancelled.getOrderId())).isEqualTo(cancelled);
+        assertThat(store.findByFarm("farm1")).containsExactly(cancelled);
+        assertThat(store.getAllOrders()).contains(cancelled).doesNotContain(delivered);
+
+        // Merged with both older segments.
+        store.write(this.coldOrders("farm3", 200));
+        assertThat(store.getSegmentCount()).isEqualTo(1);
+        assertThat(store.find(cancelled.getOrderId())).isEqualTo(cancelled);
+        assertThat(store.getOrderCount()).isEqualTo(301);
+    }
+
+    @Test
+    @DisplayName("Segment left unfinished is deleted and damaged segment is refused")
+    public void testUnfinishedAndDamagedSegments() throws Exception {
+        this.openStore().write(this.coldOrders("farm1", 10));
+        this.closeStores();
+        Path segmentFile = this.segmentFiles().get(0);
+        Files.write(this.coldDirectory.resolve("cold-0000000000000001.seg.tmp"), new byte[] { 1, 2, 3 });
+
+        assertThat(this.openStore().getAllOrders()).hasSize(10);
+        assertThat(this.segmentFiles()).containsExactly(segmentFile);
+        this.closeStores();
+
+        // Flip a byte of the index, right before the footer.
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = channel.size() - 16 - 1;
+            ByteBuffer indexByte = ByteBuffer.allocate(1);
+            channel.read(indexByte, position);
+            indexByte.put(0, (byte) ~indexByte.get(0));
+            indexByte.rewind();
+            channel.write(indexByte, position);
+        }
+        assertThrows(UncheckedIOException.class, this::openStore);
+    }
+
+    @Test
+    @DisplayName("Cold orders take a fraction of the space they take uncompressed")
+    public void testSegmentIsCompressed() throws Exception {
+        List<WaterOrder> orders = this.coldOrders("farm1", 10_000);
+
+        this.openStore().write(orders);
+
+        // Uncompressed, each order takes 20 bytes of farm:timestamp id, 5 of
+        // farm id and 25 of times and status.
+        assertThat(Files.size(this.segmentFiles().get(0))).isLessThan(10_000 * 50 / 3);
+    }
+}
@@ -0,0 +1,149 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Run all repository tests against CompactOrderRepository plus the ones
+ * specific to its encoding of orders.
+ */
+public class CompactOrderRepositoryTests extends WaterOrderRepositoryTests {
+
+    private final LocalDateTime baseTime = LocalDateTime.of(2020, 1, 16, 10, 10, 10);
+
+    @Override
+    protected IWaterOrderRepository createRepository() {
+        return new CompactOrderRepository();
+    }
+
+    private WaterOrder addOrder(String farmId, LocalDateTime startDateTime, Duration duration) {
+        return this.repository.addWaterOrder(
+                new WaterOrder("", farmId, startDateTime, duration, WaterOrder.OrderStatus.REQUESTED));
+    }
+
+    @Test
+    @DisplayName("Start time and duration are stored at second precision")
+    public void testSecondPrecision() throws OrderNotFoundException {
+        WaterOrder newOrder = this.addOrder("farmId1", this.baseTime.withNano(123_000_000),
+                Duration.ofSeconds(10, 500_000_000));
+
+        assertThat(newOrder.getOrderId()).isEqualTo("farmId1:20200116101010");
+        assertThat(newOrder.getStartDateTime()).isEqualTo(this.baseTime);
+        assertThat(newOrder.getDuration()).isEqualTo(Duration.ofSeconds(10));
+        assertThat(this.repository.getWaterOrderByOrderId(newOrder.getOrderId())).isEqualTo(newOrder);
+    }
+
+    @Test
+    @DisplayName("Order ids of farm ids with ':' are found and malformed ones aren't")
+    public void testOrderIdParsing() throws OrderNotFoundException {
+        WaterOrder newOrder = this.addOrder("north:field:2", this.baseTime, Duration.ofMinutes(10));
+
+        assertThat(this.repository.getWaterOrderByOrderId("north:field:2:20200116101010")).isEqualTo(newOrder);
+        for (String orderId : new String[] { "north:field:2:2020011610101", "north:field:2-20200116101010",
+                "north:field:20200116101010", "north:field:2:20201316101010", "north:field:2:20200116101011" }) {
+            assertThatThrownBy(() -> this.repository.getWaterOrderByOrderId(orderId))
+                    .isInstanceOf(OrderNotFoundException.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Pages go by farm id and continue after an order id that doesn't exist")
+    public void testGetOrdersPageByFarm() {
+        WaterOrder farmAOrder = this.addOrder("farmA", this.baseTime, Duration.ofMinutes(10));
+        WaterOrder farmCOrder1 = this.addOrder("farmC", this.baseTime, Duration.ofMinutes(10));
+        WaterOrder farmCOrder2 = this.addOrder("farmC", this.baseTime.plusHours(1), Duration.ofMinutes(10));
+
+        assertThat(this.repository.getOrdersPage(null, 1)).containsExactly(farmAOrder);
+        assertThat(this.repository.getOrdersPage(farmAOrder.getOrderId(), 10))
+                .containsExactlyInAnyOrder(farmCOrder1, farmCOrder2);
+        assertThat(this.repository.getOrdersPage("farmB:20200116101010", 10))
+                .containsExactlyInAnyOrder(farmCOrder1, farmCOrder2);
+        assertThat(this.repository.getOrdersPage("farmD:20200116101010", 10)).isEmpty();
+        assertThatThrownBy(() -> this.repository.getOrdersPage("farmA", 10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("An order of the same farm and start time as a cancelled one doesn't replace it")
+    public void testAddWaterOrderRejectsTakenOrderId() throws Exception {
+        WaterOrder firstOrder = this.addOrder("farmId1", this.baseTime, Duration.ofMinutes(10));
+        this.repository.cancelWaterOrder(firstOrder.getOrderId());
+        WaterOrder sameStartOrder = new WaterOrder("", "farmId1", this.baseTime, Duration.ofMinutes(20),
+                WaterOrder.OrderStatus.REQUESTED);
+
+        assertThatThrownBy(() -> this.repository.addWaterOrder(sameStartOrder))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> this.repository.reserveWaterOrder(sameStartOrder, order -> Optional.empty()))
+                .isInstanceOf(OrderValidityException.class).hasMessageContaining(firstOrder.getOrderId());
+        assertThat(this.repository.reserveWaterOrders(Collections.singletonList(sameStartOrder),
+                order -> Optional.empty())).extracting(BatchOrderResult::getResult)
+                        .containsExactly(BatchOrderResult.Result.REJECTED);
+
+        assertThat(this.repository.getAllOrders()).hasSize(1);
+        assertThat(this.repository.getWaterOrderByOrderId(firstOrder.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+        assertThat(this.repository.findOverlappingOrder("farmId1", this.baseTime.plusMinutes(15),
+                Duration.ofMinutes(1))).isEmpty();
+    }
+
+    @Test
+    @DisplayName("getWaterOrderByFarmId returns the farm's orders by start time")
+    public void testGetWaterOrderByFarmIdSortedByStartTime() throws OrderNotFoundException {
+        WaterOrder laterOrder = this.addOrder("farmId1", this.baseTime.plusHours(2), Duration.ofMinutes(10));
+        WaterOrder earlierOrder = this.addOrder("farmId1", this.baseTime, Duration.ofMinutes(10));
+        WaterOrder middleOrder = this.addOrder("farmId1", this.baseTime.plusHours(1), Duration.ofMinutes(10));
+
+        List<WaterOrder> orders = this.repository.getWaterOrderByFarmrId("farmId1");
+
+        assertThat(orders).containsExactly(earlierOrder, middleOrder, laterOrder);
+    }
+
+    @Test
+    @DisplayName("findOverlappingOrder looks past cancelled orders starting later")
+    public void testFindOverlappingOrderSkipsCancelledOrders() throws OrderNotFoundException {
+        WaterOrder longOrder = this.addOrder("farmId1", this.baseTime, Duration.ofHours(5));
+        for (int i = 1; i <= 3; i++) {
+            // Overlapping orders can only be added without validation.
+            WaterOrder cancelledOrder = this.addOrder("farmId1", this.baseTime.plusHours(i), Duration.ofMinutes(10));
+            this.repository.cancelWaterOrder(cancelledOrder.getOrderId());
+        }
+
+        Optional<WaterOrder> overlappingOrder = this.repository.findOverlappingOrder("farmId1",
+                this.baseTime.plusHours(4), Duration.ofMinutes(10));
+
+        assertThat(overlappingOrder).contains(longOrder);
+    }
+
+    @Test
+    @DisplayName("Orders of many farms are all found after the tables grow")
+    public void testManyOrders() throws OrderNotFoundException {
+        int orderCount = 10_000;
+        for (int i = 0; i < orderCount; i++) {
+            this.addOrder("farm" + (i % 100), this.baseTime.plusMinutes(i), Duration.ofSeconds(30));
+        }
+
+        assertThat(this.repository.getAllOrders()).hasSize(orderCount);
+        for (int i = 0; i < orderCount; i += 97) {
+            String farmId = "farm" + (i % 100);
+            WaterOrder waterOrder = this.repository.getWaterOrderByOrderId(
+                    farmId + ":" + this.baseTime.plusMinutes(i).toString().replaceAll("[-T:]", ""));
+            assertThat(waterOrder.getFarmId()).isEqualTo(farmId);
+            assertThat(waterOrder.getStartDateTime()).isEqualTo(this.baseTime.plusMinutes(i));
+        }
+        assertThat(this.repository.getWaterOrderByFarmrId("farm7")).hasSize(orderCount / 100);
+    }
+}
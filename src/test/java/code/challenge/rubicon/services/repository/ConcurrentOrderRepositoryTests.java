@@ -0,0 +1,178 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
+
+/**
+ * Run all repository tests against ConcurrentOrderRepository plus the ones
+ * specific to concurrent access.
+ */
+public class ConcurrentOrderRepositoryTests extends WaterOrderRepositoryTests {
+
+    @TempDir
+    Path coldDirectory;
+
+    @Override
+    protected IWaterOrderRepository createRepository() {
+        return new ConcurrentOrderRepository();
+    }
+
+    /**
+     * Cold store where orders ended before 2020-02-01 belong.
+     */
+    protected ColdOrderStore openColdOrderStore() {
+        return new ColdOrderStore(this.coldDirectory, Duration.ofDays(30), Duration.ZERO,
+                Optional.of(Clock.fixed(LocalDateTime.of(2020, 3, 2, 0, 0).toInstant(ZoneOffset.UTC),
+                        ZoneOffset.UTC)));
+    }
+
+    @Test
+    @DisplayName("Orders ended long enough ago are moved to the cold store and still found")
+    public void testMoveColdOrders() throws Exception {
+        try (ColdOrderStore coldOrderStore = this.openColdOrderStore()) {
+            ConcurrentOrderRepository repository = new ConcurrentOrderRepository(Optional.empty(), coldOrderStore);
+            WaterOrder delivered = repository.addWaterOrder(new WaterOrder("", "farm1",
+                    LocalDateTime.of(2020, 1, 1, 10, 0), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+            repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+            WaterOrder cancelled = repository.addWaterOrder(new WaterOrder("", "farm1",
+                    LocalDateTime.of(2020, 1, 2, 10, 0), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+            repository.cancelWaterOrder(cancelled.getOrderId());
+            // Still active, or ended too recently.
+            WaterOrder requested = repository.addWaterOrder(new WaterOrder("", "farm1",
+                    LocalDateTime.of(2020, 1, 3, 10, 0), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+            WaterOrder recent = repository.addWaterOrder(new WaterOrder("", "farm1",
+                    LocalDateTime.of(2020, 1, 31, 23, 50), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+            repository.updateOrderstatus(recent.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+
+            assertThat(repository.moveColdOrders()).isEqualTo(2);
+            assertThat(repository.moveColdOrders()).isEqualTo(0);
+
+            assertThat(coldOrderStore.getAllOrders()).containsExactlyInAnyOrder(delivered, cancelled);
+            assertThat(repository.getWaterOrderByOrderId(delivered.getOrderId())).isEqualTo(delivered);
+            assertThat(repository.getWaterOrderByFarmrId("farm1")).containsExactly(delivered, cancelled, requested,
+                    recent);
+            assertThat(repository.getAllOrders()).containsExactlyInAnyOrder(delivered, cancelled, requested, recent);
+            assertThat(repository.getOrdersPage(null, 3)).containsExactly(delivered, cancelled, requested);
+            assertThat(repository.getOrdersPage(cancelled.getOrderId(), 3)).containsExactly(requested, recent);
+            assertThat(repository.streamPendingOrders()).containsExactly(requested);
+            assertThat(repository.findOverlappingOrder("farm1", delivered.getStartDateTime(),
+                    delivered.getDuration())).isEmpty();
+            assertThat(repository.findOrders(new WaterOrderQuery("farm1", LocalDateTime.of(2020, 1, 1, 0, 0), null,
+                    null))).containsExactly(requested, recent);
+        }
+    }
+
+    @Test
+    @DisplayName("Cold order is brought back in memory when its status is updated")
+    public void testUpdateColdOrder() throws Exception {
+        try (ColdOrderStore coldOrderStore = this.openColdOrderStore()) {
+            ConcurrentOrderRepository repository = new ConcurrentOrderRepository(Optional.empty(), coldOrderStore);
+            WaterOrder order = repository.addWaterOrder(new WaterOrder("", "farm1",
+                    LocalDateTime.of(2020, 1, 1, 10, 0), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+            repository.updateOrderstatus(order.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+            repository.moveColdOrders();
+
+            WaterOrder cancelled = repository.cancelWaterOrder(order.getOrderId());
+
+            assertThat(cancelled.getStatus()).isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+            assertThat(repository.getWaterOrderByOrderId(order.getOrderId())).isSameAs(cancelled);
+            assertThat(repository.getWaterOrderByFarmrId("farm1")).containsExactly(cancelled);
+            assertThat(repository.getAllOrders()).containsExactly(cancelled);
+            assertThat(repository.findOrders(new WaterOrderQuery("farm1", null, null,
+                    WaterOrder.OrderStatus.CANCELLED))).containsExactly(cancelled);
+
+            // Written again, the newer copy replaces the cold one.
+            assertThat(repository.moveColdOrders()).isEqualTo(1);
+            assertThat(coldOrderStore.find(order.getOrderId())).isEqualTo(cancelled);
+            assertThrows(OrderNotFoundException.class, () -> repository.getWaterOrderByOrderId("farm1:20200101100001"));
+        }
+    }
+
+    @Test
+    @DisplayName("Orders added from multiple threads are all stored and indexed by farm")
+    public void testConcurrentAddWaterOrder() throws Exception {
+        int threadCount = 8;
+        int ordersPerThread = 500;
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                // Every 2 threads share a farm to have contention on the same farm too.
+                String farmId = "farm" + (i / 2);
+                int offset = i % 2;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < ordersPerThread; j++) {
+                        this.repository.addWaterOrder(new WaterOrder("", farmId,
+                                baseTime.plusMinutes(2 * j + offset), Duration.ofSeconds(10),
+                                WaterOrder.OrderStatus.REQUESTED));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(this.repository.getAllOrders().size()).isEqualTo(threadCount * ordersPerThread);
+        for (int i = 0; i < threadCount / 2; i++) {
+            assertThat(this.repository.getWaterOrderByFarmrId("farm" + i).size()).isEqualTo(2 * ordersPerThread);
+        }
+    }
+
+    @Test
+    @DisplayName("Cancelling orders from multiple threads releases their delivery time ranges")
+    public void testConcurrentCancelWaterOrder() throws Exception {
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+        List<WaterOrder> orders = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            orders.add(this.repository.addWaterOrder(new WaterOrder("", "farm" + (i % 10),
+                    baseTime.plusMinutes(i), Duration.ofSeconds(10), WaterOrder.OrderStatus.REQUESTED)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (WaterOrder order : orders) {
+                futures.add(executor.submit(() -> {
+                    this.repository.cancelWaterOrder(order.getOrderId());
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (WaterOrder order : orders) {
+            assertThat(this.repository.getWaterOrderByOrderId(order.getOrderId()).getStatus())
+                    .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+            assertThat(this.repository.findOverlappingOrder(order.getFarmId(), order.getStartDateTime(),
+                    order.getDuration())).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Run all repository tests against JournaledOrderRepository plus the ones for
+ * recovering from the journal.
+ */
+public class JournaledOrderRepositoryTests extends ConcurrentOrderRepositoryTests {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path journalDirectory;
+
+    private List<JournaledOrderRepository> openedRepositories = new ArrayList<>();
+
+    private final LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+
+    @Override
+    protected IWaterOrderRepository createRepository() {
+        return this.openRepository(SEGMENT_SIZE);
+    }
+
+    @AfterEach
+    public void closeRepositories() throws Exception {
+        this.closeOpenedRepositories();
+    }
+
+    private JournaledOrderRepository openRepository(int segmentSize) {
+        JournaledOrderRepository repository = new JournaledOrderRepository(this.journalDirectory, segmentSize);
+        this.openedRepositories.add(repository);
+        return repository;
+    }
+
+    private void closeOpenedRepositories() throws Exception {
+        for (JournaledOrderRepository repository : this.openedRepositories) {
+            repository.close();
+        }
+        this.openedRepositories.clear();
+    }
+
+    private JournaledOrderRepository reopenRepository(int segmentSize) throws Exception {
+        this.closeOpenedRepositories();
+        return this.openRepository(segmentSize);
+    }
+
+    private WaterOrder newOrder(String farmId, LocalDateTime startDateTime) {
+        return new WaterOrder("", farmId, startDateTime, Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED);
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        return this.listFiles("journal-");
+    }
+
+    private List<Path> snapshotFiles() throws Exception {
+        return this.listFiles("snapshot-");
+    }
+
+    private List<Path> listFiles(String prefix) throws Exception {
+        try (Stream<Path> paths = Files.list(this.journalDirectory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Orders keep their farm:timestamp ids after switching to Snowflake ids")
+    public void testRecoverOrdersAfterSwitchingOrderIdGenerator() throws Exception {
+        WaterOrder timestampOrder = this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        this.closeOpenedRepositories();
+        JournaledOrderRepository snowflakeRepository = new JournaledOrderRepository(this.journalDirectory,
+                SEGMENT_SIZE, Optional.of(new SnowflakeOrderIdGenerator(1, Optional.empty())));
+        this.openedRepositories.add(snowflakeRepository);
+
+        // Same farm and start time doesn't replace the order any more.
+        WaterOrder snowflakeOrder = snowflakeRepository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        snowflakeRepository.updateOrderstatus(timestampOrder.getOrderId(), WaterOrder.OrderStatus.CANCELLED);
+
+        IWaterOrderRepository recovered = this.reopenRepository(SEGMENT_SIZE);
+
+        assertThat(snowflakeOrder.getOrderId()).isNotEqualTo(timestampOrder.getOrderId()).containsOnlyDigits();
+        assertThat(recovered.getWaterOrderByOrderId(timestampOrder.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+        assertThat(recovered.getWaterOrderByOrderId(snowflakeOrder.getOrderId())).isEqualTo(snowflakeOrder);
+        assertThat(recovered.getWaterOrderByFarmrId("farm1")).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("Orders and their latest statuses are recovered after reopening")
+    public void testRecoverOrders() throws Exception {
+        WaterOrder delivered = this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        WaterOrder cancelled = this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime.plusHours(1)));
+        WaterOrder requested = this.repository.addWaterOrder(this.newOrder("farm2", this.baseTime.plusSeconds(1)));
+        this.repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+        this.repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+        this.repository.cancelWaterOrder(cancelled.getOrderId());
+
+        IWaterOrderRepository recovered = this.reopenRepository(SEGMENT_SIZE);
+
+        assertThat(recovered.getAllOrders()).containsExactlyInAnyOrder(delivered, cancelled, requested);
+        assertThat(recovered.getWaterOrderByOrderId(delivered.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.DELIVERED);
+        assertThat(recovered.getWaterOrderByOrderId(cancelled.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+        assertThat(recovered.getWaterOrderByFarmrId("farm1")).hasSize(2);
+        // Recovered farms have versions, so their orders get ETags.
+        assertThat(recovered.getFarmVersion("farm1")).isPositive();
+        assertThat(recovered.getFarmVersion("farm2")).isPositive();
+        assertThat(recovered.getFarmVersion("farm3")).isZero();
+        // Delivery time ranges are rebuilt without the cancelled order.
+        assertThat(recovered.findOverlappingOrder("farm1", this.baseTime.plusMinutes(10), Duration.ofMinutes(1)))
+                .contains(delivered);
+        assertThat(recovered.findOverlappingOrder("farm1", this.baseTime.plusHours(1), Duration.ofMinutes(1)))
+                .isEmpty();
+    }
+
+    @Test
+    @DisplayName("Recovered repository keeps appending to the same journal")
+    public void testAppendAfterRecovery() throws Exception {
+        WaterOrder first = this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        IWaterOrderRepository recovered = this.reopenRepository(SEGMENT_SIZE);
+        WaterOrder second = recovered.addWaterOrder(this.newOrder("farm1", this.baseTime.plusHours(1)));
+        recovered.cancelWaterOrder(first.getOrderId());
+
+        recovered = this.reopenRepository(SEGMENT_SIZE);
+
+        assertThat(recovered.getAllOrders()).hasSize(2);
+        assertThat(recovered.getWaterOrderByOrderId(first.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+        assertThat(recovered.getWaterOrderByOrderId(second.getOrderId())).isEqualTo(second);
+    }
+
+    @Test
+    @DisplayName("Journal continues in new segments when a segment is full and all of them are replayed")
+    public void testRecoverFromMultipleSegments() throws Exception {
+        // Start over with small segments.
+        this.closeOpenedRepositories();
+        for (Path segmentFile : this.segmentFiles()) {
+            Files.delete(segmentFile);
+        }
+        IWaterOrderRepository repository = this.openRepository(1024);
+        for (int i = 0; i < 200; i++) {
+            repository.addWaterOrder(this.newOrder("farm" + (i % 7), this.baseTime.plusHours(i)));
+        }
+        assertThat(this.segmentFiles().size()).isGreaterThan(10);
+
+        IWaterOrderRepository recovered = this.reopenRepository(1024);
+
+        assertThat(recovered.getAllOrders()).hasSize(200);
+        assertThat(recovered.getAllOrders()).containsExactlyInAnyOrderElementsOf(repository.getAllOrders());
+    }
+
+    @Test
+    @DisplayName("Damaged record at the end of the journal is dropped and appending continues from there")
+    public void testRecoverFromDamagedTail() throws Exception {
+        WaterOrder first = this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        WaterOrder second = this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime.plusHours(1)));
+        this.closeOpenedRepositories();
+
+        // Damage the last byte of the second record, as if the crash happened
+        // while it was written.
+        Path segmentFile = this.segmentFiles().get(0);
+        byte[] content = Files.readAllBytes(segmentFile);
+        int lastWrittenByte = content.length - 1;
+        while (content[lastWrittenByte] == 0) {
+            lastWrittenByte--;
+        }
+        content[lastWrittenByte] ^= 0x7f;
+        Files.write(segmentFile, content);
+
+        IWaterOrderRepository recovered = this.openRepository(SEGMENT_SIZE);
+        assertThat(recovered.getAllOrders()).containsExactly(first);
+
+        WaterOrder third = recovered.addWaterOrder(this.newOrder("farm2", this.baseTime));
+        recovered = this.reopenRepository(SEGMENT_SIZE);
+        assertThat(recovered.getAllOrders()).containsExactlyInAnyOrder(first, third);
+        assertThat(recovered.getAllOrders()).doesNotContain(second);
+    }
+
+    @Test
+    @DisplayName("Recovering orders doesn't publish status changes")
+    public void testRecoveryDoesNotPublishStatusChanges() throws Exception {
+        this.repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(16, 16, OrderLifecycleLog.OverflowPolicy.DROP,
+                new PrintStream(new ByteArrayOutputStream()));
+        OrderLifecycleLog.install(lifecycleLog);
+        try {
+            this.reopenRepository(SEGMENT_SIZE);
+
+            assertThat(lifecycleLog.getPendingCount()).isEqualTo(0);
+            lifecycleLog.close();
+            assertThat(lifecycleLog.getDroppedCount()).isEqualTo(0);
+        } finally {
+            OrderLifecycleLog.install(null);
+        }
+    }
+
+    @Test
+    @DisplayName("Orders are recovered from the snapshot plus the journal after it")
+    public void testRecoverFromSnapshot() throws Exception {
+        JournaledOrderRepository repository = (JournaledOrderRepository) this.repository;
+        WaterOrder delivered = repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        WaterOrder cancelled = repository.addWaterOrder(this.newOrder("farm1", this.baseTime.plusHours(1)));
+        repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+        repository.writeSnapshot();
+        // After the snapshot
+        WaterOrder requested = repository.addWaterOrder(this.newOrder("farm2", this.baseTime));
+        repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+        repository.cancelWaterOrder(cancelled.getOrderId());
+
+        IWaterOrderRepository recovered = this.reopenRepository(SEGMENT_SIZE);
+
+        assertThat(this.snapshotFiles()).hasSize(1);
+        assertThat(recovered.getAllOrders()).containsExactlyInAnyOrder(delivered, cancelled, requested);
+        assertThat(recovered.getWaterOrderByOrderId(delivered.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.DELIVERED);
+        assertThat(recovered.getWaterOrderByOrderId(cancelled.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+        assertThat(recovered.findOverlappingOrder("farm1", this.baseTime.plusHours(1), Duration.ofMinutes(1)))
+                .isEmpty();
+    }
+
+    @Test
+    @DisplayName("Orders moved to the cold store are left out of snapshots and updates to them are recovered")
+    public void testRecoverWithColdOrders() throws Exception {
+        this.closeOpenedRepositories();
+        ColdOrderStore coldOrderStore = this.openColdOrderStore();
+        JournaledOrderRepository repository = new JournaledOrderRepository(this.journalDirectory, SEGMENT_SIZE,
+                Optional.empty(), coldOrderStore);
+        this.openedRepositories.add(repository);
+        WaterOrder delivered = repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        WaterOrder cancelled = repository.addWaterOrder(this.newOrder("farm1", this.baseTime.plusHours(1)));
+        repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+        repository.updateOrderstatus(cancelled.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+        assertThat(repository.moveColdOrders()).isEqualTo(2);
+        repository.writeSnapshot();
+        // After the snapshot, to a cold order.
+        repository.cancelWaterOrder(cancelled.getOrderId());
+        this.closeOpenedRepositories();
+        coldOrderStore.close();
+
+        try (ColdOrderStore reopenedColdOrderStore = this.openColdOrderStore()) {
+            JournaledOrderRepository recovered = new JournaledOrderRepository(this.journalDirectory, SEGMENT_SIZE,
+                    Optional.empty(), reopenedColdOrderStore);
+            this.openedRepositories.add(recovered);
+
+            assertThat(recovered.getWaterOrderByOrderId(delivered.getOrderId()).getStatus())
+                    .isEqualTo(WaterOrder.OrderStatus.DELIVERED);
+            assertThat(recovered.getWaterOrderByOrderId(cancelled.getOrderId()).getStatus())
+                    .isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+            assertThat(recovered.getAllOrders()).hasSize(2);
+            this.closeOpenedRepositories();
+        }
+    }
+
+    @Test
+    @DisplayName("Snapshot replaces the older one and journal segments it covers are deleted")
+    public void testSnapshotDeletesCoveredSegments() throws Exception {
+        this.closeOpenedRepositories();
+        for (Path segmentFile : this.segmentFiles()) {
+            Files.delete(segmentFile);
+        }
+        JournaledOrderRepository repository = this.openRepository(1024);
+        for (int i = 0; i < 100; i++) {
+            repository.addWaterOrder(this.newOrder("farm" + (i % 7), this.baseTime.plusHours(i)));
+        }
+        repository.writeSnapshot();
+        for (int i = 100; i < 200; i++) {
+            repository.addWaterOrder(this.newOrder("farm" + (i % 7), this.baseTime.plusHours(i)));
+        }
+        int segmentCount = this.segmentFiles().size();
+        repository.writeSnapshot();
+
+        assertThat(this.snapshotFiles()).hasSize(1);
+        assertThat(this.segmentFiles().size()).isLessThan(segmentCount);
+        assertThat(this.segmentFiles().size()).isLessThanOrEqualTo(2);
+        assertThat(repository.getSnapshotCount()).isEqualTo(2);
+
+        IWaterOrderRepository recovered = this.reopenRepository(1024);
+        assertThat(recovered.getAllOrders()).containsExactlyInAnyOrderElementsOf(repository.getAllOrders());
+        WaterOrder added = recovered.addWaterOrder(this.newOrder("farm1", this.baseTime.minusHours(1)));
+        recovered = this.reopenRepository(1024);
+        assertThat(recovered.getAllOrders()).hasSize(201).contains(added);
+    }
+
+    @Test
+    @DisplayName("Snapshot is split into chunks that are all loaded")
+    public void testRecoverFromSnapshotOfSeveralChunks() throws Exception {
+        JournaledOrderRepository repository = (JournaledOrderRepository) this.repository;
+        int orderCount = OrderSnapshot.CHUNK_SIZE * 2 + 10;
+        for (int farm = 0; farm < 3; farm++) {
+            List<WaterOrder> farmOrders = new ArrayList<>();
+            for (int i = farm; i < orderCount; i += 3) {
+                farmOrders.add(this.newOrder("farm" + farm, this.baseTime.plusMinutes(i)));
+            }
+            repository.reserveWaterOrders(farmOrders, waterOrder -> Optional.empty());
+        }
+        repository.writeSnapshot();
+
+        IWaterOrderRepository recovered = this.reopenRepository(SEGMENT_SIZE);
+
+        assertThat(recovered.getAllOrders()).hasSize(orderCount);
+        assertThat(recovered.getWaterOrderByFarmrId("farm0")).hasSize((orderCount + 2) / 3);
+    }
+
+    @Test
+    @DisplayName("Damaged snapshot fails recovery rather than losing orders")
+    public void testDamagedSnapshot() throws Exception {
+        JournaledOrderRepository repository = (JournaledOrderRepository) this.repository;
+        repository.addWaterOrder(this.newOrder("farm1", this.baseTime));
+        repository.writeSnapshot();
+        this.closeOpenedRepositories();
+
+        Path snapshotFile = this.snapshotFiles().get(0);
+        byte[] content = Files.readAllBytes(snapshotFile);
+        content[content.length - 8] ^= 0x7f;
+        Files.write(snapshotFile, content);
+
+        assertThrows(UncheckedIOException.class, () -> this.openRepository(SEGMENT_SIZE));
+    }
+}
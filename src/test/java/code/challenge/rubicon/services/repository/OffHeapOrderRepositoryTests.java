@@ -0,0 +1,59 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Run all repository tests and the ones of CompactOrderRepository against
+ * OffHeapOrderRepository. Pages are kept small so that orders of a test span
+ * several pages.
+ */
+public class OffHeapOrderRepositoryTests extends CompactOrderRepositoryTests {
+
+    private static final int PAGE_RECORDS = 16;
+
+    @Override
+    protected IWaterOrderRepository createRepository() {
+        return new OffHeapOrderRepository(PAGE_RECORDS);
+    }
+
+    @Test
+    @DisplayName("Orders added out of start time order are sorted into the farm's orders")
+    public void testAddWaterOrderOutOfOrder() throws OrderNotFoundException {
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 16, 10, 0, 0);
+        for (int i = 0; i < 50; i++) {
+            // 0, 7, 14, ... wrapped around 50 visits every start time once.
+            this.repository.addWaterOrder(new WaterOrder("", "farmId1", baseTime.plusHours(i * 7 % 50),
+                    Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+        }
+
+        assertThat(this.repository.getWaterOrderByFarmrId("farmId1")).extracting(WaterOrder::getStartDateTime)
+                .isSorted().hasSize(50);
+        assertThat(this.repository.findOverlappingOrder("farmId1", baseTime.plusHours(20).plusMinutes(10),
+                Duration.ofMinutes(1)).get().getStartDateTime()).isEqualTo(baseTime.plusHours(20));
+        assertThat(this.repository.findOverlappingOrder("farmId1", baseTime.plusHours(20).plusMinutes(40),
+                Duration.ofMinutes(1))).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Off-heap memory grows by a page at a time")
+    public void testOffHeapBytes() {
+        OffHeapOrderRepository offHeapRepository = (OffHeapOrderRepository) this.repository;
+        long emptyBytes = offHeapRepository.getOffHeapBytes();
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 16, 10, 0, 0);
+        for (int i = 0; i < PAGE_RECORDS + 1; i++) {
+            this.repository.addWaterOrder(new WaterOrder("", "farmId1", baseTime.plusHours(i), Duration.ofMinutes(30),
+                    WaterOrder.OrderStatus.REQUESTED));
+        }
+
+        assertThat(offHeapRepository.getOffHeapBytes() - emptyBytes).isEqualTo(2 * PAGE_RECORDS * 24);
+    }
+}
@@ -0,0 +1,61 @@
+package code.challenge.rubicon.services.repository;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Measure time and heap allocated per generated order id. The first row is
+ * the way order ids were generated before, with a DateTimeFormatter built
+ * for every id.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=OrderIdGeneratorBenchmark".
+ */
+public class OrderIdGeneratorBenchmark {
+
+    private static final int IDS = 5_000_000;
+
+    private final WaterOrder waterOrder = new WaterOrder("", "MYFARM", LocalDateTime.of(2020, 1, 16, 10, 10, 10),
+            Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED);
+
+    @Test
+    @DisplayName("Time and allocation per order id of each generator")
+    public void benchmarkOrderIdGenerators() {
+        IOrderIdGenerator formatterPerCall = waterOrder -> waterOrder.getFarmId() + ":"
+                + DateTimeFormatter.ofPattern("yyyyMMddHHmmss").format(waterOrder.getStartDateTime());
+
+        System.out.println(String.format("%-30s %12s %14s", "generator", "ns/id", "bytes/id"));
+        // Twice each, the first round warms up.
+        for (int round = 0; round < 2; round++) {
+            this.measure("DateTimeFormatter per call", formatterPerCall);
+            this.measure("TimestampOrderIdGenerator", new TimestampOrderIdGenerator());
+            this.measure("SnowflakeOrderIdGenerator", new SnowflakeOrderIdGenerator(0, Optional.empty()));
+        }
+    }
+
+    private void measure(String name, IOrderIdGenerator generator) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        int totalLength = 0;
+        for (int i = 0; i < IDS; i++) {
+            totalLength += generator.generateOrderId(this.waterOrder).length();
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (totalLength == 0) {
+            throw new IllegalStateException();
+        }
+        System.out.println(String.format("%-30s %12.1f %14.1f", name, (double) elapsedNanos / IDS,
+                (double) allocatedBytes / IDS));
+    }
+}
@@ -0,0 +1,82 @@
+package code.challenge.rubicon.services.repository;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Measure time and heap allocated per lookup of a missing order or farm. The
+ * first row is the way a missing order was reported before, with an exception
+ * capturing its stack trace.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=OrderLookupBenchmark".
+ */
+public class OrderLookupBenchmark {
+
+    private static final int LOOKUPS = 2_000_000;
+
+    private final HashMapOrderRepository repository = new HashMapOrderRepository();
+
+    private final LocalDateTime startDateTime = LocalDateTime.of(2020, 1, 16, 10, 10, 10);
+
+    @FunctionalInterface
+    private interface Lookup {
+        Object lookUp() throws Exception;
+    }
+
+    @Test
+    @DisplayName("Time and allocation per lookup of a missing order or farm")
+    public void benchmarkMissingOrderLookups() {
+        this.repository.addWaterOrder(new WaterOrder("", "MYFARM", this.startDateTime, Duration.ofMinutes(30),
+                WaterOrder.OrderStatus.REQUESTED));
+        Lookup exceptionWithStackTrace = () -> {
+            if (!this.repository.findWaterOrderByOrderId("MYFARM:20190101000000").isPresent()) {
+                throw new Exception(String.format("Order ID '%s' doesn't exist.", "MYFARM:20190101000000"));
+            }
+            return null;
+        };
+
+        System.out.println(String.format("%-40s %12s %14s", "lookup", "ns/lookup", "bytes/lookup"));
+        // Twice each, the first round warms up.
+        for (int round = 0; round < 2; round++) {
+            this.measure("Exception with stack trace", exceptionWithStackTrace);
+            this.measure("getWaterOrderByOrderId",
+                    () -> this.repository.getWaterOrderByOrderId("MYFARM:20190101000000"));
+            this.measure("findWaterOrderByOrderId",
+                    () -> this.repository.findWaterOrderByOrderId("MYFARM:20190101000000"));
+            this.measure("getWaterOrderByFarmrId", () -> this.repository.getWaterOrderByFarmrId("NEWFARM"));
+            this.measure("findWaterOrdersByFarmId", () -> this.repository.findWaterOrdersByFarmId("NEWFARM"));
+            this.measure("findOverlappingOrder of new farm", () -> this.repository
+                    .findOverlappingOrder("NEWFARM", this.startDateTime, Duration.ofMinutes(30)));
+        }
+    }
+
+    private void measure(String name, Lookup lookup) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        int results = 0;
+        int exceptions = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            try {
+                results += lookup.lookUp() == null ? 0 : 1;
+            } catch (Exception ex) {
+                exceptions++;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (results + exceptions != LOOKUPS) {
+            throw new IllegalStateException();
+        }
+        System.out.println(String.format("%-40s %12.1f %14.1f", name, (double) elapsedNanos / LOOKUPS,
+                (double) allocatedBytes / LOOKUPS));
+    }
+}
@@ -0,0 +1,151 @@
+package code.challenge.rubicon.services.repository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Measure how long JournaledOrderRepository takes to recover orders from its
+ * journal alone, and from a snapshot plus the journal after it. In the journal,
+ * half of the orders have a status update and a quarter have two, as if
+ * deliveries had been going on.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=OrderRecoveryBenchmark".
+ */
+public class OrderRecoveryBenchmark {
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int FARMS = 10_000;
+
+    private final LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    @DisplayName("Recovery time from the journal by number of orders")
+    public void benchmarkJournalRecovery() throws Exception {
+        System.out.println(String.format("%-12s %14s %16s", "orders", "journal (MB)", "recovery (ms)"));
+        for (int orderCount : new int[] { 1_000_000, 2_000_000 }) {
+            Path directory = Files.createDirectory(this.tempDirectory.resolve("journal-" + orderCount));
+            long journalBytes = this.writeJournal(directory, orderCount);
+
+            System.gc();
+            long startTime = System.nanoTime();
+            JournaledOrderRepository repository = new JournaledOrderRepository(directory, SEGMENT_SIZE);
+            long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+            int recoveredCount = repository.getAllOrders().size();
+            repository.close();
+            if (recoveredCount != orderCount) {
+                throw new AssertionError("Recovered " + recoveredCount + " of " + orderCount + " orders");
+            }
+
+            System.out.println(String.format("%-12d %14d %16d", orderCount, journalBytes / (1024 * 1024),
+                    elapsedMillis));
+        }
+    }
+
+    @Test
+    @DisplayName("Recovery time from a snapshot and the journal tail by number of orders")
+    public void benchmarkSnapshotRecovery() throws Exception {
+        System.out.println(String.format("%-12s %14s %12s %16s", "orders", "snapshot (MB)", "tail records",
+                "recovery (ms)"));
+        for (int orderCount : new int[] { 1_000_000, 10_000_000 }) {
+            Path directory = Files.createDirectory(this.tempDirectory.resolve("snapshot-" + orderCount));
+            long snapshotBytes = this.writeSnapshot(directory, orderCount);
+            int tailRecordCount = this.writeJournalTail(directory, orderCount);
+
+            System.gc();
+            long startTime = System.nanoTime();
+            JournaledOrderRepository repository = new JournaledOrderRepository(directory, SEGMENT_SIZE);
+            long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+            int recoveredCount = repository.getAllOrders().size();
+            repository.close();
+            if (recoveredCount != orderCount) {
+                throw new AssertionError("Recovered " + recoveredCount + " of " + orderCount + " orders");
+            }
+
+            System.out.println(String.format("%-12d %14d %12d %16d", orderCount, snapshotBytes / (1024 * 1024),
+                    tailRecordCount, elapsedMillis));
+        }
+    }
+
+    /**
+     * Write a snapshot of the orders taken at the start of an empty journal,
+     * then return its size in bytes.
+     */
+    private long writeSnapshot(Path directory, int orderCount) throws Exception {
+        try (OrderSnapshot.Writer writer = OrderSnapshot.create(directory, 0)) {
+            for (int farm = 0; farm < FARMS; farm++) {
+                String farmId = "farm" + farm;
+                List<WaterOrder> farmOrders = new ArrayList<>();
+                for (int i = farm; i < orderCount; i += FARMS) {
+                    farmOrders.add(this.newOrder(farmId, i, i % 2 == 0 ? WaterOrder.OrderStatus.DELIVERED
+                            : WaterOrder.OrderStatus.REQUESTED));
+                }
+                writer.writeFarm(farmId, farmOrders);
+            }
+            writer.commit();
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Write status updates of 1% of the orders to the journal after the
+     * snapshot, then return the number of records.
+     */
+    private int writeJournalTail(Path directory, int orderCount) throws Exception {
+        OrderJournal journal = OrderJournal.open(directory, SEGMENT_SIZE, null);
+        int recordCount = 0;
+        for (int i = 1; i < orderCount; i += 100) {
+            journal.appendStatusUpdated("farm" + (i % FARMS) + ":" + i, WaterOrder.OrderStatus.IN_PROGRESS);
+            recordCount++;
+        }
+        journal.close();
+        return recordCount;
+    }
+
+    private WaterOrder newOrder(String farmId, int i, WaterOrder.OrderStatus status) {
+        // Each farm has one order per hour.
+        return WaterOrder.restore(farmId + ":" + i, farmId, this.baseTime.plusHours(i / FARMS),
+                Duration.ofMinutes(30), status);
+    }
+
+    /**
+     * Write records of the orders straight to the journal, then return the
+     * number of bytes written.
+     */
+    private long writeJournal(Path directory, int orderCount) throws Exception {
+        OrderJournal journal = OrderJournal.open(directory, SEGMENT_SIZE, null);
+        for (int i = 0; i < orderCount; i++) {
+            String farmId = "farm" + (i % FARMS);
+            String orderId = farmId + ":" + i;
+            journal.appendOrderCreated(this.newOrder(farmId, i, WaterOrder.OrderStatus.REQUESTED));
+            if (i % 2 == 0) {
+                journal.appendStatusUpdated(orderId, WaterOrder.OrderStatus.IN_PROGRESS);
+            }
+            if (i % 4 == 0) {
+                journal.appendStatusUpdated(orderId, WaterOrder.OrderStatus.DELIVERED);
+            }
+        }
+        journal.close();
+
+        long journalBytes = 0;
+        for (Path segmentFile : Files.newDirectoryStream(directory)) {
+            journalBytes += Files.size(segmentFile);
+        }
+        return journalBytes;
+    }
+}
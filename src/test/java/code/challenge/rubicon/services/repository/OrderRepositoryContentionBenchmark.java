@@ -0,0 +1,115 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Measure throughput of repository implementations under contention. Each
+ * thread works on its own farms with a mix of creates, overlap checks, order
+ * lookups and status updates, the same calls a service makes for a POST and
+ * for scheduler ticks.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=OrderRepositoryContentionBenchmark".
+ */
+public class OrderRepositoryContentionBenchmark {
+
+    private static final int OPERATIONS_PER_THREAD = 200_000;
+    private static final int FARMS_PER_THREAD = 100;
+
+    @Test
+    @DisplayName("Throughput of HashMapOrderRepository and ConcurrentOrderRepository by thread count")
+    public void benchmarkContention() throws Exception {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(Runtime.getRuntime().availableProcessors());
+
+        // WaterOrder logs every status change on console. Discard it while
+        // measuring, otherwise console I/O is what gets measured.
+        PrintStream console = System.out;
+        OrderLifecycleLog.install(new OrderLifecycleLog(OrderLifecycleLog.DEFAULT_CAPACITY,
+                OrderLifecycleLog.DEFAULT_BATCH_SIZE, OrderLifecycleLog.OverflowPolicy.BLOCK,
+                new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+                })));
+        try {
+            console.println(String.format("%-28s %8s %16s", "repository", "threads", "ops/sec"));
+            for (int threads : threadCounts) {
+                console.println(String.format("%-28s %8d %16.0f", "HashMapOrderRepository", threads,
+                        this.measure(HashMapOrderRepository::new, threads)));
+                console.println(String.format("%-28s %8d %16.0f", "ConcurrentOrderRepository", threads,
+                        this.measure(ConcurrentOrderRepository::new, threads)));
+            }
+        } finally {
+            OrderLifecycleLog.install(null);
+        }
+    }
+
+    private double measure(Supplier<IWaterOrderRepository> repositorySupplier, int threads) throws Exception {
+        IWaterOrderRepository repository = repositorySupplier.get();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int threadIndex = t;
+                futures.add(executor.submit(() -> {
+                    startSignal.await();
+                    this.runWorkload(repository, threadIndex);
+                    return null;
+                }));
+            }
+            long startNanos = System.nanoTime();
+            startSignal.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return (double) OPERATIONS_PER_THREAD * threads / elapsedNanos * 1_000_000_000L;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void runWorkload(IWaterOrderRepository repository, int threadIndex) throws Exception {
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+            String farmId = "farm" + threadIndex + "-" + (i % FARMS_PER_THREAD);
+            LocalDateTime startTime = baseTime.plusMinutes(i);
+            switch (i % 4) {
+            case 0:
+                orderIds.add(repository.addWaterOrder(new WaterOrder("", farmId, startTime, Duration.ofSeconds(30),
+                        WaterOrder.OrderStatus.REQUESTED)).getOrderId());
+                break;
+            case 1:
+                repository.findOverlappingOrder(farmId, startTime, Duration.ofSeconds(30));
+                break;
+            case 2:
+                repository.getWaterOrderByOrderId(orderIds.get(orderIds.size() - 1));
+                break;
+            default:
+                repository.updateOrderstatus(orderIds.get(orderIds.size() - 1), WaterOrder.OrderStatus.IN_PROGRESS);
+                break;
+            }
+        }
+    }
+}
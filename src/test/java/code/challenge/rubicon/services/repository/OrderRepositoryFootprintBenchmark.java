@@ -0,0 +1,90 @@
+package code.challenge.rubicon.services.repository;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Measure heap taken per stored order by each in-memory repository. One
+ * million orders of ten thousand farms are added, and the heap in use after a
+ * full GC is compared with the heap in use once the repository is dropped.
+ * How long a full GC takes with the repository on the heap is shown too.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=OrderRepositoryFootprintBenchmark".
+ */
+public class OrderRepositoryFootprintBenchmark {
+
+    private static final int ORDERS = 1_000_000;
+    private static final int FARMS = 10_000;
+
+    @Test
+    @DisplayName("Heap per stored order of HashMap, Concurrent, Compact and OffHeap repositories")
+    public void benchmarkFootprint() {
+        // WaterOrder logs every status change on console. Discard it while
+        // measuring.
+        PrintStream console = System.out;
+        OrderLifecycleLog lifecycleLog = new OrderLifecycleLog(OrderLifecycleLog.DEFAULT_CAPACITY,
+                OrderLifecycleLog.DEFAULT_BATCH_SIZE, OrderLifecycleLog.OverflowPolicy.BLOCK,
+                new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+                }));
+        OrderLifecycleLog.install(lifecycleLog);
+        try {
+            console.println(String.format("%-28s %12s %16s %14s", "repository", "orders", "bytes/order",
+                    "full GC (ms)"));
+            this.measure(console, lifecycleLog, "HashMapOrderRepository", HashMapOrderRepository::new);
+            this.measure(console, lifecycleLog, "ConcurrentOrderRepository", ConcurrentOrderRepository::new);
+            this.measure(console, lifecycleLog, "CompactOrderRepository", CompactOrderRepository::new);
+            this.measure(console, lifecycleLog, "OffHeapOrderRepository", OffHeapOrderRepository::new);
+        } finally {
+            OrderLifecycleLog.install(null);
+        }
+    }
+
+    private void measure(PrintStream console, OrderLifecycleLog lifecycleLog, String name,
+            Supplier<IWaterOrderRepository> repositorySupplier) {
+        // Held in an array so that it can be dropped for the second measurement.
+        IWaterOrderRepository[] repository = { repositorySupplier.get() };
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+        for (int i = 0; i < ORDERS; i++) {
+            // Farm ids are new Strings as they would be when parsed from
+            // requests.
+            repository[0].addWaterOrder(new WaterOrder("", new String("farm" + (i % FARMS)),
+                    baseTime.plusMinutes(i / FARMS * 30), Duration.ofMinutes(20), WaterOrder.OrderStatus.REQUESTED));
+        }
+        // Heap in use before filling the repository may still hold garbage of
+        // the previous measurement, so compare with and without the repository
+        // instead.
+        long usedWithRepository = this.usedHeap(lifecycleLog);
+        long gcStartTime = System.nanoTime();
+        System.gc();
+        long gcMillis = (System.nanoTime() - gcStartTime) / 1_000_000;
+        repository[0] = null;
+        long usedWithoutRepository = this.usedHeap(lifecycleLog);
+
+        console.println(String.format("%-28s %12d %16.1f %14d", name, ORDERS,
+                (double) (usedWithRepository - usedWithoutRepository) / ORDERS, gcMillis));
+    }
+
+    private long usedHeap(OrderLifecycleLog lifecycleLog) {
+        // Published events hold order ids until they're written.
+        while (lifecycleLog.getPendingCount() > 0) {
+            Thread.yield();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
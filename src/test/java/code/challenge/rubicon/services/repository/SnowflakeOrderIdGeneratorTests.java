@@ -0,0 +1,133 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class SnowflakeOrderIdGeneratorTests {
+
+    private static final int NODE_ID = 5;
+
+    private Clock clock;
+    private SnowflakeOrderIdGenerator generator;
+
+    @BeforeEach
+    public void initEach() {
+        this.clock = mock(Clock.class);
+        when(this.clock.millis()).thenReturn(SnowflakeOrderIdGenerator.EPOCH_MILLIS + 1000);
+        this.generator = new SnowflakeOrderIdGenerator(NODE_ID, Optional.of(this.clock));
+    }
+
+    private long timestampOf(long id) {
+        return id >>> (SnowflakeOrderIdGenerator.NODE_ID_BITS + SnowflakeOrderIdGenerator.SEQUENCE_BITS);
+    }
+
+    private long nodeIdOf(long id) {
+        return id >>> SnowflakeOrderIdGenerator.SEQUENCE_BITS & SnowflakeOrderIdGenerator.MAX_NODE_ID;
+    }
+
+    private long sequenceOf(long id) {
+        return id & ((1 << SnowflakeOrderIdGenerator.SEQUENCE_BITS) - 1);
+    }
+
+    @Test
+    @DisplayName("Id is made of milliseconds since the epoch, node id and sequence")
+    public void testIdLayout() {
+        long firstId = this.generator.nextId();
+        long secondId = this.generator.nextId();
+
+        assertThat(this.timestampOf(firstId)).isEqualTo(1000);
+        assertThat(this.nodeIdOf(firstId)).isEqualTo(NODE_ID);
+        assertThat(this.sequenceOf(firstId)).isEqualTo(0);
+        assertThat(this.sequenceOf(secondId)).isEqualTo(1);
+        assertThat(this.generator.generateOrderId(null)).isEqualTo(Long.toString(secondId + 1));
+    }
+
+    @Test
+    @DisplayName("The next millisecond is taken once the sequence of a millisecond runs out")
+    public void testSequenceOverflow() {
+        long lastId = 0;
+        for (int i = 0; i < (1 << SnowflakeOrderIdGenerator.SEQUENCE_BITS); i++) {
+            lastId = this.generator.nextId();
+        }
+        long nextId = this.generator.nextId();
+
+        assertThat(this.timestampOf(lastId)).isEqualTo(1000);
+        assertThat(this.timestampOf(nextId)).isEqualTo(1001);
+        assertThat(this.sequenceOf(nextId)).isEqualTo(0);
+        assertThat(this.nodeIdOf(nextId)).isEqualTo(NODE_ID);
+    }
+
+    @Test
+    @DisplayName("Ids keep increasing when the clock goes back")
+    public void testClockGoingBack() {
+        long firstId = this.generator.nextId();
+        when(this.clock.millis()).thenReturn(SnowflakeOrderIdGenerator.EPOCH_MILLIS + 500);
+        long secondId = this.generator.nextId();
+        when(this.clock.millis()).thenReturn(SnowflakeOrderIdGenerator.EPOCH_MILLIS + 2000);
+        long thirdId = this.generator.nextId();
+
+        assertThat(secondId).isGreaterThan(firstId);
+        assertThat(this.timestampOf(secondId)).isEqualTo(1000);
+        assertThat(thirdId).isGreaterThan(secondId);
+        assertThat(this.timestampOf(thirdId)).isEqualTo(2000);
+        assertThat(this.sequenceOf(thirdId)).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Ids generated from multiple threads are unique")
+    public void testConcurrentIds() throws Exception {
+        SnowflakeOrderIdGenerator systemClockGenerator = new SnowflakeOrderIdGenerator(NODE_ID, Optional.empty());
+        int threadCount = 4;
+        int idsPerThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    long[] ids = new long[idsPerThread];
+                    for (int j = 0; j < idsPerThread; j++) {
+                        ids[j] = systemClockGenerator.nextId();
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> allIds = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int j = 0; j < ids.length; j++) {
+                    // Increasing within a thread, unique across threads.
+                    assertThat(j == 0 || ids[j] > ids[j - 1]).isTrue();
+                    allIds.add(ids[j]);
+                }
+            }
+            assertThat(allIds).hasSize(threadCount * idsPerThread);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Node id out of range is rejected")
+    public void testInvalidNodeId() {
+        assertThatThrownBy(() -> new SnowflakeOrderIdGenerator(SnowflakeOrderIdGenerator.MAX_NODE_ID + 1,
+                Optional.empty())).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SnowflakeOrderIdGenerator(-1, Optional.empty()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
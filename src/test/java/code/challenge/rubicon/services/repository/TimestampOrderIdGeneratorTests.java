@@ -0,0 +1,56 @@
+package code.challenge.rubicon.services.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.model.WaterOrder;
+
+public class TimestampOrderIdGeneratorTests {
+
+    private final TimestampOrderIdGenerator generator = new TimestampOrderIdGenerator();
+
+    private String generateOrderId(String farmId, LocalDateTime startDateTime) {
+        return this.generator.generateOrderId(
+                new WaterOrder("", farmId, startDateTime, Duration.ofMinutes(10), WaterOrder.OrderStatus.REQUESTED));
+    }
+
+    @Test
+    @DisplayName("Order id is farm id and start time down to the second")
+    public void testGenerateOrderId() {
+        assertThat(this.generateOrderId("MYFARM", LocalDateTime.of(2020, 1, 16, 10, 10, 10, 999_000_000)))
+                .isEqualTo("MYFARM:20200116101010");
+        assertThat(this.generateOrderId("a:b", LocalDateTime.of(987, 12, 31, 23, 59, 0)))
+                .isEqualTo("a:b:09871231235900");
+    }
+
+    @Test
+    @DisplayName("Order ids are the same as the ones formatted with DateTimeFormatter before")
+    public void testSameAsDateTimeFormatter() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+        LocalDateTime startDateTime = LocalDateTime.of(1999, 12, 31, 0, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            startDateTime = startDateTime.plusSeconds(7919L * i);
+            assertThat(this.generateOrderId("farm", startDateTime))
+                    .isEqualTo("farm:" + formatter.format(startDateTime));
+        }
+        LocalDateTime farFuture = LocalDateTime.of(12020, 1, 1, 0, 0, 0);
+        assertThat(this.generateOrderId("farm", farFuture)).isEqualTo("farm:" + formatter.format(farFuture));
+    }
+
+    @Test
+    @DisplayName("Generated order ids parse back to farm id and start time")
+    public void testParse() {
+        LocalDateTime startDateTime = LocalDateTime.of(2020, 1, 16, 10, 10, 10);
+        TimestampOrderId orderId = TimestampOrderId.parse(this.generateOrderId("a:b", startDateTime));
+
+        assertThat(orderId.getFarmId()).isEqualTo("a:b");
+        assertThat(orderId.getStartTime()).isEqualTo(DeliveryIntervalIndex.toEpochSecond(startDateTime));
+        assertThat(TimestampOrderId.parse("1234567890")).isNull();
+    }
+}
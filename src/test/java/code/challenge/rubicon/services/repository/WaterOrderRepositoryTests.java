@@ -5,18 +5,29 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.exceptions.OrderValidityException;
+import code.challenge.rubicon.model.BatchOrderResult;
 import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.model.WaterOrderQuery;
 
 public class WaterOrderRepositoryTests {
 
-    private HashMapOrderRepository repository;
+    protected IWaterOrderRepository repository;
 
     private String farmdIdToFind = "TheFarm";
     private final WaterOrder order1 = new WaterOrder("", "farmId1", LocalDateTime.now(), Duration.ofSeconds(10),
@@ -28,7 +39,11 @@ public class WaterOrderRepositoryTests {
 
     @BeforeEach
     public void initEach() {
-        this.repository = new HashMapOrderRepository();
+        this.repository = this.createRepository();
+    }
+
+    protected IWaterOrderRepository createRepository() {
+        return new HashMapOrderRepository();
     }
 
     @Test
@@ -64,6 +79,115 @@ public class WaterOrderRepositoryTests {
         assertThat(allOrders.contains(newOrder3)).isTrue();
     }
 
+    @Test
+    @DisplayName("getOrdersPage pages through every order once")
+    public void testGetOrdersPage() {
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+        List<WaterOrder> addedOrders = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            addedOrders.add(this.repository.addWaterOrder(new WaterOrder("", "farm" + (i % 3),
+                    baseTime.plusHours(i), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED)));
+        }
+
+        List<WaterOrder> pagedOrders = new ArrayList<>();
+        List<WaterOrder> page = this.repository.getOrdersPage(null, 3);
+        while (!page.isEmpty()) {
+            assertThat(page.size()).isLessThanOrEqualTo(3);
+            pagedOrders.addAll(page);
+            page = this.repository.getOrdersPage(page.get(page.size() - 1).getOrderId(), 3);
+        }
+
+        assertThat(pagedOrders).containsExactlyInAnyOrderElementsOf(addedOrders);
+        assertThat(this.repository.getOrdersPage(null, 100)).hasSize(20);
+    }
+
+    @Test
+    @DisplayName("getFarmVersion changes when an order of the farm is added or its status changes")
+    public void testGetFarmVersion() throws OrderNotFoundException {
+        assertThat(this.repository.getFarmVersion(this.order1.getFarmId())).isEqualTo(0);
+
+        WaterOrder newOrder = this.repository.addWaterOrder(this.order1);
+        long addedVersion = this.repository.getFarmVersion(newOrder.getFarmId());
+        assertThat(addedVersion).isNotEqualTo(0);
+        long otherFarmVersion = this.repository.getFarmVersion(this.order2.getFarmId());
+
+        this.repository.updateOrderstatus(newOrder.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+        long updatedVersion = this.repository.getFarmVersion(newOrder.getFarmId());
+        assertThat(updatedVersion).isNotEqualTo(addedVersion);
+        this.repository.cancelWaterOrder(newOrder.getOrderId());
+        assertThat(this.repository.getFarmVersion(newOrder.getFarmId())).isNotIn(addedVersion, updatedVersion);
+
+        assertThat(this.repository.getFarmVersion(this.order2.getFarmId())).isEqualTo(otherFarmVersion);
+    }
+
+    @Test
+    @DisplayName("findOrders finds orders by start time range, status and farm sorted by start time")
+    public void testFindOrders() throws OrderNotFoundException {
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+        List<WaterOrder> addedOrders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            addedOrders.add(this.repository.addWaterOrder(new WaterOrder("", "farm" + (i % 2),
+                    baseTime.plusHours(10 - i), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED)));
+        }
+        // Orders 6, 8 and 9 start at 14:00, 12:00 and 11:00.
+        for (int i : new int[] { 6, 8, 9 }) {
+            this.repository.updateOrderstatus(addedOrders.get(i).getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+        }
+        this.repository.updateOrderstatus(addedOrders.get(8).getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+        addedOrders.replaceAll(order -> {
+            try {
+                return this.repository.getWaterOrderByOrderId(order.getOrderId());
+            } catch (OrderNotFoundException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+
+        // [11:00, 14:00) holds orders 9 to 7 of which 7 is in farm1.
+        assertThat(this.repository.findOrders(new WaterOrderQuery(null, baseTime.plusHours(1),
+                baseTime.plusHours(4), null))).containsExactly(addedOrders.get(9), addedOrders.get(8),
+                        addedOrders.get(7));
+        assertThat(this.repository.findOrders(new WaterOrderQuery(null, null, null,
+                WaterOrder.OrderStatus.IN_PROGRESS))).containsExactly(addedOrders.get(9), addedOrders.get(6));
+        assertThat(this.repository.findOrders(new WaterOrderQuery(null, baseTime.plusHours(2), null,
+                WaterOrder.OrderStatus.IN_PROGRESS))).containsExactly(addedOrders.get(6));
+        assertThat(this.repository.findOrders(new WaterOrderQuery("farm1", baseTime.plusHours(1),
+                baseTime.plusHours(4), null))).containsExactly(addedOrders.get(9), addedOrders.get(7));
+        assertThat(this.repository.findOrders(new WaterOrderQuery("farm0", null, null,
+                WaterOrder.OrderStatus.DELIVERED))).containsExactly(addedOrders.get(8));
+        assertThat(this.repository.findOrders(new WaterOrderQuery(null, null, null,
+                WaterOrder.OrderStatus.CANCELLED))).isEmpty();
+        assertThat(this.repository.findOrders(new WaterOrderQuery("noFarm", null, null, null))).isEmpty();
+        assertThat(this.repository.findOrders(new WaterOrderQuery(null, baseTime.plusHours(4),
+                baseTime.plusHours(1), null))).isEmpty();
+        assertThat(this.repository.findOrders(new WaterOrderQuery(null, null, null, null)))
+                .hasSize(10).isSortedAccordingTo(java.util.Comparator.comparing(WaterOrder::getStartDateTime));
+    }
+
+    @Test
+    @DisplayName("findOrders of a farm finds its cancelled orders and orders added out of start time order")
+    public void testFindOrdersOfFarm() throws OrderNotFoundException {
+        LocalDateTime baseTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+        WaterOrder laterOrder = this.repository.addWaterOrder(new WaterOrder("", "farm1", baseTime.plusHours(2),
+                Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+        WaterOrder cancelledOrder = this.repository.addWaterOrder(new WaterOrder("", "farm1", baseTime,
+                Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+        WaterOrder middleOrder = this.repository.addWaterOrder(new WaterOrder("", "farm1", baseTime.plusHours(1),
+                Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+        this.repository.addWaterOrder(new WaterOrder("", "farm2", baseTime.plusHours(1), Duration.ofMinutes(30),
+                WaterOrder.OrderStatus.REQUESTED));
+        this.repository.cancelWaterOrder(cancelledOrder.getOrderId());
+        cancelledOrder = this.repository.getWaterOrderByOrderId(cancelledOrder.getOrderId());
+
+        assertThat(this.repository.findOrders(new WaterOrderQuery("farm1", baseTime, null, null)))
+                .containsExactly(cancelledOrder, middleOrder, laterOrder);
+        assertThat(this.repository.findOrders(new WaterOrderQuery("farm1", null, baseTime.plusHours(2),
+                WaterOrder.OrderStatus.CANCELLED))).containsExactly(cancelledOrder);
+        assertThat(this.repository.findOrders(new WaterOrderQuery("farm1", baseTime.plusMinutes(1),
+                baseTime.plusHours(2), WaterOrder.OrderStatus.REQUESTED))).containsExactly(middleOrder);
+        assertThat(this.repository.findOrders(new WaterOrderQuery("farm1", baseTime.plusHours(2),
+                baseTime.plusHours(1), null))).isEmpty();
+    }
+
     @Test
     @DisplayName("getWaterOrderByFarmId returns all the orders matching the given farmId")
     public void testGetWaterOrderByFrameId() throws OrderNotFoundException {
@@ -78,6 +202,20 @@ public class WaterOrderRepositoryTests {
         assertThat(orders.contains(newOrder3)).isTrue();
     }
 
+    @Test
+    @DisplayName("getWaterOrderByFarmId returns orders with the status updated by updateOrderstatus")
+    public void testGetWaterOrderByFarmIdAfterStatusUpdate() throws OrderNotFoundException {
+        WaterOrder newOrder2 = this.repository.addWaterOrder(this.order2);
+        this.repository.addWaterOrder(this.order3);
+
+        this.repository.updateOrderstatus(newOrder2.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+        List<WaterOrder> orders = this.repository.getWaterOrderByFarmrId(this.farmdIdToFind);
+
+        assertThat(orders.size()).isEqualTo(2);
+        assertThat(orders.stream().filter(order -> order.getOrderId().equals(newOrder2.getOrderId())).findAny().get()
+                .getStatus()).isEqualTo(WaterOrder.OrderStatus.IN_PROGRESS);
+    }
+
     @Test
     @DisplayName("getWaterOrderByFarmId  throws OrderNotFoundException if the order can't be found")
     public void testGetWaterOrderByFrameIdThrowsOrderNotFoundException() throws OrderNotFoundException {
@@ -89,6 +227,52 @@ public class WaterOrderRepositoryTests {
                 .hasFieldOrPropertyWithValue("idName", "farmId");
     }
 
+    @Test
+    @DisplayName("findWaterOrderByOrderId and findWaterOrdersByFarmId answer missing orders with empty results")
+    public void testFindWaterOrdersWithoutException() {
+        WaterOrder newOrder = this.repository.addWaterOrder(this.order2);
+
+        assertThat(this.repository.findWaterOrderByOrderId(newOrder.getOrderId())).contains(newOrder);
+        assertThat(this.repository.findWaterOrdersByFarmId(this.farmdIdToFind)).containsExactly(newOrder);
+        assertThat(this.repository.findWaterOrderByOrderId("unknownOrderId")).isEmpty();
+        assertThat(this.repository.findWaterOrderByOrderId("farmId1:20200116101010")).isEmpty();
+        assertThat(this.repository.findWaterOrdersByFarmId("farmId1")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("updateOrderstatuses updates every order found and skips unknown ones")
+    public void testUpdateOrderstatuses() throws OrderNotFoundException {
+        WaterOrder newOrder1 = this.repository.addWaterOrder(this.order1);
+        WaterOrder newOrder2 = this.repository.addWaterOrder(this.order2);
+
+        int updatedCount = this.repository.updateOrderstatuses(
+                Arrays.asList(newOrder1.getOrderId(), "unknownOrderId", newOrder2.getOrderId()),
+                WaterOrder.OrderStatus.IN_PROGRESS);
+
+        assertThat(updatedCount).isEqualTo(2);
+        assertThat(this.repository.getWaterOrderByOrderId(newOrder1.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.IN_PROGRESS);
+        assertThat(this.repository.getWaterOrderByOrderId(newOrder2.getOrderId()).getStatus())
+                .isEqualTo(WaterOrder.OrderStatus.IN_PROGRESS);
+    }
+
+    @Test
+    @DisplayName("streamPendingOrders returns orders that aren't delivered or cancelled")
+    public void testStreamPendingOrders() throws OrderNotFoundException {
+        WaterOrder requested = this.repository.addWaterOrder(this.order1);
+        WaterOrder inProgress = this.repository.addWaterOrder(this.order2);
+        WaterOrder delivered = this.repository.addWaterOrder(this.order3);
+        this.repository.updateOrderstatus(inProgress.getOrderId(), WaterOrder.OrderStatus.IN_PROGRESS);
+        this.repository.updateOrderstatus(delivered.getOrderId(), WaterOrder.OrderStatus.DELIVERED);
+        // Repositories may return copies of orders, so get the updated one.
+        inProgress = this.repository.getWaterOrderByOrderId(inProgress.getOrderId());
+
+        assertThat(this.repository.streamPendingOrders()).containsExactlyInAnyOrder(requested, inProgress);
+
+        this.repository.cancelWaterOrder(requested.getOrderId());
+        assertThat(this.repository.streamPendingOrders()).containsExactly(inProgress);
+    }
+
     @Test
     @DisplayName("cancelWaterOrder updates order's status to OrderStatus.CANCELLED")
     public void testCancelWaterOrderUpdatesOrderStatus() throws OrderNotFoundException {
@@ -108,4 +292,162 @@ public class WaterOrderRepositoryTests {
                 .isInstanceOf(OrderNotFoundException.class).hasMessage("Order ID 'unknownOrderId' doesn't exist.")
                 .hasFieldOrPropertyWithValue("idName", "orderId");
     }
+
+    @Test
+    @DisplayName("findOverlappingOrder finds order whose delivery time overlaps the given start time")
+    public void testFindOverlappingOrderStartTimeOverlaps() {
+        WaterOrder existingOrder = this.repository.addWaterOrder(new WaterOrder("", "farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 10, 10), Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED));
+
+        Optional<WaterOrder> overlappingOrder = this.repository.findOverlappingOrder("farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 11, 0), Duration.ofSeconds(30));
+
+        assertThat(overlappingOrder).contains(existingOrder);
+    }
+
+    @Test
+    @DisplayName("findOverlappingOrder finds order whose delivery time overlaps the given end time")
+    public void testFindOverlappingOrderEndTimeOverlaps() {
+        WaterOrder existingOrder = this.repository.addWaterOrder(new WaterOrder("", "farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 10, 10), Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED));
+
+        Optional<WaterOrder> overlappingOrder = this.repository.findOverlappingOrder("farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 10, 0), Duration.ofSeconds(30));
+
+        assertThat(overlappingOrder).contains(existingOrder);
+    }
+
+    @Test
+    @DisplayName("findOverlappingOrder finds order whose delivery time contains the given delivery time")
+    public void testFindOverlappingOrderContained() {
+        WaterOrder existingOrder = this.repository.addWaterOrder(new WaterOrder("", "farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 0, 0), Duration.ofHours(1), WaterOrder.OrderStatus.REQUESTED));
+
+        Optional<WaterOrder> overlappingOrder = this.repository.findOverlappingOrder("farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 20, 0), Duration.ofMinutes(10));
+
+        assertThat(overlappingOrder).contains(existingOrder);
+    }
+
+    @Test
+    @DisplayName("findOverlappingOrder returns empty Optional if there's no overlapping order of the farm")
+    public void testFindOverlappingOrderNoOverlaps() {
+        this.repository.addWaterOrder(new WaterOrder("", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 10, 10),
+                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED));
+        this.repository.addWaterOrder(new WaterOrder("", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 13, 0),
+                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED));
+        this.repository.addWaterOrder(new WaterOrder("", "farmId2", LocalDateTime.of(2020, 1, 1, 10, 11, 30),
+                Duration.ofSeconds(30), WaterOrder.OrderStatus.REQUESTED));
+
+        assertThat(this.repository.findOverlappingOrder("farmId1", LocalDateTime.of(2020, 1, 1, 10, 11, 30),
+                Duration.ofSeconds(30))).isEmpty();
+        assertThat(this.repository.findOverlappingOrder("unknownFarm", LocalDateTime.of(2020, 1, 1, 10, 11, 30),
+                Duration.ofSeconds(30))).isEmpty();
+    }
+
+    @Test
+    @DisplayName("findOverlappingOrder doesn't return cancelled order")
+    public void testFindOverlappingOrderIgnoresCancelledOrder() throws OrderNotFoundException {
+        WaterOrder existingOrder = this.repository.addWaterOrder(new WaterOrder("", "farmId1",
+                LocalDateTime.of(2020, 1, 1, 10, 10, 10), Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED));
+
+        this.repository.cancelWaterOrder(existingOrder.getOrderId());
+
+        assertThat(this.repository.findOverlappingOrder("farmId1", LocalDateTime.of(2020, 1, 1, 10, 11, 0),
+                Duration.ofSeconds(30))).isEmpty();
+    }
+
+    /**
+     * Validation rejecting orders that overlap existing orders, same as
+     * DeliveryTimeOverlapValidator.
+     */
+    private Optional<String> checkOverlap(WaterOrder waterOrder) {
+        return this.repository
+                .findOverlappingOrder(waterOrder.getFarmId(), waterOrder.getStartDateTime(), waterOrder.getDuration())
+                .map(order -> "Overlaps " + order.getOrderId());
+    }
+
+    @Test
+    @DisplayName("reserveWaterOrder adds the order if validation passes")
+    public void testReserveWaterOrder() throws OrderValidityException, OrderNotFoundException {
+        WaterOrder newOrder = this.repository.reserveWaterOrder(this.order2, this::checkOverlap);
+
+        assertThat(this.repository.getWaterOrderByOrderId(newOrder.getOrderId())).isEqualTo(newOrder);
+        assertThat(newOrder.getStatus()).isEqualTo(WaterOrder.OrderStatus.REQUESTED);
+    }
+
+    @Test
+    @DisplayName("reserveWaterOrder throws OrderValidityException and doesn't add the order if validation fails")
+    public void testReserveWaterOrderValidationFails() {
+        Function<WaterOrder, Optional<String>> failingValidator = order -> Optional.of("Not valid");
+
+        assertThatThrownBy(() -> this.repository.reserveWaterOrder(this.order2, failingValidator))
+                .isInstanceOf(OrderValidityException.class).hasMessage("Not valid");
+        assertThat(this.repository.getAllOrders()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("reserveWaterOrders validates each order against existing orders and the orders added before it")
+    public void testReserveWaterOrders() throws OrderNotFoundException {
+        LocalDateTime startTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+        WaterOrder existingOrder = this.repository.addWaterOrder(new WaterOrder("", this.farmdIdToFind, startTime,
+                Duration.ofHours(1), WaterOrder.OrderStatus.REQUESTED));
+
+        List<WaterOrder> newOrders = new ArrayList<>();
+        // Overlaps the existing order.
+        newOrders.add(new WaterOrder("", this.farmdIdToFind, startTime.plusMinutes(30), Duration.ofHours(1), null));
+        newOrders.add(new WaterOrder("", this.farmdIdToFind, startTime.plusHours(2), Duration.ofHours(1), null));
+        // Overlaps the order added just before.
+        newOrders.add(new WaterOrder("", this.farmdIdToFind, startTime.plusHours(2).plusMinutes(30),
+                Duration.ofHours(1), null));
+        newOrders.add(new WaterOrder("", this.farmdIdToFind, startTime.plusHours(4), Duration.ofHours(1), null));
+
+        List<BatchOrderResult> results = this.repository.reserveWaterOrders(newOrders, this::checkOverlap);
+
+        assertThat(results).extracting(BatchOrderResult::getResult).containsExactly(BatchOrderResult.Result.REJECTED,
+                BatchOrderResult.Result.CREATED, BatchOrderResult.Result.REJECTED, BatchOrderResult.Result.CREATED);
+        assertThat(results.get(0).getMessage()).isEqualTo("Overlaps " + existingOrder.getOrderId());
+        assertThat(results.get(0).getOrder()).isSameAs(newOrders.get(0));
+        assertThat(results.get(2).getMessage()).isEqualTo("Overlaps " + results.get(1).getOrder().getOrderId());
+        assertThat(results.get(3).getOrder().getStatus()).isEqualTo(WaterOrder.OrderStatus.REQUESTED);
+        assertThat(this.repository.getWaterOrderByOrderId(results.get(3).getOrder().getOrderId()))
+                .isEqualTo(results.get(3).getOrder());
+        assertThat(this.repository.getWaterOrderByFarmrId(this.farmdIdToFind).size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Only one of concurrent reserveWaterOrder calls for overlapping delivery times succeeds")
+    public void testConcurrentReserveWaterOrderWithOverlappingTimes() throws Exception {
+        int threadCount = 8;
+        LocalDateTime startTime = LocalDateTime.of(2020, 1, 1, 10, 0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                // All orders overlap each other but start at different seconds.
+                WaterOrder order = new WaterOrder("", this.farmdIdToFind, startTime.plusSeconds(i),
+                        Duration.ofMinutes(10), WaterOrder.OrderStatus.REQUESTED);
+                futures.add(executor.submit(() -> {
+                    startSignal.await();
+                    try {
+                        this.repository.reserveWaterOrder(order, this::checkOverlap);
+                        return true;
+                    } catch (OrderValidityException ex) {
+                        return false;
+                    }
+                }));
+            }
+            startSignal.countDown();
+            int reservedCount = 0;
+            for (Future<Boolean> future : futures) {
+                reservedCount += future.get() ? 1 : 0;
+            }
+
+            assertThat(reservedCount).isEqualTo(1);
+            assertThat(this.repository.getWaterOrderByFarmrId(this.farmdIdToFind).size()).isEqualTo(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package code.challenge.rubicon.services.scheduler;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.services.repository.ConcurrentOrderRepository;
+import code.challenge.rubicon.services.repository.IWaterOrderRepository;
+
+/**
+ * Measure how long DeliveryScheduleRecovery takes to rebuild schedules of one
+ * million pending orders with each scheduler. A tenth of the orders ended and
+ * another tenth started while the service was down.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=DeliveryScheduleRecoveryBenchmark".
+ */
+public class DeliveryScheduleRecoveryBenchmark {
+
+    private static final int PENDING_ORDERS = 1_000_000;
+
+    private final LocalDateTime now = LocalDateTime.of(2020, 1, 10, 10, 10, 0);
+    private final Clock clock = Clock.fixed(this.now.atZone(ZoneId.systemDefault()).toInstant(),
+            ZoneId.systemDefault());
+
+    @Test
+    @DisplayName("Time to rebuild delivery schedules of one million pending orders")
+    public void benchmarkRecovery() throws Exception {
+        // WaterOrder logs every status change on console. Discard it while
+        // measuring.
+        PrintStream console = System.out;
+        OrderLifecycleLog.install(new OrderLifecycleLog(OrderLifecycleLog.DEFAULT_CAPACITY,
+                OrderLifecycleLog.DEFAULT_BATCH_SIZE, OrderLifecycleLog.OverflowPolicy.BLOCK,
+                new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+                })));
+        try {
+            console.println(String.format("%-30s %12s %12s %12s %14s", "scheduler", "delivered", "started",
+                    "scheduled", "recovery (ms)"));
+
+            ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+            IWaterOrderRepository repository = this.createRepository();
+            this.benchmark(console, "WaterOrderDeliveryScheduler", repository,
+                    new WaterOrderDeliveryScheduler(repository, Optional.of(executor), Optional.of(this.clock)));
+            executor.shutdownNow();
+
+            repository = this.createRepository();
+            this.benchmark(console, "TimingWheelDeliveryScheduler", repository, new TimingWheelDeliveryScheduler(
+                    repository, Optional.of(mock(ScheduledExecutorService.class)), Optional.of(this.clock)));
+        } finally {
+            OrderLifecycleLog.install(null);
+        }
+    }
+
+    private void benchmark(PrintStream console, String name, IWaterOrderRepository repository,
+            IWaterOrderDeliveryScheduler deliveryScheduler) {
+        DeliveryScheduleRecovery recovery = new DeliveryScheduleRecovery(repository, repository, deliveryScheduler,
+                Optional.of(this.clock), 1000);
+        System.gc();
+        long startTime = System.nanoTime();
+        recovery.recover();
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        console.println(String.format("%-30s %12d %12d %12d %14d", name, recovery.getDeliveredCount(),
+                recovery.getStartedCount(), recovery.getScheduledCount(), elapsedMillis));
+    }
+
+    private IWaterOrderRepository createRepository() {
+        IWaterOrderRepository repository = new ConcurrentOrderRepository();
+        for (int i = 0; i < PENDING_ORDERS; i++) {
+            // Every order is of its own farm so that none of them overlap.
+            LocalDateTime startDateTime;
+            if (i % 10 == 0) {
+                startDateTime = this.now.minusHours(2);
+            } else if (i % 10 == 1) {
+                startDateTime = this.now.minusMinutes(10);
+            } else {
+                startDateTime = this.now.plusDays(1).plusSeconds(i);
+            }
+            repository.addWaterOrder(new WaterOrder("", "farm" + i, startDateTime, Duration.ofMinutes(30),
+                    WaterOrder.OrderStatus.REQUESTED));
+        }
+        return repository;
+    }
+}
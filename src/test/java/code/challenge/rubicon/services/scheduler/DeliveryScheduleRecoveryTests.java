@@ -0,0 +1,114 @@
+package code.challenge.rubicon.services.scheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.services.repository.HashMapOrderRepository;
+import code.challenge.rubicon.services.repository.IWaterOrderRepository;
+
+public class DeliveryScheduleRecoveryTests {
+
+    private IWaterOrderRepository repository;
+    private IWaterOrderDeliveryScheduler deliveryScheduler;
+
+    private LocalDateTime FIXED_LOCAL_NOW = LocalDateTime.of(2020, 1, 10, 10, 10, 0);
+
+    private Clock fixedClock = Clock.fixed(this.FIXED_LOCAL_NOW.atZone(ZoneId.systemDefault()).toInstant(),
+            ZoneId.systemDefault());
+
+    @BeforeEach
+    public void initEach() {
+        this.repository = spy(new HashMapOrderRepository());
+        this.deliveryScheduler = mock(IWaterOrderDeliveryScheduler.class);
+    }
+
+    private DeliveryScheduleRecovery createRecovery(int batchSize) {
+        return new DeliveryScheduleRecovery(this.repository, this.repository, this.deliveryScheduler,
+                Optional.of(this.fixedClock), batchSize);
+    }
+
+    private WaterOrder addOrder(LocalDateTime startDateTime, Duration duration, WaterOrder.OrderStatus status)
+            throws OrderNotFoundException {
+        WaterOrder waterOrder = this.repository.addWaterOrder(
+                new WaterOrder("", "farmId1", startDateTime, duration, WaterOrder.OrderStatus.REQUESTED));
+        if (status != WaterOrder.OrderStatus.REQUESTED) {
+            this.repository.updateOrderstatus(waterOrder.getOrderId(), status);
+        }
+        return waterOrder;
+    }
+
+    private WaterOrder.OrderStatus statusOf(WaterOrder waterOrder) throws OrderNotFoundException {
+        return this.repository.getWaterOrderByOrderId(waterOrder.getOrderId()).getStatus();
+    }
+
+    @Test
+    @DisplayName("Deliveries that came due are caught up and the rest are scheduled")
+    @SuppressWarnings("unchecked")
+    public void testRecover() throws OrderNotFoundException {
+        WaterOrder endedRequested = this.addOrder(this.FIXED_LOCAL_NOW.minusHours(2), Duration.ofMinutes(30),
+                WaterOrder.OrderStatus.REQUESTED);
+        WaterOrder endedInProgress = this.addOrder(this.FIXED_LOCAL_NOW.minusHours(1), Duration.ofMinutes(60),
+                WaterOrder.OrderStatus.IN_PROGRESS);
+        WaterOrder startedRequested = this.addOrder(this.FIXED_LOCAL_NOW.minusMinutes(10), Duration.ofMinutes(30),
+                WaterOrder.OrderStatus.REQUESTED);
+        WaterOrder startedInProgress = this.addOrder(this.FIXED_LOCAL_NOW.minusMinutes(50),
+                Duration.ofMinutes(60), WaterOrder.OrderStatus.IN_PROGRESS);
+        WaterOrder future = this.addOrder(this.FIXED_LOCAL_NOW.plusHours(1), Duration.ofMinutes(30),
+                WaterOrder.OrderStatus.REQUESTED);
+        WaterOrder cancelled = this.addOrder(this.FIXED_LOCAL_NOW.minusHours(3), Duration.ofMinutes(30),
+                WaterOrder.OrderStatus.CANCELLED);
+
+        DeliveryScheduleRecovery recovery = this.createRecovery(1000);
+        recovery.recover();
+
+        assertThat(this.statusOf(endedRequested)).isEqualTo(WaterOrder.OrderStatus.DELIVERED);
+        assertThat(this.statusOf(endedInProgress)).isEqualTo(WaterOrder.OrderStatus.DELIVERED);
+        assertThat(this.statusOf(startedRequested)).isEqualTo(WaterOrder.OrderStatus.IN_PROGRESS);
+        assertThat(this.statusOf(startedInProgress)).isEqualTo(WaterOrder.OrderStatus.IN_PROGRESS);
+        assertThat(this.statusOf(future)).isEqualTo(WaterOrder.OrderStatus.REQUESTED);
+        assertThat(this.statusOf(cancelled)).isEqualTo(WaterOrder.OrderStatus.CANCELLED);
+
+        ArgumentCaptor<List<WaterOrder>> scheduledOrders = ArgumentCaptor.forClass(List.class);
+        verify(this.deliveryScheduler).addDeliverySchedules(scheduledOrders.capture());
+        assertThat(scheduledOrders.getValue()).containsExactlyInAnyOrder(startedRequested, startedInProgress,
+                future);
+        assertThat(recovery.getDeliveredCount()).isEqualTo(2);
+        assertThat(recovery.getStartedCount()).isEqualTo(1);
+        assertThat(recovery.getScheduledCount()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Statuses are caught up in batches of the given size")
+    public void testRecoverInBatches() throws OrderNotFoundException {
+        for (int i = 0; i < 5; i++) {
+            this.addOrder(this.FIXED_LOCAL_NOW.minusHours(10 - i), Duration.ofMinutes(30),
+                    WaterOrder.OrderStatus.REQUESTED);
+        }
+
+        DeliveryScheduleRecovery recovery = this.createRecovery(2);
+        recovery.recover();
+
+        verify(this.repository, times(3)).updateOrderstatuses(any(), eq(WaterOrder.OrderStatus.DELIVERED));
+        assertThat(recovery.getDeliveredCount()).isEqualTo(5);
+        assertThat(this.repository.streamPendingOrders()).isEmpty();
+    }
+}
@@ -0,0 +1,144 @@
+package code.challenge.rubicon.services.scheduler;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.MutableClock;
+import code.challenge.rubicon.lifecycle.OrderLifecycleLog;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Compare WaterOrderDeliveryScheduler and TimingWheelDeliveryScheduler holding
+ * one million pending deliveries. Reports heap taken by the pending
+ * deliveries, time to add them, and the latency of a tick that has to start
+ * 10,000 due deliveries while the million others keep waiting.
+ *
+ * Run with "mvn test -Pbenchmark -Dtest=DeliverySchedulerBenchmark".
+ */
+public class DeliverySchedulerBenchmark {
+
+    private static final int PENDING_ORDERS = 1_000_000;
+    private static final int DUE_ORDERS = 10_000;
+
+    private final LocalDateTime now = LocalDateTime.of(2020, 1, 10, 10, 10, 0);
+
+    @Test
+    @DisplayName("Memory and tick latency with one million pending deliveries")
+    public void benchmarkPendingDeliveries() throws Exception {
+        // WaterOrder logs every status change on console. Discard it while
+        // measuring.
+        PrintStream console = System.out;
+        OrderLifecycleLog.install(new OrderLifecycleLog(OrderLifecycleLog.DEFAULT_CAPACITY,
+                OrderLifecycleLog.DEFAULT_BATCH_SIZE, OrderLifecycleLog.OverflowPolicy.BLOCK,
+                new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+                })));
+        try {
+            List<WaterOrder> pendingOrders = new ArrayList<>();
+            for (int i = 0; i < PENDING_ORDERS; i++) {
+                // One order per second starting in a day.
+                pendingOrders.add(new WaterOrder("pending" + i, "farm" + (i % 1000),
+                        this.now.plusDays(1).plusSeconds(i), Duration.ofMinutes(30), WaterOrder.OrderStatus.REQUESTED));
+            }
+            List<WaterOrder> dueOrders = new ArrayList<>();
+            for (int i = 0; i < DUE_ORDERS; i++) {
+                dueOrders.add(new WaterOrder("due" + i, "farm" + i, this.now, Duration.ofHours(1),
+                        WaterOrder.OrderStatus.REQUESTED));
+            }
+
+            console.println(String.format("%-30s %14s %14s %18s", "scheduler", "heap (MB)", "add 1M (ms)",
+                    "10k due tick (ms)"));
+            this.benchmarkExecutorScheduler(console, pendingOrders, dueOrders);
+            this.benchmarkTimingWheelScheduler(console, pendingOrders, dueOrders);
+        } finally {
+            OrderLifecycleLog.install(null);
+        }
+    }
+
+    private void benchmarkExecutorScheduler(PrintStream console, List<WaterOrder> pendingOrders,
+            List<WaterOrder> dueOrders) throws Exception {
+        CountDownLatch dueStarted = new CountDownLatch(DUE_ORDERS);
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        Clock clock = Clock.fixed(this.now.atZone(ZoneId.systemDefault()).toInstant(), ZoneId.systemDefault());
+        WaterOrderDeliveryScheduler scheduler = new WaterOrderDeliveryScheduler((orderId, status) -> {
+            if (status == WaterOrder.OrderStatus.IN_PROGRESS) {
+                dueStarted.countDown();
+            }
+        }, Optional.of(executor), Optional.of(clock));
+
+        long heapBefore = usedHeap();
+        long addStart = System.nanoTime();
+        for (WaterOrder order : pendingOrders) {
+            scheduler.addDeliverySchedule(order);
+        }
+        long addNanos = System.nanoTime() - addStart;
+        long heapAfter = usedHeap();
+
+        // Due orders are handed to the executor with no delay. Measure until all
+        // of them have been started.
+        long tickStart = System.nanoTime();
+        for (WaterOrder order : dueOrders) {
+            scheduler.addDeliverySchedule(order);
+        }
+        dueStarted.await();
+        long tickNanos = System.nanoTime() - tickStart;
+
+        console.println(String.format("%-30s %14.1f %14d %18.2f", "WaterOrderDeliveryScheduler",
+                (heapAfter - heapBefore) / 1024.0 / 1024.0, addNanos / 1_000_000, tickNanos / 1_000_000.0));
+        executor.shutdownNow();
+    }
+
+    private void benchmarkTimingWheelScheduler(PrintStream console, List<WaterOrder> pendingOrders,
+            List<WaterOrder> dueOrders) throws Exception {
+        MutableClock clock = new MutableClock(this.now.atZone(ZoneId.systemDefault()).toInstant(),
+                ZoneId.systemDefault());
+        // The wheel is advanced by hand below so the ticker executor is a mock.
+        TimingWheelDeliveryScheduler scheduler = new TimingWheelDeliveryScheduler((orderId, status) -> {
+        }, Optional.of(mock(ScheduledExecutorService.class)), Optional.of(clock));
+
+        long heapBefore = usedHeap();
+        long addStart = System.nanoTime();
+        for (WaterOrder order : pendingOrders) {
+            scheduler.addDeliverySchedule(order);
+        }
+        long addNanos = System.nanoTime() - addStart;
+        long heapAfter = usedHeap();
+
+        for (WaterOrder order : dueOrders) {
+            scheduler.addDeliverySchedule(order);
+        }
+        clock.advance(Duration.ofSeconds(1));
+        long tickStart = System.nanoTime();
+        scheduler.advance();
+        long tickNanos = System.nanoTime() - tickStart;
+
+        console.println(String.format("%-30s %14.1f %14d %18.2f", "TimingWheelDeliveryScheduler",
+                (heapAfter - heapBefore) / 1024.0 / 1024.0, addNanos / 1_000_000, tickNanos / 1_000_000.0));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,112 @@
+package code.challenge.rubicon.services.scheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.MutableClock;
+import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.model.WaterOrder;
+
+/**
+ * Simulate weeks of order creation and cancellation on the injected Clock and
+ * check that scheduler keeps only live deliveries, so its memory stays flat.
+ */
+public class DeliverySchedulerSoakTests {
+
+    private static final int SIMULATED_DAYS = 28;
+    private static final Duration STEP = Duration.ofMinutes(10);
+    private static final int ORDERS_PER_STEP = 4;
+
+    private final LocalDateTime startTime = LocalDateTime.of(2020, 1, 10, 0, 0, 0);
+
+    @Test
+    @DisplayName("Scheduler holds only live deliveries over 4 weeks of create/cancel churn")
+    public void testCreateCancelChurn() throws Exception {
+        this.runChurn(Duration.ZERO);
+    }
+
+    @Test
+    @DisplayName("Scheduler with horizon holds only live deliveries over 4 weeks of create/cancel churn")
+    public void testCreateCancelChurnWithHorizon() throws Exception {
+        this.runChurn(Duration.ofHours(24));
+    }
+
+    private void runChurn(Duration horizon) throws DeliveryTaskNotFoundException, OrderNotFoundException {
+        MutableClock clock = new MutableClock(this.startTime.atZone(ZoneId.systemDefault()).toInstant(),
+                ZoneId.systemDefault());
+        SimulatedScheduledExecutor executor = new SimulatedScheduledExecutor(clock);
+        // Orders which are neither delivered nor cancelled.
+        Set<String> liveOrders = new HashSet<>();
+        Set<String> startedOrders = new HashSet<>();
+        WaterOrderDeliveryScheduler scheduler = new WaterOrderDeliveryScheduler((orderId, status) -> {
+            if (status == WaterOrder.OrderStatus.IN_PROGRESS) {
+                startedOrders.add(orderId);
+            } else {
+                liveOrders.remove(orderId);
+            }
+        }, Optional.of(executor), Optional.of(clock), horizon);
+
+        Random random = new Random(7);
+        // Cancellations to make by time.
+        TreeMap<LocalDateTime, String> cancellations = new TreeMap<>();
+        int maxLiveInFirstWeek = 0;
+        int maxLiveInLastWeek = 0;
+        int orderCount = 0;
+
+        long steps = Duration.ofDays(SIMULATED_DAYS).getSeconds() / STEP.getSeconds();
+        for (long step = 0; step < steps; step++) {
+            LocalDateTime now = LocalDateTime.now(clock);
+            for (int i = 0; i < ORDERS_PER_STEP; i++) {
+                String orderId = "orderId" + orderCount++;
+                LocalDateTime orderStart = now.plusMinutes(10 + random.nextInt(3 * 24 * 60));
+                scheduler.addDeliverySchedule(new WaterOrder(orderId, "farmId" + (orderCount % 50), orderStart,
+                        Duration.ofMinutes(30 + random.nextInt(90)), WaterOrder.OrderStatus.REQUESTED));
+                liveOrders.add(orderId);
+                // Cancel half of the orders some time before they start.
+                if (random.nextBoolean()) {
+                    long minutesUntilStart = Duration.between(now, orderStart).toMinutes();
+                    cancellations.put(now.plusMinutes(random.nextInt((int) minutesUntilStart)).plusNanos(orderCount),
+                            orderId);
+                }
+            }
+
+            clock.advance(STEP);
+            LocalDateTime stepEnd = LocalDateTime.now(clock);
+            while (!cancellations.isEmpty() && !cancellations.firstKey().isAfter(stepEnd)) {
+                String orderId = cancellations.pollFirstEntry().getValue();
+                if (!startedOrders.contains(orderId)) {
+                    scheduler.cancelDeliverySchdule(orderId);
+                }
+            }
+            executor.runDueTasks();
+
+            assertThat(scheduler.getScheduledDeliveryCount()).isEqualTo(liveOrders.size());
+            // 2 timers at most for each live delivery plus the horizon sweep.
+            assertThat(executor.getQueueSize()).isLessThanOrEqualTo(2 * liveOrders.size() + 1);
+            assertThat(scheduler.getDeferredDeliveryCount()).isLessThanOrEqualTo(2 * liveOrders.size());
+
+            long day = step * STEP.getSeconds() / Duration.ofDays(1).getSeconds();
+            if (day < 7) {
+                maxLiveInFirstWeek = Math.max(maxLiveInFirstWeek, liveOrders.size());
+            } else if (day >= SIMULATED_DAYS - 7) {
+                maxLiveInLastWeek = Math.max(maxLiveInLastWeek, liveOrders.size());
+            }
+        }
+
+        // Number of live deliveries levels off once the first orders get
+        // delivered. It must not keep growing with the number of orders placed.
+        assertThat(maxLiveInLastWeek).isLessThanOrEqualTo(maxLiveInFirstWeek * 5 / 4);
+    }
+}
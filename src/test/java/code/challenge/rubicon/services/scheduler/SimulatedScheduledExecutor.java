@@ -0,0 +1,167 @@
+package code.challenge.rubicon.services.scheduler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import code.challenge.rubicon.MutableClock;
+
+/**
+ * ScheduledExecutorService for tests which runs tasks on the caller's thread
+ * when runDueTasks() is called, according to the given MutableClock. Cancelled
+ * tasks are removed from the queue straight away like a
+ * ScheduledThreadPoolExecutor with remove-on-cancel policy.
+ */
+class SimulatedScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final MutableClock clock;
+    private final PriorityQueue<SimulatedTask> queue = new PriorityQueue<>();
+    private long sequence;
+
+    SimulatedScheduledExecutor(MutableClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Run every task due at the clock's current time.
+     */
+    void runDueTasks() {
+        long now = this.clock.millis();
+        while (!this.queue.isEmpty() && this.queue.peek().dueMillis <= now) {
+            SimulatedTask task = this.queue.poll();
+            task.command.run();
+            if (task.periodMillis > 0 && !task.cancelled) {
+                task.dueMillis += task.periodMillis;
+                this.queue.add(task);
+            } else {
+                task.done = true;
+            }
+        }
+    }
+
+    int getQueueSize() {
+        return this.queue.size();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return this.enqueue(command, unit.toMillis(delay), 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return this.enqueue(command, unit.toMillis(initialDelay), unit.toMillis(period));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+            TimeUnit unit) {
+        return this.enqueue(command, unit.toMillis(initialDelay), unit.toMillis(delay));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+
+    private SimulatedTask enqueue(Runnable command, long delayMillis, long periodMillis) {
+        SimulatedTask task = new SimulatedTask(command, this.clock.millis() + delayMillis, periodMillis,
+                this.sequence++);
+        this.queue.add(task);
+        return task;
+    }
+
+    private class SimulatedTask implements ScheduledFuture<Object> {
+        private final Runnable command;
+        private final long periodMillis;
+        private final long sequence;
+        private long dueMillis;
+        private boolean cancelled;
+        private boolean done;
+
+        SimulatedTask(Runnable command, long dueMillis, long periodMillis, long sequence) {
+            this.command = command;
+            this.dueMillis = dueMillis;
+            this.periodMillis = periodMillis;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.dueMillis - SimulatedScheduledExecutor.this.clock.millis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            SimulatedTask otherTask = (SimulatedTask) other;
+            int result = Long.compare(this.dueMillis, otherTask.dueMillis);
+            return result != 0 ? result : Long.compare(this.sequence, otherTask.sequence);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (this.done || this.cancelled) {
+                return false;
+            }
+            this.cancelled = true;
+            SimulatedScheduledExecutor.this.queue.remove(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.done || this.cancelled;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package code.challenge.rubicon.services.scheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import code.challenge.rubicon.MutableClock;
+import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
+import code.challenge.rubicon.exceptions.OrderNotFoundException;
+import code.challenge.rubicon.model.WaterOrder;
+import code.challenge.rubicon.services.orderstatus.IWaterOrderStatusHelper;
+
+public class TimingWheelDeliverySchedulerTests {
+    private TimingWheelDeliveryScheduler scheduler;
+
+    private ScheduledExecutorService executorService;
+    private IWaterOrderStatusHelper statusUpdater;
+
+    private LocalDateTime FIXED_LOCAL_NOW = LocalDateTime.of(2020, 1, 10, 10, 10, 0);
+
+    private MutableClock clock = new MutableClock(this.FIXED_LOCAL_NOW.atZone(ZoneId.systemDefault()).toInstant(),
+            ZoneId.systemDefault());
+
+    @BeforeEach
+    public void initEach() {
+        this.statusUpdater = mock(IWaterOrderStatusHelper.class);
+        this.executorService = mock(ScheduledExecutorService.class);
+
+        this.scheduler = new TimingWheelDeliveryScheduler(this.statusUpdater, Optional.of(this.executorService),
+                Optional.of(this.clock));
+    }
+
+    private WaterOrder createOrder(String orderId, LocalDateTime startDateTime, Duration duration) {
+        return new WaterOrder(orderId, "farmId1", startDateTime, duration, WaterOrder.OrderStatus.REQUESTED);
+    }
+
+    @Test
+    @DisplayName("Wheel is advanced every second by the given executor")
+    public void testTickerIsScheduled() {
+        verify(this.executorService).scheduleAtFixedRate(any(Runnable.class), eq(1L), eq(1L), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Order status is updated at start time and end time")
+    public void testDeliveryStartsAndFinishes() throws OrderNotFoundException {
+        this.scheduler.addDeliverySchedule(this.createOrder("orderId1", this.FIXED_LOCAL_NOW.plusSeconds(300),
+                Duration.ofSeconds(10)));
+
+        this.clock.advance(Duration.ofSeconds(299));
+        this.scheduler.advance();
+        verify(this.statusUpdater, never()).updateOrderstatus(any(), any());
+
+        this.clock.advance(Duration.ofSeconds(1));
+        this.scheduler.advance();
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.IN_PROGRESS));
+
+        this.clock.advance(Duration.ofSeconds(9));
+        this.scheduler.advance();
+        verify(this.statusUpdater, never()).updateOrderstatus(any(), eq(WaterOrder.OrderStatus.DELIVERED));
+
+        this.clock.advance(Duration.ofSeconds(1));
+        this.scheduler.advance();
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.DELIVERED));
+        assertThat(this.scheduler.getScheduledDeliveryCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Deliveries added at once are all scheduled and ones in progress only finish")
+    public void testAddDeliverySchedules() throws OrderNotFoundException {
+        WaterOrder requested = this.createOrder("orderId1", this.FIXED_LOCAL_NOW.plusSeconds(5),
+                Duration.ofSeconds(10));
+        WaterOrder inProgress = new WaterOrder("orderId2", "farmId1", this.FIXED_LOCAL_NOW.minusSeconds(60),
+                Duration.ofSeconds(120), WaterOrder.OrderStatus.IN_PROGRESS);
+
+        this.scheduler.addDeliverySchedules(Arrays.asList(requested, inProgress));
+        assertThat(this.scheduler.getScheduledDeliveryCount()).isEqualTo(2);
+
+        this.clock.advance(Duration.ofSeconds(60));
+        this.scheduler.advance();
+
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.IN_PROGRESS));
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.DELIVERED));
+        verify(this.statusUpdater, never()).updateOrderstatus(eq("orderId2"), eq(WaterOrder.OrderStatus.IN_PROGRESS));
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId2"), eq(WaterOrder.OrderStatus.DELIVERED));
+        assertThat(this.scheduler.getScheduledDeliveryCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Orders far in the future are moved down the wheel and start on time")
+    public void testFarFutureDelivery() throws OrderNotFoundException {
+        // 40 days and a bit goes to a higher level of the wheel.
+        Duration delay = Duration.ofDays(40).plusSeconds(12345);
+        this.scheduler.addDeliverySchedule(
+                this.createOrder("orderId1", this.FIXED_LOCAL_NOW.plus(delay), Duration.ofHours(3)));
+
+        this.clock.advance(delay.minusSeconds(1));
+        this.scheduler.advance();
+        verify(this.statusUpdater, never()).updateOrderstatus(any(), any());
+
+        this.clock.advance(Duration.ofSeconds(1));
+        this.scheduler.advance();
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.IN_PROGRESS));
+
+        this.clock.advance(Duration.ofHours(3).minusSeconds(1));
+        this.scheduler.advance();
+        verify(this.statusUpdater, never()).updateOrderstatus(any(), eq(WaterOrder.OrderStatus.DELIVERED));
+
+        this.clock.advance(Duration.ofSeconds(1));
+        this.scheduler.advance();
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.DELIVERED));
+    }
+
+    @Test
+    @DisplayName("Order whose start time has already passed starts on the next tick")
+    public void testPastStartTime() throws OrderNotFoundException {
+        this.scheduler.addDeliverySchedule(this.createOrder("orderId1", this.FIXED_LOCAL_NOW.minusSeconds(30),
+                Duration.ofSeconds(10)));
+
+        this.scheduler.advance();
+
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.IN_PROGRESS));
+    }
+
+    @Test
+    @DisplayName("Cancelled delivery doesn't start and the order is cancelled")
+    public void testCancelDeliverySchedule() throws DeliveryTaskNotFoundException, OrderNotFoundException {
+        this.scheduler.addDeliverySchedule(this.createOrder("orderId1", this.FIXED_LOCAL_NOW.plusSeconds(300),
+                Duration.ofSeconds(10)));
+        this.scheduler.addDeliverySchedule(this.createOrder("orderId2", this.FIXED_LOCAL_NOW.plusSeconds(300),
+                Duration.ofSeconds(10)));
+
+        this.scheduler.cancelDeliverySchdule("orderId1");
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.CANCELLED));
+
+        this.clock.advance(Duration.ofSeconds(310));
+        this.scheduler.advance();
+
+        verify(this.statusUpdater, never()).updateOrderstatus(eq("orderId1"), eq(WaterOrder.OrderStatus.IN_PROGRESS));
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId2"), eq(WaterOrder.OrderStatus.DELIVERED));
+        assertThat(this.scheduler.getScheduledDeliveryCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("cancelDeliverySchedule throws DeliveryTaskNotFoundException if the task cannot be found.")
+    public void testCancelUnknownDeliverySchedule() {
+        assertThatThrownBy(() -> this.scheduler.cancelDeliverySchdule("unknownOrderId"))
+                .isInstanceOf(DeliveryTaskNotFoundException.class).hasMessageContaining("Cannot find delivery task")
+                .hasFieldOrPropertyWithValue("idName", "orderId");
+    }
+
+    @Test
+    @DisplayName("Every delivery starts and finishes exactly on time while the wheel turns over all levels")
+    public void testManyDeliveriesAreOnTime() {
+        Map<String, LocalDateTime> startedTimes = new HashMap<>();
+        Map<String, LocalDateTime> finishedTimes = new HashMap<>();
+        this.scheduler = new TimingWheelDeliveryScheduler((orderId, status) -> {
+            LocalDateTime now = LocalDateTime.now(this.clock);
+            (status == WaterOrder.OrderStatus.IN_PROGRESS ? startedTimes : finishedTimes).put(orderId, now);
+        }, Optional.of(this.executorService), Optional.of(this.clock));
+
+        Random random = new Random(42);
+        Map<String, WaterOrder> orders = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            WaterOrder order = this.createOrder("orderId" + i,
+                    this.FIXED_LOCAL_NOW.plusSeconds(random.nextInt(20 * 24 * 3600)),
+                    Duration.ofSeconds(1 + random.nextInt(6 * 3600)));
+            orders.put(order.getOrderId(), order);
+            this.scheduler.addDeliverySchedule(order);
+        }
+
+        for (int second = 0; second < 21 * 24 * 3600; second++) {
+            this.clock.advance(Duration.ofSeconds(1));
+            this.scheduler.advance();
+        }
+
+        for (WaterOrder order : orders.values()) {
+            assertThat(startedTimes.get(order.getOrderId())).isEqualTo(order.getStartDateTime());
+            assertThat(finishedTimes.get(order.getOrderId()))
+                    .isEqualTo(order.getStartDateTime().plus(order.getDuration()));
+        }
+        assertThat(this.scheduler.getScheduledDeliveryCount()).isEqualTo(0);
+    }
+}
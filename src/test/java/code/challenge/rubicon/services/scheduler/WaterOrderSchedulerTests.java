@@ -1,9 +1,12 @@
 package code.challenge.rubicon.services.scheduler;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -11,6 +14,7 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -20,6 +24,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import code.challenge.rubicon.MutableClock;
 import code.challenge.rubicon.exceptions.DeliveryTaskNotFoundException;
 import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.model.WaterOrder;
@@ -57,6 +62,23 @@ public class WaterOrderSchedulerTests {
         verify(this.executorService).schedule(any(Runnable.class), eq(310L), eq(TimeUnit.SECONDS));
     }
 
+    @Test
+    @DisplayName("addDeliverySchedules schedules only the end of deliveries already in progress")
+    public void testAddDeliverySchedules() {
+        WaterOrder requested = new WaterOrder("orderId1", "farmId1", LocalDateTime.of(2020, 1, 10, 10, 15),
+                Duration.ofSeconds(10), WaterOrder.OrderStatus.REQUESTED);
+        WaterOrder inProgress = new WaterOrder("orderId2", "farmId1", LocalDateTime.of(2020, 1, 10, 10, 9),
+                Duration.ofSeconds(120), WaterOrder.OrderStatus.IN_PROGRESS);
+
+        this.scheduler.addDeliverySchedules(Arrays.asList(requested, inProgress));
+
+        verify(this.executorService).schedule(any(Runnable.class), eq(300L), eq(TimeUnit.SECONDS));
+        verify(this.executorService).schedule(any(Runnable.class), eq(310L), eq(TimeUnit.SECONDS));
+        verify(this.executorService, never()).schedule(any(Runnable.class), eq(-60L), eq(TimeUnit.SECONDS));
+        verify(this.executorService).schedule(any(Runnable.class), eq(60L), eq(TimeUnit.SECONDS));
+        assertThat(this.scheduler.getScheduledDeliveryCount()).isEqualTo(2);
+    }
+
     @Test
     @DisplayName("cancelDeliverySchedule schedules taks correctly")
     public void testCancelDeliverySchedule() throws DeliveryTaskNotFoundException, OrderNotFoundException {
@@ -88,4 +110,55 @@ public class WaterOrderSchedulerTests {
                 .isInstanceOf(DeliveryTaskNotFoundException.class).hasMessageContaining("Cannot find delivery task")
                 .hasFieldOrPropertyWithValue("idName", "orderId");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("With a horizon, deliveries beyond the horizon get timers only when a sweep promotes them")
+    public void testDeliveryBeyondHorizonIsDeferred() {
+        MutableClock clock = new MutableClock(this.FIXED_LOCAL_NOW.atZone(ZoneId.systemDefault()).toInstant(),
+                ZoneId.systemDefault());
+        this.scheduler = new WaterOrderDeliveryScheduler(this.statusUpdater, Optional.of(this.executorService),
+                Optional.of(clock), Duration.ofHours(1));
+        // Sweep runs every half horizon.
+        verify(this.executorService).scheduleAtFixedRate(any(Runnable.class), eq(1800L), eq(1800L),
+                eq(TimeUnit.SECONDS));
+
+        WaterOrder nearOrder = new WaterOrder("orderId1", "farmId1", this.FIXED_LOCAL_NOW.plusMinutes(30),
+                Duration.ofSeconds(10), WaterOrder.OrderStatus.REQUESTED);
+        WaterOrder farOrder = new WaterOrder("orderId2", "farmId1", this.FIXED_LOCAL_NOW.plusHours(2),
+                Duration.ofSeconds(10), WaterOrder.OrderStatus.REQUESTED);
+        this.scheduler.addDeliverySchedule(nearOrder);
+        this.scheduler.addDeliverySchedule(farOrder);
+
+        verify(this.executorService).schedule(any(Runnable.class), eq(1800L), eq(TimeUnit.SECONDS));
+        verify(this.executorService, never()).schedule(any(Runnable.class), eq(7200L), eq(TimeUnit.SECONDS));
+
+        // Not within the horizon yet.
+        clock.advance(Duration.ofMinutes(30));
+        this.scheduler.promoteDeferredDeliveries();
+        verify(this.executorService, never()).schedule(any(Runnable.class), eq(5400L), eq(TimeUnit.SECONDS));
+
+        clock.advance(Duration.ofMinutes(30));
+        this.scheduler.promoteDeferredDeliveries();
+        verify(this.executorService).schedule(any(Runnable.class), eq(3600L), eq(TimeUnit.SECONDS));
+        verify(this.executorService).schedule(any(Runnable.class), eq(3610L), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Cancelled deferred delivery is cancelled and never gets timers")
+    public void testCancelDeferredDelivery() throws DeliveryTaskNotFoundException, OrderNotFoundException {
+        MutableClock clock = new MutableClock(this.FIXED_LOCAL_NOW.atZone(ZoneId.systemDefault()).toInstant(),
+                ZoneId.systemDefault());
+        this.scheduler = new WaterOrderDeliveryScheduler(this.statusUpdater, Optional.of(this.executorService),
+                Optional.of(clock), Duration.ofHours(1));
+        WaterOrder farOrder = new WaterOrder("orderId2", "farmId1", this.FIXED_LOCAL_NOW.plusHours(2),
+                Duration.ofSeconds(10), WaterOrder.OrderStatus.REQUESTED);
+        this.scheduler.addDeliverySchedule(farOrder);
+
+        this.scheduler.cancelDeliverySchdule("orderId2");
+        verify(this.statusUpdater).updateOrderstatus(eq("orderId2"), eq(WaterOrder.OrderStatus.CANCELLED));
+
+        clock.advance(Duration.ofHours(2));
+        this.scheduler.promoteDeferredDeliveries();
+        verify(this.executorService, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+}
@@ -2,19 +2,20 @@ package code.challenge.rubicon.services.validator;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Optional;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
-import code.challenge.rubicon.exceptions.OrderNotFoundException;
 import code.challenge.rubicon.model.WaterOrder;
 import code.challenge.rubicon.services.WaterOrderRequestAction;
 import code.challenge.rubicon.services.repository.IWaterOrderReadonlyRepository;
@@ -24,6 +25,9 @@ public class DeliveryTimeOverlapValidatorTests {
 
     private DeliveryTimeOverlapValidator validator;
 
+    private final WaterOrder existingOrder = new WaterOrder("orderId1", "farmId1",
+            LocalDateTime.of(2020, 1, 1, 10, 10, 10), Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED);
+
     @BeforeEach
     public void initEach() {
         this.repository = mock(IWaterOrderReadonlyRepository.class);
@@ -32,56 +36,40 @@ public class DeliveryTimeOverlapValidatorTests {
     }
 
     @Test
-    @DisplayName("Given order's end time overlaps existing order's delivery duation")
-    public void testpValidityViolationEndTimeOverlaps() throws OrderNotFoundException {
-        WaterOrder existingOrder = new WaterOrder("orderId1", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 10, 10),
-                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED);
-        WaterOrder anotherDummyOrder = new WaterOrder("orderId1", "farmId2", LocalDateTime.of(2020, 1, 1, 10, 10, 10),
-                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED);
-        ArrayList<WaterOrder> orders = new ArrayList<>();
-        orders.add(existingOrder);
-        orders.add(anotherDummyOrder);
-
+    @DisplayName("Given order's delivery time overlaps existing order's delivery duation")
+    public void testpValidityViolationOverlaps() {
         WaterOrder newOrder = new WaterOrder("orderId2", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 10, 0),
                 Duration.ofSeconds(30), WaterOrder.OrderStatus.REQUESTED);
 
-        when(this.repository.getWaterOrderByFarmrId(any())).thenReturn(orders);
+        when(this.repository.findOverlappingOrder(any(), any(), any())).thenReturn(Optional.of(this.existingOrder));
 
         Optional<String> validityMsg = this.validator.checkValidity(newOrder, WaterOrderRequestAction.CREATE);
 
-        assertThat(validityMsg.get()).contains("Delivery time of the new order overlaps existing order");
+        assertThat(validityMsg.get()).contains("Delivery time of the new order overlaps existing order")
+                .contains(this.existingOrder.getOrderId());
     }
 
     @Test
-    @DisplayName("Given order's start time overlaps existing order's delivery duation")
-    public void testpValidityViolationStartTimeOverlaps() throws OrderNotFoundException {
-        WaterOrder existingOrder = new WaterOrder("orderId1", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 10, 10),
-                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED);
-        ArrayList<WaterOrder> orders = new ArrayList<>();
-        orders.add(existingOrder);
-
+    @DisplayName("Overlapping order is searched with given order's farm id and delivery time")
+    public void testpValidityCheckSearchesWithGivenOrder() {
         WaterOrder newOrder = new WaterOrder("orderId2", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 11, 0),
                 Duration.ofSeconds(30), WaterOrder.OrderStatus.REQUESTED);
 
-        when(this.repository.getWaterOrderByFarmrId(any())).thenReturn(orders);
+        when(this.repository.findOverlappingOrder(any(), any(), any())).thenReturn(Optional.empty());
 
-        Optional<String> validityMsg = this.validator.checkValidity(newOrder, WaterOrderRequestAction.CREATE);
+        this.validator.checkValidity(newOrder, WaterOrderRequestAction.CREATE);
 
-        assertThat(validityMsg.get()).contains("Delivery time of the new order overlaps existing order");
+        verify(this.repository).findOverlappingOrder(eq("farmId1"), eq(LocalDateTime.of(2020, 1, 1, 10, 11, 0)),
+                eq(Duration.ofSeconds(30)));
     }
 
     @Test
     @DisplayName("Given order's duration doesn't overlaps existing order's delivery duation")
-    public void testpValidityViolationNoOverlaps() throws OrderNotFoundException {
-        WaterOrder existingOrder = new WaterOrder("orderId1", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 10, 10),
-                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED);
-        ArrayList<WaterOrder> orders = new ArrayList<>();
-        orders.add(existingOrder);
-
+    public void testpValidityViolationNoOverlaps() {
         WaterOrder newOrder = new WaterOrder("orderId2", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 11, 30),
                 Duration.ofSeconds(30), WaterOrder.OrderStatus.REQUESTED);
 
-        when(this.repository.getWaterOrderByFarmrId(any())).thenReturn(orders);
+        when(this.repository.findOverlappingOrder(any(), any(), any())).thenReturn(Optional.empty());
 
         Optional<String> validityMsg = this.validator.checkValidity(newOrder, WaterOrderRequestAction.CREATE);
 
@@ -90,20 +78,16 @@ public class DeliveryTimeOverlapValidatorTests {
 
     @Test
     @DisplayName("Skip checking if it's not CREATE action")
-    public void testpValidityViolationNoCreateAction() throws OrderNotFoundException {
-        WaterOrder existingOrder = new WaterOrder("orderId1", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 10, 10),
-                Duration.ofSeconds(60), WaterOrder.OrderStatus.REQUESTED);
-        ArrayList<WaterOrder> orders = new ArrayList<>();
-        orders.add(existingOrder);
-
+    public void testpValidityViolationNoCreateAction() {
         // Duration overlaps
         WaterOrder newOrder = new WaterOrder("orderId2", "farmId1", LocalDateTime.of(2020, 1, 1, 10, 11, 0),
                 Duration.ofSeconds(30), WaterOrder.OrderStatus.REQUESTED);
 
-        when(this.repository.getWaterOrderByFarmrId(any())).thenReturn(orders);
+        when(this.repository.findOverlappingOrder(any(), any(), any())).thenReturn(Optional.of(this.existingOrder));
 
         Optional<String> validityMsg = this.validator.checkValidity(newOrder, WaterOrderRequestAction.CANCEL);
 
         assertThat(validityMsg).isEmpty();
+        verify(this.repository, never()).findOverlappingOrder(any(), any(), any());
     }
-}
\ No newline at end of file
+}